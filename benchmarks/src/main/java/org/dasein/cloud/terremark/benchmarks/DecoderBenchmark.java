@@ -0,0 +1,188 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.terremark.benchmarks;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+import org.dasein.cloud.terremark.Terremark;
+import org.dasein.cloud.terremark.compute.Template;
+import org.dasein.cloud.terremark.compute.VMSupport;
+import org.dasein.cloud.terremark.network.FirewallRule;
+import org.dasein.cloud.terremark.network.TerremarkIpAddressSupport;
+import org.dasein.cloud.terremark.standin.SyntheticInventory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Measures the converters that turn Terremark XML into Dasein objects, run over the recorded {@link Fixtures} of a
+ * small, medium, and large environment. Each benchmark decodes everything one listing call would decode: every VM
+ * in the environment, every public IP, every IP address of every network, every firewall ACL, and every template.
+ * The documents are parsed once during setup so that only the converters are measured, with the exception of
+ * {@link #getLayout(Blackhole)}, which makes the whole API call against the in-memory {@link FixtureTransport}.
+ * The converters are private to the driver and are called through reflection; the lookup is done once in setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DecoderBenchmark {
+	@Param({ Fixtures.SMALL, Fixtures.MEDIUM, Fixtures.LARGE })
+	public String size;
+
+	private VMSupport                 vmSupport;
+	private TerremarkIpAddressSupport ipSupport;
+	private FirewallRule              firewallSupport;
+	private Template                  imageSupport;
+
+	private Method toVirtualMachine;
+	private Method getLayout;
+	private Method toPublicIp;
+	private Method getIpAddresses;
+	private Method toFirewallRule;
+	private Method templateToMachineImage;
+
+	private Node[]     virtualMachines;
+	private Node[]     publicIps;
+	private Document[] networks;
+	private String[]   networkIds;
+	private Node[]     firewallAcls;
+	private Document[] templates;
+
+	@Setup
+	public void setup() throws Exception {
+		Fixtures.quietLogging();
+
+		Fixtures fixtures = Fixtures.record(size);
+		SyntheticInventory inventory = fixtures.getInventory();
+		Terremark provider = fixtures.connect();
+
+		vmSupport = provider.getComputeServices().getVirtualMachineSupport();
+		ipSupport = provider.getNetworkServices().getIpAddressSupport();
+		firewallSupport = provider.getNetworkServices().getFirewallSupport();
+		imageSupport = provider.getComputeServices().getImageSupport();
+
+		toVirtualMachine = converter(VMSupport.class, "toVirtualMachine", Node.class);
+		getLayout = converter(VMSupport.class, "getLayout", String.class);
+		toPublicIp = converter(TerremarkIpAddressSupport.class, "toPublicIp", Node.class);
+		getIpAddresses = converter(TerremarkIpAddressSupport.class, "getIpAddresses", Document.class, String.class, boolean.class, boolean.class);
+		toFirewallRule = converter(FirewallRule.class, "toFirewallRule", Node.class);
+		templateToMachineImage = converter(Template.class, "templateToMachineImage", Document.class);
+
+		virtualMachines = new Node[inventory.getVirtualMachines().size()];
+		for( int i=0; i<virtualMachines.length; i++ ) {
+			virtualMachines[i] = fixtures.parse("/virtualMachines/" + (i + 1)).getElementsByTagName(VMSupport.VIRTUAL_MACHINE_TAG).item(0);
+		}
+		publicIps = elements(fixtures.parse("/publicIps/environments/" + SyntheticInventory.ENVIRONMENT_ID), TerremarkIpAddressSupport.PUBLIC_IP_TAG);
+		networks = new Document[inventory.getNetworkCount()];
+		networkIds = new String[networks.length];
+		for( int i=0; i<networks.length; i++ ) {
+			networkIds[i] = String.valueOf(i + 1);
+			networks[i] = fixtures.parse("/networks/" + networkIds[i]);
+		}
+		firewallAcls = elements(fixtures.parse("/firewallAcls/environments/" + SyntheticInventory.ENVIRONMENT_ID), "FirewallAcl");
+		templates = new Document[inventory.getTemplateCount()];
+		for( int i=0; i<templates.length; i++ ) {
+			templates[i] = fixtures.parse("/templates/" + (i + 1) + "/computePools/1");
+		}
+	}
+
+	@Benchmark
+	public void toVirtualMachine(Blackhole blackhole) throws Throwable {
+		for( Node vm : virtualMachines ) {
+			blackhole.consume(invoke(toVirtualMachine, vmSupport, vm));
+		}
+	}
+
+	@Benchmark
+	public void getLayout(Blackhole blackhole) throws Throwable {
+		blackhole.consume(invoke(getLayout, vmSupport, SyntheticInventory.ENVIRONMENT_ID));
+	}
+
+	@Benchmark
+	public void toPublicIp(Blackhole blackhole) throws Throwable {
+		for( Node ip : publicIps ) {
+			blackhole.consume(invoke(toPublicIp, ipSupport, ip));
+		}
+	}
+
+	@Benchmark
+	public void getIpAddresses(Blackhole blackhole) throws Throwable {
+		for( int i=0; i<networks.length; i++ ) {
+			blackhole.consume(invoke(getIpAddresses, ipSupport, networks[i], networkIds[i], false, false));
+		}
+	}
+
+	@Benchmark
+	public void toFirewallRule(Blackhole blackhole) throws Throwable {
+		for( Node acl : firewallAcls ) {
+			blackhole.consume(invoke(toFirewallRule, firewallSupport, acl));
+		}
+	}
+
+	@Benchmark
+	public void templateToMachineImage(Blackhole blackhole) throws Throwable {
+		for( Document template : templates ) {
+			blackhole.consume(invoke(templateToMachineImage, imageSupport, template));
+		}
+	}
+
+	static Method converter(Class<?> type, String name, Class<?>... parameterTypes) throws NoSuchMethodException {
+		Method method = type.getDeclaredMethod(name, parameterTypes);
+
+		method.setAccessible(true);
+		return method;
+	}
+
+	static Object invoke(Method method, Object target, Object... args) throws Throwable {
+		try {
+			return method.invoke(target, args);
+		}
+		catch( InvocationTargetException e ) {
+			throw e.getCause();
+		}
+	}
+
+	static private Node[] elements(Document doc, String tagName) {
+		NodeList list = doc.getElementsByTagName(tagName);
+		Node[] nodes = new Node[list.getLength()];
+
+		for( int i=0; i<nodes.length; i++ ) {
+			nodes[i] = list.item(i);
+		}
+		return nodes;
+	}
+}
@@ -0,0 +1,131 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.terremark.benchmarks;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.message.BasicStatusLine;
+import org.apache.http.util.EntityUtils;
+import org.dasein.cloud.terremark.Terremark;
+import org.dasein.cloud.terremark.Transport;
+import org.dasein.cloud.terremark.compute.DiskSupport;
+import org.dasein.cloud.terremark.compute.VMSupport;
+import org.dasein.cloud.terremark.identity.TerremarkKeypair;
+
+/**
+ * Serves {@link Fixtures} from memory. Reads of recorded paths return the recorded payloads; the calls that change
+ * things, which the stand-in does not implement, get canned responses that are just enough for the driver to carry
+ * on: attaching a disk and creating a VM each return a task, every task has already completed, and the new VM is
+ * one of the recorded running VMs. Anything else is answered with a 404 error.
+ */
+public class FixtureTransport implements Transport {
+	static private final String ROOT      = Terremark.DEFAULT_URI_PATH;
+	static private final String XML       = "application/xml";
+	static private final String TASK_TYPE = "application/vnd.tmrk.cloud.task";
+
+	private final Fixtures          fixtures;
+	private final Map<String,byte[]> payloads;
+	private final byte[]            attachTask;
+	private final byte[]            createVirtualMachine;
+	private final byte[]            sshKey;
+	private volatile String         lastRequestBody;
+
+	FixtureTransport(@Nonnull Fixtures fixtures) {
+		int vmId = fixtures.getLaunchedVirtualMachineId();
+
+		this.fixtures = fixtures;
+		this.payloads = fixtures.getPayloads();
+		attachTask = utf8("<Task href=\"" + ROOT + "/tasks/900001\" type=\"" + TASK_TYPE + "\"><Operation>" + DiskSupport.ATTACH_DISK_OPERATION + "</Operation><Status>Queued</Status></Task>");
+		createVirtualMachine = utf8("<VirtualMachine href=\"" + ROOT + "/virtualMachines/" + vmId + "\" name=\"launched\" type=\"" + VMSupport.VIRTUAL_MACHINE_TYPE + "\"><Tasks><Task href=\"" + ROOT + "/tasks/900002\" type=\"" + TASK_TYPE + "\"><Operation>" + VMSupport.CREATE_SERVER_OPERATION + "</Operation><Status>Queued</Status></Task></Tasks><Status>NotDeployed</Status><PoweredOn>false</PoweredOn></VirtualMachine>");
+		sshKey = utf8("<" + TerremarkKeypair.SSH_KEY_TAG + " href=\"" + ROOT + "/admin/" + TerremarkKeypair.SSH_KEYS + "/1\" name=\"benchmark\" type=\"" + TerremarkKeypair.SSH_KEY_TYPE + "\"><Default>true</Default><FingerPrint>00:11:22:33:44:55:66:77:88:99:aa:bb:cc:dd:ee:ff</FingerPrint></" + TerremarkKeypair.SSH_KEY_TAG + ">");
+	}
+
+	@Override
+	public @Nonnull HttpResponse execute(@Nonnull HttpUriRequest request) throws IOException {
+		String method = request.getMethod();
+		String path = request.getURI().getPath();
+
+		if( path.startsWith(ROOT) ) {
+			path = path.substring(ROOT.length());
+		}
+		if( request instanceof HttpEntityEnclosingRequest ) {
+			HttpEntity entity = ((HttpEntityEnclosingRequest)request).getEntity();
+
+			lastRequestBody = (entity == null ? null : EntityUtils.toString(entity, "utf-8"));
+		}
+		String key = Fixtures.toKey(method, path);
+		byte[] payload = payloads.get(key);
+
+		if( payload != null ) {
+			return respond(200, "OK", payload);
+		}
+		if( key.startsWith("GET /tasks/") ) {
+			return respond(200, "OK", fixtures.getCompletedTask());
+		}
+		if( key.startsWith("GET /admin/sshkeys/") ) {
+			return respond(200, "OK", sshKey);
+		}
+		if( key.startsWith("POST /virtualmachines/") && key.endsWith("/hardwareconfiguration/disks/actions/attach") ) {
+			return respond(202, "Accepted", attachTask);
+		}
+		if( key.startsWith("POST /virtualmachines/computepools/") && key.endsWith("/action/createvirtualmachine") ) {
+			return respond(201, "Created", createVirtualMachine);
+		}
+		return respond(404, "Not Found", utf8("<Error majorErrorCode=\"404\" message=\"No fixture for " + key + "\" minorErrorCode=\"ResourceNotFound\"/>"));
+	}
+
+	/**
+	 * @return the body of the most recent request that had one, such as a VM creation request
+	 */
+	public @Nullable String getLastRequestBody() {
+		return lastRequestBody;
+	}
+
+	static private HttpResponse respond(int status, String reason, byte[] body) {
+		HttpResponse response = new BasicHttpResponse(new BasicStatusLine(HttpVersion.HTTP_1_1, status, reason));
+		ByteArrayEntity entity = new ByteArrayEntity(body);
+
+		entity.setContentType(XML);
+		response.setHeader(Terremark.CONTENT_TYPE, XML);
+		response.setEntity(entity);
+		return response;
+	}
+
+	static private byte[] utf8(String s) {
+		try {
+			return s.getBytes("utf-8");
+		}
+		catch( UnsupportedEncodingException e ) {
+			throw new RuntimeException(e);
+		}
+	}
+}
@@ -0,0 +1,259 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.terremark.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+
+import javax.annotation.Nonnull;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.dasein.cloud.ProviderContext;
+import org.dasein.cloud.terremark.Terremark;
+import org.dasein.cloud.terremark.compute.VMSupport;
+import org.dasein.cloud.terremark.standin.SyntheticInventory;
+import org.dasein.cloud.terremark.standin.TerremarkStandIn;
+import org.w3c.dom.Document;
+
+/**
+ * Response payloads recorded from a {@link TerremarkStandIn} serving a small, medium, or large environment. The
+ * payloads are captured uncompressed over HTTP when the fixtures are recorded, after which the stand-in is stopped
+ * and everything is served from memory by a {@link FixtureTransport}, so the benchmarks measure the driver and not
+ * the network.
+ * <table>
+ *   <tr><th>size</th><th>VMs</th><th>networks</th><th>compute pools</th><th>public IPs</th></tr>
+ *   <tr><td>small</td><td>50</td><td>5</td><td>1</td><td>20</td></tr>
+ *   <tr><td>medium</td><td>1,000</td><td>40</td><td>4</td><td>250</td></tr>
+ *   <tr><td>large</td><td>5,000</td><td>200</td><td>8</td><td>2,000</td></tr>
+ * </table>
+ */
+public class Fixtures {
+	static public final String SMALL  = "small";
+	static public final String MEDIUM = "medium";
+	static public final String LARGE  = "large";
+
+	static private final String ROOT = Terremark.DEFAULT_URI_PATH;
+
+	/**
+	 * Starts a stand-in for an environment of the specified size, records the payloads the benchmarks decode, and
+	 * stops it again.
+	 * @param size one of {@link #SMALL}, {@link #MEDIUM}, or {@link #LARGE}
+	 * @return the recorded payloads
+	 * @throws IOException the stand-in could not be started or one of the payloads could not be read
+	 */
+	static public @Nonnull Fixtures record(@Nonnull String size) throws IOException {
+		SyntheticInventory inventory;
+
+		if( size.equals(SMALL) ) {
+			inventory = new SyntheticInventory(50, 5, 1, 20, 10, 10);
+		}
+		else if( size.equals(MEDIUM) ) {
+			inventory = new SyntheticInventory(1000, 40, 4, 250, 100, 50);
+		}
+		else if( size.equals(LARGE) ) {
+			inventory = new SyntheticInventory(5000, 200, 8, 2000, 400, 200);
+		}
+		else {
+			throw new IllegalArgumentException("Unknown environment size: " + size);
+		}
+		inventory.setTaskDuration(0L);
+
+		TerremarkStandIn standIn = new TerremarkStandIn(inventory, 4);
+		Fixtures fixtures = new Fixtures(size, inventory);
+
+		standIn.start();
+		try {
+			String env = SyntheticInventory.ENVIRONMENT_ID;
+
+			for( int i=1; i<=inventory.getVirtualMachines().size(); i++ ) {
+				fixtures.record(standIn, "GET", "/virtualMachines/" + i);
+			}
+			for( int i=1; i<=inventory.getNetworkCount(); i++ ) {
+				fixtures.record(standIn, "GET", "/networks/" + i);
+			}
+			for( int i=1; i<=inventory.getTemplateCount(); i++ ) {
+				fixtures.record(standIn, "GET", "/templates/" + i + "/computePools/1");
+			}
+			fixtures.record(standIn, "GET", "/layout/environments/" + env);
+			fixtures.record(standIn, "GET", "/publicIps/environments/" + env);
+			fixtures.record(standIn, "GET", "/firewallAcls/environments/" + env);
+			fixtures.record(standIn, "GET", "/detachedDisks/1");
+
+			for( SyntheticInventory.VirtualMachine vm : inventory.getVirtualMachines() ) {
+				if( vm.isPoweredOn() ) {
+					fixtures.launchedVirtualMachineId = vm.getId();
+					break;
+				}
+			}
+			// power cycles are the only tasks the stand-in creates, so a finished one stands in for every task
+			SyntheticInventory.Task task = inventory.power(inventory.getVirtualMachine(1), VMSupport.POWER_ON_OPERATION);
+
+			fixtures.completedTask = fixtures.fetch(standIn, "GET", "/tasks/" + task.getId());
+		}
+		finally {
+			standIn.stop();
+		}
+		return fixtures;
+	}
+
+	/**
+	 * Sends the driver's logging to the console at <code>WARN</code> so that debug output does not end up in the
+	 * measurements.
+	 */
+	static public void quietLogging() {
+		if( !Logger.getRootLogger().getAllAppenders().hasMoreElements() ) {
+			BasicConfigurator.configure();
+		}
+		Logger.getRootLogger().setLevel(Level.WARN);
+		Logger.getLogger("org.dasein").setLevel(Level.WARN);
+	}
+
+	private final String              size;
+	private final SyntheticInventory  inventory;
+	private final Map<String,byte[]>  payloads = new HashMap<String,byte[]>();
+	private byte[]                    completedTask;
+	private int                       launchedVirtualMachineId = 1;
+
+	private Fixtures(@Nonnull String size, @Nonnull SyntheticInventory inventory) {
+		this.size = size;
+		this.inventory = inventory;
+	}
+
+	public @Nonnull String getSize() {
+		return size;
+	}
+
+	public @Nonnull SyntheticInventory getInventory() {
+		return inventory;
+	}
+
+	/**
+	 * @param path the API path without the <code>/cloudapi/ecloud</code> prefix
+	 * @return the recorded payload, or <code>null</code> if that path was not recorded
+	 */
+	public byte[] get(@Nonnull String path) {
+		return payloads.get(toKey("GET", path));
+	}
+
+	/**
+	 * @return a recorded task that has completed
+	 */
+	public @Nonnull byte[] getCompletedTask() {
+		return completedTask;
+	}
+
+	/**
+	 * @return the ID of a running VM whose recorded payload is served as the result of launching a new one
+	 */
+	public int getLaunchedVirtualMachineId() {
+		return launchedVirtualMachineId;
+	}
+
+	/**
+	 * Parses a recorded payload the same way the driver parses a response.
+	 * @param path the API path without the <code>/cloudapi/ecloud</code> prefix
+	 * @return the parsed document
+	 * @throws Exception the path was not recorded or its payload could not be parsed
+	 */
+	public @Nonnull Document parse(@Nonnull String path) throws Exception {
+		byte[] payload = get(path);
+
+		if( payload == null ) {
+			throw new IllegalArgumentException("No fixture recorded for " + path);
+		}
+		return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new ByteArrayInputStream(payload));
+	}
+
+	/**
+	 * @return a transport serving these fixtures along with canned responses for the calls that change things
+	 */
+	public @Nonnull FixtureTransport newTransport() {
+		return new FixtureTransport(this);
+	}
+
+	/**
+	 * Connects a provider to these fixtures. Rate limiting is turned off so that it does not pace the benchmarks.
+	 * @return a provider whose API calls are all served from memory
+	 * @throws Exception the provider could not be connected
+	 */
+	public @Nonnull Terremark connect() throws Exception {
+		ProviderContext ctx = new ProviderContext("fixtures", SyntheticInventory.ENVIRONMENT_ID);
+		Properties properties = new Properties();
+		Terremark provider = new Terremark();
+
+		properties.setProperty("readRequestsPerSecond", "0");
+		properties.setProperty("writeRequestsPerSecond", "0");
+		ctx.setEndpoint("https://fixtures.invalid");
+		ctx.setAccessKeys("benchmark".getBytes("utf-8"), "0123456789abcdef0123456789abcdef".getBytes("utf-8"));
+		ctx.setCustomProperties(properties);
+		provider.connect(ctx);
+		provider.setTransport(newTransport());
+		return provider;
+	}
+
+	@Nonnull Map<String,byte[]> getPayloads() {
+		return payloads;
+	}
+
+	static @Nonnull String toKey(@Nonnull String method, @Nonnull String path) {
+		return method + " " + path.toLowerCase(Locale.ENGLISH);
+	}
+
+	private void record(@Nonnull TerremarkStandIn standIn, @Nonnull String method, @Nonnull String path) throws IOException {
+		payloads.put(toKey(method, path), fetch(standIn, method, path));
+	}
+
+	private @Nonnull byte[] fetch(@Nonnull TerremarkStandIn standIn, @Nonnull String method, @Nonnull String path) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection)new URL(standIn.getEndpoint() + ROOT + path).openConnection();
+
+		connection.setRequestMethod(method);
+		connection.setRequestProperty(Terremark.TMRK_AUTHORIZATION, "CloudApi AccessKey=\"benchmark\" SignatureType=\"HmacSHA256\" Signature=\"fixture\"");
+		connection.setRequestProperty("Accept-Encoding", "identity");
+		if( connection.getResponseCode() != 200 ) {
+			throw new IOException("Recording " + path + " failed with " + connection.getResponseCode());
+		}
+		InputStream in = connection.getInputStream();
+
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int n;
+
+			while( (n = in.read(buffer)) != -1 ) {
+				out.write(buffer, 0, n);
+			}
+			return out.toByteArray();
+		}
+		finally {
+			in.close();
+		}
+	}
+}
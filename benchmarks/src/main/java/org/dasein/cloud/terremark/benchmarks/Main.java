@@ -0,0 +1,51 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.terremark.benchmarks;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs the benchmarks through the JMH command line, writing the results as JSON to
+ * <code>target/jmh-result.json</code> so that runs can be archived and compared to catch regressions. Passing
+ * <code>-rf</code> or <code>-rff</code> overrides the format or file; every other argument goes to JMH unchanged.
+ */
+public class Main {
+	static public final String DEFAULT_RESULT_FILE = "target/jmh-result.json";
+
+	static public void main(String[] args) throws Exception {
+		List<String> arguments = new ArrayList<String>(Arrays.asList(args));
+
+		if( !arguments.contains("-rf") && !arguments.contains("-rff") ) {
+			File parent = new File(DEFAULT_RESULT_FILE).getParentFile();
+
+			if( parent != null && !parent.exists() && !parent.mkdirs() ) {
+				throw new IllegalStateException("Unable to create " + parent);
+			}
+			arguments.add("-rf");
+			arguments.add("json");
+			arguments.add("-rff");
+			arguments.add(DEFAULT_RESULT_FILE);
+		}
+		org.openjdk.jmh.Main.main(arguments.toArray(new String[arguments.size()]));
+	}
+}
@@ -0,0 +1,113 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.terremark.benchmarks;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.dasein.cloud.ProviderContext;
+import org.dasein.cloud.compute.VMLaunchOptions.NICConfig;
+import org.dasein.cloud.terremark.Terremark;
+import org.dasein.cloud.terremark.TerremarkMethod.HttpMethodName;
+import org.dasein.cloud.terremark.compute.DiskSupport;
+import org.dasein.cloud.terremark.compute.VMSupport;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures building and signing requests. {@link #attach()} and {@link #launchFromTemplate()} run the driver's
+ * <code>DiskSupport.attach</code> and <code>VMSupport.launchFromTemplate</code> end to end against the in-memory
+ * {@link FixtureTransport}, so each includes the lookups the driver makes while building the request body, the
+ * DOM and <code>Transformer</code> work that serializes it, signing, parsing the responses, and polling the
+ * already completed task. The signing benchmarks call {@link Terremark#getHeaders} for a VM read and for the VM
+ * creation body that <code>launchFromTemplate</code> sends. None of these depend on the size of the environment,
+ * so they run against the small fixtures only.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestBuilderBenchmark {
+	private Terremark       provider;
+	private ProviderContext ctx;
+	private DiskSupport     diskSupport;
+	private VMSupport       vmSupport;
+	private Method          launchFromTemplate;
+	private String          virtualMachineId;
+	private String          virtualMachineUrl;
+	private String          createVirtualMachineBody;
+	private Map<String,Object> tags;
+
+	@Setup
+	public void setup() throws Throwable {
+		Fixtures.quietLogging();
+
+		Fixtures fixtures = Fixtures.record(Fixtures.SMALL);
+
+		provider = fixtures.connect();
+		ctx = provider.getContext();
+		diskSupport = provider.getComputeServices().getVolumeSupport();
+		vmSupport = provider.getComputeServices().getVirtualMachineSupport();
+		launchFromTemplate = DecoderBenchmark.converter(VMSupport.class, "launchFromTemplate", String.class, String.class, String.class, String.class, String.class, String.class, String.class, String.class, NICConfig[].class, Map.class);
+		virtualMachineId = String.valueOf(fixtures.getLaunchedVirtualMachineId());
+		virtualMachineUrl = "/" + VMSupport.VIRTUAL_MACHINES + "/" + virtualMachineId;
+		tags = new HashMap<String,Object>();
+		tags.put("owner", "benchmarks");
+		tags.put("purpose", "request building");
+
+		launchFromTemplate();
+		createVirtualMachineBody = ((FixtureTransport)provider.getTransport()).getLastRequestBody();
+		if( createVirtualMachineBody == null ) {
+			throw new IllegalStateException("launchFromTemplate did not send a request body");
+		}
+	}
+
+	@Benchmark
+	public void attach() throws Exception {
+		diskSupport.attach("1", virtualMachineId, null);
+	}
+
+	@Benchmark
+	public Object launchFromTemplate() throws Throwable {
+		return DecoderBenchmark.invoke(launchFromTemplate, vmSupport, "1", "2:2048", "1", "bench", "Request building benchmark", "1", "Benchmark-Passw0rd", "1", null, tags);
+	}
+
+	@Benchmark
+	public Map<String,String> signGet() {
+		return provider.getHeaders(ctx, HttpMethodName.GET, virtualMachineUrl, null, (String)null);
+	}
+
+	@Benchmark
+	public Map<String,String> signCreateVirtualMachine() {
+		return provider.getHeaders(ctx, HttpMethodName.POST, "/" + VMSupport.VIRTUAL_MACHINES + "/computePools/1/action/createVirtualMachine", null, createVirtualMachineBody);
+	}
+}
@@ -0,0 +1,170 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.terremark.benchmarks;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.http.NameValuePair;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.message.BasicNameValuePair;
+import org.dasein.cloud.terremark.RequestSigner;
+import org.dasein.cloud.terremark.Terremark;
+import org.dasein.cloud.terremark.TerremarkMethod.HttpMethodName;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the throughput of {@link RequestSigner} against the signing code it replaced, which created a new
+ * date format and {@link Mac} per request, built the canonical strings by concatenation, and encoded the body
+ * once for the content length and again for the request entity. Run with <code>-prof gc</code> to compare
+ * allocation rates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class SignerBenchmark {
+	@Param({ "GET", "POST" })
+	public String method;
+
+	private HttpMethodName   methodType;
+	private byte[]           secret;
+	private RequestSigner    requestSigner;
+	private String           body;
+	private NameValuePair[]  parameters;
+
+	@Setup
+	public void setup() {
+		methodType = HttpMethodName.valueOf(method);
+		secret = "0123456789abcdef0123456789abcdef0123456789abcdef".getBytes();
+		requestSigner = new RequestSigner("ACCESS", secret);
+		parameters = new NameValuePair[] { new BasicNameValuePair("page", "1"), new BasicNameValuePair("pageSize", "100") };
+		if( methodType.equals(HttpMethodName.POST) ) {
+			StringBuilder sb = new StringBuilder("<CreateVirtualMachine name=\"bench\">");
+
+			for( int i=0; i<20; i++ ) {
+				sb.append("<Tag>tag-").append(i).append("</Tag>");
+			}
+			body = sb.append("</CreateVirtualMachine>").toString();
+		}
+	}
+
+	@Benchmark
+	public Object legacy() throws Exception {
+		Map<String,String> headers = legacyHeaders("ACCESS", secret, methodType, "/virtualMachines/12345", parameters, body);
+
+		if( body != null ) {
+			return new StringEntity(body, "UTF-8");
+		}
+		return headers;
+	}
+
+	@Benchmark
+	public Object signer() throws Exception {
+		byte[] content = RequestSigner.encode(body);
+		Map<String,String> headers = requestSigner.sign(methodType, "/virtualMachines/12345", parameters, content);
+
+		if( content != null ) {
+			return new org.apache.http.entity.ByteArrayEntity(content);
+		}
+		return headers;
+	}
+
+	/**
+	 * The request signing as implemented before {@link RequestSigner}, kept here as the baseline.
+	 */
+	static Map<String,String> legacyHeaders(String accessKey, byte[] key, HttpMethodName methodType, String url, NameValuePair[] queryParamters, String body) throws Exception {
+		HashMap<String,String> headers = new HashMap<String,String>();
+		String contentLength = "";
+		String contentType = "";
+		SimpleDateFormat format = new SimpleDateFormat(Terremark.RFC1123_PATTERN);
+		format.setTimeZone(TimeZone.getTimeZone("GMT"));
+		String formattedDate = format.format(new Date());
+		String canonicalizedHeaders = "";
+		String canonicalizedResource = "";
+
+		headers.put(Terremark.TMRK_DATE, formattedDate);
+		headers.put(Terremark.TMRK_VERSION, Terremark.VERSION);
+		headers.put(Terremark.ACCEPT, Terremark.XML);
+		if (body != null && (methodType.equals(HttpMethodName.PUT) || methodType.equals(HttpMethodName.POST) || methodType.equals(HttpMethodName.DELETE))){
+			contentLength = new String("" + body.getBytes().length);
+		}
+		if (body != null && !body.equals("")){
+			contentType = Terremark.XML;
+			headers.put(Terremark.CONTENT_TYPE, contentType);
+		}
+		List<String> canonicalizedHeadersList = new ArrayList<String>();
+		HashMap<String,String> tempHeadersLower = new HashMap<String,String>();
+		for( Map.Entry<String, String> entry : headers.entrySet() ) {
+			if (entry.getKey().toLowerCase().startsWith("x-tmrk-") && !entry.getKey().equals(Terremark.TMRK_AUTHORIZATION))
+				canonicalizedHeadersList.add(entry.getKey().toLowerCase().trim());
+			tempHeadersLower.put(entry.getKey().toLowerCase().trim(), entry.getValue().trim());
+		}
+		Collections.sort(canonicalizedHeadersList);
+		for (String header : canonicalizedHeadersList){
+			canonicalizedHeaders += header + ":" + tempHeadersLower.get(header) + "\n";
+		}
+		canonicalizedResource += Terremark.DEFAULT_URI_PATH + url.toLowerCase().trim() + "\n";
+		List<String> queryParameterList = new ArrayList<String>();
+		HashMap<String,String> tempQueryParamtersLower = new HashMap<String,String>();
+		if (queryParamters != null) {
+			for( NameValuePair parameter : queryParamters ) {
+				queryParameterList.add(parameter.getName().toLowerCase().trim());
+				tempQueryParamtersLower.put(parameter.getName().toLowerCase().trim(), parameter.getValue().trim());
+			}
+			Collections.sort(queryParameterList);
+		}
+		for (String paramter : queryParameterList){
+			canonicalizedResource += paramter+ ":" + tempQueryParamtersLower.get(paramter) + "\n";
+		}
+		String stringToSign = new String(methodType + "\n" + contentLength + "\n" + contentType + "\n" + formattedDate + "\n" + canonicalizedHeaders + canonicalizedResource);
+		Mac mac = Mac.getInstance(Terremark.ALGORITHM);
+		mac.init(new SecretKeySpec(key, Terremark.ALGORITHM));
+		String signature = new String(Base64.encodeBase64(mac.doFinal(stringToSign.getBytes("utf-8"))));
+
+		headers.put(Terremark.TMRK_AUTHORIZATION, "CloudApi AccessKey=\"" + accessKey + "\" SignatureType=\"" + Terremark.ALGORITHM + "\" Signature=\"" + signature + "\"");
+		return headers;
+	}
+}
@@ -0,0 +1,106 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.terremark.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.dasein.cloud.terremark.JsonDocumentReader;
+import org.dasein.cloud.terremark.XmlResources;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+
+/**
+ * Compares decoding an environment's virtual machine inventory from the XML representation against decoding
+ * the same inventory from JSON with {@link JsonDocumentReader}. Both produce the document the converters read.
+ * The payload sizes are reported by {@link #setup()} so the wire savings can be compared alongside the timings.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WireFormatBenchmark {
+	@Param({ "10", "200", "2000" })
+	public int machines;
+
+	private byte[] xml;
+	private byte[] json;
+
+	@Setup
+	public void setup() throws Exception {
+		StringBuilder x = new StringBuilder();
+		StringBuilder j = new StringBuilder();
+
+		x.append("<VirtualMachines href=\"/cloudapi/ecloud/virtualMachines/computePools/77\" type=\"application/vnd.tmrk.cloud.virtualMachine; type=collection\">");
+		j.append("{\"href\":\"/cloudapi/ecloud/virtualMachines/computePools/77\",\"type\":\"application/vnd.tmrk.cloud.virtualMachine; type=collection\",\"VirtualMachine\":[");
+		for( int i=0; i<machines; i++ ) {
+			String href = "/cloudapi/ecloud/virtualMachines/" + (1000 + i);
+
+			x.append("<VirtualMachine href=\"").append(href).append("\" name=\"vm-").append(i).append("\" type=\"application/vnd.tmrk.cloud.virtualMachine\">");
+			x.append("<Links><Link href=\"/cloudapi/ecloud/computePools/77\" name=\"pool\" type=\"application/vnd.tmrk.cloud.computePool\" rel=\"up\"/>");
+			x.append("<Link href=\"").append(href).append("/assignedIps\" type=\"application/vnd.tmrk.cloud.network\" rel=\"down\"/></Links>");
+			x.append("<Status>Deployed</Status><PoweredOn>true</PoweredOn><ToolsStatus>Current</ToolsStatus>");
+			x.append("<HardwareConfiguration><ProcessorCount>2</ProcessorCount><Memory><Unit>MB</Unit><Value>4096</Value></Memory>");
+			x.append("<Disks><Disk><Index>0</Index><Size><Unit>GB</Unit><Value>40</Value></Size></Disk></Disks></HardwareConfiguration>");
+			x.append("<IpAddresses><AssignedIpAddresses><Networks><Network href=\"/cloudapi/ecloud/networks/9\" name=\"10.0.0.0/24\">");
+			x.append("<IpAddresses><IpAddress>10.0.0.").append(i % 250).append("</IpAddress></IpAddresses></Network></Networks></AssignedIpAddresses></IpAddresses>");
+			x.append("</VirtualMachine>");
+
+			if( i > 0 ) {
+				j.append(',');
+			}
+			j.append("{\"href\":\"").append(href).append("\",\"name\":\"vm-").append(i).append("\",\"type\":\"application/vnd.tmrk.cloud.virtualMachine\",");
+			j.append("\"Links\":[{\"href\":\"/cloudapi/ecloud/computePools/77\",\"name\":\"pool\",\"type\":\"application/vnd.tmrk.cloud.computePool\",\"rel\":\"up\"},");
+			j.append("{\"href\":\"").append(href).append("/assignedIps\",\"type\":\"application/vnd.tmrk.cloud.network\",\"rel\":\"down\"}],");
+			j.append("\"Status\":\"Deployed\",\"PoweredOn\":true,\"ToolsStatus\":\"Current\",");
+			j.append("\"HardwareConfiguration\":{\"ProcessorCount\":2,\"Memory\":{\"Unit\":\"MB\",\"Value\":4096},");
+			j.append("\"Disks\":[{\"Index\":0,\"Size\":{\"Unit\":\"GB\",\"Value\":40}}]},");
+			j.append("\"IpAddresses\":{\"AssignedIpAddresses\":{\"Networks\":[{\"href\":\"/cloudapi/ecloud/networks/9\",\"name\":\"10.0.0.0/24\",");
+			j.append("\"IpAddresses\":[\"10.0.0.").append(i % 250).append("\"]}]}}}");
+		}
+		x.append("</VirtualMachines>");
+		j.append("]}");
+		xml = x.toString().getBytes("utf-8");
+		json = j.toString().getBytes("utf-8");
+		System.out.println(machines + " machines: " + xml.length + " bytes as XML, " + json.length + " bytes as JSON");
+	}
+
+	@Benchmark
+	public Document decodeXml() throws Exception {
+		return XmlResources.parse(new ByteArrayInputStream(xml));
+	}
+
+	@Benchmark
+	public Document decodeJson() throws Exception {
+		return JsonDocumentReader.parse(new ByteArrayInputStream(json));
+	}
+}
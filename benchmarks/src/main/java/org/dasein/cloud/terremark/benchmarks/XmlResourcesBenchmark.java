@@ -0,0 +1,103 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.terremark.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.dasein.cloud.terremark.XmlResources;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * Compares building a request body and parsing a response with factories looked up on every call, as the driver
+ * used to, against the per-thread parsers and serializers of {@link XmlResources}. The request is the
+ * <code>CreateSshKey</code> body and the response a single task, both typical of the small documents most calls
+ * exchange, where the factory lookup is the largest part of the cost.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class XmlResourcesBenchmark {
+	private byte[] task;
+
+	@Setup
+	public void setup() throws Exception {
+		task = ("<?xml version=\"1.0\" encoding=\"utf-8\"?><Task href=\"/cloudapi/ecloud/tasks/42\" type=\"application/vnd.tmrk.cloud.task\">"
+				+ "<Operation>Attach Virtual Disk</Operation><Status>Complete</Status><ImpactedItem href=\"/cloudapi/ecloud/virtualMachines/7\" name=\"vm-7\"/>"
+				+ "<StartTime>2013-01-01T00:00:00.000Z</StartTime><CompletedTime>2013-01-01T00:00:05.000Z</CompletedTime></Task>").getBytes("utf-8");
+	}
+
+	static private void fill(Document doc) {
+		Element rootElement = doc.createElement("CreateSshKey");
+
+		rootElement.setAttribute("name", "benchmark");
+		doc.appendChild(rootElement);
+	}
+
+	@Benchmark
+	public String buildRequestFresh() throws Exception {
+		Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+		StringWriter stw = new StringWriter();
+		Transformer serializer = TransformerFactory.newInstance().newTransformer();
+
+		fill(doc);
+		serializer.transform(new DOMSource(doc), new StreamResult(stw));
+		return stw.toString();
+	}
+
+	@Benchmark
+	public String buildRequestReused() throws Exception {
+		Document doc = XmlResources.newDocument();
+
+		fill(doc);
+		return XmlResources.toXml(doc);
+	}
+
+	@Benchmark
+	public Document parseResponseFresh() throws Exception {
+		return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new ByteArrayInputStream(task));
+	}
+
+	@Benchmark
+	public Document parseResponseReused() throws Exception {
+		return XmlResources.parse(new ByteArrayInputStream(task));
+	}
+}
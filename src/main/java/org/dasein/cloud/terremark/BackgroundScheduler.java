@@ -0,0 +1,277 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.terremark;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Runs a provider's background work, such as polling tasks and watching catalog imports, on a fixed number of named
+ * daemon threads rather than a thread per job. Work may be run once, now or after a delay, or as a
+ * {@link RecurringJob} that says after each run when it wants to run next, so that a job waiting hours for the cloud
+ * holds no thread between checks. The number of jobs waiting to run is bounded; beyond it, new work is rejected with
+ * a {@link RejectedExecutionException}, as it is once the scheduler has been shut down.
+ * <p>
+ * {@link #shutdown(long)} is deterministic: work that has not started is cancelled, work that is running is given a
+ * grace period to finish and is then interrupted, and every recurring job that has not finished is told it was
+ * cancelled, so that it can release whatever it holds.
+ * </p>
+ */
+public class BackgroundScheduler {
+	static private final Logger logger = Terremark.getLogger(BackgroundScheduler.class);
+
+	/**
+	 * Work that runs repeatedly until it is done, at intervals of its own choosing.
+	 */
+	public interface RecurringJob {
+		/**
+		 * Does one round of the job's work.
+		 * @return the number of milliseconds until the job should run again, or a negative number if it is done
+		 */
+		public long run();
+
+		/**
+		 * Called, at most once, if the job is dropped before it is done because the scheduler was shut down. It may
+		 * be called while a final run is still being interrupted.
+		 */
+		public void cancelled();
+	}
+
+	private class Entry implements Runnable {
+		private final RecurringJob  job;
+		private final AtomicBoolean ended = new AtomicBoolean(false);
+
+		Entry(RecurringJob job) {
+			this.job = job;
+		}
+
+		@Override
+		public void run() {
+			long next;
+
+			try {
+				next = job.run();
+			}
+			catch( RuntimeException e ) {
+				logger.error("Unexpected error in background job " + job, e);
+				next = -1L;
+			}
+			if( next < 0L ) {
+				if( ended.compareAndSet(false, true) ) {
+					jobs.remove(this);
+				}
+				return;
+			}
+			try {
+				executor.schedule(this, next, TimeUnit.MILLISECONDS);
+			}
+			catch( RejectedExecutionException e ) {
+				cancel();
+			}
+		}
+
+		void cancel() {
+			if( ended.compareAndSet(false, true) ) {
+				jobs.remove(this);
+				try {
+					job.cancelled();
+				}
+				catch( RuntimeException e ) {
+					logger.error("Unexpected error cancelling background job " + job, e);
+				}
+			}
+		}
+	}
+
+	private final String                              name;
+	private final int                                 maxQueued;
+	private final ScheduledThreadPoolExecutor         executor;
+	private final ConcurrentHashMap<Entry,Boolean>    jobs = new ConcurrentHashMap<Entry,Boolean>();
+
+	/**
+	 * @param name the name given to the scheduler's threads, each of which is suffixed with a number
+	 * @param threads the number of jobs that may run at once
+	 * @param maxQueued the number of jobs that may be waiting to run before new work is rejected
+	 */
+	public BackgroundScheduler(@Nonnull final String name, int threads, int maxQueued) {
+		final AtomicInteger count = new AtomicInteger(0);
+
+		this.name = name;
+		this.maxQueued = maxQueued;
+		this.executor = new ScheduledThreadPoolExecutor(Math.max(1, threads), new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r);
+
+				t.setName(name + " " + count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		// nothing that has not started survives a shutdown
+		this.executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+		this.executor.setContinueExistingPeriodicTasksAfterShutdownPolicy(false);
+		// let the threads go when there is nothing to do
+		this.executor.setKeepAliveTime(60L, TimeUnit.SECONDS);
+		this.executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Runs work once, as soon as a thread is free.
+	 * @param work the work to run
+	 * @throws RejectedExecutionException the scheduler has been shut down or too much work is waiting
+	 */
+	public void execute(@Nonnull Runnable work) {
+		checkCapacity();
+		executor.execute(work);
+	}
+
+	/**
+	 * Runs work once after a delay.
+	 * @param work the work to run
+	 * @param delay the number of milliseconds to wait before running it
+	 * @return a future that may be used to cancel the work
+	 * @throws RejectedExecutionException the scheduler has been shut down or too much work is waiting
+	 */
+	public @Nonnull Future<?> schedule(@Nonnull Runnable work, long delay) {
+		checkCapacity();
+		return executor.schedule(work, delay, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Starts a recurring job.
+	 * @param job the job
+	 * @param delay the number of milliseconds to wait before its first run
+	 * @throws RejectedExecutionException the scheduler has been shut down or too much work is waiting, in which case
+	 * the job is not told it was cancelled
+	 */
+	public void schedule(@Nonnull RecurringJob job, long delay) {
+		Entry entry = new Entry(job);
+
+		checkCapacity();
+		jobs.put(entry, Boolean.TRUE);
+		try {
+			executor.schedule(entry, delay, TimeUnit.MILLISECONDS);
+		}
+		catch( RejectedExecutionException e ) {
+			jobs.remove(entry);
+			throw e;
+		}
+	}
+
+	/**
+	 * @return the number of threads running work right now
+	 */
+	public int getActiveCount() {
+		return executor.getActiveCount();
+	}
+
+	/**
+	 * @return the number of times work has run to completion, counting each run of a recurring job
+	 */
+	public long getCompletedCount() {
+		return executor.getCompletedTaskCount();
+	}
+
+	/**
+	 * @return the number of recurring jobs that are not yet done
+	 */
+	public int getJobCount() {
+		return jobs.size();
+	}
+
+	public int getMaxQueued() {
+		return maxQueued;
+	}
+
+	public int getMaxThreads() {
+		return executor.getCorePoolSize();
+	}
+
+	public @Nonnull String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the number of threads that currently exist, busy or idle
+	 */
+	public int getPoolSize() {
+		return executor.getPoolSize();
+	}
+
+	/**
+	 * @return the number of runs waiting for their time to come or for a free thread
+	 */
+	public int getQueueDepth() {
+		return executor.getQueue().size();
+	}
+
+	public boolean isShutdown() {
+		return executor.isShutdown();
+	}
+
+	/**
+	 * Stops the scheduler. Work that has not started is cancelled at once, work that is running is given up to the
+	 * grace period to finish before its threads are interrupted, and every recurring job that is not done is told it
+	 * was cancelled.
+	 * @param gracePeriod the number of milliseconds to wait for running work
+	 * @return true if all running work finished within the grace period
+	 */
+	public boolean shutdown(long gracePeriod) {
+		boolean drained = false;
+
+		executor.shutdown();
+		try {
+			drained = executor.awaitTermination(Math.max(0L, gracePeriod), TimeUnit.MILLISECONDS);
+		}
+		catch( InterruptedException e ) {
+			Thread.currentThread().interrupt();
+		}
+		if( !drained ) {
+			logger.warn(name + ": interrupting " + executor.getActiveCount() + " background jobs still running after " + gracePeriod + "ms");
+			executor.shutdownNow();
+		}
+		for( Entry entry : jobs.keySet() ) {
+			entry.cancel();
+		}
+		return drained;
+	}
+
+	@Override
+	public String toString() {
+		return name + " [active=" + getActiveCount() + " queued=" + getQueueDepth() + " jobs=" + getJobCount() + " completed=" + getCompletedCount() + "]";
+	}
+
+	private void checkCapacity() {
+		if( maxQueued > 0 && executor.getQueue().size() >= maxQueued ) {
+			throw new RejectedExecutionException(name + " already has " + maxQueued + " jobs waiting to run");
+		}
+	}
+}
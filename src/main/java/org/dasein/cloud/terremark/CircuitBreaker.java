@@ -0,0 +1,252 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.terremark;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.annotation.Nonnull;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Tracks the health of a single Terremark API endpoint so that calls fail fast while the endpoint is known to be
+ * down. The breaker opens after a run of consecutive communication failures or server errors. While open, calls
+ * are refused until the reset timeout has passed, at which point the breaker goes half-open and lets a single
+ * probe through. A successful probe closes the breaker again; a failed one re-opens it.
+ */
+public class CircuitBreaker {
+	static private final Logger logger = Terremark.getLogger(CircuitBreaker.class);
+
+	public enum State {
+		CLOSED, OPEN, HALF_OPEN;
+	}
+
+	/**
+	 * Receives notice of every state transition of every circuit breaker.
+	 */
+	public interface Listener {
+		public void stateChanged(@Nonnull CircuitBreaker breaker, @Nonnull State from, @Nonnull State to);
+	}
+
+	static private final ConcurrentHashMap<String,CircuitBreaker> breakers  = new ConcurrentHashMap<String,CircuitBreaker>();
+	static private final CopyOnWriteArrayList<Listener>           listeners = new CopyOnWriteArrayList<Listener>();
+
+	static public void addListener(@Nonnull Listener listener) {
+		listeners.add(listener);
+	}
+
+	static public void removeListener(@Nonnull Listener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Provides the breaker for the specified endpoint. The thresholds are fixed by the first caller for the endpoint.
+	 * @param endpoint the API endpoint guarded by the breaker
+	 * @param failureThreshold the number of consecutive failures that opens the breaker
+	 * @param resetTimeout the number of milliseconds the breaker stays open before a probe is allowed
+	 * @return the circuit breaker for the endpoint
+	 */
+	static public @Nonnull CircuitBreaker getInstance(@Nonnull String endpoint, int failureThreshold, long resetTimeout) {
+		CircuitBreaker breaker = breakers.get(endpoint);
+
+		if( breaker == null ) {
+			breakers.putIfAbsent(endpoint, new CircuitBreaker(endpoint, failureThreshold, resetTimeout));
+			breaker = breakers.get(endpoint);
+		}
+		return breaker;
+	}
+
+	/**
+	 * @return the breakers for all endpoints contacted so far, keyed by endpoint
+	 */
+	static public @Nonnull Map<String,CircuitBreaker> getInstances() {
+		return Collections.unmodifiableMap(new HashMap<String,CircuitBreaker>(breakers));
+	}
+
+	private final String endpoint;
+	private final int    failureThreshold;
+	private final long   resetTimeout;
+
+	private State state               = State.CLOSED;
+	private int   consecutiveFailures = 0;
+	private long  lastTransition      = System.currentTimeMillis();
+	private long  openedAt            = -1L;
+	private long  probeStartedAt      = -1L;
+	private long  transitionCount     = 0L;
+	private long  rejectedCount       = 0L;
+
+	public CircuitBreaker(@Nonnull String endpoint, int failureThreshold, long resetTimeout) {
+		this.endpoint = endpoint;
+		this.failureThreshold = failureThreshold;
+		this.resetTimeout = resetTimeout;
+	}
+
+	/**
+	 * Checks whether a call may be made to the endpoint right now. When the breaker is open and the reset timeout
+	 * has passed, the caller becomes the probe that decides whether the breaker closes again.
+	 * @return true if the call may proceed, false if it should fail fast
+	 */
+	public boolean allowRequest() {
+		State from = null;
+		boolean allowed;
+
+		synchronized( this ) {
+			long now = System.currentTimeMillis();
+
+			if( state.equals(State.CLOSED) ) {
+				allowed = true;
+			}
+			else if( state.equals(State.OPEN) ) {
+				if( now - openedAt >= resetTimeout ) {
+					from = transition(State.HALF_OPEN);
+					probeStartedAt = now;
+					allowed = true;
+				}
+				else {
+					allowed = false;
+				}
+			}
+			else {
+				// one probe at a time, unless the last one never reported back
+				if( probeStartedAt < 0L || now - probeStartedAt >= resetTimeout ) {
+					probeStartedAt = now;
+					allowed = true;
+				}
+				else {
+					allowed = false;
+				}
+			}
+			if( !allowed ) {
+				rejectedCount++;
+			}
+		}
+		if( from != null ) {
+			fireStateChanged(from, State.HALF_OPEN);
+		}
+		return allowed;
+	}
+
+	public @Nonnull String getEndpoint() {
+		return endpoint;
+	}
+
+	public synchronized int getConsecutiveFailures() {
+		return consecutiveFailures;
+	}
+
+	public synchronized long getLastTransition() {
+		return lastTransition;
+	}
+
+	/**
+	 * @return the number of calls refused because the breaker was open
+	 */
+	public synchronized long getRejectedCount() {
+		return rejectedCount;
+	}
+
+	public synchronized @Nonnull State getState() {
+		return state;
+	}
+
+	public synchronized long getTransitionCount() {
+		return transitionCount;
+	}
+
+	/**
+	 * Records a failed call, such as an I/O error or a 5xx response.
+	 */
+	public void recordFailure() {
+		State from = null;
+
+		synchronized( this ) {
+			consecutiveFailures++;
+			if( state.equals(State.HALF_OPEN) || (state.equals(State.CLOSED) && consecutiveFailures >= failureThreshold) ) {
+				from = transition(State.OPEN);
+				openedAt = System.currentTimeMillis();
+				probeStartedAt = -1L;
+			}
+		}
+		if( from != null ) {
+			logger.warn("Circuit breaker for " + endpoint + " opened after " + consecutiveFailures + " consecutive failures");
+			fireStateChanged(from, State.OPEN);
+		}
+	}
+
+	/**
+	 * Records a call that was allowed through but gave up for reasons of its own, such as its caller's deadline,
+	 * before the endpoint could answer. It counts neither for nor against the endpoint; if it was the probe of a
+	 * half-open breaker, the next call may probe at once.
+	 */
+	public synchronized void recordAbandoned() {
+		if( state.equals(State.HALF_OPEN) ) {
+			probeStartedAt = -1L;
+		}
+	}
+
+	/**
+	 * Records a call that reached the endpoint and was processed, whatever the outcome of the call itself.
+	 */
+	public void recordSuccess() {
+		State from = null;
+
+		synchronized( this ) {
+			consecutiveFailures = 0;
+			if( !state.equals(State.CLOSED) ) {
+				from = transition(State.CLOSED);
+				openedAt = -1L;
+				probeStartedAt = -1L;
+			}
+		}
+		if( from != null ) {
+			logger.info("Circuit breaker for " + endpoint + " closed");
+			fireStateChanged(from, State.CLOSED);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return endpoint + " [" + getState() + "]";
+	}
+
+	private State transition(State to) {
+		State from = state;
+
+		state = to;
+		lastTransition = System.currentTimeMillis();
+		transitionCount++;
+		return from;
+	}
+
+	private void fireStateChanged(State from, State to) {
+		for( Listener listener : listeners ) {
+			try {
+				listener.stateChanged(this, from, to);
+			}
+			catch( RuntimeException e ) {
+				logger.warn("Circuit breaker listener failed: " + e.getMessage());
+			}
+		}
+	}
+}
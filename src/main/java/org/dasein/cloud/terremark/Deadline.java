@@ -0,0 +1,136 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+
+package org.dasein.cloud.terremark;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * A point in time by which an operation must complete, however many API calls, retries, and task polls it takes.
+ * A deadline is attached to a single call with {@link TerremarkMethod#withDeadline(Deadline)}, or to everything a
+ * thread does against Terremark until it is cleared:
+ * <pre>
+ * Deadline previous = Deadline.setCurrent(Deadline.after(CalendarWrapper.MINUTE * 5));
+ * try {
+ *     provider.getComputeServices().getVirtualMachineSupport().start(vmId);
+ * }
+ * finally {
+ *     Deadline.setCurrent(previous);
+ * }
+ * </pre>
+ * Calls that run out of time fail with a {@link DeadlineExceededException}.
+ */
+public final class Deadline {
+	static private final ThreadLocal<Deadline> current = new ThreadLocal<Deadline>();
+
+	/**
+	 * @param millis the time allowed from now, in milliseconds
+	 * @return a deadline the specified number of milliseconds from now
+	 */
+	static public @Nonnull Deadline after(long millis) {
+		return new Deadline(System.currentTimeMillis(), millis);
+	}
+
+	/**
+	 * @return the deadline applying to calls made by the current thread, if any
+	 */
+	static public @Nullable Deadline getCurrent() {
+		return current.get();
+	}
+
+	/**
+	 * Sets the deadline applying to calls made by the current thread.
+	 * @param deadline the new deadline, or <code>null</code> to clear it
+	 * @return the deadline it replaces, to be restored when the caller is done
+	 */
+	static public @Nullable Deadline setCurrent(@Nullable Deadline deadline) {
+		Deadline previous = current.get();
+
+		if( deadline == null ) {
+			current.remove();
+		}
+		else {
+			current.set(deadline);
+		}
+		return previous;
+	}
+
+	/**
+	 * @param a a deadline, possibly <code>null</code>
+	 * @param b another deadline, possibly <code>null</code>
+	 * @return whichever deadline expires first, or <code>null</code> if neither is set
+	 */
+	static public @Nullable Deadline earliest(@Nullable Deadline a, @Nullable Deadline b) {
+		if( a == null ) {
+			return b;
+		}
+		if( b == null ) {
+			return a;
+		}
+		return (a.expiresAt <= b.expiresAt ? a : b);
+	}
+
+	private final long startedAt;
+	private final long expiresAt;
+
+	private Deadline(long startedAt, long millis) {
+		this.startedAt = startedAt;
+		this.expiresAt = startedAt + Math.max(0L, millis);
+	}
+
+	/**
+	 * @return the number of milliseconds allowed in total
+	 */
+	public long getBudget() {
+		return (expiresAt - startedAt);
+	}
+
+	public long getExpiresAt() {
+		return expiresAt;
+	}
+
+	/**
+	 * @return the number of milliseconds left, never less than zero
+	 */
+	public long getRemaining() {
+		return Math.max(0L, expiresAt - System.currentTimeMillis());
+	}
+
+	public boolean isExpired() {
+		return (System.currentTimeMillis() >= expiresAt);
+	}
+
+	/**
+	 * Fails if the deadline has passed.
+	 * @param operation a description of the operation being attempted, used in the error message
+	 * @throws DeadlineExceededException the deadline has passed
+	 */
+	public void check(@Nonnull String operation) throws DeadlineExceededException {
+		if( isExpired() ) {
+			throw new DeadlineExceededException(operation, this);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "Deadline[" + getRemaining() + "ms of " + getBudget() + "ms remaining]";
+	}
+}
@@ -0,0 +1,57 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+
+package org.dasein.cloud.terremark;
+
+import javax.annotation.Nonnull;
+
+import org.dasein.cloud.CloudErrorType;
+import org.dasein.cloud.CloudException;
+
+/**
+ * Thrown when an operation does not complete before its {@link Deadline}, whether it was waiting on the network,
+ * backing off between retries, or polling a task.
+ */
+public class DeadlineExceededException extends CloudException {
+	private static final long serialVersionUID = 2806390733154418623L;
+
+	private final String operation;
+	private final long   budget;
+
+	public DeadlineExceededException(@Nonnull String operation, @Nonnull Deadline deadline) {
+		super(CloudErrorType.COMMUNICATION, 0, "DeadlineExceeded", "Deadline of " + deadline.getBudget() + "ms exceeded during " + operation);
+		this.operation = operation;
+		this.budget = deadline.getBudget();
+	}
+
+	/**
+	 * @return the number of milliseconds the operation was allowed
+	 */
+	public long getBudget() {
+		return budget;
+	}
+
+	/**
+	 * @return a description of the operation that was under way when time ran out
+	 */
+	public @Nonnull String getOperation() {
+		return operation;
+	}
+}
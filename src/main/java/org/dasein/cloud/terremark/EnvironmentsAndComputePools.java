@@ -21,6 +21,7 @@ package org.dasein.cloud.terremark;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.Locale;
 
 import javax.annotation.Nonnull;
@@ -34,6 +35,7 @@ import org.dasein.cloud.dc.Region;
 import org.dasein.cloud.terremark.Organization;
 import org.dasein.cloud.terremark.Terremark;
 import org.dasein.cloud.terremark.TerremarkMethod.HttpMethodName;
+import org.dasein.cloud.terremark.compute.VMSupport;
 import org.w3c.dom.Document;
 import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
@@ -124,6 +126,30 @@ public class EnvironmentsAndComputePools  implements DataCenterServices {
 		return doc;
 	}
 	
+	/**
+	 * Retrieves the IDs of the virtual machines in a specified region/environment. The environment document is
+	 * fetched through {@link #getEnvironmentById(String)}, so it is revalidated against the response cache and
+	 * shared with concurrent requests for the same environment rather than downloaded again.
+	 * @param regionId The id of the region whose virtual machines you are requesting
+	 * @return the virtual machine ids in document order
+	 * @throws InternalException
+	 * @throws CloudException
+	 */
+	public List<String> listVirtualMachineIds(String regionId) throws InternalException, CloudException {
+		List<String> vmIds = new ArrayList<String>();
+		Document doc = getEnvironmentById(regionId);
+		if (doc != null) {
+			NodeList vmNodes = doc.getElementsByTagName(VMSupport.VIRTUAL_MACHINE_TAG);
+			for (int i=0; i < vmNodes.getLength(); i++) {
+				Node href = vmNodes.item(i).getAttributes().getNamedItem(Terremark.HREF);
+				if (href != null) {
+					vmIds.add(Terremark.hrefToId(href.getNodeValue()));
+				}
+			}
+		}
+		return vmIds;
+	}
+
 	/**
 	 * Retrieves the location ID for a specified region/environment.
 	 * @param regionId The id of the region whose location you are requesting
@@ -0,0 +1,97 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.terremark;
+
+import java.util.Random;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.http.HttpStatus;
+import org.apache.log4j.Logger;
+import org.dasein.cloud.terremark.TerremarkMethod.HttpMethodName;
+
+/**
+ * The default {@link RetryPolicy}. Delays grow exponentially from a base delay up to a cap and are spread with
+ * full jitter so that callers failing together do not return together. A <code>Retry-After</code> delay from the
+ * server is honored as a lower bound. Safe methods (GET, HEAD) are retried on any transient server error, while
+ * mutating calls are only retried on 503, where the server has refused the request rather than partially
+ * processed it. All retries draw on an optional account-wide {@link RetryBudget}.
+ */
+public class ExponentialBackoffRetryPolicy implements RetryPolicy {
+	static private final Logger logger = Terremark.getLogger(ExponentialBackoffRetryPolicy.class);
+
+	static private final Random random = new Random();
+
+	private final int         maxAttempts;
+	private final long        baseDelay;
+	private final long        maxDelay;
+	private final RetryBudget budget;
+
+	/**
+	 * @param maxAttempts the maximum number of attempts for a single call, including the first
+	 * @param baseDelay the upper bound in milliseconds of the delay before the first retry
+	 * @param maxDelay the largest delay in milliseconds the policy will wait before any retry
+	 * @param budget the budget all retries are drawn from, or <code>null</code> for no budget
+	 */
+	public ExponentialBackoffRetryPolicy(int maxAttempts, long baseDelay, long maxDelay, @Nullable RetryBudget budget) {
+		this.maxAttempts = maxAttempts;
+		this.baseDelay = baseDelay;
+		this.maxDelay = maxDelay;
+		this.budget = budget;
+	}
+
+	@Override
+	public long getRetryDelay(@Nonnull HttpMethodName methodType, int statusCode, int attempts, long retryAfter) {
+		if( attempts >= maxAttempts || !isRetryable(methodType, statusCode) ) {
+			return -1L;
+		}
+		if( retryAfter > maxDelay ) {
+			logger.debug("Server requested a retry after " + retryAfter + "ms, which exceeds the maximum delay of " + maxDelay + "ms");
+			return -1L;
+		}
+		if( budget != null && !budget.tryAcquire() ) {
+			logger.warn("Retry budget exhausted, not retrying " + methodType + " after HTTP " + statusCode);
+			return -1L;
+		}
+		long ceiling = baseDelay << Math.min(attempts - 1, 30);
+
+		if( ceiling <= 0L || ceiling > maxDelay ) {
+			ceiling = maxDelay;
+		}
+		long delay = (long)(random.nextDouble() * ceiling);
+
+		return Math.max(delay, retryAfter);
+	}
+
+	public boolean isRetryable(@Nonnull HttpMethodName methodType, int statusCode) {
+		if( methodType.equals(HttpMethodName.GET) || methodType.equals(HttpMethodName.HEAD) ) {
+			return (statusCode == HttpStatus.SC_INTERNAL_SERVER_ERROR || statusCode == HttpStatus.SC_BAD_GATEWAY || statusCode == HttpStatus.SC_SERVICE_UNAVAILABLE || statusCode == HttpStatus.SC_GATEWAY_TIMEOUT);
+		}
+		return statusCode == HttpStatus.SC_SERVICE_UNAVAILABLE;
+	}
+
+	@Override
+	public void recordSuccess(@Nonnull HttpMethodName methodType) {
+		if( budget != null ) {
+			budget.recordSuccess();
+		}
+	}
+}
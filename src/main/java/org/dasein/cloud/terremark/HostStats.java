@@ -0,0 +1,79 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.terremark;
+
+import javax.annotation.Nonnull;
+
+/**
+ * An immutable snapshot of the latency of the responses served by one backend node, as named by the
+ * {@link Terremark#RESPONDING_HOST} header.
+ */
+public class HostStats {
+	private String host;
+	private long   calls;
+	private double meanLatency;
+	private long   p50Latency;
+	private long   p90Latency;
+	private long   p99Latency;
+	private long   maxLatency;
+
+	public HostStats(@Nonnull String host, @Nonnull LatencyHistogram latency) {
+		this.host = host;
+		this.calls = latency.getCount();
+		this.meanLatency = latency.getMean();
+		this.p50Latency = latency.getPercentile(0.50);
+		this.p90Latency = latency.getPercentile(0.90);
+		this.p99Latency = latency.getPercentile(0.99);
+		this.maxLatency = latency.getMax();
+	}
+
+	public long getCalls() {
+		return calls;
+	}
+
+	public @Nonnull String getHost() {
+		return host;
+	}
+
+	public long getMaxLatency() {
+		return maxLatency;
+	}
+
+	public double getMeanLatency() {
+		return meanLatency;
+	}
+
+	public long getP50Latency() {
+		return p50Latency;
+	}
+
+	public long getP90Latency() {
+		return p90Latency;
+	}
+
+	public long getP99Latency() {
+		return p99Latency;
+	}
+
+	@Override
+	public String toString() {
+		return host + " calls=" + calls + " p50=" + p50Latency + "ms p90=" + p90Latency + "ms p99=" + p99Latency + "ms max=" + maxLatency + "ms";
+	}
+}
@@ -0,0 +1,44 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+
+package org.dasein.cloud.terremark;
+
+import java.io.IOException;
+
+import javax.annotation.Nonnull;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+
+/**
+ * Sends requests to the live Terremark endpoint through the provider's pooled {@link Terremark#getClient() HTTP client}.
+ */
+public class HttpTransport implements Transport {
+	private final Terremark provider;
+
+	public HttpTransport(@Nonnull Terremark provider) {
+		this.provider = provider;
+	}
+
+	@Override
+	public @Nonnull HttpResponse execute(@Nonnull HttpUriRequest request) throws IOException {
+		return provider.getClient().execute(request);
+	}
+}
@@ -0,0 +1,202 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.terremark;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.annotation.Nonnull;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.dasein.cloud.CloudException;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Decodes a Terremark JSON response with a streaming parser into the same DOM shape the XML representation
+ * produces, so that JSON responses feed the existing converters for virtual machines, IP addresses, volumes,
+ * and machine images unchanged. The mapping follows the conventions of the Terremark media types:
+ * <ul>
+ *   <li>scalar properties starting with a lower case letter (<code>href</code>, <code>name</code>, <code>type</code>,
+ *       ...) become attributes, all other properties become child elements;</li>
+ *   <li>an array under a plural name (<code>Links</code>) becomes a wrapper element holding one element per
+ *       item under the singular name (<code>Link</code>), while an array under a singular name becomes repeated
+ *       elements of that name;</li>
+ *   <li>the root element takes the name of a single wrapping property if there is one, and is otherwise named
+ *       after the media type in its <code>type</code> property (<code>application/vnd.tmrk.cloud.virtualMachine</code>
+ *       becomes <code>VirtualMachine</code>).</li>
+ * </ul>
+ */
+public class JsonDocumentReader {
+	static private final JsonFactory factory = new JsonFactory();
+
+	static private final String PLACEHOLDER = "Object";
+
+	/**
+	 * Reads a JSON document from the stream.
+	 * @param input the JSON response body
+	 * @return the equivalent DOM document
+	 * @throws CloudException the response was not valid JSON or could not be read
+	 */
+	static public @Nonnull Document parse(@Nonnull InputStream input) throws CloudException {
+		try {
+			Document doc = XmlResources.newDocument();
+			JsonParser parser = factory.createParser(input);
+
+			try {
+				if( parser.nextToken() != JsonToken.START_OBJECT ) {
+					throw new CloudException("Expected a JSON object in the response");
+				}
+				Element root = readObject(parser, doc, PLACEHOLDER);
+				Node only = root.getFirstChild();
+
+				if( !root.hasAttributes() && only != null && only.getNextSibling() == null && only.getNodeType() == Node.ELEMENT_NODE ) {
+					root.removeChild(only);
+					doc.appendChild(only);
+				}
+				else {
+					doc.appendChild(doc.renameNode(root, null, toElementName(root.getAttribute(Terremark.TYPE))));
+				}
+				return doc;
+			}
+			finally {
+				parser.close();
+			}
+		}
+		catch( ParserConfigurationException e ) {
+			throw new CloudException(e);
+		}
+		catch( JsonParseException e ) {
+			throw new CloudException(e);
+		}
+		catch( IOException e ) {
+			throw new CloudException(e);
+		}
+	}
+
+	static private boolean isAttribute(String name) {
+		return (name.length() > 0 && Character.isLowerCase(name.charAt(0)));
+	}
+
+	static private String singular(String name) {
+		if( name.endsWith("ies") ) {
+			return name.substring(0, name.length() - 3) + "y";
+		}
+		else if( name.endsWith("sses") || name.endsWith("xes") ) {
+			return name.substring(0, name.length() - 2);
+		}
+		else if( name.endsWith("s") && !name.endsWith("ss") ) {
+			return name.substring(0, name.length() - 1);
+		}
+		return name;
+	}
+
+	/**
+	 * Derives an element name from a Terremark media type.
+	 * @param type the media type, such as <code>application/vnd.tmrk.cloud.virtualMachine; type=collection</code>
+	 * @return the element name, such as <code>VirtualMachines</code>
+	 */
+	static String toElementName(String type) {
+		if( type == null || type.length() < 1 ) {
+			return PLACEHOLDER;
+		}
+		boolean collection = type.contains("type=collection");
+		int idx = type.indexOf(';');
+
+		if( idx > -1 ) {
+			type = type.substring(0, idx);
+		}
+		type = type.trim();
+		idx = type.lastIndexOf('.');
+		if( idx > -1 ) {
+			type = type.substring(idx + 1);
+		}
+		else if( type.indexOf('/') > -1 ) {
+			type = type.substring(type.indexOf('/') + 1);
+		}
+		if( type.length() < 1 ) {
+			return PLACEHOLDER;
+		}
+		return Character.toUpperCase(type.charAt(0)) + type.substring(1) + (collection ? "s" : "");
+	}
+
+	static private Element readObject(JsonParser parser, Document doc, String name) throws IOException {
+		Element element = doc.createElement(name);
+
+		while( parser.nextToken() == JsonToken.FIELD_NAME ) {
+			String field = parser.getCurrentName();
+			JsonToken token = parser.nextToken();
+
+			if( token == JsonToken.START_OBJECT ) {
+				element.appendChild(readObject(parser, doc, field));
+			}
+			else if( token == JsonToken.START_ARRAY ) {
+				String itemName = singular(field);
+
+				if( itemName.equals(field) ) {
+					readArray(parser, doc, element, field);
+				}
+				else {
+					Element wrapper = doc.createElement(field);
+
+					readArray(parser, doc, wrapper, itemName);
+					element.appendChild(wrapper);
+				}
+			}
+			else if( token != JsonToken.VALUE_NULL ) {
+				if( isAttribute(field) ) {
+					element.setAttribute(field, parser.getText());
+				}
+				else {
+					Element child = doc.createElement(field);
+
+					child.setTextContent(parser.getText());
+					element.appendChild(child);
+				}
+			}
+		}
+		return element;
+	}
+
+	static private void readArray(JsonParser parser, Document doc, Element parent, String itemName) throws IOException {
+		JsonToken token;
+
+		while( (token = parser.nextToken()) != JsonToken.END_ARRAY && token != null ) {
+			if( token == JsonToken.START_OBJECT ) {
+				parent.appendChild(readObject(parser, doc, itemName));
+			}
+			else if( token == JsonToken.START_ARRAY ) {
+				readArray(parser, doc, parent, itemName);
+			}
+			else if( token != JsonToken.VALUE_NULL ) {
+				Element child = doc.createElement(itemName);
+
+				child.setTextContent(parser.getText());
+				parent.appendChild(child);
+			}
+		}
+	}
+}
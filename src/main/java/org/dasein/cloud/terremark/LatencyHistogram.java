@@ -0,0 +1,95 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.terremark;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free latency histogram with fixed, roughly logarithmic millisecond buckets. Percentiles are reported as
+ * the upper bound of the bucket in which they fall, which is precise enough to rank endpoints and spot regressions
+ * without the cost of keeping individual samples.
+ */
+public class LatencyHistogram {
+	static private final long[] BOUNDS = { 1L, 2L, 5L, 10L, 20L, 50L, 100L, 200L, 300L, 500L, 750L, 1000L, 1500L, 2000L, 3000L, 5000L, 7500L, 10000L, 20000L, 30000L, 60000L, 120000L, 300000L };
+
+	private final AtomicLongArray counts = new AtomicLongArray(BOUNDS.length + 1);
+	private final AtomicLong      count  = new AtomicLong();
+	private final AtomicLong      total  = new AtomicLong();
+	private final AtomicLong      max    = new AtomicLong();
+
+	public void record(long millis) {
+		int idx = BOUNDS.length;
+
+		for( int i=0; i<BOUNDS.length; i++ ) {
+			if( millis <= BOUNDS[i] ) {
+				idx = i;
+				break;
+			}
+		}
+		counts.incrementAndGet(idx);
+		count.incrementAndGet();
+		total.addAndGet(millis);
+		while( true ) {
+			long current = max.get();
+
+			if( millis <= current || max.compareAndSet(current, millis) ) {
+				break;
+			}
+		}
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	public double getMean() {
+		long c = count.get();
+
+		return (c == 0L ? 0.0 : ((double)total.get()) / c);
+	}
+
+	/**
+	 * Estimates the latency below which the specified fraction of samples fall.
+	 * @param percentile the percentile to estimate, between 0.0 and 1.0
+	 * @return the upper bound in milliseconds of the bucket holding the percentile, or 0 if nothing has been recorded
+	 */
+	public long getPercentile(double percentile) {
+		long c = count.get();
+
+		if( c == 0L ) {
+			return 0L;
+		}
+		long target = (long)Math.ceil(percentile * c);
+		long seen = 0L;
+
+		for( int i=0; i<counts.length(); i++ ) {
+			seen += counts.get(i);
+			if( seen >= target ) {
+				return (i < BOUNDS.length ? Math.min(BOUNDS[i], getMax()) : getMax());
+			}
+		}
+		return getMax();
+	}
+}
@@ -0,0 +1,176 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.terremark;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.annotation.Nonnull;
+
+/**
+ * An immutable snapshot of the metrics recorded for one API operation, identified by its HTTP method and
+ * normalized URL template (for example <code>GET /virtualMachines/{id}</code>).
+ */
+public class OperationStats {
+	private String         method;
+	private String         template;
+	private long           calls;
+	private long           errors;
+	private long           retries;
+	private long           hedges;
+	private long           hedgeWins;
+	private long           bytesSent;
+	private long           bytesReceived;
+	private long           bytesDecoded;
+	private double         meanLatency;
+	private long           p50Latency;
+	private long           p90Latency;
+	private long           p99Latency;
+	private long           maxLatency;
+	private Map<Integer,Long> statusCounts;
+
+	public OperationStats(@Nonnull String method, @Nonnull String template, long calls, long errors, long retries, long hedges, long hedgeWins, long bytesSent, long bytesReceived, long bytesDecoded, @Nonnull LatencyHistogram latency, @Nonnull Map<Integer,Long> statusCounts) {
+		this.method = method;
+		this.template = template;
+		this.calls = calls;
+		this.errors = errors;
+		this.retries = retries;
+		this.hedges = hedges;
+		this.hedgeWins = hedgeWins;
+		this.bytesSent = bytesSent;
+		this.bytesReceived = bytesReceived;
+		this.bytesDecoded = bytesDecoded;
+		this.meanLatency = latency.getMean();
+		this.p50Latency = latency.getPercentile(0.50);
+		this.p90Latency = latency.getPercentile(0.90);
+		this.p99Latency = latency.getPercentile(0.99);
+		this.maxLatency = latency.getMax();
+		this.statusCounts = Collections.unmodifiableMap(new TreeMap<Integer,Long>(statusCounts));
+	}
+
+	/**
+	 * @return the number of response body bytes after decompression
+	 */
+	public long getBytesDecoded() {
+		return bytesDecoded;
+	}
+
+	/**
+	 * @return the number of response body bytes read from the connection, compressed if the server compressed them
+	 */
+	public long getBytesReceived() {
+		return bytesReceived;
+	}
+
+	public long getBytesSent() {
+		return bytesSent;
+	}
+
+	/**
+	 * @return the decoded response size divided by the size on the wire, 1.0 if nothing was compressed or received
+	 */
+	public double getCompressionRatio() {
+		return (bytesReceived > 0L ? ((double)bytesDecoded) / bytesReceived : 1.0);
+	}
+
+	/**
+	 * @return the number of attempts made against this operation, retries included
+	 */
+	public long getCalls() {
+		return calls;
+	}
+
+	/**
+	 * @return the number of attempts that failed with an I/O error or an HTTP status of 400 or above
+	 */
+	public long getErrors() {
+		return errors;
+	}
+
+	/**
+	 * @return the number of GETs that were sent a second time because the first copy was slow to answer
+	 */
+	public long getHedges() {
+		return hedges;
+	}
+
+	/**
+	 * @return the fraction of calls that were hedged
+	 */
+	public double getHedgeRate() {
+		return (calls > 0L ? ((double)hedges) / calls : 0.0);
+	}
+
+	/**
+	 * @return the number of hedged GETs in which the second copy answered first
+	 */
+	public long getHedgeWins() {
+		return hedgeWins;
+	}
+
+	public long getMaxLatency() {
+		return maxLatency;
+	}
+
+	public double getMeanLatency() {
+		return meanLatency;
+	}
+
+	public @Nonnull String getMethod() {
+		return method;
+	}
+
+	public @Nonnull String getOperation() {
+		return method + " " + template;
+	}
+
+	public long getP50Latency() {
+		return p50Latency;
+	}
+
+	public long getP90Latency() {
+		return p90Latency;
+	}
+
+	public long getP99Latency() {
+		return p99Latency;
+	}
+
+	public long getRetries() {
+		return retries;
+	}
+
+	/**
+	 * @return the number of responses per HTTP status code, with I/O failures counted under -1
+	 */
+	public @Nonnull Map<Integer,Long> getStatusCounts() {
+		return statusCounts;
+	}
+
+	public @Nonnull String getTemplate() {
+		return template;
+	}
+
+	@Override
+	public String toString() {
+		return getOperation() + " calls=" + calls + " errors=" + errors + " retries=" + retries + " hedges=" + hedges + " hedgeWins=" + hedgeWins + " p50=" + p50Latency + "ms p90=" + p90Latency + "ms p99=" + p99Latency + "ms max=" + maxLatency + "ms sent=" + bytesSent + " received=" + bytesReceived + " decoded=" + bytesDecoded;
+	}
+}
@@ -0,0 +1,135 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.terremark;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+
+/**
+ * A client-side token bucket that paces the API calls made with a single Terremark access key. Tokens accrue at
+ * a sustained rate up to a burst capacity. A caller that finds the bucket empty reserves the next free token and
+ * sleeps until it is due, so concurrent callers queue in arrival order instead of all being throttled by the
+ * server at once.
+ */
+public class RateLimiter {
+	static private final ConcurrentHashMap<String,RateLimiter> limiters = new ConcurrentHashMap<String,RateLimiter>();
+
+	/**
+	 * Provides the limiter shared by all providers using the specified key. The rate and burst are fixed by the
+	 * first caller for the key.
+	 * @param key the access key, qualified by the class of calls the limiter applies to
+	 * @param permitsPerSecond the sustained number of calls per second
+	 * @param burst the number of calls that may be made back to back after a quiet period
+	 * @return the rate limiter for the key
+	 */
+	static public @Nonnull RateLimiter getInstance(@Nonnull String key, double permitsPerSecond, int burst) {
+		RateLimiter limiter = limiters.get(key);
+
+		if( limiter == null ) {
+			limiters.putIfAbsent(key, new RateLimiter(permitsPerSecond, burst));
+			limiter = limiters.get(key);
+		}
+		return limiter;
+	}
+
+	private final double permitsPerNano;
+	private final double capacity;
+	private double       tokens;
+	private long         lastRefill;
+
+	public RateLimiter(double permitsPerSecond, int burst) {
+		this.permitsPerNano = permitsPerSecond / TimeUnit.SECONDS.toNanos(1);
+		this.capacity = Math.max(1, burst);
+		this.tokens = capacity;
+		this.lastRefill = System.nanoTime();
+	}
+
+	/**
+	 * Takes a token from the bucket, waiting until one is available.
+	 * @return the number of milliseconds spent waiting
+	 * @throws InterruptedException the thread was interrupted while waiting for a token
+	 */
+	public long acquire() throws InterruptedException {
+		return acquire(-1L);
+	}
+
+	/**
+	 * Takes a token from the bucket, waiting until one is available unless that would take longer than the timeout.
+	 * No token is taken when the timeout would be exceeded, so the caller's place is left to the next in line.
+	 * @param timeout the longest time in milliseconds to wait, or a negative number to wait as long as it takes
+	 * @return the number of milliseconds spent waiting, or -1 if no token could be had within the timeout
+	 * @throws InterruptedException the thread was interrupted while waiting for a token
+	 */
+	public long acquire(long timeout) throws InterruptedException {
+		long waitNanos = reserve(timeout < 0L ? -1L : TimeUnit.MILLISECONDS.toNanos(timeout));
+
+		if( waitNanos < 0L ) {
+			return -1L;
+		}
+		if( waitNanos > 0L ) {
+			TimeUnit.NANOSECONDS.sleep(waitNanos);
+		}
+		return TimeUnit.NANOSECONDS.toMillis(waitNanos);
+	}
+
+	/**
+	 * Takes a token from the bucket only if one is available now.
+	 * @return true if a token was taken, false if the caller would have had to wait
+	 */
+	public synchronized boolean tryAcquire() {
+		refill(System.nanoTime());
+		if( tokens < 1.0 ) {
+			return false;
+		}
+		tokens -= 1.0;
+		return true;
+	}
+
+	public synchronized double getAvailableTokens() {
+		refill(System.nanoTime());
+		return tokens;
+	}
+
+	private synchronized long reserve(long maxWaitNanos) {
+		long now = System.nanoTime();
+
+		refill(now);
+		if( tokens >= 1.0 ) {
+			tokens -= 1.0;
+			return 0L;
+		}
+		long waitNanos = (long)Math.ceil((1.0 - tokens) / permitsPerNano);
+
+		if( maxWaitNanos >= 0L && waitNanos > maxWaitNanos ) {
+			return -1L;
+		}
+		tokens -= 1.0;
+		return waitNanos;
+	}
+
+	private void refill(long now) {
+		if( now > lastRefill ) {
+			tokens = Math.min(capacity, tokens + ((now - lastRefill) * permitsPerNano));
+			lastRefill = now;
+		}
+	}
+}
@@ -0,0 +1,226 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+
+package org.dasein.cloud.terremark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.entity.DeflateDecompressingEntity;
+import org.apache.http.client.entity.GzipDecompressingEntity;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * Passes requests through to another transport and writes each request/response pair to a directory, where a
+ * {@link ReplayTransport} can serve them back later. Each exchange is stored in its own numbered file so that the
+ * order of repeated calls, such as polls of a task that is still running, is preserved. A file holds the request
+ * line and body digest, a blank line, the status line and response headers, a blank line, and the response body.
+ * <p>
+ * Recordings are meant to be checked in as test fixtures, so nothing that would let someone act on the account is
+ * written. The request's signature and other headers are left out, and so are cookies and credential headers of the
+ * response. XML and JSON response bodies are decompressed and have their passwords, secrets, and private keys
+ * redacted as in {@link WireCapture}; other bodies are written byte for byte. A response compressed in a way
+ * that cannot be read is not recorded at all.
+ * </p>
+ */
+public class RecordingTransport implements Transport {
+	static final String BODY_DIGEST = "X-Request-Body-SHA1";
+	static final String EXTENSION   = ".http";
+
+	// response headers that are never written, compared ignoring case
+	static private final String[] UNRECORDED_HEADERS = {
+		"Set-Cookie", "Set-Cookie2", "Content-Length", Terremark.TMRK_AUTHORIZATION, Terremark.AUTHORIZATION, Terremark.GUEST_PASSWORD
+	};
+
+	/**
+	 * Builds the key under which an exchange is recorded and replayed: the method, the path and query without the
+	 * endpoint, and a digest of the request body if there is one. Headers are left out because the date and
+	 * signature change on every call.
+	 * @param request the request
+	 * @return the key identifying equivalent requests
+	 * @throws IOException the request body could not be read
+	 */
+	static @Nonnull String toKey(@Nonnull HttpUriRequest request) throws IOException {
+		URI uri = request.getURI();
+		String target = uri.getRawPath() + (uri.getRawQuery() == null ? "" : "?" + uri.getRawQuery());
+		String digest = getBodyDigest(request);
+
+		return request.getMethod() + " " + target + (digest == null ? "" : " " + digest);
+	}
+
+	static private boolean isRecorded(String header) {
+		for( String name : UNRECORDED_HEADERS ) {
+			if( name.equalsIgnoreCase(header) ) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	static private boolean isText(HttpEntity entity) {
+		Header contentType = entity.getContentType();
+		String value = (contentType == null ? "" : contentType.getValue().toLowerCase());
+
+		return (value.contains("xml") || value.contains("json") || value.startsWith("text/"));
+	}
+
+	/**
+	 * Decompresses a text body and redacts the secrets in it.
+	 * @param entity the response entity, for its content type and encoding
+	 * @param body the body as received
+	 * @return the body to write, or the same array if it is not text
+	 * @throws IOException the body is compressed in a way that cannot be read
+	 */
+	static private byte[] toRecordedBody(HttpEntity entity, byte[] body) throws IOException {
+		if( !isText(entity) ) {
+			return body;
+		}
+		Header encoding = entity.getContentEncoding();
+		String value = (encoding == null ? "identity" : encoding.getValue().trim());
+
+		if( value.equalsIgnoreCase("gzip") || value.equalsIgnoreCase("x-gzip") ) {
+			body = EntityUtils.toByteArray(new GzipDecompressingEntity(new ByteArrayEntity(body)));
+		}
+		else if( value.equalsIgnoreCase("deflate") ) {
+			body = EntityUtils.toByteArray(new DeflateDecompressingEntity(new ByteArrayEntity(body)));
+		}
+		else if( !value.equalsIgnoreCase("identity") ) {
+			throw new IOException("Cannot record a response with Content-Encoding " + value);
+		}
+		return WireCapture.redact(new String(body, "utf-8")).getBytes("utf-8");
+	}
+
+	static String getBodyDigest(HttpUriRequest request) throws IOException {
+		if( !(request instanceof HttpEntityEnclosingRequest) ) {
+			return null;
+		}
+		HttpEntity entity = ((HttpEntityEnclosingRequest)request).getEntity();
+
+		if( entity == null ) {
+			return null;
+		}
+		if( !entity.isRepeatable() ) {
+			throw new IOException("Cannot record a request with a body that can only be read once");
+		}
+		try {
+			return Hex.encodeHexString(MessageDigest.getInstance("SHA-1").digest(EntityUtils.toByteArray(entity)));
+		}
+		catch( NoSuchAlgorithmException e ) {
+			throw new IOException(e.getMessage());
+		}
+	}
+
+	private final Transport     delegate;
+	private final File          directory;
+	private final AtomicInteger sequence;
+
+	/**
+	 * @param delegate the transport that actually carries the requests
+	 * @param directory the directory to write the exchanges to, created if necessary
+	 * @throws IOException the directory could not be created
+	 */
+	public RecordingTransport(@Nonnull Transport delegate, @Nonnull File directory) throws IOException {
+		if( !directory.isDirectory() && !directory.mkdirs() ) {
+			throw new IOException("Unable to create recording directory " + directory);
+		}
+		String[] existing = directory.list();
+
+		this.delegate = delegate;
+		this.directory = directory;
+		// continue numbering after any earlier recording in the same directory
+		this.sequence = new AtomicInteger(existing == null ? 0 : existing.length);
+	}
+
+	@Override
+	public @Nonnull HttpResponse execute(@Nonnull HttpUriRequest request) throws IOException {
+		String key = toKey(request);
+		HttpResponse response = delegate.execute(request);
+		HttpEntity entity = response.getEntity();
+		byte[] body = null;
+		boolean decoded = false;
+
+		if( entity != null ) {
+			byte[] received = EntityUtils.toByteArray(entity);
+			ByteArrayEntity copy = new ByteArrayEntity(received);
+
+			copy.setContentType(entity.getContentType());
+			copy.setContentEncoding(entity.getContentEncoding());
+			response.setEntity(copy);
+			body = toRecordedBody(entity, received);
+			decoded = (body != received && entity.getContentEncoding() != null);
+		}
+		write(key, response, body, decoded);
+		return response;
+	}
+
+	/**
+	 * @param decoded true if the body was decompressed, so that its Content-Encoding no longer applies
+	 */
+	private void write(String key, HttpResponse response, byte[] body, boolean decoded) throws IOException {
+		ByteArrayOutputStream head = new ByteArrayOutputStream();
+		int idx = key.indexOf(' ', key.indexOf(' ') + 1);
+
+		if( idx > -1 ) {
+			head.write((key.substring(0, idx) + "\n" + BODY_DIGEST + ": " + key.substring(idx + 1) + "\n").getBytes("utf-8"));
+		}
+		else {
+			head.write((key + "\n").getBytes("utf-8"));
+		}
+		head.write('\n');
+		head.write((response.getStatusLine().toString() + "\n").getBytes("utf-8"));
+		for( Header header : response.getAllHeaders() ) {
+			String name = header.getName();
+
+			if( isRecorded(name) && !(decoded && name.equalsIgnoreCase("Content-Encoding")) ) {
+				head.write((name + ": " + header.getValue() + "\n").getBytes("utf-8"));
+			}
+		}
+		head.write('\n');
+
+		File file = new File(directory, String.format("%06d", sequence.getAndIncrement()) + EXTENSION);
+		OutputStream out = new FileOutputStream(file);
+
+		try {
+			head.writeTo(out);
+			if( body != null ) {
+				out.write(body);
+			}
+		}
+		finally {
+			out.close();
+		}
+	}
+}
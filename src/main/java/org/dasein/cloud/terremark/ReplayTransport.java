@@ -0,0 +1,203 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+
+package org.dasein.cloud.terremark;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.message.BasicStatusLine;
+
+/**
+ * Serves responses captured by a {@link RecordingTransport} without touching the network. Every recording in the
+ * directory is loaded into memory up front. Requests are matched on method, path and query, and request body;
+ * when the same request was recorded several times, the responses are served in the order they were recorded and
+ * the last one is repeated once they run out, so a task poll ends on the state it finished in.
+ */
+public class ReplayTransport implements Transport {
+	static private class Exchange {
+		int      statusCode;
+		String   reason;
+		Header[] headers;
+		byte[]   body;
+	}
+
+	static private class Exchanges {
+		final List<Exchange> responses = new ArrayList<Exchange>();
+		int next = 0;
+
+		synchronized Exchange take() {
+			Exchange exchange = responses.get(Math.min(next, responses.size() - 1));
+
+			next++;
+			return exchange;
+		}
+
+		synchronized void rewind() {
+			next = 0;
+		}
+	}
+
+	private final Map<String,Exchanges> exchanges = new HashMap<String,Exchanges>();
+
+	/**
+	 * @param directory the directory a {@link RecordingTransport} wrote to
+	 * @throws IOException the directory or one of its recordings could not be read
+	 */
+	public ReplayTransport(@Nonnull File directory) throws IOException {
+		File[] files = directory.listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.endsWith(RecordingTransport.EXTENSION);
+			}
+		});
+
+		if( files == null ) {
+			throw new IOException("No recordings found in " + directory);
+		}
+		Arrays.sort(files);
+		for( File file : files ) {
+			load(file);
+		}
+	}
+
+	@Override
+	public @Nonnull HttpResponse execute(@Nonnull HttpUriRequest request) throws IOException {
+		String key = RecordingTransport.toKey(request);
+		Exchanges recorded = exchanges.get(key);
+
+		if( recorded == null ) {
+			throw new IOException("No recorded response for " + key);
+		}
+		Exchange exchange = recorded.take();
+		HttpResponse response = new BasicHttpResponse(new BasicStatusLine(HttpVersion.HTTP_1_1, exchange.statusCode, exchange.reason));
+
+		response.setHeaders(exchange.headers);
+		if( exchange.body != null && exchange.body.length > 0 ) {
+			ByteArrayEntity entity = new ByteArrayEntity(exchange.body);
+
+			entity.setContentType(response.getFirstHeader(Terremark.CONTENT_TYPE));
+			entity.setContentEncoding(response.getFirstHeader("Content-Encoding"));
+			response.setEntity(entity);
+		}
+		return response;
+	}
+
+	/**
+	 * @return the number of distinct requests that have recorded responses
+	 */
+	public int getRequestCount() {
+		return exchanges.size();
+	}
+
+	/**
+	 * Starts every sequence of repeated responses from the beginning again.
+	 */
+	public void rewind() {
+		for( Exchanges recorded : exchanges.values() ) {
+			recorded.rewind();
+		}
+	}
+
+	private void load(File file) throws IOException {
+		byte[] data = new byte[(int)file.length()];
+		InputStream input = new FileInputStream(file);
+
+		try {
+			int offset = 0;
+
+			while( offset < data.length ) {
+				int n = input.read(data, offset, data.length - offset);
+
+				if( n < 0 ) {
+					throw new IOException("Unexpected end of " + file);
+				}
+				offset += n;
+			}
+		}
+		finally {
+			input.close();
+		}
+		int[] position = new int[] { 0 };
+		String key = readLine(data, position, file);
+		String line;
+
+		while( (line = readLine(data, position, file)).length() > 0 ) {
+			if( line.startsWith(RecordingTransport.BODY_DIGEST + ":") ) {
+				key = key + " " + line.substring(RecordingTransport.BODY_DIGEST.length() + 1).trim();
+			}
+		}
+		String[] status = readLine(data, position, file).split(" ", 3);
+		Exchange exchange = new Exchange();
+		List<Header> headers = new ArrayList<Header>();
+
+		if( status.length < 2 ) {
+			throw new IOException("Missing status line in " + file);
+		}
+		exchange.statusCode = Integer.parseInt(status[1]);
+		exchange.reason = (status.length > 2 ? status[2] : "");
+		while( (line = readLine(data, position, file)).length() > 0 ) {
+			int idx = line.indexOf(':');
+
+			if( idx > 0 ) {
+				headers.add(new BasicHeader(line.substring(0, idx), line.substring(idx + 1).trim()));
+			}
+		}
+		exchange.headers = headers.toArray(new Header[headers.size()]);
+		exchange.body = Arrays.copyOfRange(data, position[0], data.length);
+
+		Exchanges recorded = exchanges.get(key);
+
+		if( recorded == null ) {
+			recorded = new Exchanges();
+			exchanges.put(key, recorded);
+		}
+		recorded.responses.add(exchange);
+	}
+
+	static private String readLine(byte[] data, int[] position, File file) throws IOException {
+		int start = position[0];
+
+		for( int i=start; i<data.length; i++ ) {
+			if( data[i] == '\n' ) {
+				position[0] = i + 1;
+				return new String(data, start, i - start, "utf-8");
+			}
+		}
+		throw new IOException("Truncated recording " + file);
+	}
+}
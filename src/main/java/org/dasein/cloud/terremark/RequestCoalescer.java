@@ -0,0 +1,195 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.terremark;
+
+import java.util.LinkedList;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.w3c.dom.Document;
+
+/**
+ * Coalesces identical concurrent GET requests so that only one of them goes to the server. The first caller for
+ * a given key makes the request; callers arriving while it is in flight wait for it to finish and then receive
+ * their own deep copy of the parsed response, so no two threads ever share a DOM tree. All copies are made by the
+ * calling thread before it returns, as DOM implementations are not safe for concurrent reads. A waiting caller
+ * gives up when its own {@link Deadline} passes or it is interrupted, whatever the deadline of the call it joined.
+ * Likewise, when the call it joined fails only because that caller ran out of time or was interrupted, the failure
+ * says nothing about the request, so a waiting caller makes the request again rather than sharing it.
+ */
+public class RequestCoalescer {
+	static private final Logger logger = Terremark.getLogger(RequestCoalescer.class);
+
+	/**
+	 * The request being coalesced.
+	 */
+	public interface Call {
+		public Document call() throws CloudException, InternalException;
+	}
+
+	static private final ConcurrentHashMap<String,Flight> flights = new ConcurrentHashMap<String,Flight>();
+
+	/**
+	 * Executes the call, or waits for an identical call that is already in flight.
+	 * @param key identifies identical requests, typically the credentials and full URL of a GET
+	 * @param call the request to make if none is in flight for the key
+	 * @param deadline the time by which a caller waiting on a request already in flight gives up, or <code>null</code> to wait as long as it takes
+	 * @return the response document, private to the caller
+	 * @throws CloudException the shared request failed within the cloud provider or the deadline passed while waiting for it
+	 * @throws InternalException the shared request failed within the Dasein Cloud implementation or the wait was interrupted
+	 */
+	static public Document execute(@Nonnull String key, @Nonnull Call call, @Nullable Deadline deadline) throws CloudException, InternalException {
+		while( true ) {
+			Flight flight = new Flight();
+			Flight current = flights.putIfAbsent(key, flight);
+
+			if( current == null ) {
+				Document doc = null;
+				Throwable error = null;
+
+				try {
+					doc = call.call();
+					return doc;
+				}
+				catch( CloudException e ) {
+					error = e;
+					throw e;
+				}
+				catch( InternalException e ) {
+					error = e;
+					throw e;
+				}
+				catch( RuntimeException e ) {
+					error = e;
+					throw e;
+				}
+				catch( Error e ) {
+					error = e;
+					throw e;
+				}
+				finally {
+					flights.remove(key, flight);
+					flight.complete(doc, error);
+				}
+			}
+			if( current.join() ) {
+				if( logger.isDebugEnabled() ) {
+					logger.debug("Coalesced request for " + key);
+				}
+				Document doc = current.take(deadline);
+
+				if( !current.isAbandoned() ) {
+					return doc;
+				}
+				if( logger.isDebugEnabled() ) {
+					logger.debug("Request for " + key + " was abandoned by the caller making it, trying again");
+				}
+				continue;
+			}
+			// the flight completed before we could join it, so try again with a fresh request
+		}
+	}
+
+	/**
+	 * @param error the failure of a shared request
+	 * @return true if the failure belongs to the caller that made the request rather than to the request itself
+	 */
+	static private boolean isCallersOwn(@Nullable Throwable error) {
+		if( error instanceof DeadlineExceededException ) {
+			return true;
+		}
+		return (error instanceof InternalException && error.getCause() instanceof InterruptedException);
+	}
+
+	static private class Flight {
+		private boolean              closed    = false;
+		private boolean              abandoned = false;
+		private int                  waiters   = 0;
+		private Throwable            error     = null;
+		private LinkedList<Document> copies    = new LinkedList<Document>();
+
+		synchronized void complete(Document doc, Throwable error) {
+			closed = true;
+			abandoned = isCallersOwn(error);
+			this.error = error;
+			if( doc != null ) {
+				for( int i=0; i<waiters; i++ ) {
+					copies.add((Document)doc.cloneNode(true));
+				}
+			}
+			notifyAll();
+		}
+
+		synchronized boolean isAbandoned() {
+			return abandoned;
+		}
+
+		synchronized boolean join() {
+			if( closed ) {
+				return false;
+			}
+			waiters++;
+			return true;
+		}
+
+		synchronized Document take(Deadline deadline) throws CloudException, InternalException {
+			try {
+				while( !closed ) {
+					if( deadline == null ) {
+						wait();
+					}
+					else {
+						long remaining = deadline.getRemaining();
+
+						if( remaining <= 0L ) {
+							// leaving before completion, so no copy is made for this caller
+							waiters--;
+							throw new DeadlineExceededException("waiting for an identical request already in flight", deadline);
+						}
+						wait(remaining);
+					}
+				}
+			}
+			catch( InterruptedException e ) {
+				waiters--;
+				Thread.currentThread().interrupt();
+				throw new InternalException(e);
+			}
+			if( abandoned ) {
+				return null;
+			}
+			if( error instanceof CloudException ) {
+				throw (CloudException)error;
+			}
+			else if( error instanceof InternalException ) {
+				throw (InternalException)error;
+			}
+			else if( error != null ) {
+				throw new InternalException(error);
+			}
+			return copies.poll();
+		}
+	}
+}
@@ -0,0 +1,407 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.terremark;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.util.EntityUtils;
+import org.apache.log4j.Logger;
+import org.dasein.cloud.terremark.TerremarkMethod.HttpMethodName;
+
+/**
+ * Sends a second copy of a GET request when the first has not been answered within a percentile of the recent
+ * latency of the same operation, and uses whichever response arrives first. Requests are spread over backend nodes
+ * of very different speeds, so a GET that is slow to answer has usually landed on a slow node and a copy will most
+ * likely be answered by a faster one. The other request is aborted as soon as one has answered.
+ * <p>
+ * Recent latency is kept per URL template over the last {@link #WINDOW_SIZE} requests, and an operation is not
+ * hedged until it has at least {@link #MIN_SAMPLES} of them. A request's latency is the time its caller waited,
+ * from sending the first copy to the first response. A copy aborted because the other answered first only shows
+ * that it would have taken longer than it had been given, so it is kept as a censored sample and the percentiles
+ * are estimated with the Kaplan-Meier method rather than as though it had been answered at that moment. Every GET earns a fraction of a hedge in a
+ * {@link RetryBudget} and every hedge spends a whole one, which bounds the extra load on the server. A hedge is
+ * also only sent if the {@link Admission} passed in by the caller can make room for it at once, so that it is
+ * counted against the same rate and in-flight limits as any other call.
+ * </p>
+ * <p>
+ * The requests are sent from an executor owned by the calling provider. When the executor has no thread to spare
+ * the request is sent from the calling thread and is not hedged.
+ * </p>
+ */
+public class RequestHedger {
+	static private final Logger logger = Terremark.getLogger(RequestHedger.class);
+
+	static public final int WINDOW_SIZE = 128;
+	static public final int MIN_SAMPLES = 20;
+
+	static private final ConcurrentHashMap<String,RequestHedger> hedgers = new ConcurrentHashMap<String,RequestHedger>();
+
+	/**
+	 * Provides the hedger shared by all providers using the specified key. The settings are fixed by the first
+	 * caller for the key.
+	 * @param key the endpoint and access key whose requests are hedged
+	 * @param percentile the fraction of recent responses that must be slower than the hedge delay, such as 0.95
+	 * @param minimumDelay the shortest time in milliseconds to wait before hedging, however fast recent responses were
+	 * @param maxHedges the number of hedges that may be banked
+	 * @param hedgeRatio the fraction of a hedge earned by each GET
+	 * @return the hedger for the key
+	 */
+	static public @Nonnull RequestHedger getInstance(@Nonnull String key, double percentile, long minimumDelay, double maxHedges, double hedgeRatio) {
+		RequestHedger hedger = hedgers.get(key);
+
+		if( hedger == null ) {
+			hedgers.putIfAbsent(key, new RequestHedger(percentile, minimumDelay, new RetryBudget(maxHedges, hedgeRatio)));
+			hedger = hedgers.get(key);
+		}
+		return hedger;
+	}
+
+	/**
+	 * The latencies of the most recent requests to one operation.
+	 */
+	static private class Window {
+		private final long[]    samples  = new long[WINDOW_SIZE];
+		private final boolean[] censored = new boolean[WINDOW_SIZE];
+		private int             count    = 0;
+		private int             next     = 0;
+
+		/**
+		 * @param millis the latency of a request, or the time an aborted request had been waiting
+		 * @param aborted true if the request was aborted, so that its latency is only known to exceed <code>millis</code>
+		 */
+		synchronized void record(long millis, boolean aborted) {
+			samples[next] = millis;
+			censored[next] = aborted;
+			next = (next + 1) % samples.length;
+			if( count < samples.length ) {
+				count++;
+			}
+		}
+
+		synchronized long getPercentile(double percentile) {
+			if( count < MIN_SAMPLES ) {
+				return -1L;
+			}
+			// the low bit marks censored samples, which sort after answered ones of the same latency
+			long[] sorted = new long[count];
+
+			for( int i=0; i<count; i++ ) {
+				sorted[i] = (samples[i] << 1) | (censored[i] ? 1L : 0L);
+			}
+			Arrays.sort(sorted);
+			double survival = 1.0;
+
+			for( int i=0; i<count; i++ ) {
+				if( (sorted[i] & 1L) == 0L ) {
+					survival *= 1.0 - 1.0/(count - i);
+					if( 1.0 - survival >= percentile - 1e-9 ) {
+						return (sorted[i] >> 1);
+					}
+				}
+			}
+			// too few requests were answered to reach the percentile, so the longest wait is the best known bound
+			return (sorted[count - 1] >> 1);
+		}
+	}
+
+	/**
+	 * Reserves room for a hedge among the caller's other API calls and observes its outcome.
+	 */
+	public interface Admission {
+		/**
+		 * Reserves room for a hedge without waiting.
+		 * @return true if the hedge may be sent, false if it would have had to wait
+		 */
+		public boolean tryAdmit();
+
+		/**
+		 * Gives back the room reserved by a successful {@link #tryAdmit()} once the hedge has been answered or failed.
+		 */
+		public void release();
+
+		/**
+		 * Called once a hedge that was sent has been answered or failed.
+		 * @param request the hedge
+		 * @param response the response to the hedge, or <code>null</code> if it failed
+		 * @param error the error ending the hedge, if any
+		 * @param sentAt when the hedge was sent
+		 * @param latency the time taken to receive the response or the error
+		 */
+		public void completed(@Nonnull HttpUriRequest request, @Nullable HttpResponse response, @Nullable IOException error, long sentAt, long latency);
+	}
+
+	/**
+	 * One copy of a request in flight. The response or error is published through the result queue.
+	 */
+	static private class Attempt {
+		final HttpUriRequest request;
+		final boolean        hedge;
+		final long           sentAt = System.currentTimeMillis();
+		long                 latency;
+		HttpResponse         response;
+		IOException          error;
+
+		Attempt(HttpUriRequest request, boolean hedge) {
+			this.request = request;
+			this.hedge = hedge;
+		}
+	}
+
+	private final ConcurrentHashMap<String,Window> windows = new ConcurrentHashMap<String,Window>();
+	private final double      percentile;
+	private final long        minimumDelay;
+	private final RetryBudget budget;
+
+	public RequestHedger(double percentile, long minimumDelay, @Nonnull RetryBudget budget) {
+		this.percentile = percentile;
+		this.minimumDelay = minimumDelay;
+		this.budget = budget;
+	}
+
+	public @Nonnull RetryBudget getBudget() {
+		return budget;
+	}
+
+	/**
+	 * @param template the URL template of an operation, see {@link TerremarkMetrics#toTemplate(String)}
+	 * @return the number of milliseconds a GET to the operation may go unanswered before it is hedged, or -1 if too
+	 * few responses have been seen to tell
+	 */
+	public long getHedgeDelay(@Nonnull String template) {
+		Window window = windows.get(template);
+		long delay = (window == null ? -1L : window.getPercentile(percentile));
+
+		return (delay < 0L ? -1L : Math.max(minimumDelay, delay));
+	}
+
+	public double getPercentile() {
+		return percentile;
+	}
+
+	/**
+	 * Sends a GET request through the transport, hedging it if it is not answered in time.
+	 * @param executor the bounded executor owned by the calling provider from which the copies are sent
+	 * @param transport the transport carrying the request
+	 * @param request the signed request
+	 * @param template the URL template of the request, see {@link TerremarkMetrics#toTemplate(String)}
+	 * @param admission reserves room for a hedge among the caller's other calls, or <code>null</code> to hedge within the budget alone
+	 * @return the first response to arrive
+	 * @throws IOException every copy of the request that was sent failed; the first failure is thrown
+	 */
+	public @Nonnull HttpResponse execute(@Nonnull ExecutorService executor, @Nonnull Transport transport, @Nonnull HttpUriRequest request, @Nonnull String template, @Nullable Admission admission) throws IOException {
+		long delay = getHedgeDelay(template);
+
+		budget.recordSuccess();
+		if( delay < 0L ) {
+			return executeDirectly(transport, request, template);
+		}
+		BlockingQueue<Attempt> results = new LinkedBlockingQueue<Attempt>();
+		AtomicBoolean answered = new AtomicBoolean(false);
+		Attempt primary;
+		Attempt hedge = null;
+		IOException failure = null;
+		int outstanding = 1;
+
+		try {
+			primary = send(executor, transport, request, false, answered, results, null);
+		}
+		catch( RejectedExecutionException e ) {
+			logger.debug("No hedge thread available; sending GET " + request.getURI() + " unhedged");
+			return executeDirectly(transport, request, template);
+		}
+		try {
+			Attempt done = results.poll(delay, TimeUnit.MILLISECONDS);
+
+			if( done == null ) {
+				hedge = hedge(executor, transport, request, template, delay, admission, answered, results);
+				if( hedge != null ) {
+					outstanding++;
+				}
+				done = results.take();
+			}
+			while( true ) {
+				outstanding--;
+				if( done.response != null ) {
+					Attempt other = (done == primary ? hedge : primary);
+					long now = System.currentTimeMillis();
+
+					// what the caller waited, however quickly a late hedge came back
+					record(template, now - primary.sentAt, false);
+					if( done.hedge ) {
+						TerremarkMetrics.getInstance().recordHedgeWin(HttpMethodName.GET, template);
+					}
+					if( other != null ) {
+						other.request.abort();
+						// an aborted primary waited exactly as long as the caller, which is already recorded
+						if( other.hedge ) {
+							record(template, now - other.sentAt, true);
+						}
+					}
+					return done.response;
+				}
+				if( failure == null ) {
+					failure = done.error;
+				}
+				if( outstanding < 1 ) {
+					throw failure;
+				}
+				done = results.take();
+			}
+		}
+		catch( InterruptedException e ) {
+			long now = System.currentTimeMillis();
+
+			primary.request.abort();
+			record(template, now - primary.sentAt, true);
+			if( hedge != null ) {
+				hedge.request.abort();
+				record(template, now - hedge.sentAt, true);
+			}
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted waiting for GET " + request.getURI());
+		}
+	}
+
+	private HttpResponse executeDirectly(Transport transport, HttpUriRequest request, String template) throws IOException {
+		long sentAt = System.currentTimeMillis();
+		HttpResponse response = transport.execute(request);
+
+		record(template, System.currentTimeMillis() - sentAt, false);
+		return response;
+	}
+
+	/**
+	 * Sends the hedge for a request that has gone unanswered, if the budget, the caller, and the executor all have
+	 * room for it.
+	 * @return the hedge, or <code>null</code> if none was sent
+	 */
+	private Attempt hedge(ExecutorService executor, Transport transport, HttpUriRequest request, String template, long delay, Admission admission, AtomicBoolean answered, BlockingQueue<Attempt> results) {
+		if( !budget.tryAcquire() ) {
+			if( logger.isDebugEnabled() ) {
+				logger.debug("Hedge budget exhausted; not hedging GET " + request.getURI());
+			}
+			return null;
+		}
+		if( admission != null && !admission.tryAdmit() ) {
+			if( logger.isDebugEnabled() ) {
+				logger.debug("No room to send a hedge without waiting; not hedging GET " + request.getURI());
+			}
+			return null;
+		}
+		HttpGet copy = new HttpGet(request.getURI());
+
+		copy.setHeaders(request.getAllHeaders());
+		copy.setParams(request.getParams());
+		try {
+			Attempt hedge = send(executor, transport, copy, true, answered, results, admission);
+
+			if( logger.isDebugEnabled() ) {
+				logger.debug("Hedging GET " + request.getURI() + " after " + delay + "ms");
+			}
+			TerremarkMetrics.getInstance().recordHedge(HttpMethodName.GET, template);
+			return hedge;
+		}
+		catch( RejectedExecutionException e ) {
+			if( admission != null ) {
+				admission.release();
+			}
+			logger.debug("No hedge thread available; not hedging GET " + request.getURI());
+			return null;
+		}
+	}
+
+	private void record(String template, long latency, boolean aborted) {
+		Window window = windows.get(template);
+
+		if( window == null ) {
+			windows.putIfAbsent(template, new Window());
+			window = windows.get(template);
+		}
+		window.record(latency, aborted);
+	}
+
+	private Attempt send(ExecutorService executor, final Transport transport, HttpUriRequest request, boolean hedge, final AtomicBoolean answered, final BlockingQueue<Attempt> results, final Admission admission) {
+		final Attempt attempt = new Attempt(request, hedge);
+
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				long sentAt = System.currentTimeMillis();
+				HttpResponse response = null;
+				IOException error = null;
+
+				try {
+					response = transport.execute(attempt.request);
+				}
+				catch( IOException e ) {
+					error = e;
+				}
+				catch( RuntimeException e ) {
+					error = new IOException(e);
+				}
+				attempt.latency = System.currentTimeMillis() - sentAt;
+				if( admission != null ) {
+					try {
+						admission.completed(attempt.request, response, error, sentAt, attempt.latency);
+					}
+					catch( RuntimeException e ) {
+						logger.warn("Unable to record hedged GET " + attempt.request.getURI() + ": " + e.getMessage(), e);
+					}
+					finally {
+						admission.release();
+					}
+				}
+				if( error != null ) {
+					attempt.error = error;
+					results.add(attempt);
+				}
+				else if( answered.compareAndSet(false, true) ) {
+					attempt.response = response;
+					results.add(attempt);
+				}
+				else {
+					// the other copy already answered; release the connection
+					try {
+						EntityUtils.consume(response.getEntity());
+					}
+					catch( IOException e ) {
+						logger.debug("Unable to release the connection of an unused GET " + attempt.request.getURI() + ": " + e.getMessage());
+					}
+				}
+			}
+		});
+		return attempt;
+	}
+}
@@ -0,0 +1,275 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.terremark;
+
+import java.util.LinkedList;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Decides the order in which API calls made with a single Terremark access key go out when more are ready than
+ * may be in flight at once. Calls fall into three priority classes. Waiting calls are admitted by weighted fair
+ * queuing between the classes, so that each class gets a share of the admissions in proportion to its weight
+ * while it has calls waiting. Each class is also capped in the number of calls it may have in flight, so a flood
+ * of background polls can occupy only part of the capacity and foreground calls always find room.
+ * <p>
+ * The priority of a call is set with {@link TerremarkMethod#withPriority(Priority)}, or for everything a thread
+ * does until it is cleared with {@link #setCurrentPriority(Priority)}. Otherwise GET requests are
+ * {@link Priority#INTERACTIVE} and all others are {@link Priority#MUTATING}.
+ * </p>
+ */
+public class RequestScheduler {
+	public enum Priority {
+		/** lookups and listings someone is waiting on */
+		INTERACTIVE,
+		/** calls that launch, change, or remove resources */
+		MUTATING,
+		/** repeated status checks of long running tasks */
+		BACKGROUND_POLL;
+	}
+
+	static private final ThreadLocal<Priority> current = new ThreadLocal<Priority>();
+
+	static private final ConcurrentHashMap<String,RequestScheduler> schedulers = new ConcurrentHashMap<String,RequestScheduler>();
+
+	// the virtual time a class is charged per admission is STRIDE divided by its weight
+	static private final long STRIDE = 1L << 20;
+
+	/**
+	 * Provides the scheduler shared by all providers using the specified key. The limits and weights are fixed by
+	 * the first caller for the key.
+	 * @param key the endpoint and access key whose calls are scheduled
+	 * @param maxInFlight the number of calls that may be in flight at once across all classes
+	 * @param weights the weight of each class, indexed by {@link Priority#ordinal()}
+	 * @param limits the number of calls each class may have in flight, indexed by {@link Priority#ordinal()}
+	 * @return the scheduler for the key
+	 */
+	static public @Nonnull RequestScheduler getInstance(@Nonnull String key, int maxInFlight, @Nonnull int[] weights, @Nonnull int[] limits) {
+		RequestScheduler scheduler = schedulers.get(key);
+
+		if( scheduler == null ) {
+			schedulers.putIfAbsent(key, new RequestScheduler(maxInFlight, weights, limits));
+			scheduler = schedulers.get(key);
+		}
+		return scheduler;
+	}
+
+	/**
+	 * @return the priority applying to calls made by the current thread, if any
+	 */
+	static public @Nullable Priority getCurrentPriority() {
+		return current.get();
+	}
+
+	/**
+	 * Sets the priority applying to calls made by the current thread.
+	 * @param priority the new priority, or <code>null</code> to go back to choosing it by HTTP method
+	 * @return the priority it replaces, to be restored when the caller is done
+	 */
+	static public @Nullable Priority setCurrentPriority(@Nullable Priority priority) {
+		Priority previous = current.get();
+
+		if( priority == null ) {
+			current.remove();
+		}
+		else {
+			current.set(priority);
+		}
+		return previous;
+	}
+
+	static private class Ticket {
+		boolean granted = false;
+	}
+
+	static private class Lane {
+		final int                weight;
+		final int                limit;
+		final LinkedList<Ticket> queue    = new LinkedList<Ticket>();
+		int                      inFlight = 0;
+		long                     pass     = 0L;
+		long                     admitted = 0L;
+
+		Lane(int weight, int limit) {
+			this.weight = Math.max(1, weight);
+			this.limit = Math.max(1, limit);
+		}
+	}
+
+	private final Lane[] lanes;
+	private final int    maxInFlight;
+	private int          inFlight    = 0;
+	private long         virtualTime = 0L;
+
+	public RequestScheduler(int maxInFlight, @Nonnull int[] weights, @Nonnull int[] limits) {
+		Priority[] priorities = Priority.values();
+
+		this.maxInFlight = Math.max(1, maxInFlight);
+		lanes = new Lane[priorities.length];
+		for( int i=0; i<lanes.length; i++ ) {
+			lanes[i] = new Lane(weights[i], Math.min(this.maxInFlight, limits[i]));
+		}
+	}
+
+	/**
+	 * Waits until a call of the specified priority may be sent. Every successful acquisition must be followed by a
+	 * {@link #release(Priority)} once the call is done.
+	 * @param priority the priority class of the call
+	 * @param timeout the longest time in milliseconds to wait, or a negative number to wait as long as it takes
+	 * @return true if the call may proceed, false if the timeout passed first
+	 * @throws InterruptedException the thread was interrupted while waiting
+	 */
+	public synchronized boolean acquire(@Nonnull Priority priority, long timeout) throws InterruptedException {
+		Lane lane = lanes[priority.ordinal()];
+		Ticket ticket = new Ticket();
+		long until = System.currentTimeMillis() + timeout;
+
+		if( lane.queue.isEmpty() ) {
+			// a class returning from idle does not get credit for the time it had nothing to send
+			lane.pass = Math.max(lane.pass, virtualTime);
+		}
+		lane.queue.add(ticket);
+		dispatch();
+		try {
+			while( !ticket.granted ) {
+				if( timeout < 0L ) {
+					wait();
+				}
+				else {
+					long remaining = until - System.currentTimeMillis();
+
+					if( remaining <= 0L ) {
+						lane.queue.remove(ticket);
+						return false;
+					}
+					wait(remaining);
+				}
+			}
+			return true;
+		}
+		catch( InterruptedException e ) {
+			if( ticket.granted ) {
+				release(priority);
+			}
+			else {
+				lane.queue.remove(ticket);
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Admits a call of the specified priority only if it may be sent at once without overtaking calls of the same
+	 * class that are already waiting. A successful acquisition must be followed by a {@link #release(Priority)}.
+	 * @param priority the priority class of the call
+	 * @return true if the call may proceed, false if it would have had to wait
+	 */
+	public synchronized boolean tryAcquire(@Nonnull Priority priority) {
+		Lane lane = lanes[priority.ordinal()];
+
+		if( inFlight >= maxInFlight || lane.inFlight >= lane.limit || !lane.queue.isEmpty() ) {
+			return false;
+		}
+		lane.pass = Math.max(lane.pass, virtualTime);
+		admit(lane);
+		return true;
+	}
+
+	/**
+	 * Marks a call admitted by {@link #acquire(Priority, long)} or {@link #tryAcquire(Priority)} as done and admits the next waiting call, if any.
+	 * @param priority the priority class the call was admitted under
+	 */
+	public synchronized void release(@Nonnull Priority priority) {
+		Lane lane = lanes[priority.ordinal()];
+
+		lane.inFlight--;
+		inFlight--;
+		dispatch();
+	}
+
+	/**
+	 * @param priority a priority class
+	 * @return the number of calls of the class admitted so far
+	 */
+	public synchronized long getAdmittedCount(@Nonnull Priority priority) {
+		return lanes[priority.ordinal()].admitted;
+	}
+
+	/**
+	 * @param priority a priority class
+	 * @return the number of calls of the class in flight
+	 */
+	public synchronized int getInFlight(@Nonnull Priority priority) {
+		return lanes[priority.ordinal()].inFlight;
+	}
+
+	/**
+	 * @param priority a priority class
+	 * @return the most calls of the class that may be in flight at once
+	 */
+	public int getMaxInFlight(@Nonnull Priority priority) {
+		return lanes[priority.ordinal()].limit;
+	}
+
+	public int getMaxInFlight() {
+		return maxInFlight;
+	}
+
+	/**
+	 * @param priority a priority class
+	 * @return the number of calls of the class waiting to be admitted
+	 */
+	public synchronized int getQueueLength(@Nonnull Priority priority) {
+		return lanes[priority.ordinal()].queue.size();
+	}
+
+	private void dispatch() {
+		boolean admitted = false;
+
+		while( inFlight < maxInFlight ) {
+			Lane next = null;
+
+			for( Lane lane : lanes ) {
+				if( !lane.queue.isEmpty() && lane.inFlight < lane.limit && (next == null || lane.pass < next.pass) ) {
+					next = lane;
+				}
+			}
+			if( next == null ) {
+				break;
+			}
+			next.queue.removeFirst().granted = true;
+			admit(next);
+			admitted = true;
+		}
+		if( admitted ) {
+			notifyAll();
+		}
+	}
+
+	private void admit(Lane lane) {
+		lane.inFlight++;
+		lane.admitted++;
+		inFlight++;
+		virtualTime = lane.pass;
+		lane.pass += STRIDE / lane.weight;
+	}
+}
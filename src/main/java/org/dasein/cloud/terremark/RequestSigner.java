@@ -0,0 +1,243 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.terremark;
+
+import java.io.UnsupportedEncodingException;
+import java.security.GeneralSecurityException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.http.NameValuePair;
+import org.apache.log4j.Logger;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.terremark.TerremarkMethod.HttpMethodName;
+
+/**
+ * Builds the signed headers required by the Terremark API for a single set of credentials. The signer is thread
+ * safe and built to run on every request with as little garbage as possible: initialized {@link Mac} instances are
+ * kept in a small pool and reused, the RFC 1123 date is formatted at most once per second, and the canonical string
+ * to sign is assembled in a single builder. Request bodies are encoded to UTF-8 once by {@link #encode(String)} and
+ * the same bytes are used both for the signed content length and for the request entity.
+ * <p>
+ * A signer is owned by the provider whose credentials it holds (see {@link Terremark#getRequestSigner()}), so the
+ * secret key is kept no longer than the provider itself.
+ * </p>
+ */
+public class RequestSigner {
+	static private final Logger logger = Terremark.getLogger(RequestSigner.class);
+
+	/**
+	 * The most initialized {@link Mac} instances kept for reuse; more may be in use at once, but the extras are
+	 * discarded when done.
+	 */
+	static public final int MAX_POOLED_MACS = 16;
+
+	/**
+	 * Encodes a request body as UTF-8.
+	 * @param body the request body
+	 * @return the encoded body, or <code>null</code> if there is no body
+	 */
+	static public @Nullable byte[] encode(@Nullable String body) {
+		if( body == null ) {
+			return null;
+		}
+		try {
+			return body.getBytes("utf-8");
+		}
+		catch( UnsupportedEncodingException e ) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	static private class CachedDate {
+		final long   second;
+		final String formatted;
+
+		CachedDate(long second, String formatted) {
+			this.second = second;
+			this.formatted = formatted;
+		}
+	}
+
+	static private final ThreadLocal<SimpleDateFormat> dateFormat = new ThreadLocal<SimpleDateFormat>() {
+		@Override
+		protected SimpleDateFormat initialValue() {
+			// HTTP dates are always in English, whatever the default locale of the JVM
+			SimpleDateFormat format = new SimpleDateFormat(Terremark.RFC1123_PATTERN, Locale.US);
+
+			format.setTimeZone(TimeZone.getTimeZone("GMT"));
+			return format;
+		}
+	};
+
+	static private volatile CachedDate cachedDate = new CachedDate(-1L, null);
+
+	/**
+	 * @return the current time in the RFC 1123 format expected by the <code>x-tmrk-date</code> header
+	 */
+	static public @Nonnull String getRfcDate() {
+		long now = System.currentTimeMillis();
+		long second = now / 1000L;
+		CachedDate cached = cachedDate;
+
+		if( cached.second != second ) {
+			cached = new CachedDate(second, dateFormat.get().format(new Date(second * 1000L)));
+			cachedDate = cached;
+		}
+		return cached.formatted;
+	}
+
+	private final String             accessKey;
+	private final byte[]             secret;
+	private final BlockingQueue<Mac> macs = new ArrayBlockingQueue<Mac>(MAX_POOLED_MACS);
+
+	/**
+	 * @param accessKey the public access key
+	 * @param secret the private key used to sign requests
+	 */
+	public RequestSigner(@Nonnull String accessKey, @Nonnull byte[] secret) {
+		this.accessKey = accessKey;
+		this.secret = secret.clone();
+	}
+
+	public @Nonnull String getAccessKey() {
+		return accessKey;
+	}
+
+	/**
+	 * Builds the headers for a request, including the <code>x-tmrk-authorization</code> signature.
+	 * @param methodType the HTTP method of the request
+	 * @param path the request path relative to {@link Terremark#DEFAULT_URI_PATH}
+	 * @param queryParameters the query parameters of the request, if any
+	 * @param body the UTF-8 encoded request body, if any
+	 * @return the headers to send with the request
+	 * @throws InternalException the signing algorithm is not available or the key is invalid
+	 */
+	public @Nonnull Map<String,String> sign(@Nonnull HttpMethodName methodType, @Nonnull String path, @Nullable NameValuePair[] queryParameters, @Nullable byte[] body) throws InternalException {
+		return sign(methodType, path, queryParameters, body, getRfcDate());
+	}
+
+	Map<String,String> sign(HttpMethodName methodType, String path, NameValuePair[] queryParameters, byte[] body, String date) throws InternalException {
+		Map<String,String> headers = new HashMap<String,String>(8);
+
+		headers.put(Terremark.TMRK_DATE, date);
+		headers.put(Terremark.TMRK_VERSION, Terremark.VERSION);
+		headers.put(Terremark.ACCEPT, Terremark.XML);
+		if( body != null && body.length > 0 ) {
+			headers.put(Terremark.CONTENT_TYPE, Terremark.XML);
+		}
+
+		String signature;
+		Mac mac = acquireMac();
+		try {
+			signature = new String(Base64.encodeBase64(mac.doFinal(getStringToSign(methodType, path, queryParameters, body, date).getBytes("utf-8"))), "utf-8");
+		}
+		catch( UnsupportedEncodingException e ) {
+			throw new InternalException(e);
+		}
+		finally {
+			// doFinal leaves the Mac reset and ready for the next request
+			macs.offer(mac);
+		}
+
+		StringBuilder authorization = new StringBuilder(128 + signature.length());
+
+		authorization.append("CloudApi AccessKey=\"").append(accessKey).append("\" SignatureType=\"").append(Terremark.ALGORITHM).append("\" Signature=\"").append(signature).append('"');
+		headers.put(Terremark.TMRK_AUTHORIZATION, authorization.toString());
+		return headers;
+	}
+
+	/**
+	 * Builds the canonical string that is signed for a request.
+	 */
+	static String getStringToSign(HttpMethodName methodType, String path, NameValuePair[] queryParameters, byte[] body, String date) {
+		StringBuilder toSign = new StringBuilder(256);
+
+		toSign.append(methodType.name()).append('\n');
+		if( body != null && (methodType.equals(HttpMethodName.PUT) || methodType.equals(HttpMethodName.POST) || methodType.equals(HttpMethodName.DELETE)) ) {
+			toSign.append(body.length);
+		}
+		toSign.append('\n');
+		if( body != null && body.length > 0 ) {
+			toSign.append(Terremark.XML);
+		}
+		toSign.append('\n');
+		toSign.append(date).append('\n');
+		// the x-tmrk- headers are known, so they are appended directly in sorted order
+		toSign.append(Terremark.TMRK_DATE).append(':').append(date).append('\n');
+		toSign.append(Terremark.TMRK_VERSION).append(':').append(Terremark.VERSION).append('\n');
+		toSign.append(Terremark.DEFAULT_URI_PATH);
+		if( !path.startsWith("/") ) {
+			toSign.append('/');
+		}
+		toSign.append(path.toLowerCase().trim()).append('\n');
+		if( queryParameters != null && queryParameters.length > 0 ) {
+			String[] names = new String[queryParameters.length];
+
+			for( int i=0; i<names.length; i++ ) {
+				names[i] = queryParameters[i].getName().toLowerCase().trim();
+			}
+			String[] sorted = names.clone();
+
+			Arrays.sort(sorted);
+			for( String name : sorted ) {
+				// as the API has always been signed, a repeated name is listed once per occurrence with its last value
+				String value = null;
+
+				for( int i=names.length-1; value == null; i-- ) {
+					if( names[i].equals(name) ) {
+						value = queryParameters[i].getValue().trim();
+					}
+				}
+				toSign.append(name).append(':').append(value).append('\n');
+			}
+		}
+		return toSign.toString();
+	}
+
+	private Mac acquireMac() throws InternalException {
+		Mac mac = macs.poll();
+
+		if( mac == null ) {
+			try {
+				mac = Mac.getInstance(Terremark.ALGORITHM);
+				mac.init(new SecretKeySpec(secret, Terremark.ALGORITHM));
+			}
+			catch( GeneralSecurityException e ) {
+				logger.error(e);
+				throw new InternalException(e);
+			}
+		}
+		return mac;
+	}
+}
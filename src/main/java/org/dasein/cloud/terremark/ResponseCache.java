@@ -0,0 +1,190 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+
+package org.dasein.cloud.terremark;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.w3c.dom.Document;
+
+/**
+ * Holds the most recently fetched GET responses made with a single Terremark access key along with their
+ * <code>ETag</code> and <code>Last-Modified</code> validators. {@link TerremarkMethod} revalidates a cached response
+ * with <code>If-None-Match</code>/<code>If-Modified-Since</code> and, when the server answers 304 Not Modified,
+ * serves a copy of the cached document instead of downloading and parsing it again. The least recently used
+ * responses are evicted once the cache is full, and a successful mutating call discards every cached response
+ * for the same resource path, its ancestors, and its descendants.
+ */
+public class ResponseCache {
+	static private final ConcurrentHashMap<String,ResponseCache> caches = new ConcurrentHashMap<String,ResponseCache>();
+
+	/**
+	 * Provides the cache shared by all providers using the specified access key. The capacity is fixed by the
+	 * first caller for the key.
+	 * @param accessKey the access key the cached responses were fetched with
+	 * @param maxEntries the maximum number of responses to hold
+	 * @return the response cache for the key
+	 */
+	static public @Nonnull ResponseCache getInstance(@Nonnull String accessKey, int maxEntries) {
+		ResponseCache cache = caches.get(accessKey);
+
+		if( cache == null ) {
+			caches.putIfAbsent(accessKey, new ResponseCache(maxEntries));
+			cache = caches.get(accessKey);
+		}
+		return cache;
+	}
+
+	/**
+	 * A cached response and the validators it was served with.
+	 */
+	static public class Entry {
+		private final String   path;
+		private final String   etag;
+		private final String   lastModified;
+		private final Document document;
+
+		Entry(String path, String etag, String lastModified, Document document) {
+			this.path = path;
+			this.etag = etag;
+			this.lastModified = lastModified;
+			this.document = document;
+		}
+
+		public @Nullable String getETag() {
+			return etag;
+		}
+
+		public @Nullable String getLastModified() {
+			return lastModified;
+		}
+
+		public @Nonnull String getPath() {
+			return path;
+		}
+
+		/**
+		 * Copies the cached document. The DOM implementation is not safe for concurrent reads, even of an unmodified
+		 * tree, so copies of the same entry are made one at a time.
+		 * @return a copy of the cached document which the caller is free to modify
+		 */
+		public synchronized @Nonnull Document getDocument() {
+			return (Document)document.cloneNode(true);
+		}
+	}
+
+	private final LinkedHashMap<String,Entry> entries;
+	private long hits;
+	private long misses;
+
+	public ResponseCache(final int maxEntries) {
+		this.entries = new LinkedHashMap<String,Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String,Entry> eldest) {
+				return (size() > maxEntries);
+			}
+		};
+	}
+
+	/**
+	 * Looks up the cached response for a request.
+	 * @param key the URL and accepted media type of the request
+	 * @return the cached response, or <code>null</code> if there is none
+	 */
+	public synchronized @Nullable Entry get(@Nonnull String key) {
+		return entries.get(key);
+	}
+
+	/**
+	 * Stores a response if the server supplied a validator for it. The document is copied, so the caller may go
+	 * on to modify its own instance.
+	 * @param key the URL and accepted media type of the request
+	 * @param path the resource path the response belongs to
+	 * @param etag the <code>ETag</code> response header, if any
+	 * @param lastModified the <code>Last-Modified</code> response header, if any
+	 * @param document the parsed response
+	 */
+	public void put(@Nonnull String key, @Nonnull String path, @Nullable String etag, @Nullable String lastModified, @Nonnull Document document) {
+		if( etag == null && lastModified == null ) {
+			synchronized( this ) {
+				entries.remove(key);
+			}
+			return;
+		}
+		Entry entry = new Entry(path, etag, lastModified, (Document)document.cloneNode(true));
+
+		synchronized( this ) {
+			entries.put(key, entry);
+		}
+	}
+
+	/**
+	 * Discards the cached responses affected by a change to the specified resource path: the path itself, the
+	 * collections above it, and the resources below it.
+	 * @param path the resource path that was modified
+	 */
+	public synchronized void invalidate(@Nonnull String path) {
+		Iterator<Entry> it = entries.values().iterator();
+
+		while( it.hasNext() ) {
+			String cached = it.next().path;
+
+			if( isWithin(cached, path) || isWithin(path, cached) ) {
+				it.remove();
+			}
+		}
+	}
+
+	static private boolean isWithin(String path, String ancestor) {
+		return (path.equalsIgnoreCase(ancestor) || (path.length() > ancestor.length() && path.regionMatches(true, 0, ancestor, 0, ancestor.length()) && (ancestor.endsWith("/") || path.charAt(ancestor.length()) == '/')));
+	}
+
+	synchronized void recordHit() {
+		hits++;
+	}
+
+	synchronized void recordMiss() {
+		misses++;
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+	}
+}
@@ -0,0 +1,86 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.terremark;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nonnull;
+
+/**
+ * A token bucket that bounds the number of retries made on behalf of a single Terremark account. Every retry
+ * withdraws a full token and every successful call deposits a fraction of one, so that when the endpoint is
+ * degraded retries stop once the budget is spent instead of multiplying the load on the server. The same bucket
+ * bounds the requests a {@link RequestHedger} sends a second time.
+ */
+public class RetryBudget {
+	static private final ConcurrentHashMap<String,RetryBudget> budgets = new ConcurrentHashMap<String,RetryBudget>();
+
+	/**
+	 * Provides the budget shared by all providers connected to the specified account. The capacity and refill
+	 * ratio are fixed by the first caller for the account.
+	 * @param accountNumber the account whose budget is being requested
+	 * @param maxTokens the maximum number of retries that may be banked
+	 * @param tokenRatio the fraction of a retry earned back by each successful call
+	 * @return the retry budget for the account
+	 */
+	static public @Nonnull RetryBudget getInstance(@Nonnull String accountNumber, double maxTokens, double tokenRatio) {
+		RetryBudget budget = budgets.get(accountNumber);
+
+		if( budget == null ) {
+			budgets.putIfAbsent(accountNumber, new RetryBudget(maxTokens, tokenRatio));
+			budget = budgets.get(accountNumber);
+		}
+		return budget;
+	}
+
+	private final double maxTokens;
+	private final double tokenRatio;
+	private double       tokens;
+
+	public RetryBudget(double maxTokens, double tokenRatio) {
+		this.maxTokens = maxTokens;
+		this.tokenRatio = tokenRatio;
+		this.tokens = maxTokens;
+	}
+
+	public synchronized double getAvailableTokens() {
+		return tokens;
+	}
+
+	public double getMaxTokens() {
+		return maxTokens;
+	}
+
+	public synchronized void recordSuccess() {
+		tokens = Math.min(maxTokens, tokens + tokenRatio);
+	}
+
+	/**
+	 * Withdraws one retry from the budget.
+	 * @return true if the retry may proceed, false if the budget is exhausted
+	 */
+	public synchronized boolean tryAcquire() {
+		if( tokens < 1.0 ) {
+			return false;
+		}
+		tokens -= 1.0;
+		return true;
+	}
+}
@@ -0,0 +1,47 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.terremark;
+
+import javax.annotation.Nonnull;
+
+import org.dasein.cloud.terremark.TerremarkMethod.HttpMethodName;
+
+/**
+ * Decides whether and when a failed API call made through {@link TerremarkMethod} is attempted again.
+ * Implementations must be thread safe as a single policy is shared by all calls made through a provider.
+ * @see ExponentialBackoffRetryPolicy
+ */
+public interface RetryPolicy {
+	/**
+	 * Identifies how long to wait before retrying a call that failed with the specified HTTP status.
+	 * @param methodType the HTTP method of the failed call
+	 * @param statusCode the HTTP status returned by the server
+	 * @param attempts the number of attempts made so far, including the failed one
+	 * @param retryAfter the delay in milliseconds requested by the server through a <code>Retry-After</code> header, or -1 if none was sent
+	 * @return the number of milliseconds to wait before the next attempt, or a negative value if the call should not be retried
+	 */
+	public long getRetryDelay(@Nonnull HttpMethodName methodType, int statusCode, int attempts, long retryAfter);
+
+	/**
+	 * Notifies the policy that a call completed without needing a further retry.
+	 * @param methodType the HTTP method of the successful call
+	 */
+	public void recordSuccess(@Nonnull HttpMethodName methodType);
+}
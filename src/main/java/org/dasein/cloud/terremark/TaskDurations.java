@@ -0,0 +1,83 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.terremark;
+
+import java.util.Arrays;
+
+/**
+ * A rolling record of how long one kind of task, such as <code>Power on Server</code>, takes to complete. Only the
+ * most recent {@link #WINDOW} durations are kept, so the percentiles follow the cloud as it speeds up or slows down.
+ * Unlike {@link LatencyHistogram} the samples themselves are kept, since task durations range from seconds to hours
+ * and are polled against, where a bucket bound would be too coarse.
+ */
+public class TaskDurations {
+	static public final int WINDOW = 100;
+
+	private final long[] samples = new long[WINDOW];
+	private long         count   = 0L;
+
+	public synchronized void record(long millis) {
+		samples[(int)(count % WINDOW)] = Math.max(0L, millis);
+		count++;
+	}
+
+	/**
+	 * @return the number of durations recorded, including those that have since rolled out of the window
+	 */
+	public synchronized long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return the number of durations the percentiles are estimated from
+	 */
+	public synchronized int getSampleCount() {
+		return (int)Math.min(count, WINDOW);
+	}
+
+	/**
+	 * Estimates several percentiles at once from the durations in the window.
+	 * @param percentiles the percentiles to estimate, each between 0.0 and 1.0
+	 * @return the duration in milliseconds below which each percentile of the recent tasks completed, or all zeros if
+	 * nothing has been recorded
+	 */
+	public long[] getPercentiles(double ... percentiles) {
+		long[] sorted;
+
+		synchronized( this ) {
+			sorted = Arrays.copyOf(samples, getSampleCount());
+		}
+		long[] values = new long[percentiles.length];
+
+		if( sorted.length > 0 ) {
+			Arrays.sort(sorted);
+			for( int i=0; i<percentiles.length; i++ ) {
+				int idx = (int)Math.ceil(percentiles[i] * sorted.length) - 1;
+
+				values[i] = sorted[Math.max(0, Math.min(sorted.length - 1, idx))];
+			}
+		}
+		return values;
+	}
+
+	public long getPercentile(double percentile) {
+		return getPercentiles(percentile)[0];
+	}
+}
@@ -0,0 +1,93 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.terremark;
+
+import javax.annotation.Nonnull;
+
+/**
+ * An immutable snapshot of how long recent tasks of one kind, named by the task's <code>Operation</code>, have
+ * taken to complete.
+ */
+public class TaskOperationStats {
+	private String operation;
+	private long   completed;
+	private int    samples;
+	private long   p25Duration;
+	private long   p50Duration;
+	private long   p75Duration;
+	private long   p90Duration;
+	private long   p99Duration;
+
+	public TaskOperationStats(@Nonnull String operation, @Nonnull TaskDurations durations) {
+		long[] percentiles = durations.getPercentiles(0.25, 0.50, 0.75, 0.90, 0.99);
+
+		this.operation = operation;
+		this.completed = durations.getCount();
+		this.samples = durations.getSampleCount();
+		this.p25Duration = percentiles[0];
+		this.p50Duration = percentiles[1];
+		this.p75Duration = percentiles[2];
+		this.p90Duration = percentiles[3];
+		this.p99Duration = percentiles[4];
+	}
+
+	/**
+	 * @return the number of tasks seen to complete
+	 */
+	public long getCompleted() {
+		return completed;
+	}
+
+	public @Nonnull String getOperation() {
+		return operation;
+	}
+
+	public long getP25Duration() {
+		return p25Duration;
+	}
+
+	public long getP50Duration() {
+		return p50Duration;
+	}
+
+	public long getP75Duration() {
+		return p75Duration;
+	}
+
+	public long getP90Duration() {
+		return p90Duration;
+	}
+
+	public long getP99Duration() {
+		return p99Duration;
+	}
+
+	/**
+	 * @return the number of recent tasks the percentiles are estimated from
+	 */
+	public int getSamples() {
+		return samples;
+	}
+
+	@Override
+	public String toString() {
+		return operation + " completed=" + completed + " p25=" + p25Duration + "ms p50=" + p50Duration + "ms p75=" + p75Duration + "ms p90=" + p90Duration + "ms p99=" + p99Duration + "ms";
+	}
+}
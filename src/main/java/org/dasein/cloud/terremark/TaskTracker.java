@@ -0,0 +1,643 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.terremark;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.Nonnull;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.terremark.TerremarkMethod.HttpMethodName;
+import org.dasein.util.CalendarWrapper;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Watches the tasks started by mutating API calls and tells the callers waiting on them when they finish. Rather
+ * than each caller sleeping in its own polling loop, every outstanding task href is kept in one table that a small
+ * pool of poller threads sweeps several times a second, polling each task that is due. Any number of callers may
+ * wait on the same task, each with its own timeout, and it is polled once for all of them. Polls run on the
+ * provider's {@link BackgroundScheduler}.
+ * <p>
+ * When several tasks in the same environment are due at once, their status is read from a single listing of the
+ * environment's tasks rather than one GET per task. Tasks within half an interval of being due are brought forward
+ * into the same listing, so the polls of tasks started at different times fall into step. A task that does not
+ * appear in the listing, for example because it has dropped off the first page, is then polled on its own.
+ * </p>
+ * <p>
+ * The time each task takes to complete is recorded in {@link TerremarkMetrics} under the task's operation, such as
+ * <code>Power on Server</code>. Once enough tasks of an operation have completed, a task of that operation is polled
+ * when the 25th, 50th, 75th, 90th, and 99th percentile of the recent durations are reached rather than at the
+ * caller's interval, so that quick operations are noticed soon after they finish and long ones are not polled
+ * needlessly in the meantime. A task that outlasts nearly all of its kind is polled less and less often: at first
+ * after the caller's interval or the median duration, whichever is longer, and then each time the task has run
+ * about twice as long past the 99th percentile, but never more than the 99th percentile apart.
+ * </p>
+ * <p>
+ * {@link #track(String, long, long)} returns a future that completes with the finished task, or fails with the
+ * {@link CloudException} or {@link InternalException} that {@link Terremark#waitForTask(String, long, long)} would
+ * have thrown. Cancelling the future stops the task from being polled on that caller's behalf. Polls are made as
+ * {@link RequestScheduler.Priority#BACKGROUND_POLL} calls.
+ * </p>
+ */
+public class TaskTracker {
+	static private final Logger logger = Terremark.getLogger(TaskTracker.class);
+
+	// how often the table is swept for tasks that are due to be polled
+	static public final long SWEEP_INTERVAL = 250L;
+
+	static public final String TASKS = "tasks";
+
+	// the number of completed tasks of an operation needed before its polls are scheduled from their durations
+	static public final int MIN_DURATION_SAMPLES = 5;
+
+	static private final double[] POLL_PERCENTILES = { 0.25, 0.50, 0.75, 0.90, 0.99 };
+
+	/**
+	 * Chooses the time until the next poll of a task whose polls are scheduled from the durations of earlier tasks
+	 * of its kind: the next of those durations the task has yet to reach, or, once it has outlasted them all, the
+	 * time it has run past the 99th percentile, but at least the longer of the callers' interval and the median and
+	 * at most the 99th percentile itself. A straggler is therefore polled at intervals that roughly double.
+	 * @param points the recent durations of the task's operation at the 25th, 50th, 75th, 90th, and 99th percentile
+	 * @param elapsed the number of milliseconds since the task was first tracked
+	 * @param sleepTime the shortest interval asked for by any caller still waiting
+	 * @param minimumInterval the fewest milliseconds between polls
+	 * @return the number of milliseconds to wait before polling again
+	 */
+	static long getPollInterval(long[] points, long elapsed, long sleepTime, long minimumInterval) {
+		for( long point : points ) {
+			if( point > elapsed ) {
+				return Math.max(minimumInterval, point - elapsed);
+			}
+		}
+		// slower than nearly every recent task of its kind, and likely to take a good while longer still
+		long floor = Math.max(sleepTime, points[1]);
+		long overrun = elapsed - points[4];
+
+		return Math.max(minimumInterval, Math.min(points[4], Math.max(floor, overrun)));
+	}
+
+	/**
+	 * The completion of a task as seen by one caller.
+	 */
+	static private class TaskFuture extends FutureTask<Terremark.Task> {
+		private final long expiresAt;
+		private final long sleepTime;
+
+		TaskFuture(long sleepTime, long timeout) {
+			super(new Runnable() {
+				@Override
+				public void run() {
+					// completed only through complete() and fail()
+				}
+			}, null);
+			this.sleepTime = sleepTime;
+			this.expiresAt = System.currentTimeMillis() + timeout;
+		}
+
+		void complete(Terremark.Task task) {
+			set(task);
+		}
+
+		void fail(Throwable t) {
+			setException(t);
+		}
+	}
+
+	/**
+	 * A task being polled on behalf of one or more callers.
+	 */
+	private class TrackedTask implements Runnable {
+		private final String                                taskHref;
+		private final String                                taskId;
+		private final String                                environmentId;
+		private final CopyOnWriteArrayList<TaskFuture>      waiters = new CopyOnWriteArrayList<TaskFuture>();
+		private final AtomicBoolean                         polling = new AtomicBoolean(false);
+		private final long                                  trackedAt;
+		private volatile String                             operation;
+		private volatile long                               nextPollAt;
+		private volatile long                               pollInterval = 0L;
+		private long                                        failurePoint = -1L;
+		private int                                         failedCalls = 0;
+		private boolean                                     retired = false;
+
+		TrackedTask(String taskHref, String environmentId) {
+			this.taskHref = taskHref;
+			this.taskId = Terremark.hrefToId(taskHref);
+			this.environmentId = environmentId;
+			this.trackedAt = System.currentTimeMillis();
+			this.nextPollAt = trackedAt;
+		}
+
+		/**
+		 * @return the shortest interval asked for by any caller still waiting
+		 */
+		long getSleepTime() {
+			long sleepTime = Long.MAX_VALUE;
+
+			for( TaskFuture waiter : waiters ) {
+				if( !waiter.isDone() ) {
+					sleepTime = Math.min(sleepTime, waiter.sleepTime);
+				}
+			}
+			return sleepTime;
+		}
+
+		/**
+		 * Chooses the time until the next poll. Until the task's operation is known and enough tasks of that operation
+		 * have completed, this is the shortest interval asked for by any caller.
+		 * @param now the current time
+		 * @return the number of milliseconds to wait before polling again
+		 */
+		long getPollInterval(long now) {
+			long sleepTime = getSleepTime();
+
+			if( !isScheduledFromDurations() ) {
+				return sleepTime;
+			}
+			long[] points = TerremarkMetrics.getInstance().getTaskDurations(operation).getPercentiles(POLL_PERCENTILES);
+
+			return TaskTracker.getPollInterval(points, now - trackedAt, sleepTime, minimumInterval);
+		}
+
+		/**
+		 * @return true once polls are scheduled from the durations of earlier tasks rather than the callers' intervals
+		 */
+		boolean isScheduledFromDurations() {
+			String op = operation;
+
+			return (adaptive && op != null && TerremarkMetrics.getInstance().getTaskDurations(op).getSampleCount() >= MIN_DURATION_SAMPLES);
+		}
+
+		/**
+		 * Works out how long a completed task took, from the times reported by the cloud where it gives them and
+		 * otherwise from when the task was first tracked to when it was seen to be complete.
+		 * @param task the completed task
+		 * @return the task's duration in milliseconds
+		 */
+		long getDuration(Terremark.Task task) {
+			if( task.startTime != null && task.completedTime != null && !task.completedTime.before(task.startTime) ) {
+				return (task.completedTime.getTime() - task.startTime.getTime());
+			}
+			return (System.currentTimeMillis() - trackedAt);
+		}
+
+		boolean isFinished() {
+			for( TaskFuture waiter : waiters ) {
+				if( !waiter.isDone() ) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Adds a caller to those waiting on the task.
+		 * @param waiter the caller's future
+		 * @return false if the task has already been dropped from the table and must be tracked afresh
+		 */
+		synchronized boolean join(TaskFuture waiter) {
+			if( retired ) {
+				return false;
+			}
+			waiters.add(waiter);
+			return true;
+		}
+
+		/**
+		 * Drops the task from the table once no caller is waiting on it.
+		 * @return true if the task was dropped
+		 */
+		synchronized boolean retire() {
+			if( !retired && isFinished() ) {
+				retired = true;
+				tasks.remove(taskHref, this);
+			}
+			return retired;
+		}
+
+		void expire() {
+			long now = System.currentTimeMillis();
+
+			for( TaskFuture waiter : waiters ) {
+				if( !waiter.isDone() && now > waiter.expiresAt ) {
+					waiter.fail(new InternalException("Timed out waiting for the task to complete."));
+				}
+			}
+		}
+
+		void complete(Terremark.Task task) {
+			for( TaskFuture waiter : waiters ) {
+				waiter.complete(task);
+			}
+		}
+
+		void fail(Throwable t) {
+			for( TaskFuture waiter : waiters ) {
+				waiter.fail(t);
+			}
+		}
+
+		@Override
+		public void run() {
+			try {
+				if( !isFinished() ) {
+					poll();
+				}
+			}
+			catch( RuntimeException e ) {
+				logger.error("Unexpected error polling task " + taskHref, e);
+				fail(new InternalException(e));
+			}
+			finally {
+				finish();
+			}
+		}
+
+		/**
+		 * Applies a status read from an environment's task listing.
+		 * @param task the task as listed
+		 */
+		void run(Terremark.Task task) {
+			try {
+				if( !isFinished() ) {
+					update(task);
+				}
+			}
+			catch( RuntimeException e ) {
+				logger.error("Unexpected error polling task " + taskHref, e);
+				fail(new InternalException(e));
+			}
+			finally {
+				finish();
+			}
+		}
+
+		/**
+		 * Ends a poll, scheduling the next one unless every caller is done.
+		 */
+		private void finish() {
+			expire();
+			if( !retire() ) {
+				long now = System.currentTimeMillis();
+
+				pollInterval = getPollInterval(now);
+				nextPollAt = now + pollInterval;
+			}
+			polling.set(false);
+		}
+
+		private void poll() {
+			Document doc = null;
+
+			try {
+				doc = new TerremarkMethod(provider, HttpMethodName.GET, taskHref, null, null).withPriority(RequestScheduler.Priority.BACKGROUND_POLL).invoke();
+			}
+			catch( CloudException e ) {
+				logger.warn("waitForTask Error: " + e);
+				failedCalls++;
+				if( failedCalls >= Terremark.TASK_ERROR_COUNT ) {
+					fail(new CloudException("waitForTask(): Get task call failed " + failedCalls + " times. Giving up."));
+				}
+				return;
+			}
+			catch( InternalException e ) {
+				fail(e);
+				return;
+			}
+			if( doc == null ) {
+				return;
+			}
+			Terremark.Task task;
+
+			try {
+				Node taskNode = doc.getElementsByTagName(Terremark.TASK_TAG).item(0);
+
+				task = provider.toTask(taskNode);
+			}
+			catch( CloudException e ) {
+				fail(e);
+				return;
+			}
+			catch( InternalException e ) {
+				fail(e);
+				return;
+			}
+			update(task);
+		}
+
+		private void update(Terremark.Task task) {
+			if( task.operation != null ) {
+				operation = task.operation;
+			}
+			if( Terremark.TASK_COMPLETE.equals(task.status) ) {
+				if( operation != null ) {
+					TerremarkMetrics.getInstance().recordTaskDuration(operation, getDuration(task));
+				}
+				complete(task);
+				return;
+			}
+			if( Terremark.TASK_ERROR.equals(task.status) ) {
+				String message = task.errorMessage;
+
+				if( message == null ) {
+					if( failurePoint == -1L ) {
+						failurePoint = System.currentTimeMillis();
+					}
+					if( (System.currentTimeMillis() - failurePoint) > (CalendarWrapper.MINUTE * 2) ) {
+						message = "Task failed without further information.";
+					}
+				}
+				if( message != null ) {
+					fail(new CloudException(message));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads the status of several tasks in one environment from a single listing, polling any that are missing
+	 * from it individually.
+	 */
+	private class BatchPoll implements Runnable {
+		private final String            environmentId;
+		private final List<TrackedTask> due;
+
+		BatchPoll(String environmentId, List<TrackedTask> due) {
+			this.environmentId = environmentId;
+			this.due = due;
+		}
+
+		@Override
+		public void run() {
+			Map<String,Terremark.Task> listed = null;
+
+			try {
+				listed = listTasks(environmentId);
+			}
+			catch( CloudException e ) {
+				logger.warn("Unable to list the tasks in environment " + environmentId + ", polling " + due.size() + " tasks individually: " + e.getMessage());
+			}
+			catch( InternalException e ) {
+				logger.warn("Unable to list the tasks in environment " + environmentId + ", polling " + due.size() + " tasks individually: " + e.getMessage());
+			}
+			catch( RuntimeException e ) {
+				logger.error("Unexpected error listing the tasks in environment " + environmentId, e);
+			}
+			for( TrackedTask tracked : due ) {
+				Terremark.Task task = (listed == null ? null : listed.get(tracked.taskId));
+
+				if( task == null ) {
+					dispatch(tracked);
+				}
+				else {
+					tracked.run(task);
+				}
+			}
+			if( listed != null ) {
+				// the listing also settles tasks that finished before they were next due
+				for( TrackedTask tracked : tasks.values() ) {
+					Terremark.Task task = listed.get(tracked.taskId);
+
+					if( task != null && environmentId.equals(tracked.environmentId) && (Terremark.TASK_COMPLETE.equals(task.status) || Terremark.TASK_ERROR.equals(task.status)) && tracked.polling.compareAndSet(false, true) ) {
+						tracked.run(task);
+					}
+				}
+			}
+		}
+	}
+
+	private final Terremark                                 provider;
+	private final int                                       batchThreshold;
+	private final boolean                                   adaptive;
+	private final long                                      minimumInterval;
+	private final ConcurrentHashMap<String,TrackedTask>     tasks = new ConcurrentHashMap<String,TrackedTask>();
+	private final BackgroundScheduler                       scheduler;
+	private final AtomicBoolean                             sweeping = new AtomicBoolean(false);
+	private volatile boolean                                closed = false;
+
+	/**
+	 * @param provider the provider whose credentials the tasks are polled with
+	 * @param scheduler the scheduler on which polls are made
+	 * @param batchThreshold the number of tasks in one environment that must be due at once for them to be read
+	 * from the environment's task listing, or 0 to always poll tasks individually
+	 * @param adaptive true to schedule the polls of a task from the recent durations of its operation
+	 * @param minimumInterval the fewest milliseconds between polls of a task scheduled from those durations
+	 */
+	public TaskTracker(@Nonnull Terremark provider, @Nonnull BackgroundScheduler scheduler, int batchThreshold, boolean adaptive, long minimumInterval) {
+		this.provider = provider;
+		this.scheduler = scheduler;
+		this.batchThreshold = batchThreshold;
+		this.adaptive = adaptive;
+		this.minimumInterval = Math.max(SWEEP_INTERVAL, minimumInterval);
+	}
+
+	/**
+	 * Starts watching a task, or joins the callers already watching it. The first poll is made at the next sweep, so
+	 * that tasks started together can be polled together.
+	 * @param taskHref the href of the task
+	 * @param sleepTime the number of milliseconds between polls
+	 * @param timeout the number of milliseconds after which this caller gives up on the task
+	 * @return a future that completes when the task does
+	 */
+	public @Nonnull Future<Terremark.Task> track(@Nonnull String taskHref, long sleepTime, long timeout) {
+		TaskFuture future = new TaskFuture(sleepTime, timeout);
+
+		if( closed ) {
+			future.fail(new InternalException("The provider was closed before task " + taskHref + " could be tracked"));
+			return future;
+		}
+		while( true ) {
+			TrackedTask tracked = new TrackedTask(taskHref, provider.getContext().getRegionId());
+
+			tracked.waiters.add(future);
+			TrackedTask existing = tasks.putIfAbsent(taskHref, tracked);
+
+			if( existing == null ) {
+				break;
+			}
+			if( existing.join(future) ) {
+				// a caller with a shorter interval brings the next poll forward, unless the task's operation is well known
+				if( !existing.isScheduledFromDurations() ) {
+					existing.nextPollAt = Math.min(existing.nextPollAt, System.currentTimeMillis() + sleepTime);
+				}
+				break;
+			}
+			// the task finished and was dropped while we were joining it; start over
+		}
+		startSweeping();
+		return future;
+	}
+
+	/**
+	 * @return the number of distinct tasks being polled
+	 */
+	public int getTrackedCount() {
+		return tasks.size();
+	}
+
+	/**
+	 * Stops polling and fails every outstanding future. Polls already running are left to the scheduler.
+	 */
+	public void shutdown() {
+		closed = true;
+		for( TrackedTask tracked : tasks.values() ) {
+			tracked.fail(new InternalException("The provider was closed while waiting for task " + tracked.taskHref));
+		}
+		tasks.clear();
+	}
+
+	private void dispatch(TrackedTask tracked) {
+		try {
+			if( !closed ) {
+				scheduler.execute(tracked);
+				return;
+			}
+		}
+		catch( RejectedExecutionException e ) {
+			if( !scheduler.isShutdown() ) {
+				// the scheduler is backed up; the task is still due, so the next sweep tries again
+				logger.debug("Deferring a poll of " + tracked.taskHref + ": " + e.getMessage());
+				tracked.polling.set(false);
+				return;
+			}
+		}
+		tracked.fail(new InternalException("The provider was closed while waiting for task " + tracked.taskHref));
+		tracked.retire();
+		tracked.polling.set(false);
+	}
+
+	static private void add(Map<String,List<TrackedTask>> groups, TrackedTask tracked) {
+		List<TrackedTask> list = groups.get(tracked.environmentId);
+
+		if( list == null ) {
+			list = new ArrayList<TrackedTask>();
+			groups.put(tracked.environmentId, list);
+		}
+		list.add(tracked);
+	}
+
+	/**
+	 * Lists the tasks in an environment.
+	 * @param environmentId the environment
+	 * @return the listed tasks by ID
+	 * @throws CloudException the listing failed
+	 * @throws InternalException the listing failed
+	 */
+	private Map<String,Terremark.Task> listTasks(String environmentId) throws CloudException, InternalException {
+		String url = "/" + TASKS + "/" + EnvironmentsAndComputePools.ENVIRONMENTS + "/" + environmentId;
+		Document doc = new TerremarkMethod(provider, HttpMethodName.GET, url, null, null).withPriority(RequestScheduler.Priority.BACKGROUND_POLL).invoke();
+		HashMap<String,Terremark.Task> listed = new HashMap<String,Terremark.Task>();
+
+		if( doc != null ) {
+			NodeList nodes = doc.getElementsByTagName(Terremark.TASK_TAG);
+
+			for( int i=0; i<nodes.getLength(); i++ ) {
+				Terremark.Task task = provider.toTask(nodes.item(i));
+
+				if( task.status != null ) {
+					listed.put(task.taskId, task);
+				}
+			}
+		}
+		return listed;
+	}
+
+	private void startSweeping() {
+		if( !closed && sweeping.compareAndSet(false, true) ) {
+			try {
+				scheduler.schedule(new Runnable() {
+					@Override
+					public void run() {
+						sweep();
+					}
+				}, SWEEP_INTERVAL);
+			}
+			catch( RejectedExecutionException e ) {
+				sweeping.set(false);
+			}
+		}
+	}
+
+	private void sweep() {
+		HashMap<String,List<TrackedTask>> due = new HashMap<String,List<TrackedTask>>();
+		HashMap<String,List<TrackedTask>> early = new HashMap<String,List<TrackedTask>>();
+		long now = System.currentTimeMillis();
+
+		for( TrackedTask tracked : tasks.values() ) {
+			if( now >= tracked.nextPollAt && tracked.polling.compareAndSet(false, true) ) {
+				add(due, tracked);
+			}
+			else if( !tracked.polling.get() ) {
+				// callers may have cancelled or timed out between polls
+				tracked.expire();
+				if( !tracked.retire() && now >= tracked.nextPollAt - tracked.pollInterval / 2 ) {
+					add(early, tracked);
+				}
+			}
+		}
+		for( Map.Entry<String,List<TrackedTask>> entry : due.entrySet() ) {
+			String environmentId = entry.getKey();
+			List<TrackedTask> list = entry.getValue();
+
+			if( environmentId != null && batchThreshold > 0 ) {
+				List<TrackedTask> soon = early.get(environmentId);
+
+				// bring forward tasks that are nearly due so that their polls fall into step with this batch
+				if( soon != null && list.size() + soon.size() >= batchThreshold ) {
+					for( TrackedTask tracked : soon ) {
+						if( tracked.polling.compareAndSet(false, true) ) {
+							list.add(tracked);
+						}
+					}
+				}
+				if( list.size() >= batchThreshold ) {
+					try {
+						scheduler.execute(new BatchPoll(environmentId, list));
+						continue;
+					}
+					catch( RejectedExecutionException e ) {
+						// dispatching each task below defers it, or fails it if the scheduler has been shut down
+					}
+				}
+			}
+			for( TrackedTask tracked : list ) {
+				dispatch(tracked);
+			}
+		}
+		sweeping.set(false);
+		// keep sweeping while anything is tracked, including a task added after the loop above
+		if( !tasks.isEmpty() ) {
+			startSweeping();
+		}
+	}
+}
@@ -19,29 +19,56 @@
 
 package org.dasein.cloud.terremark;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import java.util.TimeZone;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
-import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
-
-import org.apache.commons.codec.binary.Base64;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.http.HeaderElement;
+import org.apache.http.HeaderElementIterator;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
 import org.apache.http.NameValuePair;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.params.ClientPNames;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.params.ConnRoutePNames;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.apache.http.message.BasicHeaderElementIterator;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.params.HttpProtocolParams;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpContext;
 import org.apache.log4j.Logger;
 import org.dasein.cloud.AbstractCloud;
 import org.dasein.cloud.CloudException;
@@ -66,6 +93,9 @@ public class Terremark  extends AbstractCloud {
 		public String taskId;
 		public String errorMessage;
 		public String status;
+		public String operation;
+		public Date   startTime;
+		public Date   completedTime;
 	}
 
 	static private final Logger logger = Logger.getLogger(Terremark.class);
@@ -132,6 +162,8 @@ public class Terremark  extends AbstractCloud {
 	public final static String OPERATION_TAG         = "Operation";
 	public final static String STATUS_TAG            = "Status";
 	public final static String ERROR_MESSAGE_TAG     = "ErrorMessage";
+	public final static String START_TIME_TAG        = "StartTime";
+	public final static String COMPLETED_TIME_TAG    = "CompletedTime";
 
 	public final static String TASK_COMPLETE         = "Complete";
 	public final static String TASK_QUEUED           = "Queued";
@@ -139,6 +171,61 @@ public class Terremark  extends AbstractCloud {
 
 	public final static String TASK_ERROR            = "Error";
 	public final static int TASK_ERROR_COUNT         = 5;
+
+	// Connection Pool Defaults
+	public final static int DEFAULT_MAX_CONNECTIONS           = 50;
+	public final static int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 20;
+	public final static long DEFAULT_KEEP_ALIVE_TIMEOUT       = CalendarWrapper.SECOND * 30;
+	public final static int DEFAULT_MAX_ASYNC_REQUESTS        = DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+	public final static int DEFAULT_CONNECT_TIMEOUT           = (int)(CalendarWrapper.SECOND * 20);
+	public final static int DEFAULT_SOCKET_TIMEOUT            = (int)(CalendarWrapper.MINUTE * 2);
+
+	// Retry Defaults
+	public final static int DEFAULT_MAX_RETRY_ATTEMPTS        = 5;
+	public final static long DEFAULT_RETRY_BASE_DELAY         = CalendarWrapper.SECOND;
+	public final static long DEFAULT_RETRY_MAX_DELAY          = CalendarWrapper.SECOND * 30;
+	public final static double DEFAULT_RETRY_BUDGET           = 20.0;
+	public final static double RETRY_BUDGET_RATIO             = 0.1;
+
+	// Rate Limit Defaults
+	public final static double DEFAULT_READ_RATE              = 20.0;
+	public final static int DEFAULT_READ_BURST                = 40;
+	public final static double DEFAULT_WRITE_RATE             = 5.0;
+	public final static int DEFAULT_WRITE_BURST               = 10;
+
+	// Circuit Breaker Defaults
+	public final static int DEFAULT_BREAKER_THRESHOLD         = 5;
+	public final static long DEFAULT_BREAKER_RESET_TIMEOUT    = CalendarWrapper.SECOND * 30;
+
+	// Response Cache Defaults
+	public final static int DEFAULT_RESPONSE_CACHE_SIZE       = 200;
+
+	// Request Scheduling Defaults
+	public final static int DEFAULT_INTERACTIVE_WEIGHT        = 8;
+	public final static int DEFAULT_MUTATING_WEIGHT           = 4;
+	public final static int DEFAULT_POLL_WEIGHT               = 1;
+
+	// Hedging Defaults
+	public final static long DEFAULT_HEDGE_MINIMUM_DELAY      = 50L;
+	public final static double DEFAULT_HEDGE_BUDGET           = 10.0;
+	public final static double DEFAULT_HEDGE_BUDGET_RATIO     = 0.05;
+
+	// Background Scheduling Defaults
+	public final static int DEFAULT_BACKGROUND_THREADS        = 4;
+	public final static int DEFAULT_MAX_BACKGROUND_QUEUE      = 10000;
+	public final static long DEFAULT_BACKGROUND_GRACE_PERIOD  = CalendarWrapper.SECOND * 5;
+
+	// Task Tracking Defaults
+	public final static int DEFAULT_TASK_BATCH_THRESHOLD      = 3;
+	public final static long DEFAULT_TASK_POLL_MINIMUM_INTERVAL = CalendarWrapper.SECOND;
+
+	// Launch Defaults
+	public final static int DEFAULT_MAX_CONCURRENT_LAUNCHES   = 10;
+
+	// Wire Capture Defaults
+	public final static int DEFAULT_WIRE_CAPTURE_SIZE         = 100;
+	public final static int DEFAULT_WIRE_CAPTURE_BODY_LENGTH  = 1024;
+
 	static private String getLastItem(String name) {
 		int idx = name.lastIndexOf('.');
 
@@ -162,12 +249,6 @@ public class Terremark  extends AbstractCloud {
 		}
 		return Logger.getLogger("dasein.cloud.terremark.std." + pkg + getLastItem(cls.getName()));
 	}
-	private static String getRfcDate() {
-		Date date = new Date();
-		SimpleDateFormat format = new SimpleDateFormat(RFC1123_PATTERN);
-		format.setTimeZone(TimeZone.getTimeZone("GMT"));
-		return format.format(date);
-	}
 	public static String getTaskHref(Document doc, String taskName) {
 		String href = null;
 		NodeList taskElements = doc.getElementsByTagName(Terremark.TASK_TAG);
@@ -283,38 +364,279 @@ public class Terremark  extends AbstractCloud {
 		return result;
 	}
 
-	private static String sign(byte[] key, String authString, String algorithm) throws InternalException {
+	private transient volatile Organization currentOrg;
+
+	private final Object clientLock = new Object();
+	private transient volatile PoolingClientConnectionManager connectionManager;
+	private transient volatile HttpClient client;
+	private transient volatile ThreadPoolExecutor requestExecutor;
+	private transient volatile ThreadPoolExecutor launchExecutor;
+	private transient volatile ThreadPoolExecutor hedgeExecutor;
+	private transient volatile BackgroundScheduler backgroundScheduler;
+	private transient volatile TaskTracker taskTracker;
+	private transient volatile RetryPolicy retryPolicy;
+	private transient volatile Transport transport;
+	private transient volatile RequestSigner signer;
+
+	public Terremark() { }
+
+	/**
+	 * Shuts down the connection pool shared by the API calls made through this provider, and stops its background
+	 * work: task polls and other scheduled jobs that have not started are cancelled, and those that are running are
+	 * given up to <code>backgroundGracePeriod</code> milliseconds to finish before they are interrupted. Asynchronous
+	 * calls and launches that have not started are cancelled so that no one is left waiting on them. The connection
+	 * pool is shut down last, once the background work has drained.
+	 */
+	@Override
+	public void close() {
 		try {
-			Mac mac = Mac.getInstance(algorithm);
-
-			mac.init(new SecretKeySpec(key, algorithm));
-			return new String(Base64.encodeBase64(mac.doFinal(authString.getBytes("utf-8"))));
-		} 
-		catch( NoSuchAlgorithmException e ) {
-			logger.error(e);
-			e.printStackTrace();
-			throw new InternalException(e);
-		} 
-		catch( InvalidKeyException e ) {
-			logger.error(e);
-			e.printStackTrace();
-			throw new InternalException(e);
-		} 
-		catch( IllegalStateException e ) {
-			logger.error(e);
-			e.printStackTrace();
-			throw new InternalException(e);
-		} 
-		catch( UnsupportedEncodingException e ) {
-			logger.error(e);
-			e.printStackTrace();
-			throw new InternalException(e);
+			// read up front so that a bad setting cannot stop the shutdown half way through
+			long gracePeriod = getBackgroundGracePeriod();
+			ThreadPoolExecutor requests;
+			ThreadPoolExecutor launches;
+			ThreadPoolExecutor hedges;
+			BackgroundScheduler scheduler;
+			TaskTracker tracker;
+			PoolingClientConnectionManager cm;
+
+			synchronized( clientLock ) {
+				requests = requestExecutor;
+				launches = launchExecutor;
+				hedges = hedgeExecutor;
+				scheduler = backgroundScheduler;
+				tracker = taskTracker;
+				requestExecutor = null;
+				launchExecutor = null;
+				hedgeExecutor = null;
+				backgroundScheduler = null;
+				taskTracker = null;
+			}
+			// every step runs even if an earlier one failed; cancelling the calls and launches that never started lets their callers know
+			if( requests != null ) {
+				try {
+					cancel(requests.shutdownNow());
+				}
+				catch( RuntimeException e ) {
+					logger.warn("Unable to shut down the request executor: " + e.getMessage(), e);
+				}
+			}
+			if( launches != null ) {
+				try {
+					cancel(launches.shutdownNow());
+				}
+				catch( RuntimeException e ) {
+					logger.warn("Unable to shut down the launch executor: " + e.getMessage(), e);
+				}
+			}
+			if( hedges != null ) {
+				// hedged GETs run synchronously for their callers, so nothing is queued behind them
+				try {
+					hedges.shutdownNow();
+				}
+				catch( RuntimeException e ) {
+					logger.warn("Unable to shut down the hedge executor: " + e.getMessage(), e);
+				}
+			}
+			if( scheduler != null ) {
+				try {
+					scheduler.shutdown(gracePeriod);
+				}
+				catch( RuntimeException e ) {
+					logger.warn("Unable to shut down the background scheduler: " + e.getMessage(), e);
+				}
+			}
+			if( tracker != null ) {
+				try {
+					tracker.shutdown();
+				}
+				catch( RuntimeException e ) {
+					logger.warn("Unable to shut down the task tracker: " + e.getMessage(), e);
+				}
+			}
+			// the pool stays open until now so that the work given a grace period can still reach the endpoint
+			synchronized( clientLock ) {
+				cm = connectionManager;
+				connectionManager = null;
+				client = null;
+				transport = null;
+				signer = null;
+			}
+			if( cm != null ) {
+				try {
+					cm.shutdown();
+				}
+				catch( RuntimeException e ) {
+					logger.warn("Unable to shut down the connection pool: " + e.getMessage(), e);
+				}
+			}
+		}
+		finally {
+			super.close();
 		}
 	}
 
-	private transient volatile Organization currentOrg;
+	/**
+	 * @return the number of milliseconds background work is given to finish when the provider is closed, from the
+	 * <code>backgroundGracePeriod</code> custom property, or the default if it is missing or unreadable
+	 */
+	private long getBackgroundGracePeriod() {
+		ProviderContext ctx = getContext();
+		Properties props = (ctx == null ? null : ctx.getCustomProperties());
+		String value = (props == null ? null : props.getProperty("backgroundGracePeriod"));
 
-	public Terremark() { }
+		if( value == null ) {
+			return DEFAULT_BACKGROUND_GRACE_PERIOD;
+		}
+		try {
+			return Long.parseLong(value.trim());
+		}
+		catch( NumberFormatException e ) {
+			logger.warn("Invalid backgroundGracePeriod " + value + "; using " + DEFAULT_BACKGROUND_GRACE_PERIOD + "ms instead");
+			return DEFAULT_BACKGROUND_GRACE_PERIOD;
+		}
+	}
+
+	static private void cancel(List<Runnable> work) {
+		for( Runnable r : work ) {
+			if( r instanceof Future ) {
+				((Future<?>)r).cancel(false);
+			}
+		}
+	}
+
+	/**
+	 * Provides the transport that carries this provider's API calls. Unless one has been set with
+	 * {@link #setTransport(Transport)}, it is chosen by the <code>transport</code> custom property:
+	 * <ul>
+	 *   <li><code>http</code> (the default) talks to the live endpoint;</li>
+	 *   <li><code>record</code> talks to the live endpoint and writes every exchange to the directory named by the
+	 *       <code>transportDirectory</code> custom property;</li>
+	 *   <li><code>replay</code> serves the exchanges recorded in <code>transportDirectory</code> without any network access.</li>
+	 * </ul>
+	 * @return the transport for API calls
+	 * @throws InternalException the recording directory is missing or could not be read
+	 */
+	public @Nonnull Transport getTransport() throws InternalException {
+		Transport t = transport;
+
+		if( t == null ) {
+			synchronized( clientLock ) {
+				if( transport == null ) {
+					Properties props = getContext().getCustomProperties();
+					String mode = props.getProperty("transport", "http");
+					String directory = props.getProperty("transportDirectory");
+
+					try {
+						if( mode.equalsIgnoreCase("record") || mode.equalsIgnoreCase("replay") ) {
+							if( directory == null ) {
+								throw new InternalException("The transportDirectory property is required for the " + mode + " transport");
+							}
+							if( mode.equalsIgnoreCase("record") ) {
+								transport = new RecordingTransport(new HttpTransport(this), new File(directory));
+							}
+							else {
+								transport = new ReplayTransport(new File(directory));
+							}
+						}
+						else {
+							transport = new HttpTransport(this);
+						}
+					}
+					catch( IOException e ) {
+						throw new InternalException(e);
+					}
+				}
+				t = transport;
+			}
+		}
+		return t;
+	}
+
+	/**
+	 * Overrides the transport chosen through the custom properties, for example to inject a
+	 * {@link ReplayTransport} shared across providers in a benchmark.
+	 * @param transport the transport to use, or <code>null</code> to go back to the configured one
+	 */
+	public void setTransport(@Nullable Transport transport) {
+		this.transport = transport;
+	}
+
+	/**
+	 * Provides the HTTP client shared by all API calls made through this provider. The client is backed by a pooled
+	 * connection manager so that connections to the Terremark endpoint are kept alive and reused across requests.
+	 * The pool limits are read from the <code>maxConnections</code>, <code>maxConnectionsPerRoute</code>, and
+	 * <code>keepAliveTimeout</code> (milliseconds) custom properties of the provider context.
+	 * @return the shared HTTP client for this provider
+	 */
+	public @Nonnull HttpClient getClient() {
+		HttpClient c = client;
+
+		if( c == null ) {
+			synchronized( clientLock ) {
+				if( client == null ) {
+					PoolingClientConnectionManager cm = new PoolingClientConnectionManager();
+
+					cm.setMaxTotal(getMaxConnections());
+					cm.setDefaultMaxPerRoute(getMaxConnectionsPerRoute());
+
+					HttpParams params = new BasicHttpParams();
+
+					HttpProtocolParams.setVersion(params, HttpVersion.HTTP_1_1);
+					HttpProtocolParams.setContentCharset(params, "UTF-8");
+					HttpProtocolParams.setUserAgent(params, "Dasein Cloud");
+					HttpConnectionParams.setConnectionTimeout(params, getConnectTimeout());
+					HttpConnectionParams.setSoTimeout(params, getSocketTimeout());
+					// waiting for a pooled connection is bounded by the connect timeout as well
+					params.setLongParameter(ClientPNames.CONN_MANAGER_TIMEOUT, getConnectTimeout());
+
+					String proxyHost = getProxyHost();
+					if( proxyHost != null ) {
+						int proxyPort = getProxyPort();
+						boolean ssl = getContext().getEndpoint().startsWith("https");
+						params.setParameter(ConnRoutePNames.DEFAULT_PROXY, new HttpHost(proxyHost, proxyPort, ssl ? "https" : "http"));
+					}
+					DefaultHttpClient httpClient = new DefaultHttpClient(cm, params);
+					final long keepAlive = getKeepAliveTimeout();
+
+					httpClient.setKeepAliveStrategy(new ConnectionKeepAliveStrategy() {
+						@Override
+						public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+							HeaderElementIterator it = new BasicHeaderElementIterator(response.headerIterator(HTTP.CONN_KEEP_ALIVE));
+							while( it.hasNext() ) {
+								HeaderElement element = it.nextElement();
+								if( element.getValue() != null && element.getName().equalsIgnoreCase("timeout") ) {
+									try {
+										return Math.min(Long.parseLong(element.getValue()) * 1000L, keepAlive);
+									}
+									catch( NumberFormatException ignore ) {
+										// fall through to the configured default
+									}
+								}
+							}
+							return keepAlive;
+						}
+					});
+					connectionManager = cm;
+					client = httpClient;
+				}
+				c = client;
+			}
+		}
+		return c;
+	}
+
+	/**
+	 * @return the public access key of the current context
+	 */
+	public @Nonnull String getAccessKey() {
+		String accessKey = "";
+		try {
+			accessKey = new String(getContext().getAccessPublic(), "utf-8");
+		} catch (UnsupportedEncodingException e) {
+			logger.warn(e.getMessage());
+		}
+		return accessKey;
+	}
 
 	@Override
 	public String getCloudName() {
@@ -323,6 +645,27 @@ public class Terremark  extends AbstractCloud {
 		return ((name == null ) ? getProviderName() : name);
 	}
 
+	/**
+	 * Provides the circuit breaker guarding this provider's API endpoint. The breaker is shared by every provider
+	 * talking to the same endpoint and is configured through the <code>circuitBreakerThreshold</code> and
+	 * <code>circuitBreakerResetTimeout</code> (milliseconds) custom properties. A threshold of zero or less disables it.
+	 * @return the circuit breaker for the endpoint, or <code>null</code> if circuit breaking is disabled
+	 */
+	public @Nullable CircuitBreaker getCircuitBreaker() {
+		ProviderContext ctx = getContext();
+		Properties props = ctx.getCustomProperties();
+		String value = props.getProperty("circuitBreakerThreshold");
+		int threshold = (value == null ? DEFAULT_BREAKER_THRESHOLD : Integer.parseInt(value));
+
+		if( threshold <= 0 ) {
+			return null;
+		}
+		value = props.getProperty("circuitBreakerResetTimeout");
+		long resetTimeout = (value == null ? DEFAULT_BREAKER_RESET_TIMEOUT : Long.parseLong(value));
+
+		return CircuitBreaker.getInstance(ctx.getEndpoint(), threshold, resetTimeout);
+	}
+
 	@Override
 	public @Nonnull TerremarkComputeServices getComputeServices() {
 		return new TerremarkComputeServices(this);
@@ -334,79 +677,51 @@ public class Terremark  extends AbstractCloud {
 	}
 
 	public Map<String,String> getHeaders(ProviderContext ctx, HttpMethodName methodType, String url, NameValuePair[] queryParamters, String body) {
-		HashMap<String,String> headers = new HashMap<String,String>();
+		return getHeaders(ctx, methodType, url, queryParamters, RequestSigner.encode(body));
+	}
 
-		String accessKey = "";
+	/**
+	 * Builds the signed headers for a request whose body has already been encoded as UTF-8, so that the same
+	 * bytes can be sent as the request entity.
+	 * @see RequestSigner
+	 */
+	public Map<String,String> getHeaders(ProviderContext ctx, HttpMethodName methodType, String url, NameValuePair[] queryParamters, byte[] body) {
+		RequestSigner requestSigner = (ctx == getContext() ? getRequestSigner() : newRequestSigner(ctx));
 		try {
-			accessKey = new String(ctx.getAccessPublic(), "utf-8");
-		} catch (UnsupportedEncodingException e) {
-			logger.warn(e.getMessage());
-		}
-		String signatureType = ALGORITHM;
-		String signature = null;
-		String contentLength = "";
-		String contentType = "";
-		String formattedDate = getRfcDate();
-		String canonicalizedHeaders = "";
-		String canonicalizedResource = "";
-
-		headers.put(TMRK_DATE, formattedDate);
-		headers.put(TMRK_VERSION, VERSION);
-		headers.put(ACCEPT, XML);
-		if (body != null && (methodType.equals(HttpMethodName.PUT) || methodType.equals(HttpMethodName.POST) || methodType.equals(HttpMethodName.DELETE))){
-			contentLength = new String("" + body.getBytes().length);
-		}
-		if (body != null && !body.equals("")){
-			contentType = XML;
-			headers.put(CONTENT_TYPE, contentType);
-		}
-
-		List<String> canonicalizedHeadersList = new ArrayList<String>();
-		HashMap<String,String> tempHeadersLower = new HashMap<String,String>();
-		for( Map.Entry<String, String> entry : headers.entrySet() ) {
-			if (entry.getKey().toLowerCase().startsWith("x-tmrk-") && !entry.getKey().equals(TMRK_AUTHORIZATION))
-				canonicalizedHeadersList.add(entry.getKey().toLowerCase().trim());
-			tempHeadersLower.put(entry.getKey().toLowerCase().trim(), entry.getValue().trim());
-		}
-		Collections.sort(canonicalizedHeadersList);
-		for (String header : canonicalizedHeadersList){
-			String value = tempHeadersLower.get(header);
-			canonicalizedHeaders += header + ":" + value+"\n";
+			return requestSigner.sign(methodType, url, queryParamters, body);
+		} catch (InternalException e) {
+			logger.warn(e.getMessage(), e);
+			return new HashMap<String,String>();
 		}
+	}
 
-		if (!url.startsWith("/")){
-			url = "/" + url;
-		}
+	/**
+	 * Provides the signer holding this provider's credentials. It is discarded by {@link #close()}, so the secret
+	 * key is not kept beyond the provider's use.
+	 * @return the request signer for this provider
+	 */
+	public @Nonnull RequestSigner getRequestSigner() {
+		RequestSigner s = signer;
 
-		canonicalizedResource += DEFAULT_URI_PATH + url.toLowerCase().trim() + "\n";
-		List<String> queryParameterList = new ArrayList<String>();
-		HashMap<String,String> tempQueryParamtersLower = new HashMap<String,String>();
-		if (queryParamters != null) {
-			for( NameValuePair parameter : queryParamters ) {
-				queryParameterList.add(parameter.getName().toLowerCase().trim());
-				tempQueryParamtersLower.put(parameter.getName().toLowerCase().trim(), parameter.getValue().trim());
+		if( s == null ) {
+			synchronized( clientLock ) {
+				if( signer == null ) {
+					signer = newRequestSigner(getContext());
+				}
+				s = signer;
 			}
-			Collections.sort(queryParameterList);
-		}
-
-		for (String paramter : queryParameterList){
-			String value = tempQueryParamtersLower.get(paramter);
-			canonicalizedResource += paramter+ ":" + value + "\n";
 		}
+		return s;
+	}
 
-		// use String constructor for UTF-8 encoding
-		String stringToSign = new String(methodType + "\n" + contentLength + "\n" + contentType + "\n" + formattedDate + "\n" + canonicalizedHeaders + canonicalizedResource);
+	static private RequestSigner newRequestSigner(ProviderContext ctx) {
+		String accessKey = "";
 		try {
-			signature = sign(ctx.getAccessPrivate(), stringToSign, ALGORITHM);
-		} catch (InternalException e) {
+			accessKey = new String(ctx.getAccessPublic(), "utf-8");
+		} catch (UnsupportedEncodingException e) {
 			logger.warn(e.getMessage());
-			e.printStackTrace();
 		}
-
-		String autorizationString = "CloudApi AccessKey=\"" + accessKey + "\" SignatureType=\"" + signatureType + "\" Signature=\"" + signature + "\"";
-		headers.put(TMRK_AUTHORIZATION, autorizationString);
-
-		return headers;
+		return new RequestSigner(accessKey, ctx.getAccessPrivate());
 	}
 
 	@Override
@@ -452,14 +767,434 @@ public class Terremark  extends AbstractCloud {
 		return -1;
 	}
 
+	/**
+	 * @return the number of milliseconds allowed for establishing a connection, from the <code>connectTimeout</code> custom property
+	 */
+	public int getConnectTimeout() {
+		String timeout = getContext().getCustomProperties().getProperty("connectTimeout");
+
+		if( timeout != null ) {
+			return Integer.parseInt(timeout);
+		}
+		return DEFAULT_CONNECT_TIMEOUT;
+	}
+
+	/**
+	 * @return the number of milliseconds a connection may sit idle waiting for response data, from the
+	 * <code>socketTimeout</code> custom property
+	 */
+	public int getSocketTimeout() {
+		String timeout = getContext().getCustomProperties().getProperty("socketTimeout");
+
+		if( timeout != null ) {
+			return Integer.parseInt(timeout);
+		}
+		return DEFAULT_SOCKET_TIMEOUT;
+	}
+
+	public long getKeepAliveTimeout() {
+		String timeout = getContext().getCustomProperties().getProperty("keepAliveTimeout");
+
+		if( timeout != null ) {
+			return Long.parseLong(timeout);
+		}
+		return DEFAULT_KEEP_ALIVE_TIMEOUT;
+	}
+
+	public int getMaxAsyncRequests() {
+		String max = getContext().getCustomProperties().getProperty("maxAsyncRequests");
+
+		if( max != null ) {
+			return Integer.parseInt(max);
+		}
+		return DEFAULT_MAX_ASYNC_REQUESTS;
+	}
+
+	public int getMaxConnections() {
+		String max = getContext().getCustomProperties().getProperty("maxConnections");
+
+		if( max != null ) {
+			return Integer.parseInt(max);
+		}
+		return DEFAULT_MAX_CONNECTIONS;
+	}
+
+	public int getMaxConnectionsPerRoute() {
+		String max = getContext().getCustomProperties().getProperty("maxConnectionsPerRoute");
+
+		if( max != null ) {
+			return Integer.parseInt(max);
+		}
+		return DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+	}
+
+	/**
+	 * Provides the bounded executor that runs asynchronous API calls issued through
+	 * {@link TerremarkMethod#invokeAsync()}. The number of concurrent calls is limited by the
+	 * <code>maxAsyncRequests</code> custom property; additional calls queue until a worker is free.
+	 * @return the executor for asynchronous API calls made through this provider
+	 */
+	public @Nonnull ExecutorService getRequestExecutor() {
+		ThreadPoolExecutor executor = requestExecutor;
+
+		if( executor == null ) {
+			synchronized( clientLock ) {
+				if( requestExecutor == null ) {
+					int max = getMaxAsyncRequests();
+					final AtomicInteger count = new AtomicInteger(0);
+
+					executor = new ThreadPoolExecutor(max, max, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+						@Override
+						public Thread newThread(Runnable r) {
+							Thread t = new Thread(r);
+
+							t.setName("Terremark Request " + count.incrementAndGet());
+							t.setDaemon(true);
+							return t;
+						}
+					});
+					executor.allowCoreThreadTimeOut(true);
+					requestExecutor = executor;
+				}
+				executor = requestExecutor;
+			}
+		}
+		return executor;
+	}
+
+	/**
+	 * Provides the bounded executor that runs launches started with
+	 * {@link org.dasein.cloud.terremark.compute.VMSupport#launchAsync(org.dasein.cloud.compute.VMLaunchOptions)}. The
+	 * number of launches in progress at once is limited by the <code>maxConcurrentLaunches</code> custom property;
+	 * additional launches queue until a worker is free.
+	 * @return the executor for asynchronous launches made through this provider
+	 */
+	public @Nonnull ExecutorService getLaunchExecutor() {
+		ThreadPoolExecutor executor = launchExecutor;
+
+		if( executor == null ) {
+			synchronized( clientLock ) {
+				if( launchExecutor == null ) {
+					int max = getIntProperty(getContext().getCustomProperties(), "maxConcurrentLaunches", DEFAULT_MAX_CONCURRENT_LAUNCHES);
+					final AtomicInteger count = new AtomicInteger(0);
+
+					executor = new ThreadPoolExecutor(max, max, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+						@Override
+						public Thread newThread(Runnable r) {
+							Thread t = new Thread(r);
+
+							t.setName("Terremark Launch " + count.incrementAndGet());
+							t.setDaemon(true);
+							return t;
+						}
+					});
+					executor.allowCoreThreadTimeOut(true);
+					launchExecutor = executor;
+				}
+				executor = launchExecutor;
+			}
+		}
+		return executor;
+	}
+
+	/**
+	 * Provides the executor from which {@link RequestHedger} sends GET requests and their hedges. At most
+	 * <code>maxHedgeThreads</code> requests, by default twice the connection pool's per-route limit, are sent from it
+	 * at once; a GET that finds no free thread is sent from its caller's thread without a hedge. It is shut down by
+	 * {@link #close()}.
+	 * @return the executor for hedged GET requests made through this provider
+	 */
+	public @Nonnull ExecutorService getHedgeExecutor() {
+		ThreadPoolExecutor executor = hedgeExecutor;
+
+		if( executor == null ) {
+			synchronized( clientLock ) {
+				if( hedgeExecutor == null ) {
+					int max = getIntProperty(getContext().getCustomProperties(), "maxHedgeThreads", getMaxConnectionsPerRoute() * 2);
+					final AtomicInteger count = new AtomicInteger(0);
+
+					// no queue: a request either gets a thread now or goes out on its caller's thread
+					executor = new ThreadPoolExecutor(max, max, 60L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new ThreadFactory() {
+						@Override
+						public Thread newThread(Runnable r) {
+							Thread t = new Thread(r);
+
+							t.setName("Terremark Hedge " + count.incrementAndGet());
+							t.setDaemon(true);
+							return t;
+						}
+					});
+					executor.allowCoreThreadTimeOut(true);
+					hedgeExecutor = executor;
+				}
+				executor = hedgeExecutor;
+			}
+		}
+		return executor;
+	}
+
+	/**
+	 * Provides the scheduler that runs this provider's background work, such as task polls and the watches kept on
+	 * catalog imports. At most <code>backgroundThreads</code> jobs run at once and at most
+	 * <code>maxBackgroundQueue</code> wait to run; the scheduler's {@link BackgroundScheduler#getQueueDepth() queue depth}
+	 * and {@link BackgroundScheduler#getActiveCount() active count} show how busy it is. It is shut down by
+	 * {@link #close()}.
+	 * @return the background scheduler for this provider
+	 */
+	public @Nonnull BackgroundScheduler getBackgroundScheduler() {
+		BackgroundScheduler scheduler = backgroundScheduler;
+
+		if( scheduler == null ) {
+			synchronized( clientLock ) {
+				if( backgroundScheduler == null ) {
+					Properties props = getContext().getCustomProperties();
+					// taskPollerThreads is the older name for the same setting
+					int threads = getIntProperty(props, "backgroundThreads", getIntProperty(props, "taskPollerThreads", DEFAULT_BACKGROUND_THREADS));
+
+					backgroundScheduler = new BackgroundScheduler("Terremark Background", threads, getIntProperty(props, "maxBackgroundQueue", DEFAULT_MAX_BACKGROUND_QUEUE));
+				}
+				scheduler = backgroundScheduler;
+			}
+		}
+		return scheduler;
+	}
+
+	/**
+	 * Provides the service that polls the tasks started by this provider's API calls on behalf of everyone waiting
+	 * on them. Polls are made on the {@link #getBackgroundScheduler() background scheduler}. When
+	 * at least <code>taskBatchThreshold</code> tasks in the same environment are due to be polled, they are read
+	 * from a single listing of the environment's tasks; 0 turns this off. Unless <code>adaptiveTaskPolling</code> is
+	 * set to false, tasks whose operation has been seen to complete often enough are polled at the points by which
+	 * recent tasks of the same operation completed rather than at the interval asked for by the caller, but never
+	 * more often than every <code>taskPollMinimumInterval</code> milliseconds.
+	 * @return the task tracker for this provider
+	 */
+	public @Nonnull TaskTracker getTaskTracker() {
+		TaskTracker tracker = taskTracker;
+
+		if( tracker == null ) {
+			synchronized( clientLock ) {
+				if( taskTracker == null ) {
+					Properties props = getContext().getCustomProperties();
+
+					String value = props.getProperty("adaptiveTaskPolling");
+					boolean adaptive = (value == null || value.equalsIgnoreCase("true"));
+					value = props.getProperty("taskPollMinimumInterval");
+					long minimumInterval = (value == null ? DEFAULT_TASK_POLL_MINIMUM_INTERVAL : Long.parseLong(value));
+
+					taskTracker = new TaskTracker(this, getBackgroundScheduler(), getIntProperty(props, "taskBatchThreshold", DEFAULT_TASK_BATCH_THRESHOLD), adaptive, minimumInterval);
+				}
+				tracker = taskTracker;
+			}
+		}
+		return tracker;
+	}
+
+	/**
+	 * Indicates whether identical concurrent GET requests made with this provider's credentials are coalesced
+	 * into a single API call. Controlled by the <code>coalesceRequests</code> custom property; on by default.
+	 * @return true if GET requests are coalesced
+	 */
+	public boolean isCoalescingRequests() {
+		String value = getContext().getCustomProperties().getProperty("coalesceRequests");
+
+		return (value == null || value.equalsIgnoreCase("true"));
+	}
+
+	/**
+	 * Provides the cache of validated GET responses shared by every provider using this provider's access key.
+	 * Its capacity is set through the <code>responseCacheSize</code> custom property (number of responses); a size
+	 * of zero or less disables conditional GETs.
+	 * @return the response cache, or <code>null</code> if responses are not cached
+	 */
+	public @Nullable ResponseCache getResponseCache() {
+		String value = getContext().getCustomProperties().getProperty("responseCacheSize");
+		int size = (value == null ? DEFAULT_RESPONSE_CACHE_SIZE : Integer.parseInt(value));
+
+		if( size <= 0 ) {
+			return null;
+		}
+		return ResponseCache.getInstance(getAccessKey(), size);
+	}
+
+	/**
+	 * Provides the scheduler that orders API calls by priority when more are ready than may be in flight. The
+	 * <code>maxInFlightRequests</code> custom property bounds the calls in flight across all classes and defaults to
+	 * the connection pool's per-route limit; zero or less disables scheduling. The classes share admissions by the
+	 * <code>interactiveWeight</code>, <code>mutatingWeight</code>, and <code>pollWeight</code> custom properties and
+	 * are individually capped by <code>maxInFlightInteractive</code>, <code>maxInFlightMutating</code>, and
+	 * <code>maxInFlightPolls</code>, the last defaulting to a quarter of the total. The scheduler is shared by every
+	 * provider using the same endpoint and access key.
+	 * @return the request scheduler, or <code>null</code> if scheduling is disabled
+	 */
+	public @Nullable RequestScheduler getRequestScheduler() {
+		Properties props = getContext().getCustomProperties();
+		String value = props.getProperty("maxInFlightRequests");
+		int max = (value == null ? getMaxConnectionsPerRoute() : Integer.parseInt(value));
+
+		if( max <= 0 ) {
+			return null;
+		}
+		int[] weights = new int[] {
+				getIntProperty(props, "interactiveWeight", DEFAULT_INTERACTIVE_WEIGHT),
+				getIntProperty(props, "mutatingWeight", DEFAULT_MUTATING_WEIGHT),
+				getIntProperty(props, "pollWeight", DEFAULT_POLL_WEIGHT)
+		};
+		int[] limits = new int[] {
+				getIntProperty(props, "maxInFlightInteractive", max),
+				getIntProperty(props, "maxInFlightMutating", max),
+				getIntProperty(props, "maxInFlightPolls", Math.max(1, max / 4))
+		};
+		return RequestScheduler.getInstance(getContext().getEndpoint() + " " + getAccessKey(), max, weights, limits);
+	}
+
+	static private int getIntProperty(Properties props, String name, int defaultValue) {
+		String value = props.getProperty(name);
+
+		return (value == null ? defaultValue : Integer.parseInt(value));
+	}
+
+	/**
+	 * Provides the hedger that sends a second copy of a GET request that is slow to be answered. Hedging is off
+	 * unless the <code>hedgePercentile</code> custom property is set to a fraction between 0 and 1, such as 0.95, in
+	 * which case a GET is hedged once it has gone unanswered for longer than that percentile of the recent responses
+	 * to the same operation, and never sooner than <code>hedgeMinimumDelay</code> milliseconds. Hedges are bounded by
+	 * a budget of <code>hedgeBudget</code> hedges, of which each GET earns back <code>hedgeBudgetRatio</code>, and are
+	 * only sent when the read rate limiter and the request scheduler have room for them without waiting. The
+	 * hedger is shared by every provider using the same endpoint and access key; the threads it sends requests from
+	 * are this provider's {@link #getHedgeExecutor() hedge executor}.
+	 * @return the request hedger, or <code>null</code> if hedging is disabled
+	 */
+	public @Nullable RequestHedger getRequestHedger() {
+		Properties props = getContext().getCustomProperties();
+		String value = props.getProperty("hedgePercentile");
+		double percentile = (value == null ? 0.0 : Double.parseDouble(value));
+
+		if( percentile <= 0.0 || percentile >= 1.0 ) {
+			return null;
+		}
+		value = props.getProperty("hedgeMinimumDelay");
+		long minimumDelay = (value == null ? DEFAULT_HEDGE_MINIMUM_DELAY : Long.parseLong(value));
+		value = props.getProperty("hedgeBudget");
+		double maxHedges = (value == null ? DEFAULT_HEDGE_BUDGET : Double.parseDouble(value));
+		value = props.getProperty("hedgeBudgetRatio");
+		double ratio = (value == null ? DEFAULT_HEDGE_BUDGET_RATIO : Double.parseDouble(value));
+
+		return RequestHedger.getInstance(getContext().getEndpoint() + " " + getAccessKey(), percentile, minimumDelay, maxHedges, ratio);
+	}
+
+	/**
+	 * Provides the buffer holding a summary of the most recent API calls, for diagnosing failures without wire
+	 * logging. The <code>wireCaptureSize</code> custom property sets how many calls are kept (0 turns capturing off)
+	 * and <code>wireCaptureBodyLength</code> how many bytes of each body. The buffer is shared by every provider using
+	 * the same endpoint and access key.
+	 * @return the wire capture, or <code>null</code> if capturing is disabled
+	 */
+	public @Nullable WireCapture getWireCapture() {
+		Properties props = getContext().getCustomProperties();
+		int size = getIntProperty(props, "wireCaptureSize", DEFAULT_WIRE_CAPTURE_SIZE);
+
+		if( size <= 0 ) {
+			return null;
+		}
+		return WireCapture.getInstance(getContext().getEndpoint() + " " + getAccessKey(), size, getIntProperty(props, "wireCaptureBodyLength", DEFAULT_WIRE_CAPTURE_BODY_LENGTH));
+	}
+
+	/**
+	 * Indicates whether the server is asked to gzip or deflate its responses. Controlled by the
+	 * <code>compressResponses</code> custom property; on by default. Compressed responses are decoded transparently,
+	 * and the metrics report both the bytes on the wire and the decoded size.
+	 * @return true if responses may be compressed
+	 */
+	public boolean isCompressingResponses() {
+		String value = getContext().getCustomProperties().getProperty("compressResponses");
+
+		return (value == null || value.equalsIgnoreCase("true"));
+	}
+
+	/**
+	 * Indicates whether responses are requested as JSON rather than XML. Controlled by the <code>wireFormat</code>
+	 * custom property (<code>xml</code> or <code>json</code>); XML by default. JSON responses are decoded with
+	 * {@link JsonDocumentReader} into the same document structure as their XML equivalents, so this affects only
+	 * what travels over the wire. Calls parsed with a {@link TerremarkMethod.StreamParser} always request XML.
+	 * @return true if responses are requested as JSON
+	 */
+	public boolean isJsonWireFormat() {
+		String value = getContext().getCustomProperties().getProperty("wireFormat");
+
+		return (value != null && value.equalsIgnoreCase("json"));
+	}
+
+	/**
+	 * Provides the client-side rate limiter for calls of the specified type made with this provider's access key.
+	 * Reads (GET and HEAD) and mutating calls draw on separate buckets configured through the
+	 * <code>readRequestsPerSecond</code>, <code>readBurst</code>, <code>writeRequestsPerSecond</code>, and
+	 * <code>writeBurst</code> custom properties. A rate of zero or less disables limiting for that class of call.
+	 * @param methodType the HTTP method of the call about to be made
+	 * @return the rate limiter to pass through before making the call, or <code>null</code> if calls are not limited
+	 */
+	public @Nullable RateLimiter getRateLimiter(@Nonnull HttpMethodName methodType) {
+		ProviderContext ctx = getContext();
+		Properties props = ctx.getCustomProperties();
+		boolean read = (methodType.equals(HttpMethodName.GET) || methodType.equals(HttpMethodName.HEAD));
+		String value = props.getProperty(read ? "readRequestsPerSecond" : "writeRequestsPerSecond");
+		double rate = (value == null ? (read ? DEFAULT_READ_RATE : DEFAULT_WRITE_RATE) : Double.parseDouble(value));
+
+		if( rate <= 0.0 ) {
+			return null;
+		}
+		value = props.getProperty(read ? "readBurst" : "writeBurst");
+		int burst = (value == null ? (read ? DEFAULT_READ_BURST : DEFAULT_WRITE_BURST) : Integer.parseInt(value));
+		return RateLimiter.getInstance(getAccessKey() + (read ? ":read" : ":write"), rate, burst);
+	}
+
+	/**
+	 * Provides the policy governing retries of failed API calls. Unless one has been set with
+	 * {@link #setRetryPolicy(RetryPolicy)}, this is an {@link ExponentialBackoffRetryPolicy} configured from the
+	 * <code>maxRetryAttempts</code>, <code>retryBaseDelay</code>, <code>retryMaxDelay</code> (milliseconds), and
+	 * <code>retryBudget</code> custom properties. The retry budget is shared by every provider for the same account.
+	 * @return the retry policy for this provider
+	 */
+	public @Nonnull RetryPolicy getRetryPolicy() {
+		RetryPolicy policy = retryPolicy;
+
+		if( policy == null ) {
+			Properties props = getContext().getCustomProperties();
+			String value = props.getProperty("maxRetryAttempts");
+			int maxAttempts = (value == null ? DEFAULT_MAX_RETRY_ATTEMPTS : Integer.parseInt(value));
+
+			value = props.getProperty("retryBaseDelay");
+			long baseDelay = (value == null ? DEFAULT_RETRY_BASE_DELAY : Long.parseLong(value));
+			value = props.getProperty("retryMaxDelay");
+			long maxDelay = (value == null ? DEFAULT_RETRY_MAX_DELAY : Long.parseLong(value));
+			value = props.getProperty("retryBudget");
+			double maxTokens = (value == null ? DEFAULT_RETRY_BUDGET : Double.parseDouble(value));
+
+			RetryBudget budget = RetryBudget.getInstance(getContext().getAccountNumber(), maxTokens, RETRY_BUDGET_RATIO);
+
+			policy = new ExponentialBackoffRetryPolicy(maxAttempts, baseDelay, maxDelay, budget);
+			retryPolicy = policy;
+		}
+		return policy;
+	}
+
+	public void setRetryPolicy(@Nullable RetryPolicy retryPolicy) {
+		this.retryPolicy = retryPolicy;
+	}
+
 	public String getTaskStatus(String taskHref) throws CloudException, InternalException {
-		String status = null;
 		TerremarkMethod method = new TerremarkMethod(this, HttpMethodName.GET, taskHref, null, null);
-		Document doc = method.invoke();
-		if (doc != null) {
-			status = doc.getElementsByTagName(STATUS_TAG).item(0).getTextContent();
-		}
-		return status;
+		return method.invoke(new TerremarkMethod.StreamParser<String>() {
+			@Override
+			public String parse(@Nonnull XMLStreamReader reader) throws XMLStreamException {
+				while( reader.hasNext() ) {
+					if( reader.next() == XMLStreamConstants.START_ELEMENT && reader.getLocalName().equals(STATUS_TAG) ) {
+						return reader.getElementText();
+					}
+				}
+				return null;
+			}
+		});
 	}
 
 	public @Nonnull TerremarkProvider getTerremarkProvider() {
@@ -542,62 +1277,65 @@ public class Terremark  extends AbstractCloud {
 			else if( name.equals(Terremark.ERROR_MESSAGE_TAG) ) {
 				task.errorMessage = child.getTextContent();
 			}
+			else if( name.equals(Terremark.OPERATION_TAG) ) {
+				task.operation = child.getTextContent();
+			}
+			else if( name.equals(Terremark.START_TIME_TAG) ) {
+				task.startTime = parseIsoDate(child.getTextContent());
+			}
+			else if( name.equals(Terremark.COMPLETED_TIME_TAG) ) {
+				task.completedTime = parseIsoDate(child.getTextContent());
+			}
 		}
 		return task;
 	}
 
+	/**
+	 * Waits for a task to complete or fail. The task is polled by the {@link TaskTracker}, so the calling thread only
+	 * waits for the outcome. Waiting also stops if the thread's {@link Deadline} passes before the task's own
+	 * timeout, in which case a {@link DeadlineExceededException} is thrown.
+	 * @param taskHref the task to wait for
+	 * @param sleepTime the number of milliseconds between polls
+	 * @param timeout the number of milliseconds to wait for the task
+	 * @throws CloudException the task failed, could not be read, or the deadline passed
+	 * @throws InternalException the task did not complete within the timeout or the wait was interrupted
+	 */
 	public void waitForTask(String taskHref, long sleepTime, long timeout) throws CloudException, InternalException {
 		logger.debug("enter - waitForTask(): " + taskHref);
-		boolean complete = false;
-		long startTime = System.currentTimeMillis();
-		long failurePoint = -1L;
-		int failedCalls = 0;
-		while( !complete && failedCalls < TASK_ERROR_COUNT) {
-			TerremarkMethod method;
-			Document doc = null;
-
-			method = new TerremarkMethod(this, HttpMethodName.GET, taskHref, null, null);
-			try {
-				doc = method.invoke();
-			}
-			catch (CloudException e) {
-				logger.warn("waitForTask Error: " + e);
-				failedCalls++;
-			}
-			if (doc != null ) {
-				Node taskNode = doc.getElementsByTagName(Terremark.TASK_TAG).item(0);
-				Task lt = toTask(taskNode);
+		Deadline deadline = Deadline.getCurrent();
 
-				if( lt.status.equals(Terremark.TASK_COMPLETE) ) {
-					complete = true;
-				}
-				else if( lt.status.equals(Terremark.TASK_ERROR) ) {
-					String message = lt.errorMessage;
+		if( deadline != null ) {
+			deadline.check("waitForTask " + taskHref);
+		}
+		Future<Task> future = getTaskTracker().track(taskHref, sleepTime, timeout);
 
-					if( message == null ) {
-						if( failurePoint == -1L ) {
-							failurePoint = System.currentTimeMillis();
-						}
-						if( (System.currentTimeMillis() - failurePoint) > (CalendarWrapper.MINUTE * 2) ) {
-							message = "Task failed without further information.";
-						}
-					}
-					if( message != null ) {
-						throw new CloudException(message);
-					}
-				}
-				logger.debug("Time ellapsed since task start time " + (System.currentTimeMillis() - startTime));
-				if( !complete ) {
-					if ((System.currentTimeMillis() - startTime) > timeout) {
-						throw new InternalException("Timed out waiting for the task to complete.");
-					}
-					try { Thread.sleep(sleepTime); }
-					catch( InterruptedException e ) { }
-				}
+		try {
+			if( deadline == null ) {
+				future.get();
+			}
+			else {
+				future.get(deadline.getRemaining(), TimeUnit.MILLISECONDS);
 			}
 		}
-		if (failedCalls >= TASK_ERROR_COUNT) {
-			throw new CloudException("waitForTask(): Get task call failed " + failedCalls + " times. Giving up.");
+		catch( TimeoutException e ) {
+			future.cancel(false);
+			throw new DeadlineExceededException("waitForTask " + taskHref, deadline);
+		}
+		catch( InterruptedException e ) {
+			future.cancel(false);
+			Thread.currentThread().interrupt();
+			throw new InternalException(e);
+		}
+		catch( ExecutionException e ) {
+			Throwable cause = e.getCause();
+
+			if( cause instanceof CloudException ) {
+				throw (CloudException)cause;
+			}
+			else if( cause instanceof InternalException ) {
+				throw (InternalException)cause;
+			}
+			throw new InternalException(cause);
 		}
 		logger.debug("exit - waitForTask(): " + taskHref);
 	}
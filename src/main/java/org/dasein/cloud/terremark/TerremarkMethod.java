@@ -21,25 +21,36 @@ package org.dasein.cloud.terremark;
 
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
-import org.apache.http.HttpHost;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
-import org.apache.http.HttpVersion;
 import org.apache.http.NameValuePair;
-import org.apache.http.client.HttpClient;
+import org.apache.http.client.entity.DeflateDecompressingEntity;
+import org.apache.http.client.entity.GzipDecompressingEntity;
 import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
 import org.apache.http.client.methods.HttpGet;
@@ -48,12 +59,11 @@ import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.client.utils.URIBuilder;
-import org.apache.http.conn.params.ConnRoutePNames;
-import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.params.BasicHttpParams;
-import org.apache.http.params.HttpParams;
-import org.apache.http.params.HttpProtocolParams;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.cookie.DateParseException;
+import org.apache.http.impl.cookie.DateUtils;
+import org.apache.http.params.HttpConnectionParams;
 import org.apache.http.util.EntityUtils;
 import org.apache.log4j.Logger;
 import org.dasein.cloud.CloudErrorType;
@@ -74,6 +84,121 @@ public class TerremarkMethod {
 	static private final Logger logger = Terremark.getLogger(TerremarkMethod.class);
 	static private final Logger wire = Terremark.getWireLogger(TerremarkMethod.class);
 
+	/**
+	 * Consumes a response body as a stream of StAX events. See {@link TerremarkMethod#invoke(StreamParser)}.
+	 * @param <T> the type of value extracted from the response
+	 */
+	public interface StreamParser<T> {
+		public T parse(@Nonnull XMLStreamReader reader) throws XMLStreamException, CloudException, InternalException;
+	}
+
+	/**
+	 * Receives the responses of {@link TerremarkMethod#invokeAll(Terremark, List, DocumentHandler)} one at a time.
+	 */
+	public interface DocumentHandler {
+		/**
+		 * @param index the position in the list of the URL that was fetched
+		 * @param doc the response document, or <code>null</code> if the call failed or found nothing
+		 */
+		public void handle(int index, @Nullable Document doc) throws CloudException, InternalException;
+	}
+
+	private interface ResponseHandler<T> {
+		public String getAcceptType();
+
+		public void prepare(HttpUriRequest method);
+
+		public T handleContent(InputStream input, HttpResponse response) throws CloudException, InternalException;
+
+		public T handleNoContent() throws CloudException, InternalException;
+
+		public T handleNotModified() throws CloudException, InternalException;
+	}
+
+	/**
+	 * Counts the response body bytes read from the connection, optionally keeping the first few for the wire capture.
+	 */
+	static private class CountingEntity extends HttpEntityWrapper {
+		private long        count = 0L;
+		private InputStream content;
+		private byte[]      captured;
+		private int         capturedLength = 0;
+
+		CountingEntity(HttpEntity entity) {
+			super(entity);
+		}
+
+		/**
+		 * Keeps up to the specified number of bytes of the body as it is read.
+		 * @param limit the number of bytes to keep
+		 */
+		void capture(int limit) {
+			if( limit > 0 ) {
+				captured = new byte[limit];
+			}
+		}
+
+		private void keep(byte[] b, int off, int len) {
+			if( captured != null && capturedLength < captured.length ) {
+				int n = Math.min(len, captured.length - capturedLength);
+
+				System.arraycopy(b, off, captured, capturedLength, n);
+				capturedLength += n;
+			}
+		}
+
+		@Override
+		public InputStream getContent() throws IOException {
+			if( content == null ) {
+				content = new FilterInputStream(super.getContent()) {
+					@Override
+					public int read() throws IOException {
+						int b = super.read();
+						if( b > -1 ) {
+							if( captured != null && capturedLength < captured.length ) {
+								captured[capturedLength++] = (byte)b;
+							}
+							count++;
+						}
+						return b;
+					}
+
+					@Override
+					public int read(byte[] b, int off, int len) throws IOException {
+						int n = super.read(b, off, len);
+						if( n > 0 ) {
+							keep(b, off, n);
+							count += n;
+						}
+						return n;
+					}
+
+					@Override
+					public long skip(long n) throws IOException {
+						long skipped = super.skip(n);
+						count += skipped;
+						return skipped;
+					}
+				};
+			}
+			return content;
+		}
+
+		long getCount() {
+			return count;
+		}
+
+		byte[] getCaptured() {
+			return captured;
+		}
+
+		int getCapturedLength() {
+			return capturedLength;
+		}
+	}
+
+	static private final XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
+
 	static public class ParsedError {
 		public int code;
 		public String message;
@@ -85,13 +210,24 @@ public class TerremarkMethod {
 	public final static String MAJOR_CODE_ATTR  = "majorErrorCode";
 	public final static String MINOR_CODE_ATTR  = "minorErrorCode";
 
+	static private final String RETRY_AFTER       = "Retry-After";
+	static private final String ETAG              = "ETag";
+	static private final String LAST_MODIFIED     = "Last-Modified";
+	static private final String IF_NONE_MATCH     = "If-None-Match";
+	static private final String IF_MODIFIED_SINCE = "If-Modified-Since";
+	static private final String ACCEPT_ENCODING   = "Accept-Encoding";
+
 	private int                attempts    = 0;
 	private NameValuePair[]    parameters  = null;
 	private Terremark          provider    = null;
+	private String             path        = null;
 	private String             url         = null;
+	private RetryPolicy        retryPolicy = null;
+	private Deadline           deadline    = Deadline.getCurrent();
+	private RequestScheduler.Priority priority = RequestScheduler.getCurrentPriority();
 	private HttpMethodName     methodType  = null;
 	private String             body        = null;
-	private Map<String,String> headers     = null;
+	private byte[]             content     = null;
 
 	public TerremarkMethod(Terremark provider, HttpMethodName methodType, String url, NameValuePair[] queryParameters, String body) throws CloudException {
 		ProviderContext ctx = provider.getContext();
@@ -110,10 +246,24 @@ public class TerremarkMethod {
 			url = "/" + url;
 		}
 
-		this.headers = provider.getHeaders(ctx, methodType, url, queryParameters, body);
+		// the body is encoded once; each attempt is signed just before it is sent
+		this.content = RequestSigner.encode(body);
+		this.path = url;
 
 		url = ctx.getEndpoint() + Terremark.DEFAULT_URI_PATH + url;
 
+		if (queryParameters != null ){
+			try {
+				URIBuilder uri = new URIBuilder(url);
+				for (NameValuePair parameter : queryParameters) {
+					uri.addParameter(parameter.getName(), parameter.getValue());
+				}
+				url = uri.toString();
+			} catch (URISyntaxException e) {
+				throw new CloudException(e);
+			}
+		}
+
 		this.url = url;
 		this.parameters = queryParameters;
 		this.provider = provider;
@@ -122,32 +272,319 @@ public class TerremarkMethod {
 
 	}
 
+	/**
+	 * Sets the time by which this call, including any retries, must complete. By default a call is bound by the
+	 * {@link Deadline#getCurrent() current thread's deadline} at the time it was created.
+	 * @param deadline the deadline for this call, or <code>null</code> for none
+	 * @return this method
+	 */
+	public TerremarkMethod withDeadline(Deadline deadline) {
+		this.deadline = deadline;
+		return this;
+	}
+
+	/**
+	 * Sets the priority class this call is scheduled under. By default a call takes the
+	 * {@link RequestScheduler#getCurrentPriority() current thread's priority} at the time it was created, or failing
+	 * that {@link RequestScheduler.Priority#INTERACTIVE} for a GET and {@link RequestScheduler.Priority#MUTATING}
+	 * for anything else.
+	 * @param priority the priority of this call, or <code>null</code> to choose it by HTTP method
+	 * @return this method
+	 */
+	public TerremarkMethod withPriority(RequestScheduler.Priority priority) {
+		this.priority = priority;
+		return this;
+	}
+
+	/**
+	 * Overrides the provider's retry policy for this call.
+	 * @param retryPolicy the policy governing retries of this call
+	 * @return this method
+	 */
+	public TerremarkMethod withRetryPolicy(RetryPolicy retryPolicy) {
+		this.retryPolicy = retryPolicy;
+		return this;
+	}
+
 	public Document invoke() throws TerremarkException, CloudException, InternalException {
 		return invoke(false);
 	}
 
+	/**
+	 * Submits this request to the provider's request executor and returns immediately. The returned future
+	 * completes with the same document {@link #invoke()} would have returned. Use {@link #getResult(Future)}
+	 * to wait for the response with the usual exception types.
+	 * @return a future holding the parsed response document
+	 */
+	public Future<Document> invokeAsync() {
+		return provider.getRequestExecutor().submit(new Callable<Document>() {
+			@Override
+			public Document call() throws Exception {
+				return invoke();
+			}
+		});
+	}
+
+	/**
+	 * Waits for the result of an {@link #invokeAsync()} call, unwrapping any failure into the exception
+	 * that the synchronous call would have thrown. The wait is bound by the
+	 * {@link Deadline#getCurrent() current thread's deadline}, if any.
+	 * @param future the future returned from {@link #invokeAsync()}
+	 * @return the parsed response document
+	 * @throws CloudException an error occurred within the cloud provider or the deadline passed
+	 * @throws InternalException an error occurred within the Dasein Cloud API implementation, the call was cancelled, or the wait was interrupted
+	 */
+	public static Document getResult(Future<Document> future) throws CloudException, InternalException {
+		return getResult(future, Deadline.getCurrent());
+	}
+
+	/**
+	 * Waits for the result of an {@link #invokeAsync()} call until the specified deadline passes, unwrapping any
+	 * failure into the exception that the synchronous call would have thrown. The call is cancelled if the deadline
+	 * passes first.
+	 * @param future the future returned from {@link #invokeAsync()}
+	 * @param deadline the time by which the result must be available, or <code>null</code> to wait as long as it takes
+	 * @return the parsed response document
+	 * @throws CloudException an error occurred within the cloud provider or the deadline passed
+	 * @throws InternalException an error occurred within the Dasein Cloud API implementation, the call was cancelled, or the wait was interrupted
+	 */
+	public static Document getResult(Future<Document> future, Deadline deadline) throws CloudException, InternalException {
+		try {
+			if( deadline == null ) {
+				return future.get();
+			}
+			return future.get(deadline.getRemaining(), TimeUnit.MILLISECONDS);
+		}
+		catch( TimeoutException e ) {
+			future.cancel(true);
+			throw new DeadlineExceededException("waiting for an asynchronous API call", deadline);
+		}
+		catch( CancellationException e ) {
+			throw new InternalException("The asynchronous API call was cancelled, likely because the provider was closed");
+		}
+		catch( InterruptedException e ) {
+			future.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new InternalException(e);
+		}
+		catch( ExecutionException e ) {
+			Throwable cause = e.getCause();
+
+			if( cause instanceof CloudException ) {
+				throw (CloudException)cause;
+			}
+			else if( cause instanceof InternalException ) {
+				throw (InternalException)cause;
+			}
+			throw new InternalException(cause);
+		}
+	}
+
+	/**
+	 * GETs each of the URLs through {@link #invokeAsync()} and hands the responses to the handler in the order the
+	 * URLs were given. No more calls are in flight at once than the request executor can run, so that a long list
+	 * does not queue thousands of calls up front, and each response is let go once handled. A call that fails is
+	 * logged and handed over as <code>null</code> rather than failing the rest, unless the caller's deadline passed
+	 * or it was interrupted.
+	 * @param provider the provider making the calls
+	 * @param urls the URLs to fetch
+	 * @param handler receives each response in turn
+	 * @throws CloudException the handler failed within the cloud provider or the deadline passed
+	 * @throws InternalException the handler failed within the Dasein Cloud implementation or the wait was interrupted
+	 */
+	public static void invokeAll(@Nonnull Terremark provider, @Nonnull List<String> urls, @Nonnull DocumentHandler handler) throws CloudException, InternalException {
+		int window = Math.max(1, provider.getMaxAsyncRequests());
+		List<Future<Document>> responses = new ArrayList<Future<Document>>(urls.size());
+
+		try {
+			for( int i=0; i<urls.size(); i++ ) {
+				while( responses.size() < urls.size() && responses.size() < i + window ) {
+					responses.add(new TerremarkMethod(provider, HttpMethodName.GET, urls.get(responses.size()), null, null).invokeAsync());
+				}
+				Document doc = null;
+
+				try {
+					doc = getResult(responses.get(i));
+				}
+				catch( DeadlineExceededException e ) {
+					throw e;
+				}
+				catch( CloudException e ) {
+					logger.warn("Failed to get " + urls.get(i) + ": " + e.getMessage());
+				}
+				catch( InternalException e ) {
+					if( e.getCause() instanceof InterruptedException ) {
+						throw e;
+					}
+					logger.warn("Failed to get " + urls.get(i) + ": " + e.getMessage());
+				}
+				responses.set(i, null);
+				handler.handle(i, doc);
+			}
+		}
+		finally {
+			// calls still outstanding when the caller gives up are not wanted any more
+			for( Future<Document> response : responses ) {
+				if( response != null ) {
+					response.cancel(true);
+				}
+			}
+		}
+	}
+
 	public Document invoke(boolean debug) throws TerremarkException, CloudException, InternalException {
 		if( logger.isTraceEnabled() ) {
 			logger.trace("ENTER - " + TerremarkMethod.class.getName() + ".invoke(" + debug + ")");
 		}
 		try {
-			if( logger.isDebugEnabled() ) {
-				logger.debug("Talking to server at " + url);
+			final boolean json = provider.isJsonWireFormat();
+			final ResponseCache cache = (methodType.equals(HttpMethodName.GET) ? provider.getResponseCache() : null);
+			final String cacheKey = (json ? Terremark.JSON : Terremark.XML) + " " + url;
+			final ResponseHandler<Document> handler = new ResponseHandler<Document>() {
+				private ResponseCache.Entry cached = null;
+
+				@Override
+				public String getAcceptType() {
+					return (json ? Terremark.JSON : Terremark.XML);
+				}
+
+				@Override
+				public void prepare(HttpUriRequest method) {
+					cached = (cache == null ? null : cache.get(cacheKey));
+					if( cached != null ) {
+						if( cached.getETag() != null ) {
+							method.setHeader(IF_NONE_MATCH, cached.getETag());
+						}
+						if( cached.getLastModified() != null ) {
+							method.setHeader(IF_MODIFIED_SINCE, cached.getLastModified());
+						}
+					}
+				}
+
+				@Override
+				public Document handleContent(InputStream input, HttpResponse response) throws CloudException, InternalException {
+					Header contentType = response.getFirstHeader(Terremark.CONTENT_TYPE);
+					Document doc;
+
+					if( contentType != null && contentType.getValue().contains("json") ) {
+						doc = parseJsonResponse(input);
+					}
+					else {
+						doc = parseResponse(input);
+					}
+					if( cache != null ) {
+						Header etag = response.getFirstHeader(ETAG);
+						Header lastModified = response.getFirstHeader(LAST_MODIFIED);
+
+						cache.recordMiss();
+						cache.put(cacheKey, path, etag == null ? null : etag.getValue(), lastModified == null ? null : lastModified.getValue(), doc);
+					}
+					return doc;
+				}
+
+				@Override
+				public Document handleNotModified() throws CloudException, InternalException {
+					if( cached == null ) {
+						throw new CloudException(CloudErrorType.GENERAL, HttpStatus.SC_NOT_MODIFIED, null, "Received 304 Not Modified for an uncached request to " + url);
+					}
+					logger.debug("Serving cached response for " + url);
+					cache.recordHit();
+					return cached.getDocument();
+				}
+
+				@Override
+				public Document handleNoContent() throws CloudException, InternalException {
+					logger.debug("Creating an empty doc.");
+					try {
+						return XmlResources.newDocument();
+					}
+					catch( ParserConfigurationException e ) {
+						throw new InternalException(e);
+					}
+				}
+			};
+			if( methodType.equals(HttpMethodName.GET) && provider.isCoalescingRequests() ) {
+				// calls join only calls of their own class, so an interactive lookup never ends up waiting in the
+				// background queue behind a poll of the same resource
+				return RequestCoalescer.execute(provider.getAccessKey() + " " + getSchedulerClass() + " " + url, new RequestCoalescer.Call() {
+					@Override
+					public Document call() throws CloudException, InternalException {
+						return execute(handler);
+					}
+				}, deadline);
+			}
+			return execute(handler);
+		}
+		finally {
+			if( logger.isTraceEnabled() ) {
+				logger.trace("EXIT - " + TerremarkMethod.class.getName() + ".invoke()");
 			}
+		}
+	}
 
-			if (parameters != null ){
-				URIBuilder uri = null;
-				try {
-					uri = new URIBuilder(url);
-				} catch (URISyntaxException e) {
-					e.printStackTrace();
+	/**
+	 * Executes this request and hands the response body to the specified parser as a StAX event stream read
+	 * directly from the connection. Unlike {@link #invoke()}, no intermediate copy of the body or DOM tree is
+	 * built, so callers that only need part of a large document can extract it without holding the whole
+	 * response in memory.
+	 * @param parser the parser that consumes the response stream
+	 * @return the value produced by the parser, or <code>null</code> if the server returned no content
+	 * @throws CloudException an error occurred within the cloud provider
+	 * @throws InternalException an error occurred within the Dasein Cloud API implementation
+	 */
+	public <T> T invoke(final StreamParser<T> parser) throws TerremarkException, CloudException, InternalException {
+		if( logger.isTraceEnabled() ) {
+			logger.trace("ENTER - " + TerremarkMethod.class.getName() + ".invoke(" + parser + ")");
+		}
+		try {
+			return execute(new ResponseHandler<T>() {
+				@Override
+				public String getAcceptType() {
+					// stream parsers read XML regardless of the provider's wire format
+					return Terremark.XML;
 				}
-				for (NameValuePair parameter : parameters) {
-					uri.addParameter(parameter.getName(), parameter.getValue());
+
+				@Override
+				public void prepare(HttpUriRequest method) {
+					// stream parsers never see a whole document, so there is nothing to cache
 				}
-				url = uri.toString();
+
+				@Override
+				public T handleContent(InputStream input, HttpResponse response) throws CloudException, InternalException {
+					return parseResponse(input, parser);
+				}
+
+				@Override
+				public T handleNoContent() throws CloudException, InternalException {
+					return null;
+				}
+
+				@Override
+				public T handleNotModified() throws CloudException, InternalException {
+					throw new CloudException(CloudErrorType.GENERAL, HttpStatus.SC_NOT_MODIFIED, null, "Received 304 Not Modified for an unconditional request to " + url);
+				}
+			});
+		}
+		finally {
+			if( logger.isTraceEnabled() ) {
+				logger.trace("EXIT - " + TerremarkMethod.class.getName() + ".invoke()");
 			}
+		}
+	}
+
+	private <T> T execute(ResponseHandler<T> handler) throws TerremarkException, CloudException, InternalException {
+		if( logger.isDebugEnabled() ) {
+			logger.debug("Talking to server at " + url);
+		}
+		RetryPolicy policy = (retryPolicy == null ? provider.getRetryPolicy() : retryPolicy);
+		CircuitBreaker breaker = provider.getCircuitBreaker();
+		RequestScheduler scheduler = provider.getRequestScheduler();
+		RequestScheduler.Priority schedulerClass = getSchedulerClass();
+		WireCapture capture = provider.getWireCapture();
+		TerremarkMetrics metrics = TerremarkMetrics.getInstance();
+		String template = TerremarkMetrics.toTemplate(path);
 
+		while( true ) {
 			HttpUriRequest method = null;
 			if (methodType.equals(HttpMethodName.GET)){
 				method = new HttpGet(url);
@@ -168,32 +605,92 @@ public class TerremarkMethod {
 				method = new HttpGet(url);
 			}
 			HttpResponse status = null;
+			CountingEntity received = null;
+			CountingEntity decoded = null;
+			int responseCode = -1;
+			long bytesSent = 0L;
+			long sentAt = -1L;
+			long latency = -1L;
+			String failure = null;
+			boolean admitted = false;
+			long backoff = -1L;
 			try {
-				HttpClient client = new DefaultHttpClient();
-				HttpParams params = new BasicHttpParams();
-
-				HttpProtocolParams.setVersion(params, HttpVersion.HTTP_1_1);
-				HttpProtocolParams.setContentCharset(params, "UTF-8");
-				HttpProtocolParams.setUserAgent(params, "Dasein Cloud");
+				Transport transport = provider.getTransport();
 
+				if( deadline != null && deadline.isExpired() ) {
+					throw new DeadlineExceededException(methodType + " " + url + " (attempt " + (attempts + 1) + ")", deadline);
+				}
 				attempts++;
 
-				String proxyHost = provider.getProxyHost();
-				if( proxyHost != null ) {
-					int proxyPort = provider.getProxyPort();
-					boolean ssl = url.startsWith("https");
-					params.setParameter(ConnRoutePNames.DEFAULT_PROXY, new HttpHost(proxyHost, proxyPort, ssl ? "https" : "http"));
-				}
-				for( Map.Entry<String, String> entry : headers.entrySet() ) {
-					method.addHeader(entry.getKey(), entry.getValue());
+				// pace the call before taking a scheduler slot, so that a rate limited class does not sit on slots
+				// the other classes could be using while it waits for tokens
+				RateLimiter limiter = provider.getRateLimiter(methodType);
+				if( limiter != null ) {
+					try {
+						long waited = limiter.acquire(deadline == null ? -1L : deadline.getRemaining());
+						if( waited < 0L ) {
+							throw abandon(null, "waiting for a rate limit token");
+						}
+						if( waited > 0L && logger.isDebugEnabled() ) {
+							logger.debug("Rate limiter delayed " + methodType + " " + url + " by " + waited + "ms");
+						}
+					}
+					catch( InterruptedException e ) {
+						Thread.currentThread().interrupt();
+						throw new InternalException(e);
+					}
 				}
-				if (body != null && body != "" && (methodType.equals(HttpMethodName.PUT) || methodType.equals(HttpMethodName.POST))) {
+				if( scheduler != null ) {
+					long started = System.currentTimeMillis();
+
 					try {
-						HttpEntity entity = new StringEntity(body, "UTF-8");
-						((HttpEntityEnclosingRequestBase) method).setEntity(entity);
-					} catch (UnsupportedEncodingException e) {
-						logger.warn(e);
+						admitted = scheduler.acquire(schedulerClass, deadline == null ? -1L : deadline.getRemaining());
+					}
+					catch( InterruptedException e ) {
+						Thread.currentThread().interrupt();
+						throw new InternalException(e);
+					}
+					if( !admitted ) {
+						throw abandon(null, "waiting to be scheduled as " + schedulerClass);
 					}
+					long waited = System.currentTimeMillis() - started;
+					if( waited > 0L && logger.isDebugEnabled() ) {
+						logger.debug("Scheduler delayed " + schedulerClass + " " + methodType + " " + url + " by " + waited + "ms");
+					}
+				}
+				// ask the breaker only once the call is ready to go, so that a half-open breaker's single probe is not
+				// held by a call still waiting for a token or a slot
+				if( breaker != null && !breaker.allowRequest() ) {
+					String msg = "The Terremark endpoint " + breaker.getEndpoint() + " is unavailable; failing fast until it recovers.";
+					logger.warn(msg);
+					throw new CloudException(CloudErrorType.COMMUNICATION, 0, "CircuitOpen", msg);
+				}
+				if( deadline != null ) {
+					long remaining = deadline.getRemaining();
+
+					if( remaining <= 0L ) {
+						throw abandon(breaker, "attempt " + attempts);
+					}
+					// never wait on the network past the deadline, even if the configured timeouts are longer
+					HttpConnectionParams.setConnectionTimeout(method.getParams(), (int)Math.min(remaining, provider.getConnectTimeout()));
+					HttpConnectionParams.setSoTimeout(method.getParams(), (int)Math.min(remaining, provider.getSocketTimeout()));
+				}
+				// sign only once the call is about to go out, since it may have waited in the request executor, the
+				// rate limiter, and the scheduler since it was built
+				for( Map.Entry<String, String> entry : provider.getHeaders(provider.getContext(), methodType, path, parameters, content).entrySet() ) {
+					method.addHeader(entry.getKey(), entry.getValue());
+				}
+				// Accept is not part of the signature, so the response format can be chosen per call
+				method.setHeader(Terremark.ACCEPT, handler.getAcceptType());
+				handler.prepare(method);
+				if( provider.isCompressingResponses() ) {
+					method.setHeader(ACCEPT_ENCODING, "gzip, deflate");
+				}
+				if (content != null && content.length > 0 && (methodType.equals(HttpMethodName.PUT) || methodType.equals(HttpMethodName.POST))) {
+					// the body was encoded once when the method was built; send the same bytes that were signed
+					HttpEntity entity = new ByteArrayEntity(content);
+					bytesSent = content.length;
+					((HttpEntityEnclosingRequestBase) method).setEntity(entity);
 				}
 				if( wire.isDebugEnabled() ) {
 
@@ -206,53 +703,92 @@ public class TerremarkMethod {
 					}
 				}
 				try {
-					status =  client.execute(method);
+					RequestHedger hedger = (methodType.equals(HttpMethodName.GET) ? provider.getRequestHedger() : null);
+
+					sentAt = System.currentTimeMillis();
+					if( hedger == null ) {
+						status = transport.execute(method);
+					}
+					else {
+						status = hedger.execute(provider.getHedgeExecutor(), transport, method, template, newHedgeAdmission(scheduler, schedulerClass, limiter, capture));
+					}
+					// the endpoint's share of the call ends with the response headers; reading, decoding, and parsing the
+					// body, and any backoff before a retry, are the client's
+					latency = System.currentTimeMillis() - sentAt;
 					if( wire.isDebugEnabled() ) {
 						wire.debug("HTTP STATUS: " + status);
 					}
+					if( status.getEntity() != null ) {
+						received = new CountingEntity(status.getEntity());
+						decoded = decode(received);
+						if( capture != null ) {
+							decoded.capture(capture.getMaxBodyLength());
+						}
+						status.setEntity(decoded);
+					}
 				} 
 				catch( IOException e ) {
-					logger.error("I/O error from server communications: " + e.getMessage());
-					e.printStackTrace();
+					if( latency < 0L ) {
+						latency = System.currentTimeMillis() - sentAt;
+					}
+					failure = e.getClass().getSimpleName() + ": " + e.getMessage();
+					method.abort();
+					if( deadline != null && deadline.isExpired() ) {
+						// the timeout was cut short by this caller's deadline, which says nothing about the endpoint
+						throw abandon(breaker, "attempt " + attempts);
+					}
+					if( breaker != null ) {
+						breaker.recordFailure();
+					}
+					logger.error("I/O error from server communications: " + e.getMessage(), e);
 					throw new InternalException(e);
 				}
 				int statusCode = status.getStatusLine().getStatusCode();
+				responseCode = statusCode;
+				if( breaker != null ) {
+					if( statusCode >= HttpStatus.SC_INTERNAL_SERVER_ERROR ) {
+						breaker.recordFailure();
+					}
+					else {
+						breaker.recordSuccess();
+					}
+				}
 				if( statusCode == HttpStatus.SC_OK || statusCode == HttpStatus.SC_CREATED || statusCode == HttpStatus.SC_ACCEPTED ) {
+					policy.recordSuccess(methodType);
+					invalidateCache();
 					try {
 						InputStream input = status.getEntity().getContent();
 
 						try {
-							return parseResponse(input);
+							return handler.handleContent(input, status);
 						}
 						finally {
 							input.close();
 						}
 					} 
 					catch( IOException e ) {
-						logger.error("Error parsing response from Teremark: " + e.getMessage());
-						e.printStackTrace();
+						logger.error("Error parsing response from Teremark: " + e.getMessage(), e);
 						throw new CloudException(CloudErrorType.COMMUNICATION, statusCode, null, e.getMessage());
 					}
 				}
 				else if ( statusCode == HttpStatus.SC_NO_CONTENT ) {
-					logger.debug("Recieved no content in response. Creating an empty doc.");
-					DocumentBuilderFactory dbfac = DocumentBuilderFactory.newInstance();
-					DocumentBuilder docBuilder = null;
-					try {
-						docBuilder = dbfac.newDocumentBuilder();
-					} catch (ParserConfigurationException e) {
-						e.printStackTrace();
-					}
-					return docBuilder.newDocument();
+					policy.recordSuccess(methodType);
+					invalidateCache();
+					logger.debug("Recieved no content in response.");
+					return handler.handleNoContent();
+				}
+				else if( statusCode == HttpStatus.SC_NOT_MODIFIED ) {
+					policy.recordSuccess(methodType);
+					return handler.handleNotModified();
 				}
 				else if( statusCode == HttpStatus.SC_FORBIDDEN ) {
 					String msg = "OperationNotAllowed ";
 					try {
 						msg += parseResponseToString(status.getEntity().getContent());
 					} catch (IllegalStateException e) {
-						e.printStackTrace();
+						logger.error("Unable to read the body of a 403 response from " + url + ": " + e.getMessage(), e);
 					} catch (IOException e) {
-						e.printStackTrace();
+						logger.error("Unable to read the body of a 403 response from " + url + ": " + e.getMessage(), e);
 					}
 					wire.error(msg);
 					throw new TerremarkException(statusCode, "OperationNotAllowed", msg);
@@ -264,15 +800,16 @@ public class TerremarkMethod {
 						response = parseResponseToString(status.getEntity().getContent());
 						parsedError = parseErrorResponse(response);
 					} catch (IllegalStateException e1) {
-						e1.printStackTrace();
+						logger.error("Unable to read the body of an error response from " + url + ": " + e1.getMessage(), e1);
 					} catch (IOException e1) {
-						e1.printStackTrace();
+						logger.error("Unable to read the body of an error response from " + url + ": " + e1.getMessage(), e1);
 					}
 					if( logger.isDebugEnabled() ) {
 						logger.debug("Received " + status + " from " + url);
 					}
-					if( statusCode == HttpStatus.SC_SERVICE_UNAVAILABLE || statusCode == HttpStatus.SC_INTERNAL_SERVER_ERROR ) {
-						if( attempts >= 5 ) {
+					long retryDelay = policy.getRetryDelay(methodType, statusCode, attempts, getRetryAfter(status));
+					if( retryDelay >= 0L || statusCode == HttpStatus.SC_SERVICE_UNAVAILABLE || statusCode == HttpStatus.SC_INTERNAL_SERVER_ERROR ) {
+						if( retryDelay < 0L ) {
 							String msg;
 							wire.warn(response);
 							if( statusCode == HttpStatus.SC_SERVICE_UNAVAILABLE ) {
@@ -299,57 +836,202 @@ public class TerremarkMethod {
 								throw new CloudException("HTTP Status " + statusCode + msg);
 							}
 						}
-						else {
-							try { Thread.sleep(5000L); }
-							catch( InterruptedException e ) { /* ignore */ }
-							return invoke();
+						if( logger.isDebugEnabled() ) {
+							logger.debug("Retrying " + methodType + " " + url + " in " + retryDelay + "ms (attempt " + attempts + ")");
 						}
-					}
-					wire.error(response);
-					if (parsedError != null) {
-						throw new TerremarkException(parsedError);
+						if( deadline != null && deadline.getRemaining() <= retryDelay ) {
+							throw new DeadlineExceededException(methodType + " " + url + " (attempt " + attempts + ", HTTP " + statusCode + ")", deadline);
+						}
+						metrics.recordRetry(methodType, template);
+						// the wait happens once this attempt has let go of its connection and scheduler slot
+						backoff = retryDelay;
 					}
 					else {
-						String msg = "\nResponse from server was:\n" + response;
-						logger.error(msg);
-						throw new CloudException("HTTP Status " + statusCode + msg);
-					}			
+						wire.error(response);
+						if (parsedError != null) {
+							throw new TerremarkException(parsedError);
+						}
+						else {
+							String msg = "\nResponse from server was:\n" + response;
+							logger.error(msg);
+							throw new CloudException("HTTP Status " + statusCode + msg);
+						}
+					}
 				}
 			}
 			finally {
 				try {
-					if (status != null) {
+					// drain the raw stream; a decompressing wrapper may fail on an empty or unread body
+					if (received != null) {
+						EntityUtils.consume(received);
+					}
+					else if (status != null) {
 						EntityUtils.consume(status.getEntity());
 					}
 				} catch (IOException e) {
-					e.printStackTrace();
+					logger.warn("Unable to release the connection used for " + url + ": " + e.getMessage(), e);
+				}
+				if( sentAt > -1L ) {
+					if( latency < 0L ) {
+						latency = System.currentTimeMillis() - sentAt;
+					}
+					Header host = (status == null ? null : status.getFirstHeader(Terremark.RESPONDING_HOST));
+
+					metrics.recordCall(methodType, template, responseCode, latency, bytesSent, (received == null ? 0L : received.getCount()), (decoded == null ? 0L : decoded.getCount()));
+					if( host != null ) {
+						metrics.recordRespondingHost(host.getValue(), latency);
+					}
+					if( capture != null ) {
+						capture.record(method, content, status, (decoded == null ? null : decoded.getCaptured()), (decoded == null ? 0 : decoded.getCapturedLength()), (decoded == null ? 0L : decoded.getCount()), sentAt, latency, failure);
+						if( failure != null || responseCode >= HttpStatus.SC_INTERNAL_SERVER_ERROR ) {
+							capture.dumpRecent(methodType + " " + url + " failed with " + (failure == null ? "HTTP " + responseCode : failure));
+						}
+					}
+				}
+				if( admitted ) {
+					scheduler.release(schedulerClass);
+				}
+			}
+			if( backoff > 0L ) {
+				try { Thread.sleep(backoff); }
+				catch( InterruptedException e ) {
+					Thread.currentThread().interrupt();
+					throw new InternalException(e);
 				}
 			}
 		}
-		finally {
-			if( logger.isTraceEnabled() ) {
-				logger.trace("EXIT - " + TerremarkMethod.class.getName() + ".invoke()");
+	}
+
+	/**
+	 * @return the priority class this call is scheduled under
+	 */
+	private RequestScheduler.Priority getSchedulerClass() {
+		if( priority != null ) {
+			return priority;
+		}
+		return (methodType.equals(HttpMethodName.GET) ? RequestScheduler.Priority.INTERACTIVE : RequestScheduler.Priority.MUTATING);
+	}
+
+	/**
+	 * Gives up on an attempt because this call's deadline passed before the endpoint could answer. If the circuit
+	 * breaker had already let the attempt through, it is told so without counting it against the endpoint.
+	 * @param breaker the circuit breaker that let the attempt through, or <code>null</code> if it had not been asked yet
+	 * @param stage what the attempt was doing when time ran out
+	 * @return the exception to throw
+	 */
+	private DeadlineExceededException abandon(CircuitBreaker breaker, String stage) {
+		if( breaker != null ) {
+			breaker.recordAbandoned();
+		}
+		return new DeadlineExceededException(methodType + " " + url + " (" + stage + ")", deadline);
+	}
+
+	/**
+	 * Lets a hedge of this call go out only if the rate limiter has a token and the scheduler a slot for it right
+	 * now, and captures the hedge's exchange alongside the call's own.
+	 */
+	static private RequestHedger.Admission newHedgeAdmission(final RequestScheduler scheduler, final RequestScheduler.Priority priority, final RateLimiter limiter, final WireCapture capture) {
+		return new RequestHedger.Admission() {
+			@Override
+			public boolean tryAdmit() {
+				if( scheduler != null && !scheduler.tryAcquire(priority) ) {
+					return false;
+				}
+				if( limiter != null && !limiter.tryAcquire() ) {
+					if( scheduler != null ) {
+						scheduler.release(priority);
+					}
+					return false;
+				}
+				return true;
+			}
+
+			@Override
+			public void release() {
+				if( scheduler != null ) {
+					scheduler.release(priority);
+				}
+			}
+
+			@Override
+			public void completed(HttpUriRequest request, HttpResponse response, IOException error, long sentAt, long latency) {
+				if( capture != null ) {
+					capture.record(request, null, response, null, 0, 0L, sentAt, latency, (error == null ? null : error.getClass().getSimpleName() + ": " + error.getMessage()));
+				}
+			}
+		};
+	}
+
+	/**
+	 * Wraps a response entity so that a gzip or deflate encoded body is decompressed as it is read. The bytes
+	 * read from the connection continue to be counted by the entity passed in.
+	 * @param received the response entity as read from the connection
+	 * @return an entity counting the decoded bytes, or the same entity if the body is not compressed
+	 */
+	static private CountingEntity decode(CountingEntity received) {
+		Header encoding = received.getContentEncoding();
+
+		if( encoding != null ) {
+			String value = encoding.getValue().trim();
+
+			if( value.equalsIgnoreCase("gzip") || value.equalsIgnoreCase("x-gzip") ) {
+				return new CountingEntity(new GzipDecompressingEntity(received));
+			}
+			else if( value.equalsIgnoreCase("deflate") ) {
+				return new CountingEntity(new DeflateDecompressingEntity(received));
 			}
 		}
+		return received;
+	}
+
+	/**
+	 * Discards cached responses made stale by this call if it modified a resource.
+	 */
+	private void invalidateCache() {
+		if( methodType.equals(HttpMethodName.GET) || methodType.equals(HttpMethodName.HEAD) ) {
+			return;
+		}
+		ResponseCache cache = provider.getResponseCache();
+
+		if( cache != null ) {
+			cache.invalidate(path);
+		}
+	}
+
+	/**
+	 * Reads the <code>Retry-After</code> header of a response as either delta-seconds or an HTTP date.
+	 * @return the requested delay in milliseconds, or -1 if the header is absent or unreadable
+	 */
+	private static long getRetryAfter(HttpResponse response) {
+		Header header = response.getFirstHeader(RETRY_AFTER);
+
+		if( header == null || header.getValue() == null ) {
+			return -1L;
+		}
+		String value = header.getValue().trim();
+		try {
+			return Math.max(0L, Long.parseLong(value) * 1000L);
+		}
+		catch( NumberFormatException ignore ) {
+			// not delta-seconds, try an HTTP date
+		}
+		try {
+			return Math.max(0L, DateUtils.parseDate(value).getTime() - System.currentTimeMillis());
+		}
+		catch( DateParseException e ) {
+			logger.debug("Unable to parse Retry-After header: " + value);
+			return -1L;
+		}
 	}
 
 	private static Document parseResponse(String responseBody) throws CloudException, InternalException {
 		try {
 			if( wire.isDebugEnabled() ) {
-				String[] lines = responseBody.split("\n");
-
-				if( lines.length < 1 ) {
-					lines = new String[] { responseBody };
-				}
-				for( String l : lines ) {
-					wire.debug(l);
-				}
+				wire.debug(responseBody);
 			}
 			ByteArrayInputStream bas = new ByteArrayInputStream(responseBody.getBytes());
 
-			DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-			DocumentBuilder parser = factory.newDocumentBuilder();
-			Document doc = parser.parse(bas);
+			Document doc = XmlResources.parse(bas);
 
 			bas.close();
 			return doc;
@@ -368,10 +1050,14 @@ public class TerremarkMethod {
 	private static ParsedError parseErrorResponse(String responseBody) throws CloudException, InternalException {
 		try {
 			ByteArrayInputStream bas = new ByteArrayInputStream(responseBody.getBytes());
+			Document doc;
 
-			DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-			DocumentBuilder parser = factory.newDocumentBuilder();
-			Document doc = parser.parse(bas);
+			if( responseBody.trim().startsWith("{") ) {
+				doc = JsonDocumentReader.parse(bas);
+			}
+			else {
+				doc = XmlResources.parse(bas);
+			}
 
 			bas.close();
 			
@@ -396,22 +1082,66 @@ public class TerremarkMethod {
 	}
 
 	private Document parseResponse(InputStream responseBodyAsStream) throws CloudException, InternalException {
+		if( wire.isDebugEnabled() ) {
+			return parseResponse(parseResponseToString(responseBodyAsStream));
+		}
 		try {
-			BufferedReader in = new BufferedReader(new InputStreamReader(responseBodyAsStream));
-			StringBuilder sb = new StringBuilder();
-			String line;
+			return XmlResources.parse(responseBodyAsStream);
+		}
+		catch( IOException e ) {
+			throw new CloudException(e);
+		}
+		catch( ParserConfigurationException e ) {
+			throw new CloudException(e);
+		}
+		catch( SAXException e ) {
+			throw new CloudException(e);
+		}
+	}
 
-			while( (line = in.readLine()) != null ) {
-				sb.append(line);
-				sb.append("\n");
+	private Document parseJsonResponse(InputStream responseBodyAsStream) throws CloudException, InternalException {
+		if( wire.isDebugEnabled() ) {
+			String responseBody = parseResponseToString(responseBodyAsStream);
+
+			wire.debug(responseBody);
+			try {
+				return JsonDocumentReader.parse(new ByteArrayInputStream(responseBody.getBytes("utf-8")));
 			}
-			in.close();
+			catch( UnsupportedEncodingException e ) {
+				throw new InternalException(e);
+			}
+		}
+		return JsonDocumentReader.parse(responseBodyAsStream);
+	}
+
+	private <T> T parseResponse(InputStream responseBodyAsStream, StreamParser<T> parser) throws CloudException, InternalException {
+		InputStream input = responseBodyAsStream;
 
-			return parseResponse(sb.toString());
+		if( wire.isDebugEnabled() ) {
+			String responseBody = parseResponseToString(responseBodyAsStream);
+
+			wire.debug(responseBody);
+			try {
+				input = new ByteArrayInputStream(responseBody.getBytes("utf-8"));
+			}
+			catch( UnsupportedEncodingException e ) {
+				throw new InternalException(e);
+			}
 		}
-		catch( IOException e ) {
+		XMLStreamReader reader = null;
+		try {
+			reader = xmlInputFactory.createXMLStreamReader(input);
+			return parser.parse(reader);
+		}
+		catch( XMLStreamException e ) {
 			throw new CloudException(e);
-		}			
+		}
+		finally {
+			if( reader != null ) {
+				try { reader.close(); }
+				catch( XMLStreamException ignore ) { }
+			}
+		}
 	}
 
 	private String parseResponseToString(InputStream responseBodyAsStream) throws CloudException, InternalException {
@@ -0,0 +1,367 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.terremark;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.terremark.TerremarkMethod.HttpMethodName;
+
+/**
+ * Records latency, byte counts, status codes, retries, and hedges for every API call made through {@link TerremarkMethod}.
+ * Calls are grouped by HTTP method and a URL template in which identifiers have been replaced by
+ * <code>{id}</code>, so that <code>/virtualMachines/1234</code> and <code>/virtualMachines/5678</code> are reported
+ * together. Latency is also kept per backend node that answered, and the time tasks take to complete is kept per
+ * task operation. The metrics are available programmatically through {@link #getSnapshot()} and over JMX.
+ */
+public class TerremarkMetrics implements TerremarkMetricsMXBean {
+	static private final Logger logger = Terremark.getLogger(TerremarkMetrics.class);
+
+	static public final String OBJECT_NAME = "org.dasein.cloud.terremark:type=Metrics";
+
+	static private final TerremarkMetrics instance = new TerremarkMetrics();
+
+	static {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+			server.registerMBean(instance, new ObjectName(OBJECT_NAME));
+		}
+		catch( InstanceAlreadyExistsException e ) {
+			logger.debug("Terremark metrics are already registered, likely from another class loader");
+		}
+		catch( JMException e ) {
+			logger.warn("Unable to register Terremark metrics with JMX: " + e.getMessage());
+		}
+		catch( SecurityException e ) {
+			logger.warn("Unable to register Terremark metrics with JMX: " + e.getMessage());
+		}
+	}
+
+	static public @Nonnull TerremarkMetrics getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Reduces a request path to a template by replacing every path segment that contains a digit with
+	 * <code>{id}</code> and dropping any query string.
+	 * @param path the request path relative to the API root
+	 * @return the URL template for the path
+	 */
+	static public @Nonnull String toTemplate(@Nonnull String path) {
+		int idx = path.indexOf('?');
+
+		if( idx > -1 ) {
+			path = path.substring(0, idx);
+		}
+		StringBuilder template = new StringBuilder(path.length());
+
+		for( String segment : path.split("/") ) {
+			if( segment.length() < 1 ) {
+				continue;
+			}
+			template.append('/');
+			boolean id = false;
+			for( int i=0; i<segment.length(); i++ ) {
+				if( Character.isDigit(segment.charAt(i)) ) {
+					id = true;
+					break;
+				}
+			}
+			template.append(id ? "{id}" : segment);
+		}
+		if( template.length() < 1 ) {
+			template.append('/');
+		}
+		return template.toString();
+	}
+
+	static private class Operation {
+		final String                  method;
+		final String                  template;
+		final AtomicLong              errors        = new AtomicLong();
+		final AtomicLong              retries       = new AtomicLong();
+		final AtomicLong              hedges        = new AtomicLong();
+		final AtomicLong              hedgeWins     = new AtomicLong();
+		final AtomicLong              bytesSent     = new AtomicLong();
+		final AtomicLong              bytesReceived = new AtomicLong();
+		final AtomicLong              bytesDecoded  = new AtomicLong();
+		final LatencyHistogram        latency       = new LatencyHistogram();
+		final ConcurrentHashMap<Integer,AtomicLong> statusCounts = new ConcurrentHashMap<Integer,AtomicLong>();
+
+		Operation(String method, String template) {
+			this.method = method;
+			this.template = template;
+		}
+
+		OperationStats toStats() {
+			Map<Integer,Long> statuses = new HashMap<Integer,Long>();
+
+			for( Map.Entry<Integer,AtomicLong> entry : statusCounts.entrySet() ) {
+				statuses.put(entry.getKey(), entry.getValue().get());
+			}
+			return new OperationStats(method, template, latency.getCount(), errors.get(), retries.get(), hedges.get(), hedgeWins.get(), bytesSent.get(), bytesReceived.get(), bytesDecoded.get(), latency, statuses);
+		}
+	}
+
+	private final ConcurrentHashMap<String,Operation>        operations = new ConcurrentHashMap<String,Operation>();
+	private final ConcurrentHashMap<String,LatencyHistogram> hosts      = new ConcurrentHashMap<String,LatencyHistogram>();
+	private final ConcurrentHashMap<String,TaskDurations>    tasks      = new ConcurrentHashMap<String,TaskDurations>();
+
+	private TerremarkMetrics() { }
+
+	private Operation getOperation(HttpMethodName method, String template) {
+		String key = method.name() + " " + template;
+		Operation op = operations.get(key);
+
+		if( op == null ) {
+			operations.putIfAbsent(key, new Operation(method.name(), template));
+			op = operations.get(key);
+		}
+		return op;
+	}
+
+	/**
+	 * Records a single attempt of an API call.
+	 * @param method the HTTP method of the call
+	 * @param template the URL template of the call, see {@link #toTemplate(String)}
+	 * @param statusCode the HTTP status of the response, or -1 if no response was received
+	 * @param latency the time in milliseconds from sending the request to receiving the response headers
+	 * @param bytesSent the size of the request body
+	 * @param bytesReceived the number of response body bytes read from the connection
+	 * @param bytesDecoded the number of response body bytes after decompression, the same as bytesReceived for an uncompressed body
+	 */
+	public void recordCall(@Nonnull HttpMethodName method, @Nonnull String template, int statusCode, long latency, long bytesSent, long bytesReceived, long bytesDecoded) {
+		Operation op = getOperation(method, template);
+		AtomicLong count = op.statusCounts.get(statusCode);
+
+		if( count == null ) {
+			op.statusCounts.putIfAbsent(statusCode, new AtomicLong());
+			count = op.statusCounts.get(statusCode);
+		}
+		count.incrementAndGet();
+		if( statusCode < 0 || statusCode >= 400 ) {
+			op.errors.incrementAndGet();
+		}
+		op.latency.record(latency);
+		op.bytesSent.addAndGet(bytesSent);
+		op.bytesReceived.addAndGet(bytesReceived);
+		op.bytesDecoded.addAndGet(bytesDecoded);
+	}
+
+	public void recordRetry(@Nonnull HttpMethodName method, @Nonnull String template) {
+		getOperation(method, template).retries.incrementAndGet();
+	}
+
+	/**
+	 * Records that a GET was sent a second time because the first copy was slow to answer.
+	 * @param method the HTTP method of the call
+	 * @param template the URL template of the call
+	 */
+	public void recordHedge(@Nonnull HttpMethodName method, @Nonnull String template) {
+		getOperation(method, template).hedges.incrementAndGet();
+	}
+
+	/**
+	 * Records that the second copy of a hedged GET answered before the first.
+	 * @param method the HTTP method of the call
+	 * @param template the URL template of the call
+	 */
+	public void recordHedgeWin(@Nonnull HttpMethodName method, @Nonnull String template) {
+		getOperation(method, template).hedgeWins.incrementAndGet();
+	}
+
+	/**
+	 * Records the latency of a response by the backend node that served it, as named by the
+	 * {@link Terremark#RESPONDING_HOST} header.
+	 * @param host the responding host
+	 * @param latency the time in milliseconds from sending the request to receiving the response headers
+	 */
+	public void recordRespondingHost(@Nonnull String host, long latency) {
+		LatencyHistogram histogram = hosts.get(host);
+
+		if( histogram == null ) {
+			hosts.putIfAbsent(host, new LatencyHistogram());
+			histogram = hosts.get(host);
+		}
+		histogram.record(latency);
+	}
+
+	/**
+	 * Records how long a task took to complete.
+	 * @param operation the task's operation, such as <code>Power on Server</code>
+	 * @param duration the time in milliseconds from the task starting to its completing
+	 */
+	public void recordTaskDuration(@Nonnull String operation, long duration) {
+		getTaskDurations(operation).record(duration);
+	}
+
+	/**
+	 * @param operation the task's operation, such as <code>Power on Server</code>
+	 * @return the recent durations of tasks with that operation, empty if none has been seen to complete
+	 */
+	public @Nonnull TaskDurations getTaskDurations(@Nonnull String operation) {
+		TaskDurations durations = tasks.get(operation);
+
+		if( durations == null ) {
+			tasks.putIfAbsent(operation, new TaskDurations());
+			durations = tasks.get(operation);
+		}
+		return durations;
+	}
+
+	/**
+	 * @return the current metrics for every operation seen so far, keyed by operation (method and template)
+	 */
+	public @Nonnull Map<String,OperationStats> getSnapshot() {
+		Map<String,OperationStats> snapshot = new HashMap<String,OperationStats>();
+
+		for( Map.Entry<String,Operation> entry : operations.entrySet() ) {
+			snapshot.put(entry.getKey(), entry.getValue().toStats());
+		}
+		return snapshot;
+	}
+
+	/**
+	 * @return the current metrics for every operation, slowest (by p99 latency) first
+	 */
+	@Override
+	public List<OperationStats> getOperations() {
+		List<OperationStats> stats = new ArrayList<OperationStats>(getSnapshot().values());
+
+		Collections.sort(stats, new Comparator<OperationStats>() {
+			@Override
+			public int compare(OperationStats a, OperationStats b) {
+				if( a.getP99Latency() != b.getP99Latency() ) {
+					return (a.getP99Latency() > b.getP99Latency() ? -1 : 1);
+				}
+				return a.getOperation().compareTo(b.getOperation());
+			}
+		});
+		return stats;
+	}
+
+	/**
+	 * @return the latency of every backend node that has answered, slowest (by p99 latency) first
+	 */
+	@Override
+	public List<HostStats> getRespondingHosts() {
+		List<HostStats> stats = new ArrayList<HostStats>();
+
+		for( Map.Entry<String,LatencyHistogram> entry : hosts.entrySet() ) {
+			stats.add(new HostStats(entry.getKey(), entry.getValue()));
+		}
+		Collections.sort(stats, new Comparator<HostStats>() {
+			@Override
+			public int compare(HostStats a, HostStats b) {
+				if( a.getP99Latency() != b.getP99Latency() ) {
+					return (a.getP99Latency() > b.getP99Latency() ? -1 : 1);
+				}
+				return a.getHost().compareTo(b.getHost());
+			}
+		});
+		return stats;
+	}
+
+	/**
+	 * @return how long recent tasks of each operation have taken to complete, longest (by median) first
+	 */
+	@Override
+	public List<TaskOperationStats> getTaskOperations() {
+		List<TaskOperationStats> stats = new ArrayList<TaskOperationStats>();
+
+		for( Map.Entry<String,TaskDurations> entry : tasks.entrySet() ) {
+			if( entry.getValue().getCount() > 0L ) {
+				stats.add(new TaskOperationStats(entry.getKey(), entry.getValue()));
+			}
+		}
+		Collections.sort(stats, new Comparator<TaskOperationStats>() {
+			@Override
+			public int compare(TaskOperationStats a, TaskOperationStats b) {
+				if( a.getP50Duration() != b.getP50Duration() ) {
+					return (a.getP50Duration() > b.getP50Duration() ? -1 : 1);
+				}
+				return a.getOperation().compareTo(b.getOperation());
+			}
+		});
+		return stats;
+	}
+
+	@Override
+	public long getTotalCalls() {
+		long total = 0L;
+
+		for( Operation op : operations.values() ) {
+			total += op.latency.getCount();
+		}
+		return total;
+	}
+
+	@Override
+	public long getTotalErrors() {
+		long total = 0L;
+
+		for( Operation op : operations.values() ) {
+			total += op.errors.get();
+		}
+		return total;
+	}
+
+	@Override
+	public long getTotalRetries() {
+		long total = 0L;
+
+		for( Operation op : operations.values() ) {
+			total += op.retries.get();
+		}
+		return total;
+	}
+
+	@Override
+	public long getTotalHedges() {
+		long total = 0L;
+
+		for( Operation op : operations.values() ) {
+			total += op.hedges.get();
+		}
+		return total;
+	}
+
+	@Override
+	public void reset() {
+		operations.clear();
+		hosts.clear();
+		tasks.clear();
+	}
+}
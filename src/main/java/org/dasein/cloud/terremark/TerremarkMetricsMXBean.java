@@ -0,0 +1,44 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.terremark;
+
+import java.util.List;
+
+/**
+ * JMX view of the API call metrics recorded by {@link TerremarkMetrics}. Registered under
+ * <code>org.dasein.cloud.terremark:type=Metrics</code>.
+ */
+public interface TerremarkMetricsMXBean {
+	public List<OperationStats> getOperations();
+
+	public List<HostStats> getRespondingHosts();
+
+	public List<TaskOperationStats> getTaskOperations();
+
+	public long getTotalCalls();
+
+	public long getTotalErrors();
+
+	public long getTotalRetries();
+
+	public long getTotalHedges();
+
+	public void reset();
+}
@@ -0,0 +1,44 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+
+package org.dasein.cloud.terremark;
+
+import java.io.IOException;
+
+import javax.annotation.Nonnull;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+
+/**
+ * Carries a signed API request to Terremark and brings back the response. {@link TerremarkMethod} hands every
+ * attempt to the provider's transport, so the network can be swapped for a recording or a replay of one without
+ * touching the services above it. See {@link Terremark#getTransport()} for how a transport is chosen.
+ */
+public interface Transport {
+	/**
+	 * Sends the request and returns the response. The response entity, if any, must be readable by the caller
+	 * and is consumed by the caller when it is done.
+	 * @param request the fully signed request
+	 * @return the response
+	 * @throws IOException the request could not be sent or the response could not be read
+	 */
+	public @Nonnull HttpResponse execute(@Nonnull HttpUriRequest request) throws IOException;
+}
@@ -0,0 +1,390 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.terremark;
+
+import java.io.UnsupportedEncodingException;
+import java.lang.management.ManagementFactory;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.log4j.Logger;
+
+/**
+ * Keeps a summary of the last few API calls made with a single Terremark access key so that a failure can be
+ * diagnosed after the fact without wire logging turned on. Each exchange is kept with its request and response
+ * headers and the start of each body. The signature and guest password headers are redacted, as are the values of
+ * body elements and JSON fields whose names mention a password, secret, or private key. The buffer is a fixed-size ring, so it
+ * costs the same whether it has seen ten calls or ten million, and recording a call never blocks another.
+ * <p>
+ * The captured calls are available from {@link #getExchanges()}, over JMX, or in the log: when a call fails with an
+ * I/O error or a server error, the calls captured since the last such dump are logged at WARN.
+ * </p>
+ */
+public class WireCapture implements WireCaptureMXBean {
+	static private final Logger logger = Terremark.getLogger(WireCapture.class);
+
+	static public final String OBJECT_NAME = "org.dasein.cloud.terremark:type=WireCapture";
+	static public final String REDACTED    = "(redacted)";
+
+	// the value of an XML element such as AdminPassword or SecretKey, up to the next tag or the end of what was kept
+	static private final Pattern XML_SECRET  = Pattern.compile("(<([\\w:]*(?:password|secret|privatekey)\\w*)(?:\\s[^>]*)?>)[^<]+", Pattern.CASE_INSENSITIVE);
+	// the string value of a JSON field with such a name, possibly cut short
+	static private final Pattern JSON_SECRET = Pattern.compile("(\"\\w*(?:password|secret|privatekey)\\w*\"\\s*:\\s*)\"(?:[^\"\\\\]|\\\\.)*\"?", Pattern.CASE_INSENSITIVE);
+
+	static private final ConcurrentHashMap<String,WireCapture> captures = new ConcurrentHashMap<String,WireCapture>();
+
+	/**
+	 * Provides the capture buffer shared by all providers using the specified key. The capacity and body length are
+	 * fixed by the first caller for the key.
+	 * @param key the endpoint and access key whose calls are captured
+	 * @param capacity the number of exchanges kept
+	 * @param maxBodyLength the number of bytes of each request and response body kept
+	 * @return the capture buffer for the key
+	 */
+	static public @Nonnull WireCapture getInstance(@Nonnull String key, int capacity, int maxBodyLength) {
+		WireCapture capture = captures.get(key);
+
+		if( capture == null ) {
+			if( captures.putIfAbsent(key, new WireCapture(capacity, maxBodyLength)) == null ) {
+				register(key, captures.get(key));
+			}
+			capture = captures.get(key);
+		}
+		return capture;
+	}
+
+	static private void register(String key, WireCapture capture) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+			server.registerMBean(capture, new ObjectName(OBJECT_NAME + ",name=" + ObjectName.quote(key)));
+		}
+		catch( InstanceAlreadyExistsException e ) {
+			logger.debug("A Terremark wire capture for " + key + " is already registered, likely from another class loader");
+		}
+		catch( JMException e ) {
+			logger.warn("Unable to register Terremark wire capture with JMX: " + e.getMessage());
+		}
+		catch( SecurityException e ) {
+			logger.warn("Unable to register Terremark wire capture with JMX: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * A single captured request and its response.
+	 */
+	static public class Exchange {
+		private final long     sequence;
+		private final long     timestamp;
+		private final String   requestLine;
+		private final String[] requestHeaders;
+		private final String   requestBody;
+		private final String   statusLine;
+		private final String[] responseHeaders;
+		private final String   responseBody;
+		private final long     latency;
+		private final String   failure;
+
+		Exchange(long sequence, long timestamp, String requestLine, String[] requestHeaders, String requestBody, String statusLine, String[] responseHeaders, String responseBody, long latency, String failure) {
+			this.sequence = sequence;
+			this.timestamp = timestamp;
+			this.requestLine = requestLine;
+			this.requestHeaders = requestHeaders;
+			this.requestBody = requestBody;
+			this.statusLine = statusLine;
+			this.responseHeaders = responseHeaders;
+			this.responseBody = responseBody;
+			this.latency = latency;
+			this.failure = failure;
+		}
+
+		public long getSequence() {
+			return sequence;
+		}
+
+		/**
+		 * @return when the request was sent, in milliseconds since the epoch
+		 */
+		public long getTimestamp() {
+			return timestamp;
+		}
+
+		public @Nonnull String getRequestLine() {
+			return requestLine;
+		}
+
+		public @Nonnull String[] getRequestHeaders() {
+			return requestHeaders;
+		}
+
+		public @Nullable String getRequestBody() {
+			return requestBody;
+		}
+
+		/**
+		 * @return the status line of the response, or <code>null</code> if none was received
+		 */
+		public @Nullable String getStatusLine() {
+			return statusLine;
+		}
+
+		public @Nonnull String[] getResponseHeaders() {
+			return responseHeaders;
+		}
+
+		/**
+		 * @return as much of the response body as was read by the caller, up to the capture limit
+		 */
+		public @Nullable String getResponseBody() {
+			return responseBody;
+		}
+
+		public long getLatency() {
+			return latency;
+		}
+
+		/**
+		 * @return the I/O error that ended the exchange, if any
+		 */
+		public @Nullable String getFailure() {
+			return failure;
+		}
+
+		@Override
+		public String toString() {
+			SimpleDateFormat fmt = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+			StringBuilder str = new StringBuilder();
+
+			fmt.setTimeZone(TimeZone.getTimeZone("UTC"));
+			str.append("#").append(sequence).append(" ").append(fmt.format(new Date(timestamp))).append(" ").append(latency).append("ms\n");
+			str.append(requestLine).append("\n");
+			for( String header : requestHeaders ) {
+				str.append(header).append("\n");
+			}
+			if( requestBody != null ) {
+				str.append("\n").append(requestBody).append("\n");
+			}
+			str.append("\n");
+			if( statusLine == null ) {
+				str.append("No response: ").append(failure).append("\n");
+			}
+			else {
+				str.append(statusLine).append("\n");
+				for( String header : responseHeaders ) {
+					str.append(header).append("\n");
+				}
+				if( responseBody != null ) {
+					str.append("\n").append(responseBody).append("\n");
+				}
+				if( failure != null ) {
+					str.append("Failed: ").append(failure).append("\n");
+				}
+			}
+			return str.toString();
+		}
+	}
+
+	private final int                                 maxBodyLength;
+	private final AtomicReferenceArray<Exchange>      exchanges;
+	private final AtomicLong                          nextSequence = new AtomicLong(0L);
+	private final AtomicLong                          dumpedSequence = new AtomicLong(0L);
+
+	public WireCapture(int capacity, int maxBodyLength) {
+		this.exchanges = new AtomicReferenceArray<Exchange>(Math.max(1, capacity));
+		this.maxBodyLength = Math.max(0, maxBodyLength);
+	}
+
+	/**
+	 * Captures a call.
+	 * @param request the request as sent
+	 * @param requestBody the request body, if any
+	 * @param response the response, or <code>null</code> if none was received
+	 * @param responseBody the start of the response body as read by the caller, if any
+	 * @param responseBodyLength the number of bytes of <code>responseBody</code> that are filled
+	 * @param responseBodyTotal the number of bytes of response body the caller read in all
+	 * @param sentAt when the request was sent
+	 * @param latency the time taken to receive the response headers, or the error
+	 * @param failure a description of the I/O error that ended the call, if any
+	 */
+	public void record(@Nonnull HttpUriRequest request, @Nullable byte[] requestBody, @Nullable HttpResponse response, @Nullable byte[] responseBody, int responseBodyLength, long responseBodyTotal, long sentAt, long latency, @Nullable String failure) {
+		long sequence = nextSequence.getAndIncrement();
+		String requestText = (requestBody == null || requestBody.length < 1 ? null : redactAndTruncate(requestBody));
+		String responseText = (responseBody == null || responseBodyTotal < 1 ? null : redact(truncate(responseBody, responseBodyLength, responseBodyTotal)));
+		Exchange exchange = new Exchange(sequence, sentAt, request.getRequestLine().toString(), toStrings(request.getAllHeaders()), requestText,
+				(response == null ? null : response.getStatusLine().toString()), (response == null ? new String[0] : toStrings(response.getAllHeaders())), responseText, latency, failure);
+
+		exchanges.set((int)(sequence % exchanges.length()), exchange);
+	}
+
+	/**
+	 * Redacts the whole request body before keeping the start of it, so that a secret straddling the cut is not
+	 * partly kept.
+	 */
+	private String redactAndTruncate(byte[] body) {
+		String text = redact(truncate(body, body.length, body.length));
+
+		if( text.length() > maxBodyLength ) {
+			text = text.substring(0, maxBodyLength) + "... (" + (text.length() - maxBodyLength) + " more characters)";
+		}
+		return text;
+	}
+
+	/**
+	 * Replaces the values of body elements and JSON fields that hold passwords, secrets, or private keys.
+	 * @param text a request or response body, or the start of one
+	 * @return the body with those values replaced by {@link #REDACTED}
+	 */
+	static @Nonnull String redact(@Nonnull String text) {
+		text = XML_SECRET.matcher(text).replaceAll("$1" + Matcher.quoteReplacement(REDACTED));
+		return JSON_SECRET.matcher(text).replaceAll("$1" + Matcher.quoteReplacement("\"" + REDACTED + "\""));
+	}
+
+	private String truncate(byte[] body, int length, long total) {
+		String text;
+
+		try {
+			text = new String(body, 0, length, "utf-8");
+		}
+		catch( UnsupportedEncodingException e ) {
+			text = new String(body, 0, length);
+		}
+		if( total > length ) {
+			text = text + "... (" + (total - length) + " more bytes)";
+		}
+		return text;
+	}
+
+	private String[] toStrings(Header[] headers) {
+		String[] strings = new String[headers.length];
+
+		for( int i=0; i<headers.length; i++ ) {
+			String name = headers[i].getName();
+
+			if( name.equalsIgnoreCase(Terremark.TMRK_AUTHORIZATION) || name.equalsIgnoreCase(Terremark.AUTHORIZATION) || name.equalsIgnoreCase(Terremark.GUEST_PASSWORD) ) {
+				strings[i] = name + ": " + REDACTED;
+			}
+			else {
+				strings[i] = name + ": " + headers[i].getValue();
+			}
+		}
+		return strings;
+	}
+
+	/**
+	 * @return the captured exchanges, oldest first
+	 */
+	public @Nonnull List<Exchange> getExchanges() {
+		return getExchangesAfter(-1L);
+	}
+
+	private List<Exchange> getExchangesAfter(long after) {
+		int capacity = exchanges.length();
+		long next = nextSequence.get();
+		ArrayList<Exchange> list = new ArrayList<Exchange>();
+
+		for( long sequence = Math.max(after + 1L, next - capacity); sequence < next; sequence++ ) {
+			Exchange exchange = exchanges.get((int)(sequence % capacity));
+
+			// skip slots that have since been overwritten or whose call has not been stored yet
+			if( exchange != null && exchange.getSequence() == sequence ) {
+				list.add(exchange);
+			}
+		}
+		return list;
+	}
+
+	/**
+	 * Logs the exchanges captured since the last time this was called, so that a burst of failures logs each
+	 * exchange at most once.
+	 * @param reason why the exchanges are being logged
+	 */
+	public void dumpRecent(@Nonnull String reason) {
+		long last = dumpedSequence.get();
+		List<Exchange> list = getExchangesAfter(last - 1L);
+
+		if( list.isEmpty() ) {
+			return;
+		}
+		long sequence = list.get(list.size() - 1).getSequence() + 1L;
+
+		if( !dumpedSequence.compareAndSet(last, sequence) ) {
+			// another thread is logging the same exchanges
+			return;
+		}
+		StringBuilder str = new StringBuilder();
+
+		str.append(reason).append("; the last ").append(list.size()).append(" API calls were:\n");
+		for( Exchange exchange : list ) {
+			str.append("\n").append(exchange);
+		}
+		logger.warn(str.toString());
+	}
+
+	@Override
+	public int getCapacity() {
+		return exchanges.length();
+	}
+
+	@Override
+	public int getMaxBodyLength() {
+		return maxBodyLength;
+	}
+
+	@Override
+	public long getCapturedCount() {
+		return nextSequence.get();
+	}
+
+	@Override
+	public @Nonnull List<String> dump() {
+		ArrayList<String> list = new ArrayList<String>();
+
+		for( Exchange exchange : getExchanges() ) {
+			list.add(exchange.toString());
+		}
+		return list;
+	}
+
+	@Override
+	public void clear() {
+		for( int i=0; i<exchanges.length(); i++ ) {
+			exchanges.set(i, null);
+		}
+		dumpedSequence.set(nextSequence.get());
+	}
+}
@@ -0,0 +1,42 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.terremark;
+
+import java.util.List;
+
+/**
+ * JMX view of a {@link WireCapture}. Registered under <code>org.dasein.cloud.terremark:type=WireCapture,name=...</code>
+ * with the endpoint and access key as the name.
+ */
+public interface WireCaptureMXBean {
+	public int getCapacity();
+
+	public int getMaxBodyLength();
+
+	public long getCapturedCount();
+
+	/**
+	 * @return the captured exchanges, oldest first, each formatted as request line, headers, and body followed by the
+	 * status line, headers, and body of the response
+	 */
+	public List<String> dump();
+
+	public void clear();
+}
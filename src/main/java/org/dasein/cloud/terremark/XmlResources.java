@@ -0,0 +1,127 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.terremark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+
+import javax.annotation.Nonnull;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.w3c.dom.Document;
+import org.xml.sax.SAXException;
+
+/**
+ * Provides the XML parsers and serializers used throughout the driver. Looking up a
+ * {@link DocumentBuilderFactory} or {@link TransformerFactory} goes through the service loader and costs more than
+ * building or parsing a typical request or response, so the factories are created once and each thread keeps its
+ * own parser and serializer, which are reset before every use. Parsers and serializers are not thread-safe, so the
+ * instances returned must not be handed to another thread.
+ */
+public final class XmlResources {
+	static private final DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory.newInstance();
+	static private final TransformerFactory     transformerFactory     = TransformerFactory.newInstance();
+
+	static private final ThreadLocal<DocumentBuilder> documentBuilder = new ThreadLocal<DocumentBuilder>();
+	static private final ThreadLocal<Transformer>     transformer     = new ThreadLocal<Transformer>();
+
+	private XmlResources() { }
+
+	/**
+	 * @return the current thread's document builder, configured as {@link DocumentBuilderFactory#newInstance()} would
+	 * @throws ParserConfigurationException no document builder could be created
+	 */
+	static public @Nonnull DocumentBuilder getDocumentBuilder() throws ParserConfigurationException {
+		DocumentBuilder builder = documentBuilder.get();
+
+		if( builder == null ) {
+			// factories are not guaranteed to be thread-safe
+			synchronized( documentBuilderFactory ) {
+				builder = documentBuilderFactory.newDocumentBuilder();
+			}
+			documentBuilder.set(builder);
+		}
+		else {
+			builder.reset();
+		}
+		return builder;
+	}
+
+	/**
+	 * @return the current thread's serializer with the default output properties
+	 * @throws TransformerConfigurationException no serializer could be created
+	 */
+	static public @Nonnull Transformer getTransformer() throws TransformerConfigurationException {
+		Transformer serializer = transformer.get();
+
+		if( serializer == null ) {
+			synchronized( transformerFactory ) {
+				serializer = transformerFactory.newTransformer();
+			}
+			transformer.set(serializer);
+		}
+		else {
+			serializer.reset();
+		}
+		return serializer;
+	}
+
+	/**
+	 * @return a new, empty document
+	 * @throws ParserConfigurationException no document builder could be created
+	 */
+	static public @Nonnull Document newDocument() throws ParserConfigurationException {
+		return getDocumentBuilder().newDocument();
+	}
+
+	/**
+	 * Parses an XML document from the stream.
+	 * @param input the XML to parse
+	 * @return the parsed document
+	 * @throws ParserConfigurationException no document builder could be created
+	 * @throws SAXException the input is not well-formed XML
+	 * @throws IOException the input could not be read
+	 */
+	static public @Nonnull Document parse(@Nonnull InputStream input) throws ParserConfigurationException, SAXException, IOException {
+		return getDocumentBuilder().parse(input);
+	}
+
+	/**
+	 * Serializes a document as a request body.
+	 * @param doc the document
+	 * @return the document as XML text
+	 * @throws TransformerException the document could not be serialized
+	 */
+	static public @Nonnull String toXml(@Nonnull Document doc) throws TransformerException {
+		StringWriter stw = new StringWriter();
+
+		getTransformer().transform(new DOMSource(doc), new StreamResult(stw));
+		return stw.toString();
+	}
+}
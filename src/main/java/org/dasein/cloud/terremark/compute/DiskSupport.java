@@ -19,21 +19,15 @@
 
 package org.dasein.cloud.terremark.compute;
 
-import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 import java.util.Locale;
 
 import javax.annotation.Nonnull;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
 
 import org.apache.log4j.Logger;
 import org.dasein.cloud.CloudException;
@@ -59,6 +53,7 @@ import org.dasein.cloud.terremark.Terremark;
 import org.dasein.cloud.terremark.TerremarkException;
 import org.dasein.cloud.terremark.TerremarkMethod;
 import org.dasein.cloud.terremark.TerremarkMethod.HttpMethodName;
+import org.dasein.cloud.terremark.XmlResources;
 import org.dasein.util.CalendarWrapper;
 import org.dasein.util.uom.storage.Gigabyte;
 import org.dasein.util.uom.storage.Storage;
@@ -114,12 +109,8 @@ public class DiskSupport extends AbstractVolumeSupport {
 
 		String url = "/" + VMSupport.VIRTUAL_MACHINES + "/" + toServer + "/hardwareConfiguration/" + DISKS + "/actions/attach";
 		String body="";
-		DocumentBuilderFactory docFactory = DocumentBuilderFactory.newInstance();
-		DocumentBuilder docBuilder;
 		try {
-			docBuilder = docFactory.newDocumentBuilder();
-
-			Document doc = docBuilder.newDocument();
+			Document doc = XmlResources.newDocument();
 			Element rootElement = doc.createElement("AttachDisks");
 			Element detachedDisksElement = doc.createElement("DetachedDisks");
 			Element detachedDiskElement = doc.createElement("DetachedDisk");
@@ -136,10 +127,7 @@ public class DiskSupport extends AbstractVolumeSupport {
 
 			doc.appendChild(rootElement);
 
-			StringWriter stw = new StringWriter(); 
-			Transformer serializer = TransformerFactory.newInstance().newTransformer(); 
-			serializer.transform(new DOMSource(doc), new StreamResult(stw)); 
-			body = stw.toString();
+			body = XmlResources.toXml(doc);
 		} catch (ParserConfigurationException e) {
 			e.printStackTrace();
 		} catch (TransformerException e) {
@@ -217,12 +205,8 @@ public class DiskSupport extends AbstractVolumeSupport {
 
 		String url = "/" + VMSupport.VIRTUAL_MACHINES + "/" + vmId + "/hardwareConfiguration/" + DISKS + "/actions/detach";
 		String body="";
-		DocumentBuilderFactory docFactory = DocumentBuilderFactory.newInstance();
-		DocumentBuilder docBuilder;
 		try {
-			docBuilder = docFactory.newDocumentBuilder();
-
-			Document doc = docBuilder.newDocument();
+			Document doc = XmlResources.newDocument();
 			Element rootElement = doc.createElement("DetachDisk");
 			rootElement.setAttribute(Terremark.NAME, name.substring(0, 15));
 
@@ -238,10 +222,7 @@ public class DiskSupport extends AbstractVolumeSupport {
 
 			doc.appendChild(rootElement);
 
-			StringWriter stw = new StringWriter(); 
-			Transformer serializer = TransformerFactory.newInstance().newTransformer(); 
-			serializer.transform(new DOMSource(doc), new StreamResult(stw)); 
-			body = stw.toString();
+			body = XmlResources.toXml(doc);
 		} catch (ParserConfigurationException e) {
 			e.printStackTrace();
 		} catch (TransformerException e) {
@@ -417,7 +398,6 @@ public class DiskSupport extends AbstractVolumeSupport {
 	}
 
 	protected Collection<Volume> getVirtualMachineDisks(String vmId) throws CloudException {
-		Collection<Volume> disks = new ArrayList<Volume>();
 		String url = "/" + VMSupport.VIRTUAL_MACHINES + "/" + vmId;
 		TerremarkMethod method = new TerremarkMethod(provider, HttpMethodName.GET, url, null, null);
 		Document doc = null;
@@ -430,6 +410,17 @@ public class DiskSupport extends AbstractVolumeSupport {
 		} catch (InternalException e) {
 			logger.warn("Failed to get vm " + vmId);
 		}
+		return toVirtualMachineDisks(vmId, doc);
+	}
+
+	/**
+	 * Reads the disks of a virtual machine from its description.
+	 * @param vmId the id of the virtual machine
+	 * @param doc the virtual machine document, or <code>null</code> if it could not be fetched
+	 * @return the disks attached to the virtual machine
+	 */
+	private Collection<Volume> toVirtualMachineDisks(String vmId, Document doc) {
+		Collection<Volume> disks = new ArrayList<Volume>();
 		if (doc != null){
 			String dcId = null;
 			NodeList linkNodes = doc.getElementsByTagName("Link");
@@ -518,20 +509,8 @@ public class DiskSupport extends AbstractVolumeSupport {
 		return disks;
 	}
 	
-	private Collection<ResourceStatus> getVirtualMachineDisksStatus(String vmId) throws CloudException {
+	private Collection<ResourceStatus> toVirtualMachineDisksStatus(String vmId, Document doc) {
 		Collection<ResourceStatus> disksStatus = new ArrayList<ResourceStatus>();
-		String url = "/" + VMSupport.VIRTUAL_MACHINES + "/" + vmId;
-		TerremarkMethod method = new TerremarkMethod(provider, HttpMethodName.GET, url, null, null);
-		Document doc = null;
-		try {
-			doc = method.invoke();
-		} catch (TerremarkException e) {
-			logger.warn("Failed to get vm " + vmId);
-		} catch (CloudException e) {
-			logger.warn("Failed to get vm " + vmId);
-		} catch (InternalException e) {
-			logger.warn("Failed to get vm " + vmId);
-		}
 		if (doc != null){
 
 			NodeList diskNodes = doc.getElementsByTagName(DISK_TAG);
@@ -762,42 +741,58 @@ public class DiskSupport extends AbstractVolumeSupport {
 
     private Collection<Volume> listVmDisks() throws InternalException, CloudException {
 		logger.trace("enter - listVmDisks()");
-		Collection<Volume> volumes = new ArrayList<Volume>();
-		ProviderContext ctx = provider.getContext();
-		if( ctx == null ) {
-			throw new CloudException("No context was established for this request");
-		}
-		String regionId = ctx.getRegionId();
-		Document environmentDoc = provider.getDataCenterServices().getEnvironmentById(regionId);
-		NodeList vmNodes = environmentDoc.getElementsByTagName(VMSupport.VIRTUAL_MACHINE_TAG);
-		logger.trace("listVmDisks(): Found " + vmNodes.getLength() + " VMs in region");
-		for (int i=0; i < vmNodes.getLength(); i++){
-			String vmHref = vmNodes.item(i).getAttributes().item(0).getNodeValue();
-			Collection<Volume> disks = getVirtualMachineDisks(Terremark.hrefToId(vmHref));
-			volumes.addAll(disks);
-		}
+		final Collection<Volume> volumes = new ArrayList<Volume>();
+		final List<String> vmIds = listVmIds();
+		logger.trace("listVmDisks(): Found " + vmIds.size() + " VMs in region");
+		TerremarkMethod.invokeAll(provider, toVmUrls(vmIds), new TerremarkMethod.DocumentHandler() {
+			@Override
+			public void handle(int index, Document doc) {
+				volumes.addAll(toVirtualMachineDisks(vmIds.get(index), doc));
+			}
+		});
 		logger.trace("exit - listVmDisks()");
 		return volumes;
 	}
 
     private Collection<ResourceStatus> listVmDisksStatus() throws InternalException, CloudException {
 		logger.trace("enter - listVmDisks()");
-		Collection<ResourceStatus> volumesStatus = new ArrayList<ResourceStatus>();
+		final Collection<ResourceStatus> volumesStatus = new ArrayList<ResourceStatus>();
+		final List<String> vmIds = listVmIds();
+		logger.trace("listVmDisks(): Found " + vmIds.size() + " VMs in region");
+		TerremarkMethod.invokeAll(provider, toVmUrls(vmIds), new TerremarkMethod.DocumentHandler() {
+			@Override
+			public void handle(int index, Document doc) {
+				volumesStatus.addAll(toVirtualMachineDisksStatus(vmIds.get(index), doc));
+			}
+		});
+		logger.trace("exit - listVmDisks()");
+		return volumesStatus;
+	}
+
+	/**
+	 * @return the ids of the virtual machines in the current region
+	 */
+	private List<String> listVmIds() throws InternalException, CloudException {
 		ProviderContext ctx = provider.getContext();
 		if( ctx == null ) {
 			throw new CloudException("No context was established for this request");
 		}
-		String regionId = ctx.getRegionId();
-		Document environmentDoc = provider.getDataCenterServices().getEnvironmentById(regionId);
+		List<String> vmIds = new ArrayList<String>();
+		Document environmentDoc = provider.getDataCenterServices().getEnvironmentById(ctx.getRegionId());
 		NodeList vmNodes = environmentDoc.getElementsByTagName(VMSupport.VIRTUAL_MACHINE_TAG);
-		logger.trace("listVmDisks(): Found " + vmNodes.getLength() + " VMs in region");
 		for (int i=0; i < vmNodes.getLength(); i++){
 			String vmHref = vmNodes.item(i).getAttributes().item(0).getNodeValue();
-			Collection<ResourceStatus> disks = getVirtualMachineDisksStatus(Terremark.hrefToId(vmHref));
-			volumesStatus.addAll(disks);
+			vmIds.add(Terremark.hrefToId(vmHref));
 		}
-		logger.trace("exit - listVmDisks()");
-		return volumesStatus;
+		return vmIds;
+	}
+
+	static private List<String> toVmUrls(List<String> vmIds) {
+		List<String> urls = new ArrayList<String>(vmIds.size());
+		for (String vmId : vmIds) {
+			urls.add("/" + VMSupport.VIRTUAL_MACHINES + "/" + vmId);
+		}
+		return urls;
 	}
 
     /**
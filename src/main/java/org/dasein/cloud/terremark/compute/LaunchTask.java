@@ -0,0 +1,262 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.terremark.compute;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Future;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.dasein.cloud.AsynchronousTask;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.compute.VirtualMachine;
+
+/**
+ * Tracks a launch started with {@link VMSupport#launchAsync(org.dasein.cloud.compute.VMLaunchOptions)}. The launch
+ * runs in the background through a series of {@link Stage}s, and the task reports which stage it has reached, how
+ * long each stage took, and the ID of the new virtual machine once the cloud has assigned one. As with any
+ * {@link AsynchronousTask}, the result or error is available once {@link #isComplete()} is true; callers that want
+ * to block can use {@link #waitFor(long)}.
+ * <p>
+ * A launch may be cancelled at any point before it completes. Cancelling stops it before the next stage and
+ * interrupts any wait on a cloud task, but a virtual machine that has already been created is left in place; its ID
+ * is available from {@link #getVirtualMachineId()} so that it can be terminated if it is not wanted.
+ * </p>
+ */
+public class LaunchTask extends AsynchronousTask<VirtualMachine> {
+	public enum Stage {
+		/** waiting for a launch worker */
+		QUEUED(0.0),
+		/** looking up the image, product, layout, and network and building the request */
+		PREPARING(5.0),
+		/** creating or importing the virtual machine and waiting for the cloud to finish */
+		CREATING(10.0),
+		/** assigning private IP addresses to an imported virtual machine */
+		ASSIGNING_ADDRESSES(60.0),
+		/** reading back the new virtual machine */
+		DESCRIBING(75.0),
+		/** powering on a virtual machine that came up stopped */
+		STARTING(80.0),
+		/** finished, successfully or not */
+		COMPLETE(100.0);
+
+		private final double percentComplete;
+
+		private Stage(double percentComplete) {
+			this.percentComplete = percentComplete;
+		}
+
+		/**
+		 * @return the progress, from 0 to 100, reported once a launch reaches this stage
+		 */
+		public double getPercentComplete() {
+			return percentComplete;
+		}
+	}
+
+	private final String               name;
+	private final EnumMap<Stage,Long>  timings = new EnumMap<Stage,Long>(Stage.class);
+	private volatile Stage             stage = Stage.QUEUED;
+	private long                       stageStartedAt;
+	private volatile String            virtualMachineId;
+	private volatile boolean           cancelled = false;
+	private Future<?>                  future;
+
+	LaunchTask(@Nonnull String name) {
+		this.name = name;
+		this.stageStartedAt = getStartTime();
+	}
+
+	/**
+	 * Cancels the launch if it has not already completed.
+	 * @return true if the launch was cancelled, false if it had already completed
+	 */
+	public boolean cancel() {
+		Future<?> running;
+		boolean queued;
+
+		synchronized( this ) {
+			if( isComplete() ) {
+				return false;
+			}
+			cancelled = true;
+			running = future;
+			queued = (stage == Stage.QUEUED);
+		}
+		if( queued ) {
+			// it will never run, so it is finished here
+			if( running != null ) {
+				running.cancel(false);
+			}
+			finish(new CancellationException("The launch of " + name + " was cancelled before it started"));
+		}
+		else if( running != null ) {
+			// interrupts any wait for a cloud task; the launch reports its cancellation as it stops
+			running.cancel(true);
+		}
+		return true;
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * @return the name of the virtual machine being launched
+	 */
+	public @Nonnull String getName() {
+		return name;
+	}
+
+	public @Nonnull Stage getStage() {
+		return stage;
+	}
+
+	/**
+	 * @return the number of milliseconds spent in each stage the launch has passed through, including the time spent
+	 * so far in the current stage
+	 */
+	public synchronized @Nonnull Map<Stage,Long> getStageTimings() {
+		EnumMap<Stage,Long> copy = new EnumMap<Stage,Long>(timings);
+
+		if( stage != Stage.COMPLETE ) {
+			copy.put(stage, System.currentTimeMillis() - stageStartedAt);
+		}
+		return Collections.unmodifiableMap(copy);
+	}
+
+	/**
+	 * @return the ID of the new virtual machine, or <code>null</code> if the cloud has not yet assigned one
+	 */
+	public @Nullable String getVirtualMachineId() {
+		return virtualMachineId;
+	}
+
+	/**
+	 * Waits for the launch to complete.
+	 * @param timeout the number of milliseconds to wait, or 0 to wait indefinitely
+	 * @return the launched virtual machine
+	 * @throws CloudException the launch failed in the cloud
+	 * @throws InternalException the launch failed, was cancelled, did not complete within the timeout, or the wait was
+	 * interrupted
+	 */
+	public @Nonnull VirtualMachine waitFor(long timeout) throws CloudException, InternalException {
+		long expiresAt = (timeout > 0L ? System.currentTimeMillis() + timeout : Long.MAX_VALUE);
+
+		synchronized( this ) {
+			while( !isComplete() ) {
+				long remaining = expiresAt - System.currentTimeMillis();
+
+				if( remaining <= 0L ) {
+					throw new InternalException("Timed out waiting for the launch of " + name + " in stage " + stage);
+				}
+				try {
+					wait(remaining);
+				}
+				catch( InterruptedException e ) {
+					Thread.currentThread().interrupt();
+					throw new InternalException(e);
+				}
+			}
+		}
+		Throwable error = getTaskError();
+
+		if( error instanceof CloudException ) {
+			throw (CloudException)error;
+		}
+		if( error instanceof InternalException ) {
+			throw (InternalException)error;
+		}
+		if( error != null ) {
+			throw new InternalException(error);
+		}
+		return getResult();
+	}
+
+	/**
+	 * Moves the launch on to its next stage.
+	 * @param next the stage being entered
+	 * @throws CancellationException the launch has been cancelled
+	 */
+	synchronized void enter(@Nonnull Stage next) {
+		if( cancelled ) {
+			throw new CancellationException("The launch of " + name + " was cancelled in stage " + stage);
+		}
+		long now = System.currentTimeMillis();
+
+		timings.put(stage, now - stageStartedAt);
+		stage = next;
+		stageStartedAt = now;
+		setPercentComplete(next.getPercentComplete());
+	}
+
+	synchronized void setFuture(@Nonnull Future<?> future) {
+		this.future = future;
+	}
+
+	void setVirtualMachineId(@Nonnull String virtualMachineId) {
+		this.virtualMachineId = virtualMachineId;
+	}
+
+	/**
+	 * Ends the launch with a result.
+	 * @param vm the launched virtual machine
+	 */
+	synchronized void finish(@Nonnull VirtualMachine vm) {
+		if( !isComplete() ) {
+			close();
+			completeWithResult(vm);
+		}
+	}
+
+	/**
+	 * Ends the launch with an error. If the launch was cancelled, the error reported is always a
+	 * {@link CancellationException}.
+	 * @param t the cause of the failure
+	 */
+	synchronized void finish(@Nonnull Throwable t) {
+		if( !isComplete() ) {
+			close();
+			if( cancelled && !(t instanceof CancellationException) ) {
+				CancellationException e = new CancellationException("The launch of " + name + " was cancelled in stage " + stage);
+
+				e.initCause(t);
+				t = e;
+			}
+			complete(t);
+		}
+	}
+
+	private void close() {
+		timings.put(stage, System.currentTimeMillis() - stageStartedAt);
+		stage = Stage.COMPLETE;
+		setPercentComplete(Stage.COMPLETE.getPercentComplete());
+	}
+
+	@Override
+	public String toString() {
+		return "LaunchTask[" + name + " " + stage + " " + getStageTimings() + "]";
+	}
+}
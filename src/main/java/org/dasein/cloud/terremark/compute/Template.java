@@ -20,22 +20,16 @@
 package org.dasein.cloud.terremark.compute;
 
 import java.io.InputStream;
-import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
 import java.util.Locale;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
 
 import org.apache.log4j.Logger;
 import org.dasein.cloud.AsynchronousTask;
@@ -64,6 +58,7 @@ import org.dasein.cloud.terremark.Terremark;
 import org.dasein.cloud.terremark.TerremarkException;
 import org.dasein.cloud.terremark.TerremarkMethod;
 import org.dasein.cloud.terremark.TerremarkMethod.HttpMethodName;
+import org.dasein.cloud.terremark.XmlResources;
 import org.dasein.cloud.util.APITrace;
 import org.dasein.util.CalendarWrapper;
 import org.w3c.dom.Document;
@@ -149,11 +144,8 @@ public class Template extends AbstractImageSupport {
 			String body = "";
 			MachineImage image = null;
 
-			DocumentBuilderFactory docFactory = DocumentBuilderFactory.newInstance();
-			DocumentBuilder docBuilder;
 			try {
-				docBuilder = docFactory.newDocumentBuilder();
-				Document doc = docBuilder.newDocument();
+				Document doc = XmlResources.newDocument();
 
 				Element rootElement = doc.createElement("ExportVirtualMachineRequest");
 
@@ -163,10 +155,7 @@ public class Template extends AbstractImageSupport {
 
 				doc.appendChild(rootElement);
 
-				StringWriter stw = new StringWriter(); 
-				Transformer serializer = TransformerFactory.newInstance().newTransformer(); 
-				serializer.transform(new DOMSource(doc), new StreamResult(stw)); 
-				body = stw.toString();
+				body = XmlResources.toXml(doc);
 			} catch (ParserConfigurationException e) {
 				e.printStackTrace();
 			} catch (TransformerException e) {
@@ -642,7 +631,7 @@ public class Template extends AbstractImageSupport {
 
 	private Collection<MachineImage> listTemplates() throws InternalException, CloudException {
 		logger.trace("enter - listTemplates()");
-		ArrayList<MachineImage> images = new ArrayList<MachineImage>();
+		final ArrayList<MachineImage> images = new ArrayList<MachineImage>();
 		ArrayList<String> templateIds = new ArrayList<String>();
 		Collection<DataCenter> dcs = provider.getDataCenterServices().listDataCenters(provider.getContext().getRegionId());
 		logger.debug("listTemplates(): dcs size = " + dcs.size());
@@ -658,16 +647,29 @@ public class Template extends AbstractImageSupport {
 			}
 		}
 		logger.debug("listTemplates(): templateIds size = " + templateIds.size());
+		// Overlap the per-template lookups rather than making them one after another
+		List<String> urls = new ArrayList<String>(templateIds.size());
 		for (String templateId : templateIds){
-			MachineImage image = getImage(templateId);
-			if (image != null){
-				logger.debug("listTemplates(): adding image = " + image);
-				images.add(image);
-			}
-			else {
+			if (templateId == null) {
 				logger.debug("listTemplates(): image is null.");
+				continue;
 			}
+			String[] ids = templateId.split(":");
+			urls.add("/" + TEMPLATES + "/" + ids[0] + "/" + EnvironmentsAndComputePools.COMPUTE_POOLS + "/" + ids[1]);
 		}
+		TerremarkMethod.invokeAll(provider, urls, new TerremarkMethod.DocumentHandler() {
+			@Override
+			public void handle(int index, Document doc) throws CloudException, InternalException {
+				if (doc != null){
+					MachineImage image = templateToMachineImage(doc);
+					logger.debug("listTemplates(): adding image = " + image);
+					images.add(image);
+				}
+				else {
+					logger.debug("listTemplates(): image is null.");
+				}
+			}
+		});
 		logger.trace("exit - listTemplates()");
 		return images;
 	}
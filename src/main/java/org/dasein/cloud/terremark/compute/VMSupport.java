@@ -19,7 +19,6 @@
 
 package org.dasein.cloud.terremark.compute;
 
-import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -31,18 +30,15 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 
 import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
 
 import org.apache.log4j.Logger;
 import org.dasein.cloud.CloudException;
@@ -74,13 +70,17 @@ import org.dasein.cloud.network.IPVersion;
 import org.dasein.cloud.network.NetworkInterface;
 import org.dasein.cloud.network.RawAddress;
 import org.dasein.cloud.network.VLAN;
+import org.dasein.cloud.terremark.BackgroundScheduler;
+import org.dasein.cloud.terremark.Deadline;
 import org.dasein.cloud.terremark.EnvironmentsAndComputePools;
 import org.dasein.cloud.terremark.Layout;
+import org.dasein.cloud.terremark.RequestScheduler;
 import org.dasein.cloud.terremark.Row;
 import org.dasein.cloud.terremark.Terremark;
 import org.dasein.cloud.terremark.TerremarkException;
 import org.dasein.cloud.terremark.TerremarkMethod;
 import org.dasein.cloud.terremark.TerremarkMethod.HttpMethodName;
+import org.dasein.cloud.terremark.XmlResources;
 import org.dasein.cloud.terremark.identity.TerremarkKeypair;
 import org.dasein.cloud.terremark.network.FirewallRule;
 import org.dasein.cloud.terremark.network.TerremarkIpAddressSupport;
@@ -136,6 +136,7 @@ public class VMSupport extends AbstractVMSupport {
 
 	public final static long DEFAULT_SLEEP             = CalendarWrapper.SECOND * 20;
 	public final static long DEFAULT_TIMEOUT           = CalendarWrapper.MINUTE * 45;
+	public final static long CATALOG_IMPORT_TIMEOUT    = CalendarWrapper.HOUR * 28;
 
 	static private final Logger logger = Logger.getLogger(VMSupport.class);
 
@@ -250,12 +251,8 @@ public class VMSupport extends AbstractVMSupport {
 		String url = "/" + VIRTUAL_MACHINES + "/" + vmId + "/hardwareConfiguration";
 		String body = "";
 
-		DocumentBuilderFactory docFactory = DocumentBuilderFactory.newInstance();
-		DocumentBuilder docBuilder;
 		try {
-			docBuilder = docFactory.newDocumentBuilder();
-
-			Document doc = docBuilder.newDocument();
+			Document doc = XmlResources.newDocument();
 			Element rootElement = doc.createElement("HardwareConfiguration");
 
 			Element processorCountElement = doc.createElement("ProcessorCount");
@@ -322,10 +319,7 @@ public class VMSupport extends AbstractVMSupport {
 
 			doc.appendChild(rootElement);
 
-			StringWriter stw = new StringWriter(); 
-			Transformer serializer = TransformerFactory.newInstance().newTransformer(); 
-			serializer.transform(new DOMSource(doc), new StreamResult(stw)); 
-			body = stw.toString();
+			body = XmlResources.toXml(doc);
 		} catch (ParserConfigurationException e) {
 			e.printStackTrace();
 		} catch (TransformerException e) {
@@ -345,12 +339,8 @@ public class VMSupport extends AbstractVMSupport {
 		String url = "/" + VIRTUAL_MACHINES + "/" + vmId + "/assignedIps";
 		String body = "";
 
-		DocumentBuilderFactory docFactory = DocumentBuilderFactory.newInstance();
-		DocumentBuilder docBuilder;
 		try {
-			docBuilder = docFactory.newDocumentBuilder();
-
-			Document doc = docBuilder.newDocument();
+			Document doc = XmlResources.newDocument();
 			Element rootElement = doc.createElement("AssignedIpAddresses");
 
 			Element networksElement = doc.createElement("Networks");
@@ -386,10 +376,7 @@ public class VMSupport extends AbstractVMSupport {
 			rootElement.appendChild(networksElement);	
 			doc.appendChild(rootElement);
 
-			StringWriter stw = new StringWriter(); 
-			Transformer serializer = TransformerFactory.newInstance().newTransformer(); 
-			serializer.transform(new DOMSource(doc), new StreamResult(stw)); 
-			body = stw.toString();
+			body = XmlResources.toXml(doc);
 		} catch (ParserConfigurationException e) {
 			e.printStackTrace();
 		} catch (TransformerException e) {
@@ -427,12 +414,8 @@ public class VMSupport extends AbstractVMSupport {
 		String rowId = null;
 		String groupId = null;
 
-		DocumentBuilderFactory docFactory = DocumentBuilderFactory.newInstance();
-		DocumentBuilder docBuilder;
 		try {
-			docBuilder = docFactory.newDocumentBuilder();
-
-			Document doc = docBuilder.newDocument();
+			Document doc = XmlResources.newDocument();
 			Element rootElement = doc.createElement("CopyIdenticalVirtualMachine");
 			rootElement.setAttribute(Terremark.NAME, name);
 
@@ -477,10 +460,7 @@ public class VMSupport extends AbstractVMSupport {
 
 			doc.appendChild(rootElement);
 
-			StringWriter stw = new StringWriter(); 
-			Transformer serializer = TransformerFactory.newInstance().newTransformer(); 
-			serializer.transform(new DOMSource(doc), new StreamResult(stw)); 
-			body = stw.toString();
+			body = XmlResources.toXml(doc);
 		} catch (ParserConfigurationException e) {
 			e.printStackTrace();
 		} catch (TransformerException e) {
@@ -953,7 +933,8 @@ public class VMSupport extends AbstractVMSupport {
 	 * configuration options that define what the virtual machine should look like once launched. These options may
 	 * include things that behave very differently in some clouds. It is expected that the method will return 
 	 * immediately once Dasein Cloud as a trackable server ID, even if it has to spawn off a background thread
-	 * to complete follow on tasks (such as provisioning and attaching volumes).
+	 * to complete follow on tasks (such as provisioning and attaching volumes). Use
+	 * {@link #launchAsync(VMLaunchOptions)} to launch without blocking the calling thread.
 	 * @param withLaunchOptions the launch options to use in creating a new virtual machine
 	 * @return the newly created virtual machine
 	 * @throws CloudException the cloud provider errored out when launching the virtual machine
@@ -961,7 +942,74 @@ public class VMSupport extends AbstractVMSupport {
 	 */
 	@Override
 	public VirtualMachine launch(VMLaunchOptions withLaunchOptions) throws CloudException, InternalException {
+		return launch(withLaunchOptions, null);
+	}
+
+	/**
+	 * Launches a virtual machine in the background. The launch goes through the same steps as
+	 * {@link #launch(VMLaunchOptions)}, but runs on the provider's {@link Terremark#getLaunchExecutor() launch executor}
+	 * so that the calling thread is free while the cloud creates, configures, and starts the virtual machine. The
+	 * calling thread's {@link Deadline}, if any, also applies to the launch.
+	 * @param withLaunchOptions the launch options to use in creating a new virtual machine
+	 * @return a task tracking the launch, from which the new virtual machine is available once it completes
+	 */
+	public @Nonnull LaunchTask launchAsync(@Nonnull final VMLaunchOptions withLaunchOptions) {
+		final LaunchTask task = new LaunchTask(withLaunchOptions.getFriendlyName());
+		final Deadline deadline = Deadline.getCurrent();
+		FutureTask<Void> future = new FutureTask<Void>(new Runnable() {
+			@Override
+			public void run() {
+				Deadline previous = Deadline.setCurrent(deadline);
+
+				try {
+					VirtualMachine vm = launch(withLaunchOptions, task);
+
+					if( vm == null ) {
+						task.finish(new InternalException("Unable to launch from image " + withLaunchOptions.getMachineImageId()));
+					}
+					else {
+						task.finish(vm);
+					}
+				}
+				catch( CloudException e ) {
+					task.finish(e);
+				}
+				catch( InternalException e ) {
+					task.finish(e);
+				}
+				catch( RuntimeException e ) {
+					if( !(e instanceof CancellationException) ) {
+						logger.error("launchAsync(): Unexpected error launching " + task.getName(), e);
+					}
+					task.finish(e);
+				}
+				finally {
+					Deadline.setCurrent(previous);
+				}
+			}
+		}, null) {
+			@Override
+			protected void done() {
+				// cancelled before a worker picked it up, whether by the caller or by the provider closing
+				if( isCancelled() && task.getStage() == LaunchTask.Stage.QUEUED ) {
+					task.finish(new CancellationException("The launch of " + task.getName() + " was cancelled before it started"));
+				}
+			}
+		};
+
+		task.setFuture(future);
+		try {
+			provider.getLaunchExecutor().execute(future);
+		}
+		catch( RejectedExecutionException e ) {
+			task.finish(new InternalException("The provider was closed before the launch of " + task.getName() + " could start"));
+		}
+		return task;
+	}
+
+	private VirtualMachine launch(VMLaunchOptions withLaunchOptions, @Nullable LaunchTask task) throws CloudException, InternalException {
 		logger.trace("enter() - launch()");
+		enter(task, LaunchTask.Stage.PREPARING);
 		ProviderContext ctx = provider.getContext();
 		if( ctx == null ) {
 			throw new CloudException("No context was established for this request");
@@ -990,16 +1038,16 @@ public class VMSupport extends AbstractVMSupport {
 			if (!imageDataCenterId.equals(withLaunchOptions.getDataCenterId())) {
 				throw new InternalException("The requested data center " + withLaunchOptions.getDataCenterId() + " does not match the available data center for this image: " + imageDataCenterId);
 			}
-			vm = launchFromTemplate(imageId, withLaunchOptions.getStandardProductId(), withLaunchOptions.getDataCenterId(), withLaunchOptions.getFriendlyName(), withLaunchOptions.getDescription(), withLaunchOptions.getBootstrapKey(), withLaunchOptions.getBootstrapPassword(), withLaunchOptions.getVlanId(), withLaunchOptions.getNetworkInterfaces(), withLaunchOptions.getMetaData());
+			vm = launchFromTemplate(imageId, withLaunchOptions.getStandardProductId(), withLaunchOptions.getDataCenterId(), withLaunchOptions.getFriendlyName(), withLaunchOptions.getDescription(), withLaunchOptions.getBootstrapKey(), withLaunchOptions.getBootstrapPassword(), withLaunchOptions.getVlanId(), withLaunchOptions.getNetworkInterfaces(), withLaunchOptions.getMetaData(), task);
 		}
 		else if (imageType.equalsIgnoreCase(Template.ImageType.CATALOG_ENTRY.name())) {
-			vm = launchFromCatalogItem(imageId, withLaunchOptions.getStandardProductId(), withLaunchOptions.getDataCenterId(), withLaunchOptions.getFriendlyName(), withLaunchOptions.getDescription(), withLaunchOptions.getVlanId(), withLaunchOptions.getNetworkInterfaces(), withLaunchOptions.getMetaData());
+			vm = launchFromCatalogItem(imageId, withLaunchOptions.getStandardProductId(), withLaunchOptions.getDataCenterId(), withLaunchOptions.getFriendlyName(), withLaunchOptions.getDescription(), withLaunchOptions.getVlanId(), withLaunchOptions.getNetworkInterfaces(), withLaunchOptions.getMetaData(), task);
 		}
 
 		return vm;
 	}
 
-	private @Nonnull VirtualMachine launchFromCatalogItem(@Nonnull String catalogId, @Nonnull String productString, @Nonnull String dataCenterId, @Nonnull String name, @Nonnull String description, @Nullable String inVlanId, @Nullable NICConfig[] nics, @Nullable Map<String, Object> tags)	throws InternalException, CloudException {
+	private @Nonnull VirtualMachine launchFromCatalogItem(@Nonnull String catalogId, @Nonnull String productString, @Nonnull String dataCenterId, @Nonnull String name, @Nonnull String description, @Nullable String inVlanId, @Nullable NICConfig[] nics, @Nullable Map<String, Object> tags, @Nullable LaunchTask task)	throws InternalException, CloudException {
 		logger.trace("enter() - launchFromCatalogItem()");
 
 		final ProviderContext ctx = provider.getContext();
@@ -1017,12 +1065,8 @@ public class VMSupport extends AbstractVMSupport {
 		String url = "/" + VIRTUAL_MACHINES + "/" + EnvironmentsAndComputePools.COMPUTE_POOLS + "/" + dataCenterId + "/action/importVirtualMachine";
 		String body = "";
 
-		DocumentBuilderFactory docFactory = DocumentBuilderFactory.newInstance();
-		DocumentBuilder docBuilder;
 		try {
-			docBuilder = docFactory.newDocumentBuilder();
-
-			Document doc = docBuilder.newDocument();
+			Document doc = XmlResources.newDocument();
 			Element rootElement = doc.createElement("ImportVirtualMachine");
 
 			addNameAttribute(rootElement, name);
@@ -1068,10 +1112,7 @@ public class VMSupport extends AbstractVMSupport {
 
 			doc.appendChild(rootElement);
 
-			StringWriter stw = new StringWriter(); 
-			Transformer serializer = TransformerFactory.newInstance().newTransformer(); 
-			serializer.transform(new DOMSource(doc), new StreamResult(stw)); 
-			body = stw.toString();
+			body = XmlResources.toXml(doc);
 
 		} catch (ParserConfigurationException e) {
 			if (logger.isDebugEnabled()) {
@@ -1089,14 +1130,19 @@ public class VMSupport extends AbstractVMSupport {
 			}
 		}
 
+		enter(task, LaunchTask.Stage.CREATING);
 		TerremarkMethod method = new TerremarkMethod(provider, HttpMethodName.POST, url, null, body);
 		Document responseDoc = method.invoke();
 
 		String vmId = Terremark.hrefToId(responseDoc.getElementsByTagName(VIRTUAL_MACHINE_TAG).item(0).getAttributes().getNamedItem(Terremark.HREF).getNodeValue());
+		if( task != null ) {
+			task.setVirtualMachineId(vmId);
+		}
 
 		String taskHref = Terremark.getTaskHref(responseDoc, IMPORT_VM_OPERATION);
 		provider.waitForTask(taskHref, DEFAULT_SLEEP, DEFAULT_TIMEOUT);
 
+		enter(task, LaunchTask.Stage.ASSIGNING_ADDRESSES);
 		HashMap<String,List<String>> networkMap = new HashMap<String, List<String>>();
 
 		if (nics != null) {
@@ -1133,32 +1179,22 @@ public class VMSupport extends AbstractVMSupport {
 
 		assignIpAddresses(vmId, networkMap);
 
+		enter(task, LaunchTask.Stage.DESCRIBING);
 		logger.debug("launchFromCatalogItem(): getting virtual machine " + vmId);
 		server = getVirtualMachine(vmId);
-		final String serverId = server.getProviderVirtualMachineId();
-
-		Thread t = new Thread() {
-            public void run() {
-                provider.hold();
-                try {
-                    try {
-                    	waitForCatalogTask(serverId);
-                    }
-                    catch( Throwable t ) {
-                        logger.error("launchFromCatalogItem(): Failed while polling launch task for server " + serverId + ": " + t.getMessage());
-                        t.printStackTrace();
-                    }
-                }
-                finally {
-                    provider.release();
-                }
-            }
-        };
-        t.setName("Wait for Terremark Catalog Item Launch " + server.getProviderVirtualMachineId());
-        t.setDaemon(true);
-        t.start();
+		String serverId = server.getProviderVirtualMachineId();
+
+		provider.hold();
+		try {
+			provider.getBackgroundScheduler().schedule(new CatalogImportWatch(serverId), 0L);
+		}
+		catch( RejectedExecutionException e ) {
+			provider.release();
+			logger.warn("launchFromCatalogItem(): Unable to watch the import of server " + serverId + ": " + e.getMessage());
+		}
 
 		if (server.getCurrentState().equals(VmState.STOPPED)) {
+			enter(task, LaunchTask.Stage.STARTING);
 			start(vmId);
 			server = getVirtualMachine(vmId);
 		}
@@ -1167,33 +1203,54 @@ public class VMSupport extends AbstractVMSupport {
 		return server;
 	}
 	
-	private void waitForCatalogTask(String serverId) throws InternalException, CloudException {
-		final long catalogImportTimeout = CalendarWrapper.HOUR * 28;
-		long waitTime = 0;
-		long sleepTime;
-		VirtualMachine server = getVirtualMachine(serverId);
-		while (server.getCurrentState().equals(VmState.PENDING) && waitTime < catalogImportTimeout) {
+	/**
+	 * Holds the provider open while a server imported from the catalog is pending, checking on it every
+	 * {@link #DEFAULT_SLEEP} milliseconds for the first {@link #DEFAULT_TIMEOUT} and every ten minutes after that, for
+	 * up to {@link #CATALOG_IMPORT_TIMEOUT}. Between checks it holds no thread.
+	 */
+	private class CatalogImportWatch implements BackgroundScheduler.RecurringJob {
+		private final String serverId;
+		private final long   startedAt = System.currentTimeMillis();
+
+		CatalogImportWatch(String serverId) {
+			this.serverId = serverId;
+		}
+
+		@Override
+		public long run() {
+			RequestScheduler.Priority previous = RequestScheduler.setCurrentPriority(RequestScheduler.Priority.BACKGROUND_POLL);
+			long waitTime = System.currentTimeMillis() - startedAt;
+			boolean pending = false;
+
 			try {
-				if (waitTime < DEFAULT_TIMEOUT) {
-					sleepTime = DEFAULT_SLEEP;
-				}
-				else {
-					sleepTime = CalendarWrapper.MINUTE * 10;
-				}
-				Thread.sleep(sleepTime);
-				waitTime += sleepTime;
-				server = getVirtualMachine(serverId);
-				if (server.getCurrentState().equals(VmState.TERMINATED)) {
-					break;
-				}
-			} catch (InterruptedException e) {
-				if (logger.isDebugEnabled()) {
-					logger.warn("waitForCatalogTask(): Thread was interrupted waiting for server to leave pending state.", e);
-				}
-				else {
-					logger.warn("waitForCatalogTask(): Thread was interrupted waiting for server to leave pending state.");
+				VirtualMachine server = getVirtualMachine(serverId);
+
+				pending = (server != null && server.getCurrentState().equals(VmState.PENDING) && waitTime < CATALOG_IMPORT_TIMEOUT);
+			}
+			catch( CloudException e ) {
+				logger.error("launchFromCatalogItem(): Failed while polling launch task for server " + serverId + ": " + e.getMessage());
+			}
+			catch( InternalException e ) {
+				logger.error("launchFromCatalogItem(): Failed while polling launch task for server " + serverId + ": " + e.getMessage());
+			}
+			finally {
+				RequestScheduler.setCurrentPriority(previous);
+				if( !pending ) {
+					provider.release();
 				}
 			}
+			return (!pending ? -1L : (waitTime < DEFAULT_TIMEOUT ? DEFAULT_SLEEP : CalendarWrapper.MINUTE * 10));
+		}
+
+		@Override
+		public void cancelled() {
+			logger.debug("launchFromCatalogItem(): Stopped watching the import of server " + serverId + " after " + (System.currentTimeMillis() - startedAt) + "ms");
+			provider.release();
+		}
+
+		@Override
+		public String toString() {
+			return "CatalogImportWatch[" + serverId + "]";
 		}
 	}
 
@@ -1284,7 +1341,7 @@ public class VMSupport extends AbstractVMSupport {
 		rootElement.appendChild(memory);
 	}
 
-	private @Nonnull VirtualMachine launchFromTemplate(@Nonnull String templateId, @Nonnull String productString, @Nonnull String dataCenterId, @Nonnull String name, @Nonnull String description, @Nullable String withKeypairId, @Nullable String withPassword, @Nullable String inVlanId, @Nullable NICConfig[] nics, @Nullable Map<String, Object> tags) throws InternalException, CloudException {
+	private @Nonnull VirtualMachine launchFromTemplate(@Nonnull String templateId, @Nonnull String productString, @Nonnull String dataCenterId, @Nonnull String name, @Nonnull String description, @Nullable String withKeypairId, @Nullable String withPassword, @Nullable String inVlanId, @Nullable NICConfig[] nics, @Nullable Map<String, Object> tags, @Nullable LaunchTask task) throws InternalException, CloudException {
 		logger.trace("enter() - launchFromTemplate()");
 
 		ProviderContext ctx = provider.getContext();
@@ -1301,12 +1358,8 @@ public class VMSupport extends AbstractVMSupport {
 		String url = "/" + VIRTUAL_MACHINES + "/" + EnvironmentsAndComputePools.COMPUTE_POOLS + "/" + dataCenterId + "/action/createVirtualMachine";
 		String body = "";
 
-		DocumentBuilderFactory docFactory = DocumentBuilderFactory.newInstance();
-		DocumentBuilder docBuilder;
 		try {
-			docBuilder = docFactory.newDocumentBuilder();
-
-			Document doc = docBuilder.newDocument();
+			Document doc = XmlResources.newDocument();
 			Element rootElement = doc.createElement("CreateVirtualMachine");
 			addNameAttribute(rootElement, name);
 			addVmHardwareElements(doc, rootElement, product);
@@ -1574,10 +1627,7 @@ public class VMSupport extends AbstractVMSupport {
 
 			doc.appendChild(rootElement);
 
-			StringWriter stw = new StringWriter(); 
-			Transformer serializer = TransformerFactory.newInstance().newTransformer(); 
-			serializer.transform(new DOMSource(doc), new StreamResult(stw)); 
-			body = stw.toString();
+			body = XmlResources.toXml(doc);
 
 		} catch (ParserConfigurationException e) {
 			if (logger.isDebugEnabled()) {
@@ -1595,18 +1645,24 @@ public class VMSupport extends AbstractVMSupport {
 			}
 		}
 
+		enter(task, LaunchTask.Stage.CREATING);
 		TerremarkMethod method = new TerremarkMethod(provider, HttpMethodName.POST, url, null, body);
 		Document responseDoc = method.invoke();
 
 		String vmId = Terremark.hrefToId(responseDoc.getElementsByTagName(VIRTUAL_MACHINE_TAG).item(0).getAttributes().getNamedItem(Terremark.HREF).getNodeValue());
+		if( task != null ) {
+			task.setVirtualMachineId(vmId);
+		}
 
 		String taskHref = Terremark.getTaskHref(responseDoc, CREATE_SERVER_OPERATION);
 		provider.waitForTask(taskHref, DEFAULT_SLEEP, DEFAULT_TIMEOUT);
 
+		enter(task, LaunchTask.Stage.DESCRIBING);
 		logger.debug("launchFromTemplate(): getting virtual machine " + vmId);
 		server = getVirtualMachine(vmId);	
 
 		if (server.getCurrentState().equals(VmState.STOPPED)) {
+			enter(task, LaunchTask.Stage.STARTING);
 			start(vmId);
 			server = getVirtualMachine(vmId);
 		}
@@ -1622,6 +1678,18 @@ public class VMSupport extends AbstractVMSupport {
 		return server;
 	}
 
+	/**
+	 * Reports that a launch has reached its next stage.
+	 * @param task the launch, or <code>null</code> for a launch made with {@link #launch(VMLaunchOptions)}
+	 * @param stage the stage being entered
+	 * @throws CancellationException the launch has been cancelled
+	 */
+	static private void enter(@Nullable LaunchTask task, @Nonnull LaunchTask.Stage stage) {
+		if( task != null ) {
+			task.enter(stage);
+		}
+	}
+
 	private void addNameAttribute(Element rootElement, String name) {
 		name = validateName(name);
 		rootElement.setAttribute(Terremark.NAME, name);
@@ -1729,20 +1797,29 @@ public class VMSupport extends AbstractVMSupport {
 	@Override
 	public Iterable<VirtualMachine> listVirtualMachines() throws InternalException, CloudException {
 		logger.trace("enter - listVirtualMachines()");
-		ArrayList<VirtualMachine> vms = new ArrayList<VirtualMachine>();
+		final ArrayList<VirtualMachine> vms = new ArrayList<VirtualMachine>();
 		ProviderContext ctx = provider.getContext();
 		if( ctx == null ) {
 			throw new CloudException("No context was established for this request");
 		}
 		String regionId = ctx.getRegionId();
-		Document environmentDoc = provider.getDataCenterServices().getEnvironmentById(regionId);
-		NodeList vmNodes = environmentDoc.getElementsByTagName(VIRTUAL_MACHINE_TAG);
-		logger.trace("listVirtualMachines(): Found " + vmNodes.getLength() + " VMs in region");
-		for (int i=0; i < vmNodes.getLength(); i++){
-			String vmHref = vmNodes.item(i).getAttributes().item(0).getNodeValue();
-			VirtualMachine vm = getVirtualMachine(Terremark.hrefToId(vmHref));
-			vms.add(vm);
-		}
+		List<String> vmIds = provider.getDataCenterServices().listVirtualMachineIds(regionId);
+		logger.trace("listVirtualMachines(): Found " + vmIds.size() + " VMs in region");
+		List<String> urls = new ArrayList<String>(vmIds.size());
+		for (String vmId : vmIds){
+			urls.add("/" + VIRTUAL_MACHINES + "/" + vmId);
+		}
+		TerremarkMethod.invokeAll(provider, urls, new TerremarkMethod.DocumentHandler() {
+			@Override
+			public void handle(int index, Document doc) throws CloudException, InternalException {
+				VirtualMachine vm = null;
+				if (doc != null){
+					Node vmNode = doc.getElementsByTagName(VIRTUAL_MACHINE_TAG).item(0);
+					vm = toVirtualMachine(vmNode);
+				}
+				vms.add(vm);
+			}
+		});
 		logger.trace("exit - listVirtualMachines()");
 		return vms;
 	}
@@ -2337,12 +2414,8 @@ public class VMSupport extends AbstractVMSupport {
 		String url = VIRTUAL_MACHINES + "/" + vmId;
 		String body = "";
 
-		DocumentBuilderFactory docFactory = DocumentBuilderFactory.newInstance();
-		DocumentBuilder docBuilder;
 		try {
-			docBuilder = docFactory.newDocumentBuilder();
-
-			Document doc = docBuilder.newDocument();
+			Document doc = XmlResources.newDocument();
 			Element rootElement = doc.createElement("VirtualMachine");
 			rootElement.setAttribute(Terremark.NAME, vm.getName());
 			doc.appendChild(rootElement);
@@ -2359,10 +2432,7 @@ public class VMSupport extends AbstractVMSupport {
 			}
 			rootElement.appendChild(tagsElement);
 
-			StringWriter stw = new StringWriter(); 
-			Transformer serializer = TransformerFactory.newInstance().newTransformer(); 
-			serializer.transform(new DOMSource(doc), new StreamResult(stw)); 
-			body = stw.toString();
+			body = XmlResources.toXml(doc);
 		} catch (ParserConfigurationException e) {
 			e.printStackTrace();
 		} catch (TransformerException e) {
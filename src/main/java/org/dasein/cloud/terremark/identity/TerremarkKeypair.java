@@ -19,21 +19,14 @@
 
 package org.dasein.cloud.terremark.identity;
 
-import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Locale;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
 
 import org.apache.log4j.Logger;
 import org.dasein.cloud.CloudException;
@@ -46,6 +39,7 @@ import org.dasein.cloud.identity.ShellKeySupport;
 import org.dasein.cloud.terremark.Terremark;
 import org.dasein.cloud.terremark.TerremarkMethod;
 import org.dasein.cloud.terremark.TerremarkMethod.HttpMethodName;
+import org.dasein.cloud.terremark.XmlResources;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
@@ -86,20 +80,13 @@ public class TerremarkKeypair  implements ShellKeySupport {
 
 		name = validateName(name);
 
-		DocumentBuilderFactory docFactory = DocumentBuilderFactory.newInstance();
-		DocumentBuilder docBuilder;
 		try {
-			docBuilder = docFactory.newDocumentBuilder();
-
-			Document doc = docBuilder.newDocument();
+			Document doc = XmlResources.newDocument();
 			Element rootElement = doc.createElement("CreateSshKey");
 			rootElement.setAttribute(Terremark.NAME, name);
 			doc.appendChild(rootElement);
 
-			StringWriter stw = new StringWriter(); 
-			Transformer serializer = TransformerFactory.newInstance().newTransformer(); 
-			serializer.transform(new DOMSource(doc), new StreamResult(stw)); 
-			body = stw.toString();
+			body = XmlResources.toXml(doc);
 		} catch (ParserConfigurationException e) {
 			e.printStackTrace();
 		} catch (TransformerException e) {
@@ -19,7 +19,6 @@
 
 package org.dasein.cloud.terremark.network;
 
-import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -27,14 +26,8 @@ import java.util.Locale;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
 
 import org.apache.log4j.Logger;
 import org.dasein.cloud.CloudException;
@@ -59,6 +52,7 @@ import org.dasein.cloud.terremark.EnvironmentsAndComputePools;
 import org.dasein.cloud.terremark.Terremark;
 import org.dasein.cloud.terremark.TerremarkMethod;
 import org.dasein.cloud.terremark.TerremarkMethod.HttpMethodName;
+import org.dasein.cloud.terremark.XmlResources;
 import org.dasein.util.CalendarWrapper;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -124,13 +118,9 @@ public class FirewallRule extends AbstractFirewallSupport {
 		String url = "/" + FIREWALL_ACLS + "/" + EnvironmentsAndComputePools.ENVIRONMENTS + "/" + id + "/" + Terremark.ACTION + "/" + CREATE_FIREWALL_ACL;
 		String body = "";
 
-		DocumentBuilderFactory docFactory = DocumentBuilderFactory.newInstance();
-		DocumentBuilder docBuilder;
 		try {
-			docBuilder = docFactory.newDocumentBuilder();
-
 			// root element
-			Document doc = docBuilder.newDocument();
+			Document doc = XmlResources.newDocument();
 			Element rootElement = doc.createElement("CreateFirewallAcl");
 
 			Element permissionElement = doc.createElement("Permission");
@@ -328,10 +318,7 @@ public class FirewallRule extends AbstractFirewallSupport {
 
 			doc.appendChild(rootElement);
 
-			StringWriter stw = new StringWriter(); 
-			Transformer serializer = TransformerFactory.newInstance().newTransformer(); 
-			serializer.transform(new DOMSource(doc), new StreamResult(stw)); 
-			body = stw.toString();
+			body = XmlResources.toXml(doc);
 
 		} catch (ParserConfigurationException e) {
 			e.printStackTrace();
@@ -373,13 +360,9 @@ public class FirewallRule extends AbstractFirewallSupport {
 		String url = "/" + FIREWALL_ACLS + "/" + EnvironmentsAndComputePools.ENVIRONMENTS + "/" + id + "/" + Terremark.ACTION + "/" + CREATE_FIREWALL_ACL;
 		String body = "";
 
-		DocumentBuilderFactory docFactory = DocumentBuilderFactory.newInstance();
-		DocumentBuilder docBuilder;
 		try {
-			docBuilder = docFactory.newDocumentBuilder();
-
 			// root element
-			Document doc = docBuilder.newDocument();
+			Document doc = XmlResources.newDocument();
 			Element rootElement = doc.createElement("CreateFirewallAcl");
 
 			Element permissionElement = doc.createElement("Permission");
@@ -447,10 +430,7 @@ public class FirewallRule extends AbstractFirewallSupport {
 
 			doc.appendChild(rootElement);
 
-			StringWriter stw = new StringWriter(); 
-			Transformer serializer = TransformerFactory.newInstance().newTransformer(); 
-			serializer.transform(new DOMSource(doc), new StreamResult(stw)); 
-			body = stw.toString();
+			body = XmlResources.toXml(doc);
 
 		} catch (ParserConfigurationException e) {
 			e.printStackTrace();
@@ -19,25 +19,19 @@
 
 package org.dasein.cloud.terremark.network;
 
-import java.io.StringWriter;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Locale;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
 
 import org.apache.log4j.Logger;
 import org.dasein.cloud.CloudException;
@@ -63,6 +57,7 @@ import org.dasein.cloud.terremark.Terremark;
 import org.dasein.cloud.terremark.TerremarkException;
 import org.dasein.cloud.terremark.TerremarkMethod;
 import org.dasein.cloud.terremark.TerremarkMethod.HttpMethodName;
+import org.dasein.cloud.terremark.XmlResources;
 import org.dasein.util.CalendarWrapper;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -121,12 +116,8 @@ public class TerremarkIpAddressSupport  implements IpAddressSupport {
 		String url = "/" + INTERNET_SERVICES + "/" + PUBLIC_IPS + "/" + addressId + "/action/createInternetService";
 		String body = "";
 
-		DocumentBuilderFactory docFactory = DocumentBuilderFactory.newInstance();
-		DocumentBuilder docBuilder;
 		try {
-			docBuilder = docFactory.newDocumentBuilder();
-
-			Document doc = docBuilder.newDocument();
+			Document doc = XmlResources.newDocument();
 			Element rootElement = doc.createElement("CreateInternetService");
 			rootElement.setAttribute(Terremark.NAME, name);
 
@@ -150,10 +141,7 @@ public class TerremarkIpAddressSupport  implements IpAddressSupport {
 
 			doc.appendChild(rootElement);
 
-			StringWriter stw = new StringWriter(); 
-			Transformer serializer = TransformerFactory.newInstance().newTransformer(); 
-			serializer.transform(new DOMSource(doc), new StreamResult(stw)); 
-			body = stw.toString();
+			body = XmlResources.toXml(doc);
 		} catch (ParserConfigurationException e) {
 			e.printStackTrace();
 		} catch (TransformerException e) {
@@ -193,12 +181,8 @@ public class TerremarkIpAddressSupport  implements IpAddressSupport {
 			type = IP_ADDRESS_TYPE;
 		}
 
-		DocumentBuilderFactory docFactory = DocumentBuilderFactory.newInstance();
-		DocumentBuilder docBuilder;
 		try {
-			docBuilder = docFactory.newDocumentBuilder();
-
-			Document doc = docBuilder.newDocument();
+			Document doc = XmlResources.newDocument();
 			Element rootElement = doc.createElement("CreateNodeService");
 			rootElement.setAttribute(Terremark.NAME, name);
 
@@ -219,10 +203,7 @@ public class TerremarkIpAddressSupport  implements IpAddressSupport {
 
 			doc.appendChild(rootElement);
 
-			StringWriter stw = new StringWriter(); 
-			Transformer serializer = TransformerFactory.newInstance().newTransformer(); 
-			serializer.transform(new DOMSource(doc), new StreamResult(stw)); 
-			body = stw.toString();
+			body = XmlResources.toXml(doc);
 		} catch (ParserConfigurationException e) {
 			e.printStackTrace();
 		} catch (TransformerException e) {
@@ -270,12 +251,8 @@ public class TerremarkIpAddressSupport  implements IpAddressSupport {
 		String url = "/" + INTERNET_SERVICES + "/" + service.getId();
 		String body = "";
 
-		DocumentBuilderFactory docFactory = DocumentBuilderFactory.newInstance();
-		DocumentBuilder docBuilder;
 		try {
-			docBuilder = docFactory.newDocumentBuilder();
-
-			Document doc = docBuilder.newDocument();
+			Document doc = XmlResources.newDocument();
 			Element rootElement = doc.createElement(INTERNET_SERVICE_TAG);
 			rootElement.setAttribute(Terremark.NAME, service.getName());
 
@@ -316,10 +293,7 @@ public class TerremarkIpAddressSupport  implements IpAddressSupport {
 
 			doc.appendChild(rootElement);
 
-			StringWriter stw = new StringWriter(); 
-			Transformer serializer = TransformerFactory.newInstance().newTransformer(); 
-			serializer.transform(new DOMSource(doc), new StreamResult(stw)); 
-			body = stw.toString();
+			body = XmlResources.toXml(doc);
 		} catch (ParserConfigurationException e) {
 			e.printStackTrace();
 		} catch (TransformerException e) {
@@ -338,12 +312,8 @@ public class TerremarkIpAddressSupport  implements IpAddressSupport {
 		String url = "/" + NODE_SERVICES + "/" + nodeService.getId();
 		String body = "";
 
-		DocumentBuilderFactory docFactory = DocumentBuilderFactory.newInstance();
-		DocumentBuilder docBuilder;
 		try {
-			docBuilder = docFactory.newDocumentBuilder();
-
-			Document doc = docBuilder.newDocument();
+			Document doc = XmlResources.newDocument();
 			Element rootElement = doc.createElement(NODE_SERVICE_TAG);
 			rootElement.setAttribute(Terremark.NAME, nodeService.getName());
 
@@ -357,10 +327,7 @@ public class TerremarkIpAddressSupport  implements IpAddressSupport {
 
 			doc.appendChild(rootElement);
 
-			StringWriter stw = new StringWriter(); 
-			Transformer serializer = TransformerFactory.newInstance().newTransformer(); 
-			serializer.transform(new DOMSource(doc), new StreamResult(stw)); 
-			body = stw.toString();
+			body = XmlResources.toXml(doc);
 		} catch (ParserConfigurationException e) {
 			e.printStackTrace();
 		} catch (TransformerException e) {
@@ -1058,16 +1025,15 @@ public class TerremarkIpAddressSupport  implements IpAddressSupport {
 		Collection<IpAddress> ips = new ArrayList<IpAddress>();
 
 		// List private addresses
+		List<String> networkIds = new ArrayList<String>();
 		Iterable<VLAN> networks = provider.getNetworkServices().getVlanSupport().listVlans();
 		for (VLAN network : networks) {
 			String networkId = network.getProviderVlanId();
 			if ((networkId.contains("ipv6") && version.equals(IPVersion.IPV6)) || (!networkId.contains("ipv6") && version.equals(IPVersion.IPV4))) {
-				Iterable<IpAddress> networkIps = listPrivateIps(networkId, unassignedOnly, false, true);
-				for (IpAddress networkIp : networkIps) {
-					ips.add(networkIp);
-				}
+				networkIds.add(networkId);
 			}
 		}
+		ips.addAll(listPrivateIps(networkIds, unassignedOnly, false, true));
 
 		// List public addresses
 		String url = "/" + PUBLIC_IPS + "/" + EnvironmentsAndComputePools.ENVIRONMENTS + "/" + provider.getContext().getRegionId();
@@ -1096,16 +1062,12 @@ public class TerremarkIpAddressSupport  implements IpAddressSupport {
 	 * @throws CloudException an error occurred with the cloud provider while requesting the IP addresses
 	 */
 	protected Iterable<IpAddress> lisPrivatetIpPool() throws InternalException, CloudException {
-		Collection<IpAddress> ips = new ArrayList<IpAddress>();
+		List<String> networkIds = new ArrayList<String>();
 		Iterable<VLAN> networks = provider.getNetworkServices().getVlanSupport().listVlans();
 		for (VLAN network : networks) {
-			String networkId = network.getProviderVlanId();
-			Iterable<IpAddress> networkIps = listPrivateIps(networkId, false, false, false);
-			for (IpAddress networkIp : networkIps) {
-				ips.add(networkIp);
-			}
+			networkIds.add(network.getProviderVlanId());
 		}		
-		return ips;
+		return listPrivateIps(networkIds, false, false, false);
 	}
 
 	/**
@@ -1118,17 +1080,25 @@ public class TerremarkIpAddressSupport  implements IpAddressSupport {
 	 */
 	@Override
 	public Iterable<ResourceStatus> listIpPoolStatus(IPVersion version) throws InternalException, CloudException {
-		Collection<ResourceStatus> ipsStatus = new ArrayList<ResourceStatus>();
+		final Collection<ResourceStatus> ipsStatus = new ArrayList<ResourceStatus>();
 
 		// List private addresses
+		final List<String> networkIds = new ArrayList<String>();
+		List<String> urls = new ArrayList<String>();
 		Iterable<VLAN> networks = provider.getNetworkServices().getVlanSupport().listVlans();
 		for (VLAN network : networks) {
 			String networkId = network.getProviderVlanId();
-			Iterable<ResourceStatus> networkIpsStatus = listPrivateIpsStatus(networkId, version);
-			for (ResourceStatus networkIpStatus : networkIpsStatus) {
-				ipsStatus.add(networkIpStatus);
-			}
+			networkIds.add(networkId);
+			urls.add(toPrivateIpsStatusUrl(networkId, version));
 		}
+		TerremarkMethod.invokeAll(provider, urls, new TerremarkMethod.DocumentHandler() {
+			@Override
+			public void handle(int index, Document doc) throws CloudException, InternalException {
+				if (doc != null){
+					ipsStatus.addAll(getReservedIpAddressesStatus(doc, networkIds.get(index)));
+				}
+			}
+		});
 
 		// List public addresses
 		String url = "/" + PUBLIC_IPS + "/" + EnvironmentsAndComputePools.ENVIRONMENTS + "/" + provider.getContext().getRegionId();
@@ -1160,17 +1130,15 @@ public class TerremarkIpAddressSupport  implements IpAddressSupport {
 	@Override
 	public @Nonnull Iterable<IpAddress> listPrivateIpPool(boolean unassignedOnly) throws InternalException, CloudException {
 		logger.trace("enter - listPrivateIpPool(" + unassignedOnly + ")");
-		Collection<IpAddress> ips = new ArrayList<IpAddress>();
+		List<String> networkIds = new ArrayList<String>();
 		Iterable<VLAN> networks = provider.getNetworkServices().getVlanSupport().listVlans();
 		for (VLAN network : networks) {
 			String networkId = network.getProviderVlanId();
 			if (!networkId.contains("ipv6")) {
-				Iterable<IpAddress> networkIps = listPrivateIps(networkId, unassignedOnly, false, true);
-				for (IpAddress networkIp : networkIps) {
-					ips.add(networkIp);
-				}
+				networkIds.add(networkId);
 			}
 		}		
+		Collection<IpAddress> ips = listPrivateIps(networkIds, unassignedOnly, false, true);
 		logger.trace("exit - listPrivateIpPool(" + unassignedOnly + ")");
 		return ips;
 	}
@@ -1202,17 +1170,55 @@ public class TerremarkIpAddressSupport  implements IpAddressSupport {
 			logger.warn("Failed to get network " + networkId);
 		}
 		if (doc != null){
-			if (reservedOnly) {
-				addresses = getReservedIpAddresses(doc, networkId);
-			}
-			else {
-				addresses = getIpAddresses(doc, networkId, unassignedOnly, reservableOnly);
-			}
+			addresses = toPrivateIps(doc, networkId, unassignedOnly, reservableOnly, reservedOnly);
 		}
 		logger.trace("exit - listPrivateIps(" + networkId + ", " + unassignedOnly + ", " + reservableOnly + ", " + reservedOnly + ")");
 		return addresses;
 	}
 
+	/**
+	 * Lists all (or unassigned, reservable or reserved) private IP addresses within several networks, looking the
+	 * networks up concurrently.
+	 * @param networkIds the ids of the networks containing the private ips being sought
+	 * @param unassignedOnly indicates that only unassigned addresses are being sought
+	 * @param reservableOnly indicated that only reservable addresses are being sought
+	 * @param reservedOnly indicated that only reserved addresses are being sought
+	 * @return the matching private IP addresses from all of the networks, in the order of the networks
+	 * @throws InternalException an internal error occurred inside the Dasein Cloud implementation
+	 * @throws CloudException an error occurred processing the request in the cloud
+	 */
+	private @Nonnull Collection<IpAddress> listPrivateIps(final List<String> networkIds, final boolean unassignedOnly, final boolean reservableOnly, final boolean reservedOnly) throws InternalException, CloudException {
+		final Collection<IpAddress> addresses = new ArrayList<IpAddress>();
+		List<String> urls = new ArrayList<String>(networkIds.size());
+		for (String networkId : networkIds) {
+			urls.add("/" + TerremarkNetworkSupport.NETWORKS + "/" + networkId);
+		}
+		TerremarkMethod.invokeAll(provider, urls, new TerremarkMethod.DocumentHandler() {
+			@Override
+			public void handle(int index, Document doc) throws CloudException, InternalException {
+				if (doc != null){
+					addresses.addAll(toPrivateIps(doc, networkIds.get(index), unassignedOnly, reservableOnly, reservedOnly));
+				}
+			}
+		});
+		return addresses;
+	}
+
+	private Collection<IpAddress> toPrivateIps(Document doc, String networkId, boolean unassignedOnly, boolean reservableOnly, boolean reservedOnly) throws InternalException, CloudException {
+		if (reservedOnly) {
+			return getReservedIpAddresses(doc, networkId);
+		}
+		return getIpAddresses(doc, networkId, unassignedOnly, reservableOnly);
+	}
+
+	static private String toPrivateIpsStatusUrl(String networkId, IPVersion version) {
+		String url = "/" + TerremarkNetworkSupport.NETWORKS + "/" + networkId;
+		if (version.equals(IPVersion.IPV6)) {
+			url = url + "/ipv6";
+		}
+		return url;
+	}
+
 	/**
 	 * Lists all (or unassigned, reservable or reserved) private IP addresses within a network.
 	 * @param networkId the id of the network containing the private ips being sought
@@ -1225,10 +1231,7 @@ public class TerremarkIpAddressSupport  implements IpAddressSupport {
 	 */
 	public @Nonnull Iterable<ResourceStatus> listPrivateIpsStatus(String networkId, IPVersion version) throws InternalException, CloudException {
 		Collection<ResourceStatus> addresses = new ArrayList<ResourceStatus>();
-		String url = "/" + TerremarkNetworkSupport.NETWORKS + "/" + networkId;
-		if (version.equals(IPVersion.IPV6)) {
-			url = url + "/ipv6";
-		}
+		String url = toPrivateIpsStatusUrl(networkId, version);
 
 		TerremarkMethod method = new TerremarkMethod(provider, HttpMethodName.GET, url, null, null);
 		Document doc = null;
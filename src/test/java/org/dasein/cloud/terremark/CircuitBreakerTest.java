@@ -0,0 +1,197 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.terremark;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.dasein.cloud.terremark.CircuitBreaker.State;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CircuitBreakerTest {
+	static private final long RESET_TIMEOUT = 50L;
+
+	private CircuitBreaker breaker;
+	private final List<String> transitions = new ArrayList<String>();
+
+	private final CircuitBreaker.Listener listener = new CircuitBreaker.Listener() {
+		public void stateChanged(CircuitBreaker b, State from, State to) {
+			// listeners are global, so only this test's breaker is recorded
+			if( b == breaker ) {
+				synchronized( transitions ) {
+					transitions.add(from + "->" + to);
+				}
+			}
+		}
+	};
+
+	@Before
+	public void setUp() {
+		breaker = new CircuitBreaker("https://breaker.test", 3, RESET_TIMEOUT);
+		CircuitBreaker.addListener(listener);
+	}
+
+	@After
+	public void tearDown() {
+		CircuitBreaker.removeListener(listener);
+	}
+
+	private void open() {
+		for( int i=0; i<3; i++ ) {
+			breaker.recordFailure();
+		}
+		assertEquals(State.OPEN, breaker.getState());
+	}
+
+	private void waitForReset() throws InterruptedException {
+		Thread.sleep(RESET_TIMEOUT + 20L);
+	}
+
+	@Test
+	public void opensAfterConsecutiveFailures() {
+		breaker.recordFailure();
+		breaker.recordFailure();
+		assertEquals(State.CLOSED, breaker.getState());
+		assertTrue(breaker.allowRequest());
+		breaker.recordFailure();
+		assertEquals(State.OPEN, breaker.getState());
+		assertEquals(3, breaker.getConsecutiveFailures());
+	}
+
+	@Test
+	public void successResetsTheFailureCount() {
+		breaker.recordFailure();
+		breaker.recordFailure();
+		breaker.recordSuccess();
+		breaker.recordFailure();
+		breaker.recordFailure();
+		assertEquals(State.CLOSED, breaker.getState());
+		assertEquals(2, breaker.getConsecutiveFailures());
+	}
+
+	@Test
+	public void openRejectsUntilTheResetTimeout() {
+		open();
+		assertFalse(breaker.allowRequest());
+		assertFalse(breaker.allowRequest());
+		assertEquals(2L, breaker.getRejectedCount());
+	}
+
+	@Test
+	public void halfOpenAllowsASingleProbe() throws Exception {
+		open();
+		waitForReset();
+		assertTrue(breaker.allowRequest());
+		assertEquals(State.HALF_OPEN, breaker.getState());
+		assertFalse(breaker.allowRequest());
+	}
+
+	@Test
+	public void successfulProbeCloses() throws Exception {
+		open();
+		waitForReset();
+		assertTrue(breaker.allowRequest());
+		breaker.recordSuccess();
+		assertEquals(State.CLOSED, breaker.getState());
+		assertEquals(0, breaker.getConsecutiveFailures());
+		assertTrue(breaker.allowRequest());
+		assertEquals("[CLOSED->OPEN, OPEN->HALF_OPEN, HALF_OPEN->CLOSED]", transitions.toString());
+		assertEquals(3L, breaker.getTransitionCount());
+	}
+
+	@Test
+	public void failedProbeReopens() throws Exception {
+		open();
+		waitForReset();
+		assertTrue(breaker.allowRequest());
+		breaker.recordFailure();
+		assertEquals(State.OPEN, breaker.getState());
+		assertFalse(breaker.allowRequest());
+		assertEquals("[CLOSED->OPEN, OPEN->HALF_OPEN, HALF_OPEN->OPEN]", transitions.toString());
+	}
+
+	@Test
+	public void abandonedProbeFreesTheSlot() throws Exception {
+		open();
+		waitForReset();
+		assertTrue(breaker.allowRequest());
+		breaker.recordAbandoned();
+		// neither opened nor closed, but the next call may probe straight away
+		assertEquals(State.HALF_OPEN, breaker.getState());
+		assertTrue(breaker.allowRequest());
+		assertFalse(breaker.allowRequest());
+	}
+
+	@Test
+	public void abandonedCallsDoNotCount() {
+		breaker.recordFailure();
+		breaker.recordFailure();
+		breaker.recordAbandoned();
+		assertEquals(State.CLOSED, breaker.getState());
+		assertEquals(2, breaker.getConsecutiveFailures());
+		open();
+		breaker.recordAbandoned();
+		assertEquals(State.OPEN, breaker.getState());
+		assertFalse(breaker.allowRequest());
+	}
+
+	@Test
+	public void lostProbeIsReplacedAfterTheResetTimeout() throws Exception {
+		open();
+		waitForReset();
+		assertTrue(breaker.allowRequest());
+		assertFalse(breaker.allowRequest());
+		waitForReset();
+		assertTrue(breaker.allowRequest());
+	}
+
+	@Test
+	public void failingListenerDoesNotBreakTransitions() {
+		CircuitBreaker.Listener failing = new CircuitBreaker.Listener() {
+			public void stateChanged(CircuitBreaker b, State from, State to) {
+				throw new IllegalStateException("listener failure");
+			}
+		};
+
+		CircuitBreaker.addListener(failing);
+		try {
+			open();
+		}
+		finally {
+			CircuitBreaker.removeListener(failing);
+		}
+		assertEquals("[CLOSED->OPEN]", transitions.toString());
+	}
+
+	@Test
+	public void sharedPerEndpoint() {
+		CircuitBreaker shared = CircuitBreaker.getInstance("https://breaker.test/shared", 5, 1000L);
+
+		assertSame(shared, CircuitBreaker.getInstance("https://breaker.test/shared", 1, 1L));
+		assertSame(shared, CircuitBreaker.getInstances().get("https://breaker.test/shared"));
+	}
+}
@@ -0,0 +1,134 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.terremark;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.http.HttpStatus;
+import org.dasein.cloud.terremark.TerremarkMethod.HttpMethodName;
+import org.junit.Test;
+
+public class ExponentialBackoffRetryPolicyTest {
+	static private final int SAMPLES = 2000;
+
+	@Test
+	public void readsRetryServerErrors() {
+		ExponentialBackoffRetryPolicy policy = new ExponentialBackoffRetryPolicy(3, 100L, 1000L, null);
+
+		for( HttpMethodName method : new HttpMethodName[] { HttpMethodName.GET, HttpMethodName.HEAD } ) {
+			assertTrue(policy.isRetryable(method, HttpStatus.SC_INTERNAL_SERVER_ERROR));
+			assertTrue(policy.isRetryable(method, HttpStatus.SC_BAD_GATEWAY));
+			assertTrue(policy.isRetryable(method, HttpStatus.SC_SERVICE_UNAVAILABLE));
+			assertTrue(policy.isRetryable(method, HttpStatus.SC_GATEWAY_TIMEOUT));
+			assertFalse(policy.isRetryable(method, HttpStatus.SC_NOT_FOUND));
+			assertFalse(policy.isRetryable(method, HttpStatus.SC_CONFLICT));
+		}
+	}
+
+	@Test
+	public void mutatingCallsRetryOnlyWhenUnavailable() {
+		ExponentialBackoffRetryPolicy policy = new ExponentialBackoffRetryPolicy(3, 100L, 1000L, null);
+
+		for( HttpMethodName method : new HttpMethodName[] { HttpMethodName.POST, HttpMethodName.PUT, HttpMethodName.DELETE } ) {
+			// the server may have acted on anything but a 503 before failing
+			assertTrue(policy.isRetryable(method, HttpStatus.SC_SERVICE_UNAVAILABLE));
+			assertFalse(policy.isRetryable(method, HttpStatus.SC_INTERNAL_SERVER_ERROR));
+			assertFalse(policy.isRetryable(method, HttpStatus.SC_BAD_GATEWAY));
+			assertFalse(policy.isRetryable(method, HttpStatus.SC_GATEWAY_TIMEOUT));
+			assertEquals(-1L, policy.getRetryDelay(method, HttpStatus.SC_INTERNAL_SERVER_ERROR, 1, -1L));
+		}
+	}
+
+	@Test
+	public void stopsAtMaxAttempts() {
+		ExponentialBackoffRetryPolicy policy = new ExponentialBackoffRetryPolicy(3, 10L, 1000L, null);
+
+		assertTrue(policy.getRetryDelay(HttpMethodName.GET, HttpStatus.SC_SERVICE_UNAVAILABLE, 2, -1L) >= 0L);
+		assertEquals(-1L, policy.getRetryDelay(HttpMethodName.GET, HttpStatus.SC_SERVICE_UNAVAILABLE, 3, -1L));
+	}
+
+	@Test
+	public void jitterStaysUnderTheDoublingCeiling() {
+		ExponentialBackoffRetryPolicy policy = new ExponentialBackoffRetryPolicy(10, 100L, 1000L, null);
+		long[] ceilings = { 100L, 200L, 400L, 800L, 1000L, 1000L };
+
+		for( int attempt=1; attempt<=ceilings.length; attempt++ ) {
+			long highest = 0L;
+
+			for( int i=0; i<SAMPLES; i++ ) {
+				long delay = policy.getRetryDelay(HttpMethodName.GET, HttpStatus.SC_BAD_GATEWAY, attempt, -1L);
+
+				assertTrue("attempt " + attempt + " waited " + delay, delay >= 0L && delay < ceilings[attempt - 1]);
+				highest = Math.max(highest, delay);
+			}
+			// full jitter spreads over the whole range rather than clustering at the bottom
+			assertTrue("attempt " + attempt + " never exceeded " + highest, highest >= ceilings[attempt - 1] / 2);
+		}
+	}
+
+	@Test
+	public void largeAttemptCountsDoNotOverflow() {
+		ExponentialBackoffRetryPolicy policy = new ExponentialBackoffRetryPolicy(Integer.MAX_VALUE, 100L, 5000L, null);
+
+		for( int attempt : new int[] { 31, 40, 64, 1000 } ) {
+			long delay = policy.getRetryDelay(HttpMethodName.GET, HttpStatus.SC_BAD_GATEWAY, attempt, -1L);
+
+			assertTrue("attempt " + attempt + " waited " + delay, delay >= 0L && delay < 5000L);
+		}
+	}
+
+	@Test
+	public void retryAfterIsAFloor() {
+		ExponentialBackoffRetryPolicy policy = new ExponentialBackoffRetryPolicy(3, 10L, 1000L, null);
+
+		for( int i=0; i<SAMPLES; i++ ) {
+			assertTrue(policy.getRetryDelay(HttpMethodName.GET, HttpStatus.SC_SERVICE_UNAVAILABLE, 1, 750L) >= 750L);
+		}
+		assertEquals(1000L, policy.getRetryDelay(HttpMethodName.GET, HttpStatus.SC_SERVICE_UNAVAILABLE, 1, 1000L));
+	}
+
+	@Test
+	public void givesUpWhenRetryAfterExceedsMaxDelay() {
+		RetryBudget budget = new RetryBudget(5.0, 0.1);
+		ExponentialBackoffRetryPolicy policy = new ExponentialBackoffRetryPolicy(3, 10L, 1000L, budget);
+
+		assertEquals(-1L, policy.getRetryDelay(HttpMethodName.GET, HttpStatus.SC_SERVICE_UNAVAILABLE, 1, 1001L));
+		// a refused retry costs nothing
+		assertEquals(5.0, budget.getAvailableTokens(), 0.0);
+	}
+
+	@Test
+	public void givesUpWhenTheBudgetIsExhausted() {
+		RetryBudget budget = new RetryBudget(2.0, 0.5);
+		ExponentialBackoffRetryPolicy policy = new ExponentialBackoffRetryPolicy(3, 10L, 1000L, budget);
+
+		assertTrue(policy.getRetryDelay(HttpMethodName.GET, HttpStatus.SC_SERVICE_UNAVAILABLE, 1, -1L) >= 0L);
+		assertTrue(policy.getRetryDelay(HttpMethodName.GET, HttpStatus.SC_SERVICE_UNAVAILABLE, 1, -1L) >= 0L);
+		assertEquals(-1L, policy.getRetryDelay(HttpMethodName.GET, HttpStatus.SC_SERVICE_UNAVAILABLE, 1, -1L));
+		// non-retryable failures do not touch the budget, and successes earn it back
+		assertEquals(-1L, policy.getRetryDelay(HttpMethodName.GET, HttpStatus.SC_NOT_FOUND, 1, -1L));
+		policy.recordSuccess(HttpMethodName.GET);
+		policy.recordSuccess(HttpMethodName.GET);
+		assertTrue(policy.getRetryDelay(HttpMethodName.GET, HttpStatus.SC_SERVICE_UNAVAILABLE, 1, -1L) >= 0L);
+		assertEquals(0.0, budget.getAvailableTokens(), 0.0001);
+	}
+}
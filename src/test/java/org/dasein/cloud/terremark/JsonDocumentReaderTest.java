@@ -0,0 +1,247 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.terremark;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.ProviderContext;
+import org.dasein.cloud.compute.VirtualMachine;
+import org.dasein.cloud.compute.VmState;
+import org.dasein.cloud.network.RawAddress;
+import org.dasein.cloud.terremark.compute.VMSupport;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Parses the same Terremark resources as XML and as JSON and checks that {@link JsonDocumentReader} produces the
+ * document the XML parser does, and that the converters build the same objects from either. The fixtures under
+ * <code>src/test/resources/org/dasein/cloud/terremark</code> come in pairs, one per wire format.
+ */
+public class JsonDocumentReaderTest {
+	private Terremark provider;
+
+	@Before
+	public void setUp() throws Exception {
+		ProviderContext ctx = new ProviderContext("1234", "1234");
+		Properties properties = new Properties();
+
+		properties.setProperty("readRequestsPerSecond", "0");
+		properties.setProperty("writeRequestsPerSecond", "0");
+		ctx.setEndpoint("https://fixtures.invalid");
+		ctx.setAccessKeys("test".getBytes("utf-8"), "0123456789abcdef".getBytes("utf-8"));
+		ctx.setCustomProperties(properties);
+		provider = new Terremark();
+		provider.connect(ctx);
+	}
+
+	@After
+	public void tearDown() {
+		if( provider != null ) {
+			provider.close();
+		}
+	}
+
+	static private Document parseXml(String name) throws Exception {
+		InputStream input = JsonDocumentReaderTest.class.getResourceAsStream(name + ".xml");
+
+		assertNotNull(name + ".xml", input);
+		try {
+			Document doc = XmlResources.parse(input);
+
+			// the API sends compact XML; the fixtures are indented to be readable
+			removeWhitespace(doc.getDocumentElement());
+			return doc;
+		}
+		finally {
+			input.close();
+		}
+	}
+
+	static private Document parseJson(String name) throws Exception {
+		InputStream input = JsonDocumentReaderTest.class.getResourceAsStream(name + ".json");
+
+		assertNotNull(name + ".json", input);
+		try {
+			return JsonDocumentReader.parse(input);
+		}
+		finally {
+			input.close();
+		}
+	}
+
+	static private void removeWhitespace(Node node) {
+		Node child = node.getFirstChild();
+
+		while( child != null ) {
+			Node next = child.getNextSibling();
+
+			if( child.getNodeType() == Node.TEXT_NODE && child.getNodeValue().trim().length() < 1 ) {
+				node.removeChild(child);
+			}
+			else if( child.getNodeType() == Node.ELEMENT_NODE ) {
+				removeWhitespace(child);
+			}
+			child = next;
+		}
+	}
+
+	/**
+	 * Writes a node as an indented outline with sorted attributes, leaving out namespace declarations, which JSON
+	 * does not carry and the converters do not read.
+	 */
+	static private String outline(Node node) {
+		StringBuilder str = new StringBuilder();
+
+		outline(node, "", str);
+		return str.toString();
+	}
+
+	static private void outline(Node node, String indent, StringBuilder str) {
+		if( node.getNodeType() == Node.TEXT_NODE ) {
+			str.append(indent).append('"').append(node.getNodeValue()).append("\"\n");
+			return;
+		}
+		TreeMap<String,String> attributes = new TreeMap<String,String>();
+		NamedNodeMap map = node.getAttributes();
+
+		for( int i=0; i<map.getLength(); i++ ) {
+			Node attribute = map.item(i);
+
+			if( !attribute.getNodeName().startsWith("xmlns") ) {
+				attributes.put(attribute.getNodeName(), attribute.getNodeValue());
+			}
+		}
+		str.append(indent).append(node.getNodeName()).append(' ').append(attributes).append('\n');
+		for( Node child = node.getFirstChild(); child != null; child = child.getNextSibling() ) {
+			outline(child, indent + "  ", str);
+		}
+	}
+
+	private void assertSameDocument(String name) throws Exception {
+		assertEquals(name, outline(parseXml(name).getDocumentElement()), outline(parseJson(name).getDocumentElement()));
+	}
+
+	@Test
+	public void virtualMachineDocument() throws Exception {
+		assertSameDocument("virtualMachine");
+	}
+
+	@Test
+	public void taskDocument() throws Exception {
+		assertSameDocument("task");
+	}
+
+	@Test
+	public void taskCollectionDocument() throws Exception {
+		assertSameDocument("tasks");
+	}
+
+	@Test
+	public void virtualMachine() throws Exception {
+		VMSupport support = provider.getComputeServices().getVirtualMachineSupport();
+		Method toVirtualMachine = VMSupport.class.getDeclaredMethod("toVirtualMachine", Node.class);
+
+		toVirtualMachine.setAccessible(true);
+		VirtualMachine expected = (VirtualMachine)toVirtualMachine.invoke(support, parseXml("virtualMachine").getDocumentElement());
+		VirtualMachine actual = (VirtualMachine)toVirtualMachine.invoke(support, parseJson("virtualMachine").getDocumentElement());
+
+		assertEquals("5678", expected.getProviderVirtualMachineId());
+		assertEquals(VmState.RUNNING, expected.getCurrentState());
+		assertEquals("2:4096:[25,100]", expected.getProductId());
+		assertEquals("31:77:TEMPLATE", expected.getProviderMachineImageId());
+		assertEquals(describe(expected), describe(actual));
+	}
+
+	@Test
+	public void task() throws Exception {
+		Terremark.Task expected = provider.toTask(parseXml("task").getDocumentElement());
+		Terremark.Task actual = provider.toTask(parseJson("task").getDocumentElement());
+
+		assertEquals(Terremark.TASK_ERROR, expected.status);
+		assertNotNull(expected.completedTime);
+		assertEquals(describe(expected), describe(actual));
+	}
+
+	@Test
+	public void taskCollection() throws Exception {
+		assertEquals(describeTasks(parseXml("tasks")), describeTasks(parseJson("tasks")));
+	}
+
+	@Test(expected = CloudException.class)
+	public void notAnObject() throws Exception {
+		JsonDocumentReader.parse(new ByteArrayInputStream("[ 1, 2 ]".getBytes("utf-8")));
+	}
+
+	@Test
+	public void elementNamesFromMediaTypes() {
+		assertEquals("VirtualMachine", JsonDocumentReader.toElementName("application/vnd.tmrk.cloud.virtualMachine"));
+		assertEquals("Tasks", JsonDocumentReader.toElementName("application/vnd.tmrk.cloud.task; type=collection"));
+		assertEquals("Object", JsonDocumentReader.toElementName(""));
+	}
+
+	private List<String> describeTasks(Document doc) throws Exception {
+		NodeList tasks = doc.getElementsByTagName(Terremark.TASK_TAG);
+		List<String> descriptions = new ArrayList<String>();
+
+		for( int i=0; i<tasks.getLength(); i++ ) {
+			descriptions.add(describe(provider.toTask(tasks.item(i))));
+		}
+		assertEquals(2, descriptions.size());
+		return descriptions;
+	}
+
+	static private String describe(Terremark.Task task) {
+		return task.taskId + " " + task.operation + " " + task.status + " " + task.startTime + " " + task.completedTime + " " + task.errorMessage;
+	}
+
+	static private List<String> addresses(RawAddress[] addresses) {
+		List<String> list = new ArrayList<String>();
+
+		for( RawAddress address : addresses ) {
+			list.add(address.getIpAddress());
+		}
+		return list;
+	}
+
+	static private String describe(VirtualMachine vm) {
+		return vm.getProviderVirtualMachineId() + "\n" + vm.getName() + "\n" + vm.getDescription() + "\n"
+				+ vm.getProviderOwnerId() + "\n" + vm.getProviderRegionId() + "\n" + vm.getProviderDataCenterId() + "\n"
+				+ vm.getProviderVlanId() + "\n" + vm.getProviderMachineImageId() + "\n" + vm.getProductId() + "\n"
+				+ vm.getCurrentState() + "\n" + vm.getPlatform() + "\n" + vm.getArchitecture() + "\n"
+				+ vm.getPrivateDnsAddress() + "\n" + addresses(vm.getPrivateAddresses()) + "\n"
+				+ new TreeMap<String,String>(vm.getTags()) + "\n"
+				+ vm.getCreationTimestamp() + " " + vm.getLastBootTimestamp() + " " + vm.getLastPauseTimestamp() + " " + vm.getTerminationTimestamp();
+	}
+}
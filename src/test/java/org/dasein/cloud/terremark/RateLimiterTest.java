@@ -0,0 +1,147 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.terremark;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Timing checks use generous margins; the limiter only promises that callers wait at least as long as the rate
+ * requires.
+ */
+public class RateLimiterTest {
+	@Test
+	public void burstIsAvailableImmediately() throws Exception {
+		RateLimiter limiter = new RateLimiter(1.0, 3);
+
+		assertEquals(0L, limiter.acquire());
+		assertEquals(0L, limiter.acquire());
+		assertEquals(0L, limiter.acquire());
+		assertTrue(limiter.getAvailableTokens() < 1.0);
+	}
+
+	@Test
+	public void burstIsAtLeastOne() throws Exception {
+		RateLimiter limiter = new RateLimiter(1.0, 0);
+
+		assertEquals(1.0, limiter.getAvailableTokens(), 0.0);
+		assertEquals(0L, limiter.acquire());
+		assertTrue(limiter.getAvailableTokens() < 1.0);
+	}
+
+	@Test
+	public void callersBeyondTheBurstArePaced() throws Exception {
+		RateLimiter limiter = new RateLimiter(20.0, 1);
+		long start = System.nanoTime();
+
+		limiter.acquire();
+		limiter.acquire();
+		limiter.acquire();
+		// two tokens beyond the burst at 50ms each
+		assertTrue(System.nanoTime() - start >= 90000000L);
+	}
+
+	@Test
+	public void waitersReserveTokensInOrder() throws Exception {
+		RateLimiter limiter = new RateLimiter(10.0, 1);
+
+		limiter.acquire();
+		limiter.acquire();
+		// the waiter above took the token that accrued while it slept, so the bucket is still empty
+		assertTrue(limiter.getAvailableTokens() < 1.0);
+	}
+
+	@Test
+	public void tryAcquireNeverWaits() throws Exception {
+		RateLimiter limiter = new RateLimiter(1.0, 2);
+
+		assertTrue(limiter.tryAcquire());
+		assertTrue(limiter.tryAcquire());
+		assertFalse(limiter.tryAcquire());
+		// a refusal takes nothing, so the bucket is not driven into debt
+		assertTrue(limiter.getAvailableTokens() >= 0.0);
+	}
+
+	@Test
+	public void timeoutTooShortTakesNothing() throws Exception {
+		RateLimiter limiter = new RateLimiter(1.0, 1);
+		long start = System.nanoTime();
+
+		assertTrue(limiter.tryAcquire());
+		assertEquals(-1L, limiter.acquire(50L));
+		// gave up at once rather than sleeping out the timeout
+		assertTrue(System.nanoTime() - start < 500000000L);
+		// and left no debt behind for the next caller
+		assertTrue(limiter.getAvailableTokens() > -0.5);
+	}
+
+	@Test
+	public void timeoutLongEnoughWaits() throws Exception {
+		RateLimiter limiter = new RateLimiter(20.0, 1);
+		long start = System.nanoTime();
+
+		assertTrue(limiter.tryAcquire());
+		assertTrue(limiter.acquire(1000L) >= 0L);
+		assertTrue(System.nanoTime() - start >= 40000000L);
+	}
+
+	@Test
+	public void negativeTimeoutWaitsAsLongAsItTakes() throws Exception {
+		RateLimiter limiter = new RateLimiter(20.0, 1);
+
+		assertTrue(limiter.tryAcquire());
+		assertTrue(limiter.acquire(-1L) >= 0L);
+	}
+
+	@Test
+	public void refillIsCappedAtTheBurst() throws Exception {
+		RateLimiter limiter = new RateLimiter(1000.0, 2);
+
+		Thread.sleep(50L);
+		assertEquals(2.0, limiter.getAvailableTokens(), 0.0);
+	}
+
+	@Test(expected = InterruptedException.class)
+	public void waitingIsInterruptible() throws Exception {
+		RateLimiter limiter = new RateLimiter(0.1, 1);
+
+		limiter.acquire();
+		Thread.currentThread().interrupt();
+		try {
+			limiter.acquire();
+		}
+		finally {
+			Thread.interrupted();
+		}
+	}
+
+	@Test
+	public void sharedPerKey() {
+		RateLimiter limiter = RateLimiter.getInstance("rate-limiter-test:read", 5.0, 2);
+
+		assertSame(limiter, RateLimiter.getInstance("rate-limiter-test:read", 50.0, 20));
+		assertNotSame(limiter, RateLimiter.getInstance("rate-limiter-test:write", 5.0, 2));
+	}
+}
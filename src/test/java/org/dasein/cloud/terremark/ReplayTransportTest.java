@@ -0,0 +1,321 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.terremark;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedList;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ReplayTransportTest {
+	static private final String ENDPOINT = "https://services.enterprisecloud.terremark.com/cloudapi/ecloud";
+
+	/**
+	 * Stands in for the network, answering each request with the next canned response.
+	 */
+	static private class CannedTransport implements Transport {
+		final LinkedList<HttpResponse> responses = new LinkedList<HttpResponse>();
+
+		CannedTransport add(int statusCode, String reason, String contentType, byte[] body) {
+			HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, statusCode, reason);
+
+			if( contentType != null ) {
+				response.addHeader(Terremark.CONTENT_TYPE, contentType);
+			}
+			response.addHeader("ETag", "\"" + responses.size() + "\"");
+			if( body != null ) {
+				ByteArrayEntity entity = new ByteArrayEntity(body);
+
+				entity.setContentType(contentType);
+				response.setEntity(entity);
+			}
+			responses.add(response);
+			return this;
+		}
+
+		public HttpResponse execute(HttpUriRequest request) {
+			return responses.removeFirst();
+		}
+	}
+
+	private File directory;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = File.createTempFile("replay", "");
+		assertTrue(directory.delete() && directory.mkdir());
+	}
+
+	@After
+	public void tearDown() {
+		File[] files = directory.listFiles();
+
+		if( files != null ) {
+			for( File file : files ) {
+				file.delete();
+			}
+		}
+		directory.delete();
+	}
+
+	static private HttpPost post(String path, String body) throws IOException {
+		HttpPost post = new HttpPost(ENDPOINT + path);
+
+		post.setEntity(new ByteArrayEntity(body.getBytes("utf-8")));
+		return post;
+	}
+
+	static private String body(HttpResponse response) throws IOException {
+		return EntityUtils.toString(response.getEntity(), "utf-8");
+	}
+
+	private void record(Transport delegate, HttpUriRequest ... requests) throws IOException {
+		RecordingTransport recorder = new RecordingTransport(delegate, directory);
+
+		for( HttpUriRequest request : requests ) {
+			EntityUtils.consume(recorder.execute(request).getEntity());
+		}
+	}
+
+	@Test
+	public void keyLeavesOutTheEndpoint() throws IOException {
+		assertEquals("GET /cloudapi/ecloud/virtualmachines/12?page=2&pageSize=50", RecordingTransport.toKey(new HttpGet(ENDPOINT + "/virtualmachines/12?page=2&pageSize=50")));
+		assertEquals(RecordingTransport.toKey(new HttpGet(ENDPOINT + "/tasks/7")), RecordingTransport.toKey(new HttpGet("http://localhost:8080/cloudapi/ecloud/tasks/7")));
+	}
+
+	@Test
+	public void keyIncludesTheBodyDigest() throws IOException {
+		String key = RecordingTransport.toKey(post("/virtualmachines/12/action/poweron", "<Body/>"));
+
+		// the SHA-1 of "<Body/>"
+		assertEquals("POST /cloudapi/ecloud/virtualmachines/12/action/poweron 72f9004383c17f4abf2aedf95e99cdf03a7976e8", key);
+		assertFalse(key.equals(RecordingTransport.toKey(post("/virtualmachines/12/action/poweron", "<Other/>"))));
+		assertNull(RecordingTransport.getBodyDigest(new HttpGet(ENDPOINT + "/tasks/7")));
+	}
+
+	@Test
+	public void replaysWhatWasRecorded() throws IOException {
+		byte[] binary = new byte[] { 0x1f, (byte)0x8b, '\n', '\n', 0, (byte)0xff, '\r', '\n' };
+		CannedTransport canned = new CannedTransport()
+				.add(200, "OK", Terremark.XML, "<VirtualMachine name=\"web01\"/>".getBytes("utf-8"))
+				.add(202, "Accepted", Terremark.XML, "<Task/>".getBytes("utf-8"))
+				.add(204, "No Content", null, null)
+				.add(200, "OK", "application/octet-stream", binary);
+
+		record(canned, new HttpGet(ENDPOINT + "/virtualmachines/12"), post("/virtualmachines/12/action/poweron", "<Body/>"), new HttpGet(ENDPOINT + "/empty"), new HttpGet(ENDPOINT + "/binary"));
+
+		ReplayTransport replay = new ReplayTransport(directory);
+		HttpResponse response = replay.execute(new HttpGet("http://localhost/cloudapi/ecloud/virtualmachines/12"));
+
+		assertEquals(4, replay.getRequestCount());
+		assertEquals(200, response.getStatusLine().getStatusCode());
+		assertEquals("OK", response.getStatusLine().getReasonPhrase());
+		assertEquals(Terremark.XML, response.getFirstHeader(Terremark.CONTENT_TYPE).getValue());
+		assertEquals("\"0\"", response.getFirstHeader("ETag").getValue());
+		assertEquals("<VirtualMachine name=\"web01\"/>", body(response));
+
+		response = replay.execute(post("/virtualmachines/12/action/poweron", "<Body/>"));
+		assertEquals(202, response.getStatusLine().getStatusCode());
+		assertEquals("Accepted", response.getStatusLine().getReasonPhrase());
+		assertEquals("<Task/>", body(response));
+
+		response = replay.execute(new HttpGet(ENDPOINT + "/empty"));
+		assertEquals(204, response.getStatusLine().getStatusCode());
+		assertNull(response.getEntity());
+
+		// bodies are kept byte for byte, blank lines and all
+		assertArrayEquals(toObjects(binary), toObjects(EntityUtils.toByteArray(replay.execute(new HttpGet(ENDPOINT + "/binary")).getEntity())));
+	}
+
+	@Test
+	public void recordingLeavesOutCookiesAndSecrets() throws IOException {
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+		CannedTransport canned = new CannedTransport();
+		HttpResponse secret = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+		ByteArrayEntity entity;
+
+		gzip.write("<Credentials><UserName>admin</UserName><AdminPassword>hunter2</AdminPassword></Credentials>".getBytes("utf-8"));
+		gzip.close();
+		entity = new ByteArrayEntity(compressed.toByteArray());
+		entity.setContentType(Terremark.XML);
+		entity.setContentEncoding("gzip");
+		secret.setEntity(entity);
+		secret.addHeader(Terremark.CONTENT_TYPE, Terremark.XML);
+		secret.addHeader("Content-Encoding", "gzip");
+		secret.addHeader("Set-Cookie", "session=s3cr3t; Secure; HttpOnly");
+		canned.responses.add(secret);
+
+		HttpGet get = new HttpGet(ENDPOINT + "/virtualmachines/12/credentials");
+		RecordingTransport recorder = new RecordingTransport(canned, directory);
+		HttpResponse response = recorder.execute(get);
+
+		// the caller still gets the response as it came off the wire
+		assertEquals("gzip", response.getEntity().getContentEncoding().getValue());
+		assertEquals("session=s3cr3t; Secure; HttpOnly", response.getFirstHeader("Set-Cookie").getValue());
+		EntityUtils.consume(response.getEntity());
+
+		File[] files = directory.listFiles();
+
+		assertEquals(1, files.length);
+		String written = new String(readFully(files[0]), "utf-8");
+
+		assertFalse(written, written.contains("hunter2"));
+		assertFalse(written, written.contains("s3cr3t"));
+		assertFalse(written, written.contains("Content-Encoding"));
+
+		ReplayTransport replay = new ReplayTransport(directory);
+
+		assertEquals("<Credentials><UserName>admin</UserName><AdminPassword>" + WireCapture.REDACTED + "</AdminPassword></Credentials>", body(replay.execute(get)));
+	}
+
+	static private byte[] readFully(File file) throws IOException {
+		byte[] data = new byte[(int)file.length()];
+		InputStream input = new FileInputStream(file);
+
+		try {
+			int offset = 0;
+
+			while( offset < data.length ) {
+				int count = input.read(data, offset, data.length - offset);
+
+				if( count < 0 ) {
+					break;
+				}
+				offset += count;
+			}
+		}
+		finally {
+			input.close();
+		}
+		return data;
+	}
+
+	@Test
+	public void repeatedRequestsReplayInOrderAndEndOnTheLast() throws IOException {
+		CannedTransport canned = new CannedTransport()
+				.add(200, "OK", Terremark.XML, "<Status>Queued</Status>".getBytes("utf-8"))
+				.add(200, "OK", Terremark.XML, "<Status>Running</Status>".getBytes("utf-8"))
+				.add(200, "OK", Terremark.XML, "<Status>Complete</Status>".getBytes("utf-8"));
+		HttpGet poll = new HttpGet(ENDPOINT + "/tasks/7");
+
+		record(canned, poll, poll, poll);
+
+		ReplayTransport replay = new ReplayTransport(directory);
+
+		assertEquals(1, replay.getRequestCount());
+		assertEquals("<Status>Queued</Status>", body(replay.execute(poll)));
+		assertEquals("<Status>Running</Status>", body(replay.execute(poll)));
+		assertEquals("<Status>Complete</Status>", body(replay.execute(poll)));
+		assertEquals("<Status>Complete</Status>", body(replay.execute(poll)));
+		replay.rewind();
+		assertEquals("<Status>Queued</Status>", body(replay.execute(poll)));
+	}
+
+	@Test
+	public void recordingContinuesTheNumbering() throws IOException {
+		HttpGet poll = new HttpGet(ENDPOINT + "/tasks/7");
+
+		record(new CannedTransport().add(200, "OK", Terremark.XML, "<First/>".getBytes("utf-8")), poll);
+		record(new CannedTransport().add(200, "OK", Terremark.XML, "<Second/>".getBytes("utf-8")), poll);
+
+		ReplayTransport replay = new ReplayTransport(directory);
+
+		assertEquals("<First/>", body(replay.execute(poll)));
+		assertEquals("<Second/>", body(replay.execute(poll)));
+	}
+
+	@Test(expected = IOException.class)
+	public void unrecordedRequestFails() throws IOException {
+		record(new CannedTransport().add(200, "OK", Terremark.XML, "<Task/>".getBytes("utf-8")), new HttpGet(ENDPOINT + "/tasks/7"));
+		new ReplayTransport(directory).execute(new HttpGet(ENDPOINT + "/tasks/8"));
+	}
+
+	@Test(expected = IOException.class)
+	public void differentBodyIsNotAMatch() throws IOException {
+		record(new CannedTransport().add(202, "Accepted", Terremark.XML, "<Task/>".getBytes("utf-8")), post("/virtualmachines", "<A/>"));
+		new ReplayTransport(directory).execute(post("/virtualmachines", "<B/>"));
+	}
+
+	@Test(expected = IOException.class)
+	public void truncatedRecordingFails() throws IOException {
+		write("000000" + RecordingTransport.EXTENSION, "GET /cloudapi/ecloud/tasks/7\n\nHTTP/1.1 200 OK\nContent-Type: application/xml");
+		new ReplayTransport(directory);
+	}
+
+	@Test(expected = IOException.class)
+	public void missingStatusLineFails() throws IOException {
+		write("000000" + RecordingTransport.EXTENSION, "GET /cloudapi/ecloud/tasks/7\n\nHTTP/1.1\n\n");
+		new ReplayTransport(directory);
+	}
+
+	@Test
+	public void otherFilesAreIgnored() throws IOException {
+		write("notes.txt", "not a recording");
+		assertEquals(0, new ReplayTransport(directory).getRequestCount());
+	}
+
+	@Test(expected = IOException.class)
+	public void missingDirectoryFails() throws IOException {
+		new ReplayTransport(new File(directory, "missing"));
+	}
+
+	private void write(String name, String content) throws IOException {
+		FileOutputStream out = new FileOutputStream(new File(directory, name));
+
+		try {
+			out.write(content.getBytes("utf-8"));
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	static private Byte[] toObjects(byte[] bytes) {
+		Byte[] objects = new Byte[bytes.length];
+
+		for( int i=0; i<bytes.length; i++ ) {
+			objects[i] = bytes[i];
+		}
+		return objects;
+	}
+}
@@ -0,0 +1,177 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.terremark;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+public class RequestCoalescerTest {
+	/**
+	 * Holds a call in flight until released, then fails with the given error.
+	 */
+	static private class Leader implements RequestCoalescer.Call {
+		private final CountDownLatch started = new CountDownLatch(1);
+		private final CountDownLatch release = new CountDownLatch(1);
+		private final Exception      error;
+
+		Leader(Exception error) {
+			this.error = error;
+		}
+
+		public Document call() throws CloudException, InternalException {
+			started.countDown();
+			try {
+				release.await(10L, TimeUnit.SECONDS);
+			}
+			catch( InterruptedException e ) {
+				throw new InternalException(e);
+			}
+			if( error instanceof CloudException ) {
+				throw (CloudException)error;
+			}
+			throw (InternalException)error;
+		}
+	}
+
+	/**
+	 * Counts its calls and answers each with a fresh document.
+	 */
+	static private class Follower implements RequestCoalescer.Call {
+		private final AtomicInteger calls = new AtomicInteger(0);
+
+		public Document call() throws CloudException, InternalException {
+			calls.incrementAndGet();
+			try {
+				Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+
+				doc.appendChild(doc.createElement("VirtualMachine"));
+				return doc;
+			}
+			catch( Exception e ) {
+				throw new InternalException(e);
+			}
+		}
+	}
+
+	private Thread startLeader(final String key, final Leader leader) throws InterruptedException {
+		Thread thread = new Thread() {
+			public void run() {
+				try {
+					RequestCoalescer.execute(key, leader, null);
+				}
+				catch( Exception e ) {
+					// the leader's own failure is not what these tests look at
+				}
+			}
+		};
+
+		thread.start();
+		assertTrue(leader.started.await(10L, TimeUnit.SECONDS));
+		return thread;
+	}
+
+	/**
+	 * Runs a second caller for the key until it is waiting on the flight in progress.
+	 */
+	private Thread startWaiter(final String key, final Follower follower, final Object[] outcome) throws InterruptedException {
+		Thread thread = new Thread() {
+			public void run() {
+				try {
+					outcome[0] = RequestCoalescer.execute(key, follower, null);
+				}
+				catch( Exception e ) {
+					outcome[0] = e;
+				}
+			}
+		};
+		long until = System.currentTimeMillis() + 10000L;
+
+		thread.start();
+		while( thread.getState() != Thread.State.WAITING ) {
+			assertTrue(System.currentTimeMillis() < until);
+			Thread.sleep(1L);
+		}
+		return thread;
+	}
+
+	private Object leaderFailsWith(String key, Exception error, Follower follower) throws InterruptedException {
+		Leader leader = new Leader(error);
+		Object[] outcome = new Object[1];
+		Thread first = startLeader(key, leader);
+		Thread second = startWaiter(key, follower, outcome);
+
+		leader.release.countDown();
+		first.join(10000L);
+		second.join(10000L);
+		assertNotNull(outcome[0]);
+		return outcome[0];
+	}
+
+	@Test
+	public void failuresOfTheRequestAreShared() throws Exception {
+		Follower follower = new Follower();
+		Object outcome = leaderFailsWith("shared", new CloudException("no such machine"), follower);
+
+		assertTrue(String.valueOf(outcome), outcome instanceof CloudException);
+		assertEquals("no such machine", ((CloudException)outcome).getMessage());
+		assertEquals(0, follower.calls.get());
+	}
+
+	@Test
+	public void leadersDeadlineIsNotShared() throws Exception {
+		Follower follower = new Follower();
+		Object outcome = leaderFailsWith("deadline", new DeadlineExceededException("reading the response", Deadline.after(1L)), follower);
+
+		assertTrue(String.valueOf(outcome), outcome instanceof Document);
+		assertEquals("VirtualMachine", ((Document)outcome).getDocumentElement().getTagName());
+		assertEquals(1, follower.calls.get());
+	}
+
+	@Test
+	public void leadersInterruptIsNotShared() throws Exception {
+		Follower follower = new Follower();
+		Object outcome = leaderFailsWith("interrupt", new InternalException(new InterruptedException()), follower);
+
+		assertTrue(String.valueOf(outcome), outcome instanceof Document);
+		assertEquals(1, follower.calls.get());
+	}
+
+	@Test
+	public void waiterLeadsTheNextRequestForTheKey() throws Exception {
+		Follower follower = new Follower();
+
+		leaderFailsWith("next", new DeadlineExceededException("reading the response", Deadline.after(1L)), follower);
+		// the retried request has finished too, so nothing is left in flight for the key
+		assertNotNull(RequestCoalescer.execute("next", follower, null));
+		assertEquals(2, follower.calls.get());
+	}
+}
@@ -0,0 +1,126 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.terremark;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks which latencies a {@link RequestHedger} learns its hedge delay from. Every test primes the hedger with
+ * responses of {@link #PRIMED} milliseconds, so that a GET is hedged once it has gone unanswered that long.
+ */
+public class RequestHedgerTest {
+	static private final String TEMPLATE = "/virtualMachines/{id}";
+	static private final long   PRIMED   = 50L;
+
+	private ExecutorService      executor;
+	private RequestHedger        hedger;
+	private final CountDownLatch release = new CountDownLatch(1);
+
+	@Before
+	public void setUp() throws Exception {
+		executor = Executors.newCachedThreadPool();
+		hedger = new RequestHedger(0.1, 1L, new RetryBudget(100.0, 1.0));
+		for( int i=0; i<RequestHedger.MIN_SAMPLES; i++ ) {
+			hedger.execute(executor, new Answer(PRIMED, PRIMED), new HttpGet("https://hedger.test/virtualMachines/1"), TEMPLATE, null);
+		}
+		assertTrue(hedger.getHedgeDelay(TEMPLATE) >= PRIMED);
+	}
+
+	@After
+	public void tearDown() {
+		release.countDown();
+		executor.shutdown();
+	}
+
+	/**
+	 * Answers the first copy of each request and its hedge after fixed delays, where a negative delay holds the
+	 * copy until the test ends.
+	 */
+	private class Answer implements Transport {
+		private final long              primaryDelay;
+		private final long              hedgeDelay;
+		private volatile HttpUriRequest primary;
+
+		Answer(long primaryDelay, long hedgeDelay) {
+			this.primaryDelay = primaryDelay;
+			this.hedgeDelay = hedgeDelay;
+		}
+
+		HttpUriRequest newRequest() {
+			primary = new HttpGet("https://hedger.test/virtualMachines/2");
+			return primary;
+		}
+
+		@Override
+		public HttpResponse execute(HttpUriRequest request) throws IOException {
+			long delay = (request == primary || primary == null ? primaryDelay : hedgeDelay);
+
+			try {
+				if( delay < 0L ) {
+					release.await(10L, TimeUnit.SECONDS);
+				}
+				else {
+					Thread.sleep(delay);
+				}
+			}
+			catch( InterruptedException e ) {
+				throw new IOException(e.getMessage());
+			}
+			return new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+		}
+	}
+
+	@Test
+	public void aQuickHedgeCountsTheWholeWait() throws Exception {
+		Answer answer = new Answer(-1L, 0L);
+
+		for( int i=0; i<3; i++ ) {
+			hedger.execute(executor, answer, answer.newRequest(), TEMPLATE, null);
+		}
+		// the hedges came back at once, but each caller still waited out the hedge delay first
+		assertTrue(String.valueOf(hedger.getHedgeDelay(TEMPLATE)), hedger.getHedgeDelay(TEMPLATE) >= PRIMED);
+	}
+
+	@Test
+	public void abortedHedgesDoNotShortenTheDelay() throws Exception {
+		Answer answer = new Answer(PRIMED + 30L, -1L);
+
+		for( int i=0; i<3; i++ ) {
+			hedger.execute(executor, answer, answer.newRequest(), TEMPLATE, null);
+		}
+		// each hedge was cut off after some 30ms, which says only that it would have taken longer than that
+		assertTrue(String.valueOf(hedger.getHedgeDelay(TEMPLATE)), hedger.getHedgeDelay(TEMPLATE) >= PRIMED);
+	}
+}
@@ -0,0 +1,266 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.terremark;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.dasein.cloud.terremark.RequestScheduler.Priority;
+import org.junit.Test;
+
+public class RequestSchedulerTest {
+	static private final Priority INTERACTIVE = Priority.INTERACTIVE;
+	static private final Priority MUTATING    = Priority.MUTATING;
+	static private final Priority BACKGROUND  = Priority.BACKGROUND_POLL;
+
+	/**
+	 * Queues the specified number of calls in each class behind a call already holding the only slot, lets them
+	 * all through one at a time, and returns the order in which they were admitted.
+	 */
+	static private List<Priority> drain(final RequestScheduler scheduler, int ... perClass) throws Exception {
+		final List<Priority> order = Collections.synchronizedList(new ArrayList<Priority>());
+		List<Thread> threads = new ArrayList<Thread>();
+		Priority[] priorities = Priority.values();
+
+		assertTrue(scheduler.acquire(INTERACTIVE, 0L));
+		for( int i=0; i<priorities.length; i++ ) {
+			final Priority priority = priorities[i];
+
+			for( int j=0; j<perClass[i]; j++ ) {
+				Thread t = new Thread() {
+					public void run() {
+						try {
+							scheduler.acquire(priority, -1L);
+							order.add(priority);
+							scheduler.release(priority);
+						}
+						catch( InterruptedException ignore ) {
+							// the test fails on the missing admission
+						}
+					}
+				};
+
+				t.setDaemon(true);
+				t.start();
+				threads.add(t);
+			}
+		}
+		for( int i=0; i<priorities.length; i++ ) {
+			waitForQueue(scheduler, priorities[i], perClass[i]);
+		}
+		scheduler.release(INTERACTIVE);
+		for( Thread t : threads ) {
+			t.join(10000L);
+		}
+		assertEquals(threads.size(), order.size());
+		return order;
+	}
+
+	static private void waitForQueue(RequestScheduler scheduler, Priority priority, int length) throws InterruptedException {
+		long until = System.currentTimeMillis() + 10000L;
+
+		while( scheduler.getQueueLength(priority) < length ) {
+			assertTrue("queue of " + priority + " never reached " + length, System.currentTimeMillis() < until);
+			Thread.sleep(1L);
+		}
+	}
+
+	static private int count(List<Priority> order, int first, Priority priority) {
+		int n = 0;
+
+		for( Priority p : order.subList(0, first) ) {
+			if( p.equals(priority) ) {
+				n++;
+			}
+		}
+		return n;
+	}
+
+	@Test
+	public void backloggedClassesShareByWeight() throws Exception {
+		RequestScheduler scheduler = new RequestScheduler(1, new int[] { 4, 2, 1 }, new int[] { 1, 1, 1 });
+		List<Priority> order = drain(scheduler, 60, 60, 60);
+
+		// while every class still has calls waiting, admissions follow the 4:2:1 weights
+		assertEquals(40, count(order, 70, INTERACTIVE), 2);
+		assertEquals(20, count(order, 70, MUTATING), 2);
+		assertEquals(10, count(order, 70, BACKGROUND), 2);
+	}
+
+	@Test
+	public void lowWeightClassIsNotStarved() throws Exception {
+		RequestScheduler scheduler = new RequestScheduler(1, new int[] { 100, 10, 1 }, new int[] { 1, 1, 1 });
+		List<Priority> order = drain(scheduler, 150, 0, 3);
+
+		assertTrue(count(order, 105, BACKGROUND) >= 1);
+	}
+
+	@Test
+	public void idleClassBanksNoCredit() throws Exception {
+		RequestScheduler scheduler = new RequestScheduler(1, new int[] { 1, 1, 1 }, new int[] { 1, 1, 1 });
+
+		// background polls run alone for a while
+		for( int i=0; i<50; i++ ) {
+			assertTrue(scheduler.acquire(BACKGROUND, 0L));
+			scheduler.release(BACKGROUND);
+		}
+		List<Priority> order = drain(scheduler, 10, 0, 10);
+
+		// equal weights alternate rather than letting the returning class catch up on what it missed
+		assertEquals(5, count(order, 10, BACKGROUND), 1);
+	}
+
+	@Test
+	public void classLimitsCapInFlightCalls() throws Exception {
+		RequestScheduler scheduler = new RequestScheduler(4, new int[] { 4, 2, 1 }, new int[] { 4, 2, 1 });
+
+		assertTrue(scheduler.acquire(BACKGROUND, 0L));
+		assertFalse(scheduler.acquire(BACKGROUND, 0L));
+		assertTrue(scheduler.acquire(MUTATING, 0L));
+		assertTrue(scheduler.acquire(MUTATING, 0L));
+		assertFalse(scheduler.acquire(MUTATING, 0L));
+		assertTrue(scheduler.acquire(INTERACTIVE, 0L));
+		// the global limit applies across classes
+		assertFalse(scheduler.acquire(INTERACTIVE, 0L));
+		assertEquals(1, scheduler.getInFlight(BACKGROUND));
+		assertEquals(2, scheduler.getInFlight(MUTATING));
+		scheduler.release(BACKGROUND);
+		assertTrue(scheduler.acquire(INTERACTIVE, 0L));
+	}
+
+	@Test
+	public void classLimitsAreBoundedByTheGlobalLimit() {
+		RequestScheduler scheduler = new RequestScheduler(2, new int[] { 1, 1, 1 }, new int[] { 10, 0, 1 });
+
+		assertEquals(2, scheduler.getMaxInFlight(INTERACTIVE));
+		assertEquals(1, scheduler.getMaxInFlight(MUTATING));
+		assertEquals(2, scheduler.getMaxInFlight());
+	}
+
+	@Test
+	public void fullClassDoesNotBlockOthers() throws Exception {
+		RequestScheduler scheduler = new RequestScheduler(4, new int[] { 4, 2, 1 }, new int[] { 4, 2, 1 });
+
+		assertTrue(scheduler.acquire(BACKGROUND, 0L));
+		assertFalse(scheduler.acquire(BACKGROUND, 20L));
+		assertTrue(scheduler.acquire(INTERACTIVE, 0L));
+	}
+
+	@Test
+	public void timedOutCallLeavesTheQueue() throws Exception {
+		RequestScheduler scheduler = new RequestScheduler(1, new int[] { 1, 1, 1 }, new int[] { 1, 1, 1 });
+
+		assertTrue(scheduler.acquire(INTERACTIVE, 0L));
+		assertFalse(scheduler.acquire(MUTATING, 20L));
+		assertEquals(0, scheduler.getQueueLength(MUTATING));
+		scheduler.release(INTERACTIVE);
+		assertEquals(0, scheduler.getInFlight(MUTATING));
+		assertTrue(scheduler.acquire(MUTATING, 0L));
+	}
+
+	@Test
+	public void tryAcquireDoesNotOvertakeWaitingCalls() throws Exception {
+		final RequestScheduler scheduler = new RequestScheduler(1, new int[] { 1, 1, 1 }, new int[] { 1, 1, 1 });
+		Thread waiter = new Thread() {
+			public void run() {
+				try {
+					if( scheduler.acquire(MUTATING, 10000L) ) {
+						scheduler.release(MUTATING);
+					}
+				}
+				catch( InterruptedException ignore ) {
+					// finished by the test
+				}
+			}
+		};
+
+		assertTrue(scheduler.tryAcquire(INTERACTIVE));
+		waiter.start();
+		waitForQueue(scheduler, MUTATING, 1);
+		assertFalse(scheduler.tryAcquire(MUTATING));
+		scheduler.release(INTERACTIVE);
+		waiter.join(10000L);
+		assertEquals(1L, scheduler.getAdmittedCount(MUTATING));
+	}
+
+	@Test
+	public void interruptedWaiterLeavesTheQueue() throws Exception {
+		final RequestScheduler scheduler = new RequestScheduler(1, new int[] { 1, 1, 1 }, new int[] { 1, 1, 1 });
+		final boolean[] interrupted = new boolean[1];
+		Thread waiter = new Thread() {
+			public void run() {
+				try {
+					scheduler.acquire(BACKGROUND, -1L);
+				}
+				catch( InterruptedException e ) {
+					interrupted[0] = true;
+				}
+			}
+		};
+
+		assertTrue(scheduler.acquire(INTERACTIVE, 0L));
+		waiter.start();
+		waitForQueue(scheduler, BACKGROUND, 1);
+		waiter.interrupt();
+		waiter.join(10000L);
+		assertTrue(interrupted[0]);
+		assertEquals(0, scheduler.getQueueLength(BACKGROUND));
+		scheduler.release(INTERACTIVE);
+		assertEquals(0, scheduler.getInFlight(BACKGROUND));
+	}
+
+	@Test
+	public void currentPriorityIsPerThread() throws Exception {
+		assertNull(RequestScheduler.setCurrentPriority(BACKGROUND));
+		try {
+			final Priority[] other = new Priority[] { INTERACTIVE };
+			Thread t = new Thread() {
+				public void run() {
+					other[0] = RequestScheduler.getCurrentPriority();
+				}
+			};
+
+			t.start();
+			t.join();
+			assertNull(other[0]);
+			assertSame(BACKGROUND, RequestScheduler.setCurrentPriority(MUTATING));
+			assertSame(MUTATING, RequestScheduler.getCurrentPriority());
+		}
+		finally {
+			RequestScheduler.setCurrentPriority(null);
+		}
+		assertNull(RequestScheduler.getCurrentPriority());
+	}
+
+	@Test
+	public void sharedPerKey() {
+		RequestScheduler scheduler = RequestScheduler.getInstance("scheduler-test", 8, new int[] { 4, 2, 1 }, new int[] { 8, 4, 2 });
+
+		assertSame(scheduler, RequestScheduler.getInstance("scheduler-test", 1, new int[] { 1, 1, 1 }, new int[] { 1, 1, 1 }));
+		assertEquals(8, scheduler.getMaxInFlight());
+	}
+}
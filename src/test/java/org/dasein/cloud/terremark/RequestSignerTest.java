@@ -0,0 +1,245 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.terremark;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.http.NameValuePair;
+import org.apache.http.message.BasicNameValuePair;
+import org.dasein.cloud.terremark.TerremarkMethod.HttpMethodName;
+import org.junit.Test;
+
+/**
+ * Checks {@link RequestSigner} against the signing code it replaced in <code>Terremark.getHeaders()</code>, which
+ * is copied below as {@link #baselineHeaders}. Any difference in the canonical string would break authentication
+ * against the live API, so every case is compared header for header.
+ */
+public class RequestSignerTest {
+	static private final String ACCESS_KEY = "ACCESSKEY1234";
+	static private final byte[] SECRET     = "c2VjcmV0LWtleS1mb3ItdGVzdGluZw==".getBytes();
+	static private final String DATE       = "Tue, 05 Mar 2013 17:04:21 GMT";
+	static private final String BODY       = "<CreateVirtualMachine name=\"web01\"><Description>Test</Description></CreateVirtualMachine>";
+
+	static private NameValuePair[] params(String ... namesAndValues) {
+		NameValuePair[] params = new NameValuePair[namesAndValues.length / 2];
+
+		for( int i=0; i<params.length; i++ ) {
+			params[i] = new BasicNameValuePair(namesAndValues[2*i], namesAndValues[2*i + 1]);
+		}
+		return params;
+	}
+
+	private void assertBaseline(HttpMethodName methodType, String path, NameValuePair[] params, String body) throws Exception {
+		Map<String,String> expected = baselineHeaders(ACCESS_KEY, SECRET, methodType, path, params, body, DATE);
+		Map<String,String> actual = new RequestSigner(ACCESS_KEY, SECRET).sign(methodType, path, params, RequestSigner.encode(body), DATE);
+
+		assertEquals(methodType + " " + path, expected, actual);
+	}
+
+	@Test
+	public void getWithoutParameters() throws Exception {
+		assertBaseline(HttpMethodName.GET, "/virtualMachines/12345", null, null);
+	}
+
+	@Test
+	public void pathWithoutLeadingSlashAndMixedCase() throws Exception {
+		assertBaseline(HttpMethodName.GET, "virtualMachines/VM-12345/assignedIps", null, null);
+	}
+
+	@Test
+	public void queryParametersAreLowercasedTrimmedAndSorted() throws Exception {
+		assertBaseline(HttpMethodName.GET, "/virtualMachines/computePools/77/query", params("Name", " web01 ", "page", "2", "PageSize", "50", "status", "deployed"), null);
+	}
+
+	@Test
+	public void queryParametersWithSeparatorsAndCase() throws Exception {
+		assertBaseline(HttpMethodName.GET, "/virtualMachines", params("pagesize", "1", "page_size", "2", "Page", "3", "_a", "4", "Z", "5"), null);
+	}
+
+	@Test
+	public void duplicateQueryNamesKeepTheLastValue() throws Exception {
+		NameValuePair[] params = params("tag", "alpha", "Name", "x", "TAG", "beta");
+
+		assertBaseline(HttpMethodName.GET, "/virtualMachines", params, null);
+		assertTrue(RequestSigner.getStringToSign(HttpMethodName.GET, "/virtualMachines", params, null, DATE).endsWith("\nname:x\ntag:beta\ntag:beta\n"));
+	}
+
+	@Test
+	public void postWithBody() throws Exception {
+		assertBaseline(HttpMethodName.POST, "/virtualMachines/environments/99/action/createVirtualMachine", null, BODY);
+	}
+
+	@Test
+	public void putWithEmptyBody() throws Exception {
+		assertBaseline(HttpMethodName.PUT, "/virtualMachines/12345/action/powerOn", null, "");
+	}
+
+	@Test
+	public void deleteWithoutBody() throws Exception {
+		assertBaseline(HttpMethodName.DELETE, "/virtualMachines/12345", null, null);
+	}
+
+	@Test
+	public void getIgnoresBodyLength() throws Exception {
+		assertBaseline(HttpMethodName.GET, "/virtualMachines/12345", null, BODY);
+	}
+
+	@Test
+	public void canonicalString() {
+		String expected = "POST\n" + BODY.length() + "\n" + Terremark.XML + "\n" + DATE + "\n"
+				+ "x-tmrk-date:" + DATE + "\n"
+				+ "x-tmrk-version:" + Terremark.VERSION + "\n"
+				+ Terremark.DEFAULT_URI_PATH + "/virtualmachines/12345/action/poweron\n"
+				+ "force:true\n";
+
+		assertEquals(expected, RequestSigner.getStringToSign(HttpMethodName.POST, "/virtualMachines/12345/action/powerOn", params("Force", "true"), RequestSigner.encode(BODY), DATE));
+	}
+
+	/**
+	 * A fixed value, independent of the baseline copy above, checked with
+	 * <code>openssl dgst -sha512 -hmac &lt;secret&gt; -binary | base64</code>.
+	 */
+	@Test
+	public void goldenSignature() throws Exception {
+		Map<String,String> headers = new RequestSigner(ACCESS_KEY, SECRET).sign(HttpMethodName.GET, "/virtualMachines/12345", params("page", "1"), null, DATE);
+
+		assertEquals("CloudApi AccessKey=\"ACCESSKEY1234\" SignatureType=\"HmacSha512\" Signature=\"el1Gh7rIpYb2NWgpM1s+1gQ7hHKpBlEcps3m322uknVEW+lgoSztiIxlpSwNoKw4vi6tHv9DtH8lMhd4knpAHQ==\"", headers.get(Terremark.TMRK_AUTHORIZATION));
+		assertEquals(DATE, headers.get(Terremark.TMRK_DATE));
+		assertEquals(Terremark.VERSION, headers.get(Terremark.TMRK_VERSION));
+		assertEquals(Terremark.XML, headers.get(Terremark.ACCEPT));
+		assertNull(headers.get(Terremark.CONTENT_TYPE));
+	}
+
+	@Test
+	public void pooledMacsAreReusedWithoutCarryingState() throws Exception {
+		RequestSigner signer = new RequestSigner(ACCESS_KEY, SECRET);
+		Map<String,String> first = signer.sign(HttpMethodName.GET, "/virtualMachines/12345", null, null, DATE);
+
+		for( int i=0; i<RequestSigner.MAX_POOLED_MACS * 2; i++ ) {
+			signer.sign(HttpMethodName.POST, "/virtualMachines/" + i, null, RequestSigner.encode(BODY), DATE);
+		}
+		assertEquals(first, signer.sign(HttpMethodName.GET, "/virtualMachines/12345", null, null, DATE));
+	}
+
+	@Test
+	public void signersDoNotShareKeys() throws Exception {
+		byte[] secret = SECRET.clone();
+		RequestSigner one = new RequestSigner(ACCESS_KEY, secret);
+		RequestSigner two = new RequestSigner(ACCESS_KEY, "another-secret".getBytes());
+		String signed = one.sign(HttpMethodName.GET, "/virtualMachines", null, null, DATE).get(Terremark.TMRK_AUTHORIZATION);
+
+		assertFalse(signed.equals(two.sign(HttpMethodName.GET, "/virtualMachines", null, null, DATE).get(Terremark.TMRK_AUTHORIZATION)));
+		// the signer keeps its own copy of the key
+		secret[0] = 0;
+		assertEquals(signed, one.sign(HttpMethodName.GET, "/virtualMachines", null, null, DATE).get(Terremark.TMRK_AUTHORIZATION));
+	}
+
+	@Test
+	public void datesAreEnglishWhateverTheDefaultLocale() throws Exception {
+		final Locale original = Locale.getDefault();
+		final String[] date = new String[1];
+
+		Locale.setDefault(Locale.GERMANY);
+		try {
+			// a fresh thread, so the date format is created under the German default
+			Thread t = new Thread() {
+				public void run() {
+					date[0] = RequestSigner.getRfcDate();
+				}
+			};
+			t.start();
+			t.join();
+		}
+		finally {
+			Locale.setDefault(original);
+		}
+		assertTrue(date[0], date[0].matches("(Mon|Tue|Wed|Thu|Fri|Sat|Sun), \\d{2} (Jan|Feb|Mar|Apr|May|Jun|Jul|Aug|Sep|Oct|Nov|Dec) \\d{4} \\d{2}:\\d{2}:\\d{2} GMT"));
+	}
+
+	/**
+	 * The body of <code>Terremark.getHeaders()</code> before {@link RequestSigner}, with the date passed in.
+	 */
+	static private Map<String,String> baselineHeaders(String accessKey, byte[] key, HttpMethodName methodType, String url, NameValuePair[] queryParamters, String body, String formattedDate) throws Exception {
+		HashMap<String,String> headers = new HashMap<String,String>();
+		String contentLength = "";
+		String contentType = "";
+		String canonicalizedHeaders = "";
+		String canonicalizedResource = "";
+
+		headers.put(Terremark.TMRK_DATE, formattedDate);
+		headers.put(Terremark.TMRK_VERSION, Terremark.VERSION);
+		headers.put(Terremark.ACCEPT, Terremark.XML);
+		if (body != null && (methodType.equals(HttpMethodName.PUT) || methodType.equals(HttpMethodName.POST) || methodType.equals(HttpMethodName.DELETE))){
+			contentLength = new String("" + body.getBytes().length);
+		}
+		if (body != null && !body.equals("")){
+			contentType = Terremark.XML;
+			headers.put(Terremark.CONTENT_TYPE, contentType);
+		}
+		List<String> canonicalizedHeadersList = new ArrayList<String>();
+		HashMap<String,String> tempHeadersLower = new HashMap<String,String>();
+		for( Map.Entry<String, String> entry : headers.entrySet() ) {
+			if (entry.getKey().toLowerCase().startsWith("x-tmrk-") && !entry.getKey().equals(Terremark.TMRK_AUTHORIZATION))
+				canonicalizedHeadersList.add(entry.getKey().toLowerCase().trim());
+			tempHeadersLower.put(entry.getKey().toLowerCase().trim(), entry.getValue().trim());
+		}
+		Collections.sort(canonicalizedHeadersList);
+		for (String header : canonicalizedHeadersList){
+			canonicalizedHeaders += header + ":" + tempHeadersLower.get(header) + "\n";
+		}
+		if (!url.startsWith("/")){
+			url = "/" + url;
+		}
+		canonicalizedResource += Terremark.DEFAULT_URI_PATH + url.toLowerCase().trim() + "\n";
+		List<String> queryParameterList = new ArrayList<String>();
+		HashMap<String,String> tempQueryParamtersLower = new HashMap<String,String>();
+		if (queryParamters != null) {
+			for( NameValuePair parameter : queryParamters ) {
+				queryParameterList.add(parameter.getName().toLowerCase().trim());
+				tempQueryParamtersLower.put(parameter.getName().toLowerCase().trim(), parameter.getValue().trim());
+			}
+			Collections.sort(queryParameterList);
+		}
+		for (String paramter : queryParameterList){
+			canonicalizedResource += paramter+ ":" + tempQueryParamtersLower.get(paramter) + "\n";
+		}
+		String stringToSign = new String(methodType + "\n" + contentLength + "\n" + contentType + "\n" + formattedDate + "\n" + canonicalizedHeaders + canonicalizedResource);
+		Mac mac = Mac.getInstance(Terremark.ALGORITHM);
+		mac.init(new SecretKeySpec(key, Terremark.ALGORITHM));
+		String signature = new String(Base64.encodeBase64(mac.doFinal(stringToSign.getBytes("utf-8"))), "utf-8");
+
+		headers.put(Terremark.TMRK_AUTHORIZATION, "CloudApi AccessKey=\"" + accessKey + "\" SignatureType=\"" + Terremark.ALGORITHM + "\" Signature=\"" + signature + "\"");
+		return headers;
+	}
+}
@@ -0,0 +1,202 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.terremark;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+public class ResponseCacheTest {
+	static private final String ROOT = "/cloudapi/ecloud";
+
+	private ResponseCache cache;
+
+	@Before
+	public void setUp() {
+		cache = new ResponseCache(100);
+	}
+
+	static private Document document(String name) throws Exception {
+		Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+		Element root = doc.createElement("VirtualMachine");
+
+		root.setAttribute(Terremark.NAME, name);
+		doc.appendChild(root);
+		return doc;
+	}
+
+	private void put(String path) throws Exception {
+		cache.put("GET " + path, path, "\"" + path.hashCode() + "\"", null, document(path));
+	}
+
+	private boolean cached(String path) {
+		return (cache.get("GET " + path) != null);
+	}
+
+	@Test
+	public void invalidatesThePathItself() throws Exception {
+		put(ROOT + "/virtualmachines/12");
+		cache.invalidate(ROOT + "/virtualmachines/12");
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void invalidatesAncestors() throws Exception {
+		put(ROOT + "/virtualmachines");
+		put(ROOT + "/virtualmachines/environments/77");
+		put(ROOT);
+		cache.invalidate(ROOT + "/virtualmachines/12/action/poweron");
+		assertFalse(cached(ROOT + "/virtualmachines"));
+		assertFalse(cached(ROOT));
+		// a sibling collection is not above the changed path
+		assertTrue(cached(ROOT + "/virtualmachines/environments/77"));
+	}
+
+	@Test
+	public void invalidatesDescendants() throws Exception {
+		put(ROOT + "/virtualmachines/12/hardwareconfiguration");
+		put(ROOT + "/virtualmachines/12/assignedips");
+		put(ROOT + "/virtualmachines/13/assignedips");
+		cache.invalidate(ROOT + "/virtualmachines/12");
+		assertFalse(cached(ROOT + "/virtualmachines/12/hardwareconfiguration"));
+		assertFalse(cached(ROOT + "/virtualmachines/12/assignedips"));
+		assertTrue(cached(ROOT + "/virtualmachines/13/assignedips"));
+	}
+
+	@Test
+	public void matchesWholeSegmentsOnly() throws Exception {
+		put(ROOT + "/virtualmachines/123");
+		put(ROOT + "/virtualmachines/1");
+		cache.invalidate(ROOT + "/virtualmachines/12");
+		assertTrue(cached(ROOT + "/virtualmachines/123"));
+		assertTrue(cached(ROOT + "/virtualmachines/1"));
+	}
+
+	@Test
+	public void trailingSlashAncestor() throws Exception {
+		put(ROOT + "/virtualmachines/");
+		cache.invalidate(ROOT + "/virtualmachines/12");
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void ignoresCase() throws Exception {
+		put(ROOT + "/virtualMachines/12");
+		put(ROOT + "/VIRTUALMACHINES");
+		cache.invalidate(ROOT + "/virtualmachines/12");
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void unrelatedPathsAreKept() throws Exception {
+		put(ROOT + "/networks/3933");
+		put(ROOT + "/publicips/environments/77");
+		cache.invalidate(ROOT + "/virtualmachines/12");
+		assertEquals(2, cache.size());
+	}
+
+	@Test
+	public void responsesWithoutValidatorsAreNotCached() throws Exception {
+		put(ROOT + "/virtualmachines/12");
+		cache.put("GET " + ROOT + "/virtualmachines/12", ROOT + "/virtualmachines/12", null, null, document("fresh"));
+		assertNull(cache.get("GET " + ROOT + "/virtualmachines/12"));
+		cache.put("GET " + ROOT + "/tasks/1", ROOT + "/tasks/1", null, "Tue, 05 Mar 2013 17:04:21 GMT", document("task"));
+		assertNotNull(cache.get("GET " + ROOT + "/tasks/1"));
+	}
+
+	@Test
+	public void documentsAreCopiedInAndOut() throws Exception {
+		Document original = document("web01");
+
+		cache.put("key", "/path", "\"1\"", null, original);
+		original.getDocumentElement().setAttribute(Terremark.NAME, "changed by the caller");
+
+		ResponseCache.Entry entry = cache.get("key");
+		Document first = entry.getDocument();
+
+		assertEquals("web01", first.getDocumentElement().getAttribute(Terremark.NAME));
+		first.getDocumentElement().setAttribute(Terremark.NAME, "changed by a reader");
+		assertNotSame(first, entry.getDocument());
+		assertEquals("web01", entry.getDocument().getDocumentElement().getAttribute(Terremark.NAME));
+	}
+
+	@Test
+	public void evictsTheLeastRecentlyUsed() throws Exception {
+		ResponseCache small = new ResponseCache(2);
+
+		small.put("a", "/a", "\"a\"", null, document("a"));
+		small.put("b", "/b", "\"b\"", null, document("b"));
+		small.get("a");
+		small.put("c", "/c", "\"c\"", null, document("c"));
+		assertNotNull(small.get("a"));
+		assertNull(small.get("b"));
+		assertNotNull(small.get("c"));
+	}
+
+	@Test
+	public void concurrentCopiesOfOneEntry() throws Exception {
+		cache.put("key", "/path", "\"1\"", null, document("web01"));
+		final ResponseCache.Entry entry = cache.get("key");
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+
+		try {
+			List<Future<String>> results = new ArrayList<Future<String>>();
+
+			for( int i=0; i<2000; i++ ) {
+				results.add(executor.submit(new Callable<String>() {
+					public String call() {
+						return entry.getDocument().getDocumentElement().getAttribute(Terremark.NAME);
+					}
+				}));
+			}
+			for( Future<String> result : results ) {
+				assertEquals("web01", result.get());
+			}
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void sharedPerAccessKey() {
+		ResponseCache shared = ResponseCache.getInstance("response-cache-test", 10);
+
+		assertSame(shared, ResponseCache.getInstance("response-cache-test", 500));
+	}
+}
@@ -0,0 +1,82 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.terremark;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class RetryBudgetTest {
+	@Test
+	public void startsFull() {
+		RetryBudget budget = new RetryBudget(3.0, 0.1);
+
+		assertEquals(3.0, budget.getMaxTokens(), 0.0);
+		assertEquals(3.0, budget.getAvailableTokens(), 0.0);
+	}
+
+	@Test
+	public void exhaustsAfterMaxTokens() {
+		RetryBudget budget = new RetryBudget(3.0, 0.1);
+
+		assertTrue(budget.tryAcquire());
+		assertTrue(budget.tryAcquire());
+		assertTrue(budget.tryAcquire());
+		assertFalse(budget.tryAcquire());
+		assertEquals(0.0, budget.getAvailableTokens(), 0.0);
+	}
+
+	@Test
+	public void successesRefillFractionally() {
+		RetryBudget budget = new RetryBudget(1.0, 0.25);
+
+		assertTrue(budget.tryAcquire());
+		for( int i=0; i<3; i++ ) {
+			budget.recordSuccess();
+			assertFalse("after " + (i + 1) + " successes", budget.tryAcquire());
+		}
+		budget.recordSuccess();
+		assertTrue(budget.tryAcquire());
+	}
+
+	@Test
+	public void refillIsCapped() {
+		RetryBudget budget = new RetryBudget(2.0, 0.5);
+
+		for( int i=0; i<100; i++ ) {
+			budget.recordSuccess();
+		}
+		assertEquals(2.0, budget.getAvailableTokens(), 0.0);
+	}
+
+	@Test
+	public void sharedPerAccount() {
+		RetryBudget budget = RetryBudget.getInstance("retry-budget-test-1", 4.0, 0.1);
+
+		// the first caller fixes the settings
+		assertSame(budget, RetryBudget.getInstance("retry-budget-test-1", 99.0, 1.0));
+		assertEquals(4.0, budget.getMaxTokens(), 0.0);
+		assertNotSame(budget, RetryBudget.getInstance("retry-budget-test-2", 4.0, 0.1));
+	}
+}
@@ -0,0 +1,100 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.terremark;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class TaskDurationsTest {
+	static private TaskDurations record(int from, int to) {
+		TaskDurations durations = new TaskDurations();
+
+		for( int i=from; i<=to; i++ ) {
+			durations.record(i);
+		}
+		return durations;
+	}
+
+	@Test
+	public void emptyGivesZeros() {
+		TaskDurations durations = new TaskDurations();
+
+		assertEquals(0, durations.getSampleCount());
+		assertEquals(0L, durations.getPercentile(0.5));
+		assertEquals(0L, durations.getPercentiles(0.25, 0.99)[1]);
+	}
+
+	@Test
+	public void nearestRankPercentiles() {
+		long[] values = record(1, 100).getPercentiles(0.25, 0.50, 0.75, 0.90, 0.99, 1.0);
+
+		assertEquals(25L, values[0]);
+		assertEquals(50L, values[1]);
+		assertEquals(75L, values[2]);
+		assertEquals(90L, values[3]);
+		assertEquals(99L, values[4]);
+		assertEquals(100L, values[5]);
+	}
+
+	@Test
+	public void percentilesOfUnsortedSamples() {
+		TaskDurations durations = new TaskDurations();
+
+		for( long sample : new long[] { 9000L, 1000L, 5000L, 3000L, 7000L } ) {
+			durations.record(sample);
+		}
+		assertEquals(1000L, durations.getPercentile(0.0));
+		assertEquals(1000L, durations.getPercentile(0.2));
+		assertEquals(3000L, durations.getPercentile(0.21));
+		assertEquals(5000L, durations.getPercentile(0.5));
+		assertEquals(9000L, durations.getPercentile(0.99));
+	}
+
+	@Test
+	public void singleSample() {
+		TaskDurations durations = record(42, 42);
+
+		assertEquals(42L, durations.getPercentile(0.01));
+		assertEquals(42L, durations.getPercentile(0.99));
+	}
+
+	@Test
+	public void onlyTheWindowCounts() {
+		TaskDurations durations = record(1, TaskDurations.WINDOW + 50);
+
+		assertEquals(TaskDurations.WINDOW + 50L, durations.getCount());
+		assertEquals(TaskDurations.WINDOW, durations.getSampleCount());
+		// the oldest 50 have rolled out
+		assertEquals(51L, durations.getPercentile(0.01));
+		assertEquals(100L, durations.getPercentile(0.50));
+		assertEquals(TaskDurations.WINDOW + 50L, durations.getPercentile(1.0));
+	}
+
+	@Test
+	public void negativeDurationsCountAsZero() {
+		TaskDurations durations = new TaskDurations();
+
+		durations.record(-500L);
+		durations.record(10L);
+		assertEquals(0L, durations.getPercentile(0.5));
+		assertEquals(10L, durations.getPercentile(1.0));
+	}
+}
@@ -0,0 +1,95 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.terremark;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Checks how the polls of a task are scheduled from the durations of earlier tasks of the same operation.
+ */
+public class TaskTrackerTest {
+	// the 25th, 50th, 75th, 90th, and 99th percentile of recent durations
+	static private final long[] POINTS  = { 20000L, 40000L, 60000L, 90000L, 300000L };
+	static private final long   SLEEP   = 15000L;
+	static private final long   MINIMUM = 1000L;
+
+	@Test
+	public void firstPollAtTheQuickestQuarter() {
+		assertEquals(20000L, TaskTracker.getPollInterval(POINTS, 0L, SLEEP, MINIMUM));
+	}
+
+	@Test
+	public void pollsStepThroughThePercentiles() {
+		assertEquals(20000L, TaskTracker.getPollInterval(POINTS, 20000L, SLEEP, MINIMUM));
+		assertEquals(20000L, TaskTracker.getPollInterval(POINTS, 40000L, SLEEP, MINIMUM));
+		assertEquals(30000L, TaskTracker.getPollInterval(POINTS, 60000L, SLEEP, MINIMUM));
+		assertEquals(210000L, TaskTracker.getPollInterval(POINTS, 90000L, SLEEP, MINIMUM));
+	}
+
+	@Test
+	public void pollAtThePointNotAfterIt() {
+		// polled late, so the next point is only moments away
+		assertEquals(5000L, TaskTracker.getPollInterval(POINTS, 55000L, SLEEP, MINIMUM));
+	}
+
+	@Test
+	public void neverSoonerThanTheMinimum() {
+		assertEquals(MINIMUM, TaskTracker.getPollInterval(POINTS, 59900L, SLEEP, MINIMUM));
+		assertEquals(5000L, TaskTracker.getPollInterval(new long[] { 1L, 2L, 3L, 4L, 5L }, 0L, SLEEP, 5000L));
+	}
+
+	@Test
+	public void stragglersBackOffFromTheLongerOfIntervalAndMedian() {
+		assertEquals(40000L, TaskTracker.getPollInterval(POINTS, 300000L, SLEEP, MINIMUM));
+		assertEquals(120000L, TaskTracker.getPollInterval(POINTS, 310000L, 120000L, MINIMUM));
+		assertEquals(MINIMUM, TaskTracker.getPollInterval(new long[] { 100L, 200L, 300L, 400L, 500L }, 600L, SLEEP, MINIMUM));
+	}
+
+	@Test
+	public void stragglerPollsDoubleUpToTheSlowestPoint() {
+		assertEquals(40000L, TaskTracker.getPollInterval(POINTS, 340000L, SLEEP, MINIMUM));
+		assertEquals(80000L, TaskTracker.getPollInterval(POINTS, 380000L, SLEEP, MINIMUM));
+		assertEquals(160000L, TaskTracker.getPollInterval(POINTS, 460000L, SLEEP, MINIMUM));
+		assertEquals(300000L, TaskTracker.getPollInterval(POINTS, 620000L, SLEEP, MINIMUM));
+		assertEquals(300000L, TaskTracker.getPollInterval(POINTS, 3600000L, SLEEP, MINIMUM));
+	}
+
+	@Test
+	public void stragglerWithNoCallersLeftIsNotPolledAtOnce() {
+		// a caller may give up between polls, leaving no interval to go by
+		assertEquals(300000L, TaskTracker.getPollInterval(POINTS, 300000L, Long.MAX_VALUE, MINIMUM));
+	}
+
+	@Test
+	public void scheduleFromRecordedDurations() {
+		TaskDurations durations = new TaskDurations();
+
+		for( int i=1; i<=20; i++ ) {
+			durations.record(i * 10000L);
+		}
+		long[] points = durations.getPercentiles(0.25, 0.50, 0.75, 0.90, 0.99);
+
+		assertEquals(50000L, TaskTracker.getPollInterval(points, 0L, SLEEP, MINIMUM));
+		assertEquals(50000L, TaskTracker.getPollInterval(points, 50000L, SLEEP, MINIMUM));
+		assertEquals(100000L, TaskTracker.getPollInterval(points, 200000L, SLEEP, MINIMUM));
+	}
+}
@@ -0,0 +1,334 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.terremark;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.ProviderContext;
+import org.dasein.cloud.terremark.CircuitBreaker.State;
+import org.dasein.cloud.terremark.RequestScheduler.Priority;
+import org.dasein.cloud.terremark.TerremarkMethod.HttpMethodName;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+/**
+ * Runs calls through {@link TerremarkMethod} against a scripted {@link Transport}, with a request scheduler that
+ * lets a single call through at a time and a circuit breaker that opens after two failures.
+ */
+public class TerremarkMethodTest {
+	static private final String ENDPOINT      = "https://terremark-method-test.invalid";
+	static private final long   RESET_TIMEOUT = 1000L;
+
+	private Terremark provider;
+
+	@Before
+	public void setUp() throws Exception {
+		ProviderContext ctx = new ProviderContext("1234", "1234");
+		Properties properties = new Properties();
+
+		properties.setProperty("readRequestsPerSecond", "0");
+		properties.setProperty("writeRequestsPerSecond", "0");
+		properties.setProperty("maxInFlightRequests", "1");
+		properties.setProperty("maxAsyncRequests", "2");
+		properties.setProperty("circuitBreakerThreshold", "2");
+		properties.setProperty("circuitBreakerResetTimeout", String.valueOf(RESET_TIMEOUT));
+		ctx.setEndpoint(ENDPOINT);
+		ctx.setAccessKeys("test".getBytes("utf-8"), "0123456789abcdef".getBytes("utf-8"));
+		ctx.setCustomProperties(properties);
+		provider = new Terremark();
+		provider.connect(ctx);
+	}
+
+	@After
+	public void tearDown() {
+		if( provider != null ) {
+			provider.close();
+		}
+	}
+
+	static private HttpResponse response(int status, String reason, String body) {
+		HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, status, reason);
+
+		if( body != null ) {
+			ByteArrayEntity entity = new ByteArrayEntity(body.getBytes());
+
+			entity.setContentType(Terremark.XML);
+			response.setEntity(entity);
+		}
+		return response;
+	}
+
+	/**
+	 * Retries every failure once after a fixed delay.
+	 */
+	static private class FixedDelay implements RetryPolicy {
+		private final long delay;
+
+		FixedDelay(long delay) {
+			this.delay = delay;
+		}
+
+		@Override
+		public long getRetryDelay(HttpMethodName methodType, int statusCode, int attempts, long retryAfter) {
+			return (attempts < 2 ? delay : -1L);
+		}
+
+		@Override
+		public void recordSuccess(HttpMethodName methodType) {
+			// nothing to track
+		}
+	}
+
+	@Test
+	public void retryBackoffDoesNotHoldASchedulerSlot() throws Exception {
+		final AtomicInteger calls = new AtomicInteger(0);
+		final CountDownLatch unavailable = new CountDownLatch(1);
+		final TerremarkMethod method = new TerremarkMethod(provider, HttpMethodName.GET, "/virtualMachines/1", null, null).withRetryPolicy(new FixedDelay(3000L));
+		final Document[] result = new Document[1];
+		final Exception[] error = new Exception[1];
+		RequestScheduler scheduler = provider.getRequestScheduler();
+
+		provider.setTransport(new Transport() {
+			@Override
+			public HttpResponse execute(HttpUriRequest request) throws IOException {
+				if( calls.incrementAndGet() == 1 ) {
+					unavailable.countDown();
+					return response(503, "Service Unavailable", "<Error message=\"busy\" majorErrorCode=\"503\" minorErrorCode=\"ServiceUnavailable\"/>");
+				}
+				return response(200, "OK", "<VirtualMachine name=\"web01\"/>");
+			}
+		});
+		Thread caller = new Thread() {
+			public void run() {
+				try {
+					result[0] = method.invoke();
+				}
+				catch( Exception e ) {
+					error[0] = e;
+				}
+			}
+		};
+
+		caller.start();
+		assertTrue(unavailable.await(10L, TimeUnit.SECONDS));
+		// the call is now waiting out its backoff, and the only slot must be free for others in the meantime
+		assertTrue(scheduler.acquire(Priority.INTERACTIVE, 1500L));
+		assertEquals(1, calls.get());
+		scheduler.release(Priority.INTERACTIVE);
+		caller.join(10000L);
+		assertNull(error[0]);
+		assertEquals(2, calls.get());
+		assertEquals("web01", result[0].getDocumentElement().getAttribute(Terremark.NAME));
+		assertEquals(0, scheduler.getInFlight(Priority.INTERACTIVE));
+	}
+
+	@Test
+	public void callWaitingForASlotDoesNotHoldTheProbe() throws Exception {
+		final CircuitBreaker breaker = provider.getCircuitBreaker();
+		final TerremarkMethod method = new TerremarkMethod(provider, HttpMethodName.GET, "/virtualMachines/2", null, null);
+		final Exception[] error = new Exception[1];
+		RequestScheduler scheduler = provider.getRequestScheduler();
+		Thread caller = new Thread() {
+			public void run() {
+				try {
+					method.invoke();
+				}
+				catch( Exception e ) {
+					error[0] = e;
+				}
+			}
+		};
+
+		provider.setTransport(new Transport() {
+			@Override
+			public HttpResponse execute(HttpUriRequest request) throws IOException {
+				throw new IOException("no call should reach the endpoint");
+			}
+		});
+		breaker.recordFailure();
+		breaker.recordFailure();
+		Thread.sleep(RESET_TIMEOUT + 100L);
+		assertTrue(scheduler.acquire(Priority.INTERACTIVE, 0L));
+		try {
+			caller.start();
+			while( scheduler.getQueueLength(Priority.INTERACTIVE) < 1 ) {
+				Thread.sleep(1L);
+			}
+			caller.interrupt();
+			caller.join(10000L);
+			assertTrue(String.valueOf(error[0]), error[0] instanceof InternalException);
+			// the interrupted call never got as far as the breaker, so the probe is still there for the next one
+			assertEquals(State.OPEN, breaker.getState());
+			assertTrue(breaker.allowRequest());
+			assertFalse(breaker.allowRequest());
+		}
+		finally {
+			scheduler.release(Priority.INTERACTIVE);
+			breaker.recordSuccess();
+		}
+	}
+
+	@Test
+	public void latencyEndsWithTheResponseHeaders() throws Exception {
+		WireCapture capture = provider.getWireCapture();
+		TerremarkMethod method = new TerremarkMethod(provider, HttpMethodName.GET, "/virtualMachines/3", null, null);
+
+		provider.setTransport(new Transport() {
+			@Override
+			public HttpResponse execute(HttpUriRequest request) throws IOException {
+				return response(200, "OK", "<VirtualMachine name=\"web03\"/>");
+			}
+		});
+		capture.clear();
+		String name = method.invoke(new TerremarkMethod.StreamParser<String>() {
+			@Override
+			public String parse(XMLStreamReader reader) throws XMLStreamException {
+				// a slow parse is the client's time, not the endpoint's
+				try {
+					Thread.sleep(500L);
+				}
+				catch( InterruptedException e ) {
+					Thread.currentThread().interrupt();
+				}
+				reader.nextTag();
+				return reader.getAttributeValue(null, Terremark.NAME);
+			}
+		});
+
+		assertEquals("web03", name);
+		assertEquals(1, capture.getExchanges().size());
+		assertTrue(capture.getExchanges().get(0).getLatency() < 400L);
+	}
+
+	@Test
+	public void interactiveCallsDoNotJoinBackgroundPolls() throws Exception {
+		final AtomicInteger calls = new AtomicInteger(0);
+		final CountDownLatch answer = new CountDownLatch(1);
+		final Exception[] errors = new Exception[2];
+		RequestScheduler scheduler = provider.getRequestScheduler();
+		Thread poll = invokeLater(new TerremarkMethod(provider, HttpMethodName.GET, "/virtualMachines/4", null, null).withPriority(Priority.BACKGROUND_POLL), errors, 0);
+		Thread lookup = invokeLater(new TerremarkMethod(provider, HttpMethodName.GET, "/virtualMachines/4", null, null), errors, 1);
+		long until = System.currentTimeMillis() + 10000L;
+
+		provider.setTransport(new Transport() {
+			@Override
+			public HttpResponse execute(HttpUriRequest request) throws IOException {
+				calls.incrementAndGet();
+				try {
+					answer.await(10L, TimeUnit.SECONDS);
+				}
+				catch( InterruptedException e ) {
+					throw new IOException(e.getMessage());
+				}
+				return response(200, "OK", "<VirtualMachine name=\"web04\"/>");
+			}
+		});
+		poll.start();
+		while( calls.get() < 1 ) {
+			assertTrue(System.currentTimeMillis() < until);
+			Thread.sleep(1L);
+		}
+		lookup.start();
+		// rather than joining the poll, the lookup waits for a slot of its own
+		while( scheduler.getQueueLength(Priority.INTERACTIVE) < 1 ) {
+			assertTrue(System.currentTimeMillis() < until);
+			Thread.sleep(1L);
+		}
+		answer.countDown();
+		poll.join(10000L);
+		lookup.join(10000L);
+		assertNull(errors[0]);
+		assertNull(errors[1]);
+		assertEquals(2, calls.get());
+	}
+
+	@Test
+	public void invokeAllKeepsAWindowOfCallsInOrder() throws Exception {
+		final AtomicInteger calls = new AtomicInteger(0);
+		final List<String> names = new ArrayList<String>();
+		final int[] callsAtFirst = new int[1];
+		List<String> urls = new ArrayList<String>();
+
+		provider.setTransport(new Transport() {
+			@Override
+			public HttpResponse execute(HttpUriRequest request) throws IOException {
+				String path = request.getURI().getPath();
+				String id = path.substring(path.lastIndexOf('/') + 1);
+
+				calls.incrementAndGet();
+				if( id.equals("13") ) {
+					throw new IOException("connection reset");
+				}
+				return response(200, "OK", "<VirtualMachine name=\"web" + id + "\"/>");
+			}
+		});
+		for( int i=10; i<15; i++ ) {
+			urls.add("/virtualMachines/" + i);
+		}
+		TerremarkMethod.invokeAll(provider, urls, new TerremarkMethod.DocumentHandler() {
+			@Override
+			public void handle(int index, Document doc) {
+				if( index == 0 ) {
+					callsAtFirst[0] = calls.get();
+				}
+				names.add(doc == null ? null : doc.getDocumentElement().getAttribute(Terremark.NAME));
+			}
+		});
+		// no more calls than the request executor can run are sent ahead of the one being handled
+		assertTrue(String.valueOf(callsAtFirst[0]), callsAtFirst[0] <= 2);
+		assertEquals(Arrays.asList("web10", "web11", "web12", null, "web14"), names);
+	}
+
+	static private Thread invokeLater(final TerremarkMethod method, final Exception[] errors, final int index) {
+		return new Thread() {
+			public void run() {
+				try {
+					method.invoke();
+				}
+				catch( Exception e ) {
+					errors[index] = e;
+				}
+			}
+		};
+	}
+}
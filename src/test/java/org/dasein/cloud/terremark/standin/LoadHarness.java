@@ -0,0 +1,426 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.terremark.standin;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.annotation.Nonnull;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.dasein.cloud.ProviderContext;
+import org.dasein.cloud.compute.ImageFilterOptions;
+import org.dasein.cloud.compute.VirtualMachineSupport;
+import org.dasein.cloud.compute.VmState;
+import org.dasein.cloud.network.IPVersion;
+import org.dasein.cloud.terremark.HostStats;
+import org.dasein.cloud.terremark.OperationStats;
+import org.dasein.cloud.terremark.TaskOperationStats;
+import org.dasein.cloud.terremark.Terremark;
+import org.dasein.cloud.terremark.TerremarkMetrics;
+
+/**
+ * Drives the driver's real service classes against a {@link TerremarkStandIn} serving a large synthetic inventory
+ * and reports per-workload latency and throughput, the driver's own {@link TerremarkMetrics}, and what the stand-in
+ * saw. Settings are passed as <code>key=value</code> arguments; every argument is also handed to the provider as a
+ * custom property, so driver settings such as <code>wireFormat=json</code> or <code>responseCacheSize=0</code> can be
+ * compared run against run. Pass <code>readRequestsPerSecond=0</code> and <code>writeRequestsPerSecond=0</code> to measure
+ * the driver rather than its client-side rate limiter.
+ * <pre>
+ * java -cp target/test-classes:target/classes:&lt;dependencies&gt; org.dasein.cloud.terremark.standin.LoadHarness \
+ *     vms=5000 vlans=200 threads=32 duration=60 latency=25 jitter=25 unavailableRate=0.01 readRequestsPerSecond=0
+ * </pre>
+ * Requests are answered by <code>hosts</code> simulated backend nodes, <code>slowHosts</code> of which add
+ * <code>slowLatency</code> milliseconds, for comparing runs with and without <code>hedgePercentile</code>.
+ * A run has three phases:
+ * <ol>
+ *   <li><b>sweep</b> times each account-wide listing once; several of these fan out into one call per VM or network</li>
+ *   <li><b>mixed</b> runs <code>threads</code> workers for <code>duration</code> seconds, each repeatedly picking one
+ *   of the point reads at random</li>
+ *   <li><b>power</b> stops and restarts <code>powerCycles</code> VMs at once, exercising task polling, and repeats
+ *   this <code>powerRounds</code> times so that later rounds are polled from the task durations learned in earlier ones</li>
+ * </ol>
+ */
+public class LoadHarness {
+	static private final String[][] DEFAULTS = {
+		{ "vms", "5000" }, { "vlans", "200" }, { "pools", "4" }, { "publicIps", "500" }, { "disks", "200" }, { "catalog", "50" },
+		{ "threads", "16" }, { "duration", "30" }, { "serverThreads", "64" },
+		{ "latency", "20" }, { "jitter", "10" }, { "unavailableRate", "0" }, { "errorRate", "0" }, { "retryAfter", "1" },
+		{ "hosts", "4" }, { "slowHosts", "0" }, { "slowLatency", "200" },
+		{ "taskDuration", "1000" }, { "taskDurationSpread", "0" }, { "taskFailureRate", "0" }, { "powerCycles", "0" }, { "powerRounds", "1" }, { "sweep", "true" }, { "logLevel", "WARN" }
+	};
+
+	/**
+	 * Collects the latency of each timed call under one name.
+	 */
+	static private class Recorder {
+		private final String name;
+		private final List<Long> latencies = new ArrayList<Long>();
+		private int errors;
+
+		Recorder(String name) {
+			this.name = name;
+		}
+
+		void measure(Callable<?> work) {
+			long start = System.nanoTime();
+			boolean failed = false;
+
+			try {
+				work.call();
+			}
+			catch( Exception e ) {
+				failed = true;
+				System.err.println(name + " failed: " + e);
+			}
+			long elapsed = (System.nanoTime() - start) / 1000000L;
+
+			synchronized( this ) {
+				latencies.add(elapsed);
+				if( failed ) {
+					errors++;
+				}
+			}
+		}
+
+		synchronized String report(long wallMillis) {
+			if( latencies.isEmpty() ) {
+				return String.format("%-28s %8s", name, "-");
+			}
+			long[] sorted = new long[latencies.size()];
+			long total = 0L;
+
+			for( int i=0; i<sorted.length; i++ ) {
+				sorted[i] = latencies.get(i);
+				total += sorted[i];
+			}
+			Arrays.sort(sorted);
+			double rate = (wallMillis > 0 ? sorted.length * 1000.0 / wallMillis : 0.0);
+
+			return String.format("%-28s %8d %6d %9.1f %8d %8d %8d %8d %9.1f", name, sorted.length, errors, ((double)total) / sorted.length,
+					percentile(sorted, 50), percentile(sorted, 90), percentile(sorted, 99), sorted[sorted.length - 1], rate);
+		}
+	}
+
+	/**
+	 * A named call against the provider.
+	 */
+	static private abstract class Workload extends Recorder {
+		Workload(String name) {
+			super(name);
+		}
+
+		abstract void run(@Nonnull Terremark provider, @Nonnull Random random) throws Exception;
+
+		void time(final Terremark provider, final Random random) {
+			measure(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					run(provider, random);
+					return null;
+				}
+			});
+		}
+	}
+
+	static private long percentile(long[] sorted, int p) {
+		int index = (int)Math.ceil(p / 100.0 * sorted.length) - 1;
+
+		return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+	}
+
+	static private String header() {
+		return String.format("%-28s %8s %6s %9s %8s %8s %8s %8s %9s", "workload", "calls", "errors", "mean ms", "p50", "p90", "p99", "max", "per sec");
+	}
+
+	static public void main(String ... args) throws Exception {
+		Properties settings = new Properties();
+
+		for( String[] setting : DEFAULTS ) {
+			settings.setProperty(setting[0], setting[1]);
+		}
+		for( String arg : args ) {
+			int idx = arg.indexOf('=');
+
+			if( idx < 1 ) {
+				System.err.println("Ignoring argument " + arg + "; expected key=value");
+				continue;
+			}
+			settings.setProperty(arg.substring(0, idx), arg.substring(idx + 1));
+		}
+		Logger.getLogger("org.dasein").setLevel(Level.toLevel(settings.getProperty("logLevel")));
+
+		SyntheticInventory inventory = new SyntheticInventory(integer(settings, "vms"), integer(settings, "vlans"), integer(settings, "pools"),
+				integer(settings, "publicIps"), integer(settings, "disks"), integer(settings, "catalog"));
+		TerremarkStandIn standIn = new TerremarkStandIn(inventory, integer(settings, "serverThreads"));
+
+		inventory.setTaskDuration(Long.parseLong(settings.getProperty("taskDuration")));
+		inventory.setTaskDurationSpread(Double.parseDouble(settings.getProperty("taskDurationSpread")));
+		inventory.setTaskFailureRate(Double.parseDouble(settings.getProperty("taskFailureRate")));
+		standIn.setLatency(Long.parseLong(settings.getProperty("latency")), Long.parseLong(settings.getProperty("jitter")));
+		standIn.setHosts(integer(settings, "hosts"), integer(settings, "slowHosts"), Long.parseLong(settings.getProperty("slowLatency")));
+		standIn.setFaults(Double.parseDouble(settings.getProperty("unavailableRate")), Double.parseDouble(settings.getProperty("errorRate")), integer(settings, "retryAfter"));
+		standIn.start();
+		System.out.println("Stand-in serving " + inventory.getVirtualMachines().size() + " VMs on " + inventory.getNetworkCount() + " networks at " + standIn.getEndpoint());
+
+		Terremark provider = connect(standIn, settings);
+
+		try {
+			if( Boolean.parseBoolean(settings.getProperty("sweep")) ) {
+				runSweep(provider);
+			}
+			runMixed(provider, integer(settings, "threads"), integer(settings, "duration") * 1000L);
+			if( integer(settings, "powerCycles") > 0 ) {
+				for( int i=0; i<integer(settings, "powerRounds"); i++ ) {
+					runPowerCycles(provider, integer(settings, "powerCycles"));
+				}
+			}
+
+			System.out.println();
+			System.out.println("Driver metrics, slowest first:");
+			for( OperationStats stats : TerremarkMetrics.getInstance().getOperations() ) {
+				System.out.println("  " + stats);
+			}
+			System.out.println();
+			System.out.println("Responding hosts, slowest first (" + TerremarkMetrics.getInstance().getTotalHedges() + " hedged GETs):");
+			for( HostStats stats : TerremarkMetrics.getInstance().getRespondingHosts() ) {
+				System.out.println("  " + stats);
+			}
+			System.out.println();
+			System.out.println("Task durations, longest first:");
+			for( TaskOperationStats stats : TerremarkMetrics.getInstance().getTaskOperations() ) {
+				System.out.println("  " + stats);
+			}
+			System.out.println();
+			System.out.println("Stand-in: " + standIn.getRequestCount() + " requests, " + standIn.getNotModifiedCount() + " not modified, " + standIn.getInjectedFaultCount() + " injected faults");
+		}
+		finally {
+			provider.close();
+			standIn.stop();
+		}
+	}
+
+	static private int integer(Properties settings, String key) {
+		return Integer.parseInt(settings.getProperty(key));
+	}
+
+	static private Terremark connect(TerremarkStandIn standIn, Properties settings) throws Exception {
+		ProviderContext ctx = new ProviderContext("synthetic", SyntheticInventory.ENVIRONMENT_ID);
+		Terremark provider = new Terremark();
+
+		ctx.setEndpoint(standIn.getEndpoint());
+		ctx.setAccessKeys("synthetic-access-key".getBytes("utf-8"), "synthetic-secret-key".getBytes("utf-8"));
+		ctx.setCustomProperties(settings);
+		provider.connect(ctx);
+		return provider;
+	}
+
+	static private void runSweep(Terremark provider) {
+		Workload[] sweep = {
+			new Workload("listRegions") {
+				void run(Terremark p, Random r) throws Exception {
+					p.getDataCenterServices().listRegions();
+				}
+			},
+			new Workload("listDataCenters") {
+				void run(Terremark p, Random r) throws Exception {
+					p.getDataCenterServices().listDataCenters(SyntheticInventory.ENVIRONMENT_ID);
+				}
+			},
+			new Workload("listVirtualMachineStatus") {
+				void run(Terremark p, Random r) throws Exception {
+					p.getComputeServices().getVirtualMachineSupport().listVirtualMachineStatus();
+				}
+			},
+			new Workload("listVirtualMachines") {
+				void run(Terremark p, Random r) throws Exception {
+					p.getComputeServices().getVirtualMachineSupport().listVirtualMachines();
+				}
+			},
+			new Workload("listVlans") {
+				void run(Terremark p, Random r) throws Exception {
+					p.getNetworkServices().getVlanSupport().listVlans();
+				}
+			},
+			new Workload("listIpPool") {
+				void run(Terremark p, Random r) throws Exception {
+					p.getNetworkServices().getIpAddressSupport().listIpPool(IPVersion.IPV4, true);
+				}
+			},
+			new Workload("listPublicIpPool") {
+				void run(Terremark p, Random r) throws Exception {
+					p.getNetworkServices().getIpAddressSupport().listPublicIpPool(false);
+				}
+			},
+			new Workload("getFirewallRules") {
+				void run(Terremark p, Random r) throws Exception {
+					p.getNetworkServices().getFirewallSupport().getRules(SyntheticInventory.ENVIRONMENT_ID);
+				}
+			},
+			new Workload("listVolumes") {
+				void run(Terremark p, Random r) throws Exception {
+					p.getComputeServices().getVolumeSupport().listVolumes();
+				}
+			},
+			new Workload("listImages") {
+				void run(Terremark p, Random r) throws Exception {
+					p.getComputeServices().getImageSupport().listImages((ImageFilterOptions)null);
+				}
+			}
+		};
+		Random random = new Random(1L);
+		long start = System.currentTimeMillis();
+
+		System.out.println();
+		System.out.println("Sweep:");
+		System.out.println(header());
+		for( Workload workload : sweep ) {
+			workload.time(provider, random);
+			System.out.println(workload.report(0L));
+		}
+		System.out.println("Sweep took " + (System.currentTimeMillis() - start) + " ms");
+	}
+
+	static private void runMixed(final Terremark provider, int threads, final long duration) throws Exception {
+		final int vms = Math.max(1, countVirtualMachines(provider));
+		final Workload[] mix = {
+			new Workload("getVirtualMachine") {
+				void run(Terremark p, Random r) throws Exception {
+					p.getComputeServices().getVirtualMachineSupport().getVirtualMachine(String.valueOf(1 + r.nextInt(vms)));
+				}
+			},
+			new Workload("listVirtualMachineStatus") {
+				void run(Terremark p, Random r) throws Exception {
+					p.getComputeServices().getVirtualMachineSupport().listVirtualMachineStatus();
+				}
+			},
+			new Workload("getNetworkInterface") {
+				void run(Terremark p, Random r) throws Exception {
+					p.getNetworkServices().getVlanSupport().getNetworkInterface(String.valueOf(1 + r.nextInt(vms)));
+				}
+			},
+			new Workload("listVlans") {
+				void run(Terremark p, Random r) throws Exception {
+					p.getNetworkServices().getVlanSupport().listVlans();
+				}
+			},
+			new Workload("listPublicIpPool") {
+				void run(Terremark p, Random r) throws Exception {
+					p.getNetworkServices().getIpAddressSupport().listPublicIpPool(false);
+				}
+			},
+			new Workload("listDataCenters") {
+				void run(Terremark p, Random r) throws Exception {
+					p.getDataCenterServices().listDataCenters(SyntheticInventory.ENVIRONMENT_ID);
+				}
+			}
+		};
+		ExecutorService workers = Executors.newFixedThreadPool(threads);
+		List<Future<Void>> results = new ArrayList<Future<Void>>();
+		final long end = System.currentTimeMillis() + duration;
+		long start = System.currentTimeMillis();
+
+		for( int i=0; i<threads; i++ ) {
+			final Random random = new Random(i);
+
+			results.add(workers.submit(new Callable<Void>() {
+				@Override
+				public Void call() {
+					while( System.currentTimeMillis() < end ) {
+						mix[random.nextInt(mix.length)].time(provider, random);
+					}
+					return null;
+				}
+			}));
+		}
+		for( Future<Void> result : results ) {
+			result.get();
+		}
+		workers.shutdown();
+		long wall = System.currentTimeMillis() - start;
+
+		System.out.println();
+		System.out.println("Mixed, " + threads + " threads for " + wall + " ms:");
+		System.out.println(header());
+		for( Workload workload : mix ) {
+			System.out.println(workload.report(wall));
+		}
+	}
+
+	static private int countVirtualMachines(Terremark provider) throws Exception {
+		return provider.getDataCenterServices().listVirtualMachineIds(SyntheticInventory.ENVIRONMENT_ID).size();
+	}
+
+	static private void runPowerCycles(final Terremark provider, int count) throws Exception {
+		final Recorder stop = new Recorder("stop");
+		final Recorder start = new Recorder("start");
+		ExecutorService workers = Executors.newFixedThreadPool(count);
+		List<Future<Void>> results = new ArrayList<Future<Void>>();
+		long begin = System.currentTimeMillis();
+
+		for( int i=1; i<=count; i++ ) {
+			final String vmId = String.valueOf(i);
+
+			results.add(workers.submit(new Callable<Void>() {
+				@Override
+				public Void call() {
+					final VirtualMachineSupport support = provider.getComputeServices().getVirtualMachineSupport();
+
+					stop.measure(new Callable<Void>() {
+						@Override
+						public Void call() throws Exception {
+							if( support.getVirtualMachine(vmId).getCurrentState().equals(VmState.RUNNING) ) {
+								support.stop(vmId, false);
+							}
+							return null;
+						}
+					});
+					start.measure(new Callable<Void>() {
+						@Override
+						public Void call() throws Exception {
+							support.start(vmId);
+							return null;
+						}
+					});
+					return null;
+				}
+			}));
+		}
+		for( Future<Void> result : results ) {
+			result.get();
+		}
+		workers.shutdown();
+		long wall = System.currentTimeMillis() - begin;
+
+		System.out.println();
+		System.out.println("Power cycles of " + count + " VMs in " + wall + " ms:");
+		System.out.println(header());
+		System.out.println(stop.report(wall));
+		System.out.println(start.report(wall));
+	}
+}
@@ -0,0 +1,445 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.terremark.standin;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.dasein.cloud.terremark.compute.VMSupport;
+
+/**
+ * A deterministic, generated Terremark account: one organization with a single environment holding a configurable
+ * number of compute pools, virtual machines, networks, public IPs, detached disks, and catalog entries. The
+ * inventory is what {@link TerremarkStandIn} serves; power actions and deletes change it, and every change is
+ * tracked by a task that completes after a configurable delay, so the driver's task polling sees the same
+ * Queued/Running/Complete progression it would see against the real API.
+ */
+public class SyntheticInventory {
+	static public final String ORGANIZATION_ID = "1";
+	static public final String ENVIRONMENT_ID  = "1";
+	static public final String LOCATION_ID     = "1";
+
+	/**
+	 * The first host address handed out on every network; lower addresses are left for gateways.
+	 */
+	static public final int FIRST_HOST = 10;
+
+	static private final String[] OPERATING_SYSTEMS = {
+		"CentOS 6 (64-bit)", "Red Hat Enterprise Linux 6 (64-bit)", "Ubuntu Linux (64-bit)", "Windows Server 2008 R2 Standard (64-bit)"
+	};
+
+	public class VirtualMachine {
+		private final int     id;
+		private final int     computePoolId;
+		private final int     networkId;
+		private final int     host;
+		private final int     cpuCount;
+		private final int     memoryInMb;
+		private final int[]   diskSizesInGb;
+		private final int     templateId;
+		private final long    created;
+		private volatile boolean poweredOn;
+		private volatile Task    pendingTask;
+
+		VirtualMachine(int id, Random random) {
+			this.id = id;
+			computePoolId = (id % computePoolCount) + 1;
+			networkId = (id % networkCount) + 1;
+			int h = FIRST_HOST + ((id - 1) / networkCount);
+			host = (h < 255 ? h : -1);
+			cpuCount = 1 << random.nextInt(3);
+			memoryInMb = 1024 << random.nextInt(4);
+			diskSizesInGb = new int[1 + random.nextInt(3)];
+			for( int i=0; i<diskSizesInGb.length; i++ ) {
+				diskSizesInGb[i] = (i == 0 ? 40 : 100 * (1 + random.nextInt(5)));
+			}
+			templateId = (id % templateCount) + 1;
+			created = epoch + (id * 60000L);
+			poweredOn = random.nextInt(10) != 0;
+		}
+
+		public int getId() {
+			return id;
+		}
+
+		public @Nonnull String getName() {
+			return "vm-" + id;
+		}
+
+		public int getComputePoolId() {
+			return computePoolId;
+		}
+
+		public int getNetworkId() {
+			return networkId;
+		}
+
+		/**
+		 * @return the address of this VM on its network, or <code>null</code> if the network is full
+		 */
+		public @Nullable String getAddress() {
+			return (host < 0 ? null : getNetworkPrefix(networkId) + host);
+		}
+
+		/**
+		 * @return true if the VM's address is reserved, which makes IP pool listings look up its network host
+		 */
+		public boolean isAddressReserved() {
+			return host >= 0 && id % 10 == 0;
+		}
+
+		public int getCpuCount() {
+			return cpuCount;
+		}
+
+		public int getMemoryInMb() {
+			return memoryInMb;
+		}
+
+		public @Nonnull int[] getDiskSizesInGb() {
+			return diskSizesInGb;
+		}
+
+		public int getTemplateId() {
+			return templateId;
+		}
+
+		public @Nonnull String getOperatingSystem() {
+			return OPERATING_SYSTEMS[templateId % OPERATING_SYSTEMS.length];
+		}
+
+		public long getCreated() {
+			return created;
+		}
+
+		public boolean isPoweredOn() {
+			return poweredOn;
+		}
+
+		/**
+		 * @return <code>TaskInProgress</code> while a task changes this VM, <code>Deployed</code> otherwise
+		 */
+		public @Nonnull String getStatus() {
+			Task task = pendingTask;
+
+			if( task != null && !task.isFinished() ) {
+				return "TaskInProgress";
+			}
+			return "Deployed";
+		}
+	}
+
+	public class Task {
+		private final int    id;
+		private final String operation;
+		private final int    virtualMachineId;
+		private final long   started;
+		private final long   duration;
+		private final boolean failing;
+
+		Task(int id, String operation, int virtualMachineId, long duration, boolean failing) {
+			this.id = id;
+			this.operation = operation;
+			this.virtualMachineId = virtualMachineId;
+			this.started = System.currentTimeMillis();
+			this.duration = duration;
+			this.failing = failing;
+		}
+
+		/**
+		 * @return the time at which the task finishes or finished
+		 */
+		public long getCompleted() {
+			return started + duration;
+		}
+
+		public int getId() {
+			return id;
+		}
+
+		public @Nonnull String getOperation() {
+			return operation;
+		}
+
+		public int getVirtualMachineId() {
+			return virtualMachineId;
+		}
+
+		public long getStarted() {
+			return started;
+		}
+
+		public boolean isFinished() {
+			return System.currentTimeMillis() - started >= duration;
+		}
+
+		/**
+		 * @return the task status as Terremark reports it: Queued for the first tenth of its duration, then Running,
+		 * then Complete or Error
+		 */
+		public @Nonnull String getStatus() {
+			long elapsed = System.currentTimeMillis() - started;
+
+			if( elapsed >= duration ) {
+				return (failing ? "Error" : "Complete");
+			}
+			return (elapsed < duration / 10 ? "Queued" : "Running");
+		}
+	}
+
+	private final int  computePoolCount;
+	private final int  networkCount;
+	private final int  publicIpCount;
+	private final int  detachedDiskCount;
+	private final int  catalogEntryCount;
+	private final int  templateCount;
+	private final long epoch;
+
+	private final ConcurrentSkipListMap<Integer,VirtualMachine> virtualMachines = new ConcurrentSkipListMap<Integer,VirtualMachine>();
+	private final ConcurrentHashMap<Integer,Task>               tasks           = new ConcurrentHashMap<Integer,Task>();
+	private final AtomicInteger                                 nextTaskId      = new AtomicInteger(1);
+	private final AtomicInteger                                 nextVirtualMachineId = new AtomicInteger(1);
+	private final Random                                        taskRandom      = new Random(7L);
+
+	private volatile long   taskDuration = 2000L;
+	private volatile double taskDurationSpread;
+	private volatile double taskFailureRate;
+
+	/**
+	 * Generates an inventory. The same sizes always produce the same inventory.
+	 * @param virtualMachineCount the number of VMs in the environment
+	 * @param networkCount the number of /24 networks the VMs are spread across
+	 * @param computePoolCount the number of compute pools the VMs are spread across
+	 * @param publicIpCount the number of public IPs, every fourth of which carries an internet service
+	 * @param detachedDiskCount the number of detached disks spread across the compute pools
+	 * @param catalogEntryCount the number of catalog entries
+	 */
+	public SyntheticInventory(int virtualMachineCount, int networkCount, int computePoolCount, int publicIpCount, int detachedDiskCount, int catalogEntryCount) {
+		this.networkCount = Math.max(1, networkCount);
+		this.computePoolCount = Math.max(1, computePoolCount);
+		this.publicIpCount = publicIpCount;
+		this.detachedDiskCount = detachedDiskCount;
+		this.catalogEntryCount = catalogEntryCount;
+		this.templateCount = 8;
+		this.epoch = 1356998400000L; // 2013-01-01T00:00:00Z
+
+		Random random = new Random(virtualMachineCount);
+
+		for( int i=1; i<=virtualMachineCount; i++ ) {
+			virtualMachines.put(i, new VirtualMachine(i, random));
+		}
+		nextVirtualMachineId.set(virtualMachineCount + 1);
+	}
+
+	public int getComputePoolCount() {
+		return computePoolCount;
+	}
+
+	public int getNetworkCount() {
+		return networkCount;
+	}
+
+	public int getPublicIpCount() {
+		return publicIpCount;
+	}
+
+	public int getDetachedDiskCount() {
+		return detachedDiskCount;
+	}
+
+	public int getCatalogEntryCount() {
+		return catalogEntryCount;
+	}
+
+	public int getTemplateCount() {
+		return templateCount;
+	}
+
+	public long getEpoch() {
+		return epoch;
+	}
+
+	/**
+	 * @param networkId a network ID
+	 * @return the first three octets of the network's /24, including the trailing dot
+	 */
+	public @Nonnull String getNetworkPrefix(int networkId) {
+		return "10." + ((networkId - 1) / 256) + "." + ((networkId - 1) % 256) + ".";
+	}
+
+	/**
+	 * @param publicIpId a public IP ID
+	 * @return the address, taken from the 198.18.0.0/15 benchmarking range
+	 */
+	public @Nonnull String getPublicAddress(int publicIpId) {
+		return "198." + (18 + (publicIpId / 65536)) + "." + ((publicIpId / 256) % 256) + "." + (publicIpId % 256);
+	}
+
+	public @Nonnull Collection<VirtualMachine> getVirtualMachines() {
+		return virtualMachines.values();
+	}
+
+	public @Nullable VirtualMachine getVirtualMachine(int id) {
+		return virtualMachines.get(id);
+	}
+
+	/**
+	 * Finds the VM holding a host address on a network.
+	 * @param networkId the network
+	 * @param host the last octet of the address
+	 * @return the VM or <code>null</code> if the address is free
+	 */
+	public @Nullable VirtualMachine getVirtualMachine(int networkId, int host) {
+		if( host < FIRST_HOST || networkId < 1 || networkId > networkCount ) {
+			return null;
+		}
+		int id = ((host - FIRST_HOST) * networkCount) + (networkId == 1 ? networkCount : networkId - 1);
+		VirtualMachine vm = virtualMachines.get(id);
+
+		if( vm == null || vm.host != host ) {
+			return null;
+		}
+		return vm;
+	}
+
+	public @Nullable Task getTask(int id) {
+		return tasks.get(id);
+	}
+
+	/**
+	 * @param max the most tasks to return
+	 * @return the most recently started tasks, newest first
+	 */
+	public @Nonnull List<Task> getRecentTasks(int max) {
+		ArrayList<Task> recent = new ArrayList<Task>();
+		int last = nextTaskId.get() - 1;
+
+		for( int id=last; id>0 && recent.size()<max; id-- ) {
+			Task task = tasks.get(id);
+
+			if( task != null ) {
+				recent.add(task);
+			}
+		}
+		return recent;
+	}
+
+	public long getTaskDuration() {
+		return taskDuration;
+	}
+
+	/**
+	 * @param taskDuration the number of milliseconds a task takes to complete
+	 */
+	public void setTaskDuration(long taskDuration) {
+		this.taskDuration = taskDuration;
+	}
+
+	public double getTaskDurationSpread() {
+		return taskDurationSpread;
+	}
+
+	/**
+	 * @param taskDurationSpread the fraction, between 0 and 1, by which a task's duration may randomly fall short of
+	 * or exceed the task duration
+	 */
+	public void setTaskDurationSpread(double taskDurationSpread) {
+		this.taskDurationSpread = taskDurationSpread;
+	}
+
+	public double getTaskFailureRate() {
+		return taskFailureRate;
+	}
+
+	/**
+	 * @param taskFailureRate the fraction of tasks, between 0 and 1, that end in Error
+	 */
+	public void setTaskFailureRate(double taskFailureRate) {
+		this.taskFailureRate = taskFailureRate;
+	}
+
+	/**
+	 * Applies a power action to a VM. The VM's power state changes immediately and it reports
+	 * <code>TaskInProgress</code> until the returned task finishes.
+	 * @param vm the VM
+	 * @param operation one of the {@link VMSupport} power operation names
+	 * @return the task tracking the change
+	 */
+	public @Nonnull Task power(@Nonnull VirtualMachine vm, @Nonnull String operation) {
+		Task task = newTask(operation, vm.getId());
+
+		if( operation.equals(VMSupport.POWER_ON_OPERATION) || operation.equals(VMSupport.REBOOT_OPERATION) ) {
+			vm.poweredOn = true;
+		}
+		else {
+			vm.poweredOn = false;
+		}
+		vm.pendingTask = task;
+		return task;
+	}
+
+	/**
+	 * Adds a VM to the inventory as though it had been created from a template and powered on. It reports
+	 * <code>TaskInProgress</code> until the returned task finishes.
+	 * @return the task tracking the creation
+	 */
+	public @Nonnull Task create() {
+		int id = nextVirtualMachineId.getAndIncrement();
+		VirtualMachine vm = new VirtualMachine(id, new Random(id));
+		Task task = newTask(VMSupport.CREATE_SERVER_OPERATION, id);
+
+		vm.poweredOn = true;
+		vm.pendingTask = task;
+		virtualMachines.put(id, vm);
+		return task;
+	}
+
+	/**
+	 * Removes a VM from the inventory.
+	 * @param vm the VM
+	 * @return the task tracking the deletion
+	 */
+	public @Nonnull Task delete(@Nonnull VirtualMachine vm) {
+		virtualMachines.remove(vm.getId());
+		return newTask(VMSupport.DELETE_OPERATION, vm.getId());
+	}
+
+	private Task newTask(String operation, int virtualMachineId) {
+		boolean failing;
+		long duration;
+
+		synchronized( taskRandom ) {
+			failing = taskRandom.nextDouble() < taskFailureRate;
+			duration = (long)(taskDuration * (1.0 + taskDurationSpread * (2.0 * taskRandom.nextDouble() - 1.0)));
+		}
+		Task task = new Task(nextTaskId.getAndIncrement(), operation, virtualMachineId, duration, failing);
+
+		tasks.put(task.getId(), task);
+		return task;
+	}
+}
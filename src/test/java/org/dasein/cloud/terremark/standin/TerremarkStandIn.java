@@ -0,0 +1,1001 @@
+/**
+ * Copyright (C) 2009-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.terremark.standin;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import javax.annotation.Nonnull;
+
+import org.dasein.cloud.terremark.EnvironmentsAndComputePools;
+import org.dasein.cloud.terremark.Terremark;
+import org.dasein.cloud.terremark.compute.DiskSupport;
+import org.dasein.cloud.terremark.compute.Template;
+import org.dasein.cloud.terremark.compute.VMSupport;
+import org.dasein.cloud.terremark.identity.TerremarkKeypair;
+import org.dasein.cloud.terremark.network.TerremarkIpAddressSupport;
+import org.dasein.cloud.terremark.network.TerremarkNetworkSupport;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * An in-process stand-in for the Terremark eCloud API, serving a {@link SyntheticInventory} over HTTP so the
+ * driver's service classes can be run at scale without an account. Point a provider context's endpoint at
+ * {@link #getEndpoint()}; request signatures are required but not checked.
+ * <p>
+ * The stand-in answers the calls the driver makes to list and read environments, compute pools, virtual machines,
+ * layouts, networks, network hosts, public IPs, internet services, firewall ACLs, detached disks, templates, the
+ * catalog, SSH keys, and tasks (singly, or the most recent page of them by environment), and accepts VM creation from
+ * a template, the VM power actions, and deletes. Documents are shaped the way the driver's parsers walk them. GET responses carry an <code>ETag</code> and honor <code>If-None-Match</code>, and bodies are gzipped
+ * when the client accepts it. Every request can be delayed by a fixed latency plus random jitter, and a fraction
+ * of requests can be failed with 503 Service Unavailable (with <code>Retry-After</code>) or 500 Internal Server Error.
+ * </p>
+ */
+public class TerremarkStandIn {
+	static private final String ROOT         = "/cloudapi/ecloud";
+	static private final String XML          = "application/xml";
+	static private final String PUBLIC_IP_TYPE         = "application/vnd.tmrk.cloud.publicIp";
+	static private final String INTERNET_SERVICE_TYPE  = "application/vnd.tmrk.cloud.internetService";
+	static private final String NODE_SERVICE_TYPE      = "application/vnd.tmrk.cloud.nodeService";
+	static private final String FIREWALL_ACL_TYPE      = "application/vnd.tmrk.cloud.firewallAcl";
+	static private final String CATALOG_ENTRY_TYPE     = "application/vnd.tmrk.cloud.admin.catalogEntry";
+	static private final String TASK_TYPE              = "application/vnd.tmrk.cloud.task";
+
+	// the environment task listing returns one page of the most recent tasks
+	static private final int    TASK_LIST_SIZE         = 100;
+	static private final int    MIN_COMPRESSED_LENGTH  = 512;
+
+	static {
+		// the JDK server writes headers and body separately; without this, Nagle's algorithm and delayed ACKs add ~40ms per response
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+	}
+
+	private final SyntheticInventory inventory;
+	private final HttpServer         server;
+	private final ExecutorService    executor;
+	private final Random             random = new Random(42L);
+
+	private volatile long   latency;
+	private volatile long   jitter;
+	private volatile int    hosts = 1;
+	private volatile int    slowHosts;
+	private volatile long   slowLatency;
+	private volatile double unavailableRate;
+	private volatile double errorRate;
+	private volatile int    retryAfter = 1;
+
+	private final AtomicLong requests      = new AtomicLong();
+	private final AtomicLong notModified   = new AtomicLong();
+	private final AtomicLong injectedFaults = new AtomicLong();
+
+	/**
+	 * Creates a stand-in on an ephemeral loopback port. Call {@link #start()} to begin serving.
+	 * @param inventory the inventory to serve
+	 * @param threads the number of requests handled at once
+	 * @throws IOException the port could not be bound
+	 */
+	public TerremarkStandIn(@Nonnull SyntheticInventory inventory, int threads) throws IOException {
+		this.inventory = inventory;
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 256);
+		executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "terremark-stand-in-" + count.incrementAndGet());
+
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		server.setExecutor(executor);
+		server.createContext(ROOT, new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				serve(exchange);
+			}
+		});
+	}
+
+	public void start() {
+		server.start();
+	}
+
+	public void stop() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	/**
+	 * @return the endpoint to configure in the provider context, without the <code>/cloudapi/ecloud</code> path
+	 */
+	public @Nonnull String getEndpoint() {
+		return "http://127.0.0.1:" + server.getAddress().getPort();
+	}
+
+	public @Nonnull SyntheticInventory getInventory() {
+		return inventory;
+	}
+
+	/**
+	 * Delays every response.
+	 * @param latency the fixed delay in milliseconds
+	 * @param jitter the maximum additional, uniformly distributed delay in milliseconds
+	 */
+	public void setLatency(long latency, long jitter) {
+		this.latency = latency;
+		this.jitter = jitter;
+	}
+
+	/**
+	 * Spreads requests at random over several simulated backend nodes, each named in the
+	 * {@link Terremark#RESPONDING_HOST} header, some of which are slower than the rest.
+	 * @param hosts the number of backend nodes
+	 * @param slowHosts how many of those nodes are slow
+	 * @param slowLatency the delay in milliseconds a slow node adds to every response
+	 */
+	public void setHosts(int hosts, int slowHosts, long slowLatency) {
+		this.hosts = Math.max(1, hosts);
+		this.slowHosts = slowHosts;
+		this.slowLatency = slowLatency;
+	}
+
+	/**
+	 * Fails a fraction of requests before they reach the inventory.
+	 * @param unavailableRate the fraction of requests, between 0 and 1, answered with 503 Service Unavailable
+	 * @param errorRate the fraction of requests, between 0 and 1, answered with 500 Internal Server Error
+	 * @param retryAfter the <code>Retry-After</code> seconds sent with 503 responses
+	 */
+	public void setFaults(double unavailableRate, double errorRate, int retryAfter) {
+		this.unavailableRate = unavailableRate;
+		this.errorRate = errorRate;
+		this.retryAfter = retryAfter;
+	}
+
+	public long getRequestCount() {
+		return requests.get();
+	}
+
+	public long getNotModifiedCount() {
+		return notModified.get();
+	}
+
+	public long getInjectedFaultCount() {
+		return injectedFaults.get();
+	}
+
+	private void serve(HttpExchange exchange) throws IOException {
+		try {
+			requests.incrementAndGet();
+			drain(exchange.getRequestBody());
+
+			int host;
+
+			synchronized( random ) {
+				host = random.nextInt(hosts);
+			}
+			exchange.getResponseHeaders().set(Terremark.RESPONDING_HOST, "node-" + (host + 1));
+			delay(host < slowHosts ? slowLatency : 0L);
+
+			Headers requestHeaders = exchange.getRequestHeaders();
+
+			if( requestHeaders.getFirst(Terremark.TMRK_AUTHORIZATION) == null && requestHeaders.getFirst(Terremark.AUTHORIZATION) == null ) {
+				sendError(exchange, 401, "Unauthorized", "The request was not signed.");
+				return;
+			}
+			double roll;
+
+			synchronized( random ) {
+				roll = random.nextDouble();
+			}
+			if( roll < unavailableRate ) {
+				injectedFaults.incrementAndGet();
+				exchange.getResponseHeaders().set("Retry-After", String.valueOf(retryAfter));
+				sendError(exchange, 503, "ServiceUnavailable", "The service is temporarily overloaded.");
+				return;
+			}
+			if( roll < unavailableRate + errorRate ) {
+				injectedFaults.incrementAndGet();
+				sendError(exchange, 500, "InternalServerError", "An injected server error occurred.");
+				return;
+			}
+			String path = exchange.getRequestURI().getPath().substring(ROOT.length()).toLowerCase(Locale.ENGLISH);
+			String[] segments = split(path);
+			String method = exchange.getRequestMethod();
+			String body;
+
+			if( method.equals("GET") ) {
+				body = get(segments);
+			}
+			else if( method.equals("POST") || method.equals("DELETE") ) {
+				body = change(method, segments);
+			}
+			else {
+				sendError(exchange, 405, "MethodNotAllowed", method + " is not supported.");
+				return;
+			}
+			if( body == null ) {
+				sendError(exchange, 404, "ResourceNotFound", "No resource at " + path);
+				return;
+			}
+			send(exchange, method.equals("GET") ? 200 : 202, body);
+		}
+		catch( RuntimeException e ) {
+			sendError(exchange, 500, "InternalServerError", String.valueOf(e));
+		}
+		finally {
+			exchange.close();
+		}
+	}
+
+	private String get(String[] s) {
+		if( matches(s, "organizations") ) {
+			return organizations();
+		}
+		if( matches(s, "environments", "organizations", null) ) {
+			return environments();
+		}
+		if( matches(s, "locations", null) ) {
+			return location();
+		}
+		if( matches(s, "environments", null) ) {
+			return environment();
+		}
+		if( matches(s, "computepools", "environments", null) ) {
+			return computePools();
+		}
+		if( matches(s, "computepools", null) ) {
+			int id = id(s[1]);
+			return (id >= 1 && id <= inventory.getComputePoolCount() ? computePool(new Xml(), id).toString() : null);
+		}
+		if( matches(s, "virtualmachines", null) ) {
+			SyntheticInventory.VirtualMachine vm = inventory.getVirtualMachine(id(s[1]));
+			return (vm == null ? null : virtualMachine(vm));
+		}
+		if( matches(s, "layout", "environments", null) ) {
+			return layout();
+		}
+		if( matches(s, "networks", "environments", null) ) {
+			return networks();
+		}
+		if( matches(s, "networks", null) ) {
+			int id = id(s[1]);
+			return (id >= 1 && id <= inventory.getNetworkCount() ? network(id) : null);
+		}
+		if( matches(s, "networkhosts", null) ) {
+			SyntheticInventory.VirtualMachine vm = inventory.getVirtualMachine(id(s[1]));
+			return (vm == null || vm.getAddress() == null ? null : networkHost(vm));
+		}
+		if( matches(s, "publicips", "environments", null) ) {
+			return publicIps();
+		}
+		if( matches(s, "publicips", null) ) {
+			int id = id(s[1]);
+			return (id >= 1 && id <= inventory.getPublicIpCount() ? publicIp(id) : null);
+		}
+		if( matches(s, "internetservices", null) ) {
+			int id = id(s[1]);
+			return (id >= 1 && id <= inventory.getPublicIpCount() && id % 4 == 0 ? internetService(new Xml(), id).toString() : null);
+		}
+		if( matches(s, "firewallacls", "environments", null) ) {
+			return firewallAcls();
+		}
+		if( matches(s, "firewallacls", null) ) {
+			int id = id(s[1]);
+			return (id >= 1 && id <= inventory.getNetworkCount() ? firewallAcl(new Xml(), id).toString() : null);
+		}
+		if( matches(s, "detacheddisks", "computepools", null) ) {
+			return detachedDisks(id(s[2]));
+		}
+		if( matches(s, "detacheddisks", null) ) {
+			int id = id(s[1]);
+			return (id >= 1 && id <= inventory.getDetachedDiskCount() ? detachedDisk(new Xml(), id).toString() : null);
+		}
+		if( matches(s, "templates", "computepools", null) ) {
+			return templates(id(s[2]));
+		}
+		if( matches(s, "templates", null, "computepools", null) ) {
+			int id = id(s[1]);
+			return (id >= 1 && id <= inventory.getTemplateCount() ? template(id, id(s[3])) : null);
+		}
+		if( matches(s, "admin", "catalog", "organizations", null, "locations", null) ) {
+			return catalog();
+		}
+		if( matches(s, "admin", "catalog", null, "configuration") ) {
+			int id = id(s[2]);
+			return (id >= 1 && id <= inventory.getCatalogEntryCount() ? catalogConfiguration(id) : null);
+		}
+		if( matches(s, "admin", "catalog", null) ) {
+			int id = id(s[2]);
+			return (id >= 1 && id <= inventory.getCatalogEntryCount() ? catalogEntry(new Xml(), id).toString() : null);
+		}
+		if( matches(s, "tasks", "environments", null) ) {
+			return tasks();
+		}
+		if( matches(s, "admin", "sshkeys", "organizations", null) ) {
+			return sshKeys();
+		}
+		if( matches(s, "tasks", null) ) {
+			SyntheticInventory.Task task = inventory.getTask(id(s[1]));
+			return (task == null ? null : task(new Xml(), task).toString());
+		}
+		return null;
+	}
+
+	private String change(String method, String[] s) {
+		if( method.equals("POST") && matches(s, "virtualmachines", "computepools", null, "action", "createvirtualmachine") ) {
+			int poolId = id(s[2]);
+
+			if( poolId < 1 || poolId > inventory.getComputePoolCount() ) {
+				return null;
+			}
+			SyntheticInventory.Task task = inventory.create();
+			SyntheticInventory.VirtualMachine vm = inventory.getVirtualMachine(task.getVirtualMachineId());
+			Xml x = new Xml();
+
+			x.start("VirtualMachine", "href", ROOT + "/virtualmachines/" + vm.getId(), "name", vm.getName(), "type", VMSupport.VIRTUAL_MACHINE_TYPE);
+			x.start("Tasks");
+			task(x, task);
+			x.end("Tasks");
+			return x.end("VirtualMachine").toString();
+		}
+		if( method.equals("POST") && matches(s, "virtualmachines", null, "action", null) ) {
+			SyntheticInventory.VirtualMachine vm = inventory.getVirtualMachine(id(s[1]));
+			String operation;
+
+			if( vm == null ) {
+				return null;
+			}
+			if( s[3].equals("poweron") ) {
+				operation = VMSupport.POWER_ON_OPERATION;
+			}
+			else if( s[3].equals("poweroff") ) {
+				operation = VMSupport.POWER_OFF_OPERATION;
+			}
+			else if( s[3].equals("shutdown") ) {
+				operation = VMSupport.SHUTDOWN_OPERATION;
+			}
+			else if( s[3].equals("reboot") ) {
+				operation = VMSupport.REBOOT_OPERATION;
+			}
+			else {
+				return null;
+			}
+			return task(new Xml(), inventory.power(vm, operation)).toString();
+		}
+		if( method.equals("DELETE") && matches(s, "virtualmachines", null) ) {
+			SyntheticInventory.VirtualMachine vm = inventory.getVirtualMachine(id(s[1]));
+			return (vm == null ? null : task(new Xml(), inventory.delete(vm)).toString());
+		}
+		return null;
+	}
+
+	private String organizations() {
+		Xml x = new Xml();
+
+		x.start("Organizations", "href", ROOT + "/organizations/", "type", "application/vnd.tmrk.cloud.organization; type=collection");
+		x.empty("Organization", "href", ROOT + "/organizations/" + SyntheticInventory.ORGANIZATION_ID, "name", "Synthetic Organization", "type", "application/vnd.tmrk.cloud.organization");
+		return x.end("Organizations").toString();
+	}
+
+	private String environments() {
+		Xml x = new Xml();
+
+		x.start("Environments", "href", ROOT + "/environments/organizations/" + SyntheticInventory.ORGANIZATION_ID);
+		x.start("Environment", "href", ROOT + "/environments/" + SyntheticInventory.ENVIRONMENT_ID, "name", "Synthetic Environment", "type", "application/vnd.tmrk.cloud.environment");
+		links(x);
+		x.end("Environment");
+		return x.end("Environments").toString();
+	}
+
+	private void links(Xml x) {
+		x.start("Links");
+		x.empty("Link", "href", ROOT + "/locations/" + SyntheticInventory.LOCATION_ID, "name", "Miami", "rel", "up", "type", EnvironmentsAndComputePools.LOCATION_TYPE);
+		x.empty("Link", "href", ROOT + "/organizations/" + SyntheticInventory.ORGANIZATION_ID, "name", "Synthetic Organization", "rel", "up", "type", "application/vnd.tmrk.cloud.organization");
+		x.end("Links");
+	}
+
+	private String location() {
+		Xml x = new Xml();
+
+		x.start("Location", "href", ROOT + "/locations/" + SyntheticInventory.LOCATION_ID, "name", "Miami", "type", "application/vnd.tmrk.cloud.location");
+		x.text("ISO3166", "US/Florida");
+		return x.end("Location").toString();
+	}
+
+	private String environment() {
+		Xml x = new Xml();
+
+		x.start("Environment", "href", ROOT + "/environments/" + SyntheticInventory.ENVIRONMENT_ID, "name", "Synthetic Environment", "type", "application/vnd.tmrk.cloud.environment");
+		links(x);
+		x.start("ComputePools");
+		for( int p=1; p<=inventory.getComputePoolCount(); p++ ) {
+			x.start("ComputePool", "href", ROOT + "/computepools/" + p, "name", "Pool " + p, "type", EnvironmentsAndComputePools.COMPUTE_POOL_TYPE);
+			x.start("VirtualMachines");
+			for( SyntheticInventory.VirtualMachine vm : inventory.getVirtualMachines() ) {
+				if( vm.getComputePoolId() == p ) {
+					// the driver reads Status as the first child and PoweredOn as the next to last
+					x.start("VirtualMachine", "href", ROOT + "/virtualmachines/" + vm.getId(), "name", vm.getName(), "type", VMSupport.VIRTUAL_MACHINE_TYPE);
+					x.text("Status", vm.getStatus());
+					x.text("PoweredOn", String.valueOf(vm.isPoweredOn()));
+					x.text("ToolsStatus", "Current");
+					x.end("VirtualMachine");
+				}
+			}
+			x.end("VirtualMachines");
+			x.end("ComputePool");
+		}
+		x.end("ComputePools");
+		return x.end("Environment").toString();
+	}
+
+	private String computePools() {
+		Xml x = new Xml();
+
+		x.start("ComputePools", "href", ROOT + "/computepools/environments/" + SyntheticInventory.ENVIRONMENT_ID);
+		for( int p=1; p<=inventory.getComputePoolCount(); p++ ) {
+			computePool(x, p);
+		}
+		return x.end("ComputePools").toString();
+	}
+
+	private Xml computePool(Xml x, int id) {
+		x.start("ComputePool", "href", ROOT + "/computepools/" + id, "name", "Pool " + id, "type", EnvironmentsAndComputePools.COMPUTE_POOL_TYPE);
+		x.text("State", "Enabled");
+		return x.end("ComputePool");
+	}
+
+	private String virtualMachine(SyntheticInventory.VirtualMachine vm) {
+		Xml x = new Xml();
+		String address = vm.getAddress();
+		int networkId = vm.getNetworkId();
+
+		x.start("VirtualMachine", "href", ROOT + "/virtualmachines/" + vm.getId(), "name", vm.getName(), "type", VMSupport.VIRTUAL_MACHINE_TYPE);
+		x.start("Links");
+		x.empty("Link", "href", ROOT + "/computepools/" + vm.getComputePoolId(), "name", "Pool " + vm.getComputePoolId(), "rel", "up", "type", EnvironmentsAndComputePools.COMPUTE_POOL_TYPE);
+		x.end("Links");
+		x.start("Tasks");
+		x.start("Task", "href", ROOT + "/tasks/0", "type", TASK_TYPE);
+		x.text("Operation", VMSupport.CREATE_SERVER_OPERATION);
+		x.text("Status", Terremark.TASK_COMPLETE);
+		x.text("StartTime", isoDate(vm.getCreated()));
+		x.end("Task");
+		x.end("Tasks");
+		x.text("Description", "Synthetic virtual machine " + vm.getId());
+		x.start("Tags");
+		x.text("Tag", "/templates/" + vm.getTemplateId() + "/computepools/" + vm.getComputePoolId());
+		x.end("Tags");
+		x.text("Status", vm.getStatus());
+		x.text("PoweredOn", String.valueOf(vm.isPoweredOn()));
+		x.start("HardwareConfiguration");
+		x.text("ProcessorCount", String.valueOf(vm.getCpuCount()));
+		x.start("Memory");
+		x.text("Unit", "MB");
+		x.text("Value", String.valueOf(vm.getMemoryInMb()));
+		x.end("Memory");
+		x.start("Disks");
+		int[] disks = vm.getDiskSizesInGb();
+		for( int i=0; i<disks.length; i++ ) {
+			x.start(DiskSupport.DISK_TAG);
+			x.text("Index", String.valueOf(i));
+			x.text("Name", "Hard disk " + (i + 1));
+			x.start("Size");
+			x.text("Unit", "GB");
+			x.text("Value", String.valueOf(disks[i]));
+			x.end("Size");
+			x.end(DiskSupport.DISK_TAG);
+		}
+		x.end("Disks");
+		x.start("Nics");
+		x.start("Nic");
+		x.text("UnitNumber", "7");
+		x.empty("Network", "href", ROOT + "/networks/" + networkId, "name", networkName(networkId), "type", TerremarkNetworkSupport.NETWORK_TYPE);
+		x.end("Nic");
+		x.end("Nics");
+		x.end("HardwareConfiguration");
+		if( address != null ) {
+			x.start("IpAddresses");
+			x.start("AssignedIpAddresses");
+			x.start("Networks");
+			x.start("Network", "href", ROOT + "/networks/" + networkId, "name", networkName(networkId), "type", TerremarkNetworkSupport.NETWORK_TYPE);
+			x.start("IpAddresses");
+			x.text("IpAddress", address);
+			x.end("IpAddresses");
+			x.end("Network");
+			x.end("Networks");
+			x.end("AssignedIpAddresses");
+			x.end("IpAddresses");
+		}
+		x.empty("OperatingSystem", "href", ROOT + "/operatingsystems/" + vm.getTemplateId(), "name", vm.getOperatingSystem(), "type", "application/vnd.tmrk.cloud.operatingSystem");
+		return x.end("VirtualMachine").toString();
+	}
+
+	private String layout() {
+		Xml x = new Xml();
+
+		x.start("Layout", "href", ROOT + "/layout/environments/" + SyntheticInventory.ENVIRONMENT_ID);
+		x.start("Rows");
+		x.start("Row", "href", ROOT + "/layoutrows/1", "name", "Synthetic Row", "type", VMSupport.ROW_TYPE);
+		x.start("Groups");
+		for( int p=1; p<=inventory.getComputePoolCount(); p++ ) {
+			x.empty("Group", "href", ROOT + "/layoutgroups/" + p, "name", "Group " + p, "type", VMSupport.GROUP_TYPE);
+		}
+		x.end("Groups");
+		x.end("Row");
+		x.end("Rows");
+		return x.end("Layout").toString();
+	}
+
+	private String networkName(int networkId) {
+		return inventory.getNetworkPrefix(networkId) + "0/24";
+	}
+
+	private String networks() {
+		Xml x = new Xml();
+
+		x.start("Networks", "href", ROOT + "/networks/environments/" + SyntheticInventory.ENVIRONMENT_ID);
+		for( int n=1; n<=inventory.getNetworkCount(); n++ ) {
+			x.start(TerremarkNetworkSupport.NETWORK_TAG, "href", ROOT + "/networks/" + n, "name", networkName(n), "type", TerremarkNetworkSupport.NETWORK_TYPE);
+			x.text("NetworkType", "Dmz");
+			x.end(TerremarkNetworkSupport.NETWORK_TAG);
+		}
+		return x.end("Networks").toString();
+	}
+
+	private String network(int networkId) {
+		Xml x = new Xml();
+		String prefix = inventory.getNetworkPrefix(networkId);
+
+		x.start(TerremarkNetworkSupport.NETWORK_TAG, "href", ROOT + "/networks/" + networkId, "name", networkName(networkId), "type", TerremarkNetworkSupport.NETWORK_TYPE);
+		x.text("NetworkType", "Dmz");
+		x.start(TerremarkIpAddressSupport.IP_ADDRESSES_TAG);
+		for( int host=SyntheticInventory.FIRST_HOST; host<255; host++ ) {
+			SyntheticInventory.VirtualMachine vm = inventory.getVirtualMachine(networkId, host);
+			boolean reserved = (vm == null ? host % 16 == 0 : vm.isAddressReserved());
+
+			x.start(TerremarkIpAddressSupport.IP_ADDRESS_TAG, "href", ROOT + "/ipaddresses/networks/" + networkId + "/" + prefix + host, "name", prefix + host, "type", TerremarkIpAddressSupport.IP_ADDRESS_TYPE);
+			if( vm != null ) {
+				x.empty(TerremarkIpAddressSupport.HOST_TAG, "href", ROOT + "/networkhosts/" + vm.getId(), "name", vm.getName(), "type", TerremarkNetworkSupport.NETWORK_HOST_TYPE);
+			}
+			// the driver reads Reserved as the last child
+			x.text(TerremarkIpAddressSupport.RESERVED_TAG, String.valueOf(reserved));
+			x.end(TerremarkIpAddressSupport.IP_ADDRESS_TAG);
+		}
+		x.end(TerremarkIpAddressSupport.IP_ADDRESSES_TAG);
+		return x.end(TerremarkNetworkSupport.NETWORK_TAG).toString();
+	}
+
+	private String networkHost(SyntheticInventory.VirtualMachine vm) {
+		Xml x = new Xml();
+		int networkId = vm.getNetworkId();
+
+		x.start(TerremarkNetworkSupport.NETWORK_HOST_TAG, "href", ROOT + "/networkhosts/" + vm.getId(), "name", vm.getName(), "type", TerremarkNetworkSupport.NETWORK_HOST_TYPE);
+		x.empty("Device", "href", ROOT + "/virtualmachines/" + vm.getId(), "name", vm.getName(), "type", VMSupport.VIRTUAL_MACHINE_TYPE);
+		x.start(TerremarkNetworkSupport.NETWORKS_TAG);
+		x.start(TerremarkNetworkSupport.NETWORK_TAG, "href", ROOT + "/networks/" + networkId, "name", networkName(networkId), "type", TerremarkNetworkSupport.NETWORK_TYPE);
+		x.start(TerremarkIpAddressSupport.IP_ADDRESS_TAG);
+		x.empty(TerremarkIpAddressSupport.IP_ADDRESS_TAG, "href", ROOT + "/ipaddresses/networks/" + networkId + "/" + vm.getAddress(), "name", vm.getAddress(), "type", TerremarkIpAddressSupport.IP_ADDRESS_TYPE);
+		x.end(TerremarkIpAddressSupport.IP_ADDRESS_TAG);
+		x.end(TerremarkNetworkSupport.NETWORK_TAG);
+		x.end(TerremarkNetworkSupport.NETWORKS_TAG);
+		return x.end(TerremarkNetworkSupport.NETWORK_HOST_TAG).toString();
+	}
+
+	private String publicIps() {
+		Xml x = new Xml();
+
+		x.start("PublicIps", "href", ROOT + "/publicips/environments/" + SyntheticInventory.ENVIRONMENT_ID);
+		for( int i=1; i<=inventory.getPublicIpCount(); i++ ) {
+			x.empty(TerremarkIpAddressSupport.PUBLIC_IP_TAG, "href", ROOT + "/publicips/" + i, "name", inventory.getPublicAddress(i), "type", PUBLIC_IP_TYPE);
+		}
+		return x.end("PublicIps").toString();
+	}
+
+	private String publicIp(int id) {
+		Xml x = new Xml();
+
+		x.start(TerremarkIpAddressSupport.PUBLIC_IP_TAG, "href", ROOT + "/publicips/" + id, "name", inventory.getPublicAddress(id), "type", PUBLIC_IP_TYPE);
+		x.start("InternetServices");
+		if( id % 4 == 0 ) {
+			internetService(x, id);
+		}
+		x.end("InternetServices");
+		return x.end(TerremarkIpAddressSupport.PUBLIC_IP_TAG).toString();
+	}
+
+	private Xml internetService(Xml x, int publicIpId) {
+		x.start(TerremarkIpAddressSupport.INTERNET_SERVICE_TAG, "href", ROOT + "/internetservices/" + publicIpId, "name", "http-" + publicIpId, "type", INTERNET_SERVICE_TYPE);
+		x.text("Protocol", "TCP");
+		x.text("Port", "80");
+		x.text("Enabled", "true");
+		x.start("NodeServices");
+		SyntheticInventory.VirtualMachine vm = inventory.getVirtualMachine(publicIpId);
+		if( vm != null && vm.getAddress() != null ) {
+			x.start(TerremarkIpAddressSupport.NODE_SERVICE_TAG, "href", ROOT + "/nodeservices/" + publicIpId, "name", "web-" + publicIpId, "type", NODE_SERVICE_TYPE);
+			// the driver reads the network host as the last child of IpAddress
+			x.start(TerremarkIpAddressSupport.IP_ADDRESS_TAG, "href", ROOT + "/ipaddresses/networks/" + vm.getNetworkId() + "/" + vm.getAddress(), "name", vm.getAddress(), "type", TerremarkIpAddressSupport.IP_ADDRESS_TYPE);
+			x.empty(TerremarkIpAddressSupport.HOST_TAG, "href", ROOT + "/networkhosts/" + vm.getId(), "name", vm.getName(), "type", TerremarkNetworkSupport.NETWORK_HOST_TYPE);
+			x.end(TerremarkIpAddressSupport.IP_ADDRESS_TAG);
+			x.text("Protocol", "TCP");
+			x.text("Port", "8080");
+			x.text("Enabled", "true");
+			x.end(TerremarkIpAddressSupport.NODE_SERVICE_TAG);
+		}
+		x.end("NodeServices");
+		return x.end(TerremarkIpAddressSupport.INTERNET_SERVICE_TAG);
+	}
+
+	private String firewallAcls() {
+		Xml x = new Xml();
+
+		x.start("FirewallAcls", "href", ROOT + "/firewallacls/environments/" + SyntheticInventory.ENVIRONMENT_ID);
+		for( int n=1; n<=inventory.getNetworkCount(); n++ ) {
+			firewallAcl(x, n);
+		}
+		return x.end("FirewallAcls").toString();
+	}
+
+	private Xml firewallAcl(Xml x, int networkId) {
+		x.start("FirewallAcl", "href", ROOT + "/firewallacls/" + networkId, "type", FIREWALL_ACL_TYPE);
+		x.text("Permission", "allow");
+		x.text("Protocol", "TCP");
+		x.start("Source");
+		x.text("Type", "Any");
+		x.end("Source");
+		x.start("Destination");
+		x.text("Type", TerremarkNetworkSupport.NETWORK_TAG);
+		x.empty(TerremarkNetworkSupport.NETWORK_TAG, "href", ROOT + "/networks/" + networkId, "name", networkName(networkId), "type", TerremarkNetworkSupport.NETWORK_TYPE);
+		x.end("Destination");
+		x.start("PortRange");
+		x.text("Start", "443");
+		x.text("End", "443");
+		x.end("PortRange");
+		return x.end("FirewallAcl");
+	}
+
+	private String detachedDisks(int computePoolId) {
+		Xml x = new Xml();
+
+		x.start("DetachedDisks", "href", ROOT + "/detacheddisks/computepools/" + computePoolId);
+		for( int d=1; d<=inventory.getDetachedDiskCount(); d++ ) {
+			if( (d % inventory.getComputePoolCount()) + 1 == computePoolId ) {
+				detachedDisk(x, d);
+			}
+		}
+		return x.end("DetachedDisks").toString();
+	}
+
+	private Xml detachedDisk(Xml x, int id) {
+		x.start(DiskSupport.DETACHED_DISK_TAG, "href", ROOT + "/detacheddisks/" + id, "name", (inventory.getEpoch() + id * 1000L) + "-disk" + id, "type", DiskSupport.DETACHED_DISK_TYPE);
+		x.start("Size");
+		x.text("Unit", "GB");
+		x.text("Value", String.valueOf(50 * (1 + id % 8)));
+		x.end("Size");
+		x.text("Status", "Available");
+		return x.end(DiskSupport.DETACHED_DISK_TAG);
+	}
+
+	private String templates(int computePoolId) {
+		Xml x = new Xml();
+
+		x.start("Templates", "href", ROOT + "/templates/computepools/" + computePoolId);
+		x.start("Families");
+		x.start("Family");
+		x.text("Name", "Synthetic");
+		x.start("Categories");
+		x.start("Category", "name", "OS Only");
+		x.start("OperatingSystems");
+		for( int t=1; t<=inventory.getTemplateCount(); t++ ) {
+			x.start("OperatingSystem", "name", templateOperatingSystem(t));
+			x.start("Templates");
+			x.empty(Template.TEMPLATE_TAG, "href", ROOT + "/templates/" + t + "/computepools/" + computePoolId, "name", "Template " + t, "type", Template.TEMPLATE_TYPE);
+			x.end("Templates");
+			x.end("OperatingSystem");
+		}
+		x.end("OperatingSystems");
+		x.end("Category");
+		x.end("Categories");
+		x.end("Family");
+		x.end("Families");
+		return x.end("Templates").toString();
+	}
+
+	private String templateOperatingSystem(int templateId) {
+		SyntheticInventory.VirtualMachine vm = inventory.getVirtualMachine(templateId);
+		return (vm == null ? "CentOS 6 (64-bit)" : vm.getOperatingSystem());
+	}
+
+	private String template(int templateId, int computePoolId) {
+		Xml x = new Xml();
+
+		x.start(Template.TEMPLATE_TAG, "href", ROOT + "/templates/" + templateId + "/computepools/" + computePoolId, "name", "Template " + templateId, "type", Template.TEMPLATE_TYPE);
+		x.empty("OperatingSystem", "href", ROOT + "/operatingsystems/" + templateId, "name", templateOperatingSystem(templateId), "type", "application/vnd.tmrk.cloud.operatingSystem");
+		x.text("Description", "Synthetic template " + templateId);
+		x.start("Software");
+		x.text("Description", "VMware Tools");
+		x.end("Software");
+		return x.end(Template.TEMPLATE_TAG).toString();
+	}
+
+	private String catalog() {
+		Xml x = new Xml();
+
+		x.start("CatalogEntries", "href", ROOT + "/admin/catalog/organizations/" + SyntheticInventory.ORGANIZATION_ID + "/locations/" + SyntheticInventory.LOCATION_ID);
+		for( int c=1; c<=inventory.getCatalogEntryCount(); c++ ) {
+			catalogEntry(x, c);
+		}
+		return x.end("CatalogEntries").toString();
+	}
+
+	private Xml catalogEntry(Xml x, int id) {
+		x.start(Template.CATALOG_ENTRY_TAG, "href", ROOT + "/admin/catalog/" + id, "name", "Catalog image " + id, "type", CATALOG_ENTRY_TYPE);
+		x.text("Status", "Completed");
+		x.text("CatalogType", "Private");
+		return x.end(Template.CATALOG_ENTRY_TAG);
+	}
+
+	private String catalogConfiguration(int id) {
+		Xml x = new Xml();
+
+		x.start("CatalogConfiguration", "href", ROOT + "/admin/catalog/" + id + "/configuration");
+		x.text("OperatingSystem", templateOperatingSystem(id));
+		x.start("NetworkMappings");
+		x.start(Template.NETWORK_MAPPING_TAG);
+		// the driver reads the mapping name as the first child
+		x.text("Name", "Network adapter 1");
+		x.end(Template.NETWORK_MAPPING_TAG);
+		x.end("NetworkMappings");
+		return x.end("CatalogConfiguration").toString();
+	}
+
+	private String sshKeys() {
+		Xml x = new Xml();
+
+		x.start("SshKeys", "href", ROOT + "/admin/sshkeys/organizations/" + SyntheticInventory.ORGANIZATION_ID);
+		x.start(TerremarkKeypair.SSH_KEY_TAG, "href", ROOT + "/admin/sshkeys/1", "name", "default", "type", TerremarkKeypair.SSH_KEY_TYPE);
+		x.text("Default", "true");
+		x.text("FingerPrint", "00:11:22:33:44:55:66:77:88:99:aa:bb:cc:dd:ee:ff");
+		x.end(TerremarkKeypair.SSH_KEY_TAG);
+		return x.end("SshKeys").toString();
+	}
+
+	private String tasks() {
+		Xml x = new Xml();
+
+		x.start("Tasks", "href", ROOT + "/tasks/environments/" + SyntheticInventory.ENVIRONMENT_ID, "type", TASK_TYPE + "; type=collection");
+		for( SyntheticInventory.Task task : inventory.getRecentTasks(TASK_LIST_SIZE) ) {
+			task(x, task);
+		}
+		return x.end("Tasks").toString();
+	}
+
+	private Xml task(Xml x, SyntheticInventory.Task task) {
+		String status = task.getStatus();
+
+		x.start(Terremark.TASK_TAG, "href", ROOT + "/tasks/" + task.getId(), "type", TASK_TYPE);
+		x.text(Terremark.OPERATION_TAG, task.getOperation());
+		x.text(Terremark.STATUS_TAG, status);
+		x.empty("ImpactedItem", "href", ROOT + "/virtualmachines/" + task.getVirtualMachineId(), "type", VMSupport.VIRTUAL_MACHINE_TYPE);
+		x.text(Terremark.START_TIME_TAG, isoDate(task.getStarted()));
+		if( task.isFinished() ) {
+			x.text(Terremark.COMPLETED_TIME_TAG, isoDate(task.getCompleted()));
+		}
+		if( status.equals(Terremark.TASK_ERROR) ) {
+			x.text(Terremark.ERROR_MESSAGE_TAG, "An injected task failure occurred.");
+		}
+		return x.end(Terremark.TASK_TAG);
+	}
+
+	private void delay(long extra) {
+		long wait = latency + extra;
+
+		if( jitter > 0 ) {
+			synchronized( random ) {
+				wait += (long)(random.nextDouble() * jitter);
+			}
+		}
+		if( wait > 0 ) {
+			try {
+				Thread.sleep(wait);
+			}
+			catch( InterruptedException e ) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private void send(HttpExchange exchange, int status, String body) throws IOException {
+		byte[] bytes = body.getBytes("utf-8");
+		Headers headers = exchange.getResponseHeaders();
+
+		headers.set(Terremark.CONTENT_TYPE, XML);
+		if( status == 200 ) {
+			String etag = "\"" + Integer.toHexString(body.hashCode()) + "-" + Integer.toHexString(bytes.length) + "\"";
+
+			headers.set("ETag", etag);
+			if( etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match")) ) {
+				notModified.incrementAndGet();
+				exchange.sendResponseHeaders(304, -1);
+				return;
+			}
+		}
+		String encoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+
+		if( encoding != null && encoding.contains("gzip") && bytes.length >= MIN_COMPRESSED_LENGTH ) {
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.length / 4);
+			GZIPOutputStream out = new GZIPOutputStream(compressed);
+
+			out.write(bytes);
+			out.close();
+			bytes = compressed.toByteArray();
+			headers.set("Content-Encoding", "gzip");
+		}
+		exchange.sendResponseHeaders(status, bytes.length);
+		OutputStream out = exchange.getResponseBody();
+
+		out.write(bytes);
+		out.close();
+	}
+
+	private void sendError(HttpExchange exchange, int status, String code, String message) throws IOException {
+		Xml x = new Xml();
+
+		x.empty("Error", "majorErrorCode", String.valueOf(status), "message", message, "minorErrorCode", code);
+		byte[] bytes = x.toString().getBytes("utf-8");
+
+		exchange.getResponseHeaders().set(Terremark.CONTENT_TYPE, XML);
+		exchange.sendResponseHeaders(status, bytes.length);
+		OutputStream out = exchange.getResponseBody();
+
+		out.write(bytes);
+		out.close();
+	}
+
+	static private void drain(InputStream in) throws IOException {
+		byte[] buffer = new byte[4096];
+
+		while( in.read(buffer) != -1 ) {
+			// discard
+		}
+		in.close();
+	}
+
+	static private String[] split(String path) {
+		String trimmed = path;
+
+		while( trimmed.startsWith("/") ) {
+			trimmed = trimmed.substring(1);
+		}
+		while( trimmed.endsWith("/") ) {
+			trimmed = trimmed.substring(0, trimmed.length() - 1);
+		}
+		return (trimmed.length() == 0 ? new String[0] : trimmed.split("/"));
+	}
+
+	/**
+	 * @param segments the request path segments
+	 * @param pattern the expected segments, with <code>null</code> matching any single segment
+	 * @return true if the path has exactly the pattern's segments
+	 */
+	static private boolean matches(String[] segments, String ... pattern) {
+		if( segments.length != pattern.length ) {
+			return false;
+		}
+		for( int i=0; i<pattern.length; i++ ) {
+			if( pattern[i] != null && !pattern[i].equals(segments[i]) ) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	static private int id(String segment) {
+		try {
+			return Integer.parseInt(segment);
+		}
+		catch( NumberFormatException e ) {
+			return -1;
+		}
+	}
+
+	static private String isoDate(long timestamp) {
+		SimpleDateFormat format = new SimpleDateFormat(Terremark.ISO8601_PATTERN);
+
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		return format.format(new Date(timestamp));
+	}
+
+	/**
+	 * Writes compact XML, with no whitespace between elements, since the driver walks documents by first and
+	 * last child.
+	 */
+	static private final class Xml {
+		private final StringBuilder buffer = new StringBuilder(1024);
+
+		Xml start(String name, String ... attributes) {
+			open(name, attributes);
+			buffer.append('>');
+			return this;
+		}
+
+		Xml empty(String name, String ... attributes) {
+			open(name, attributes);
+			buffer.append("/>");
+			return this;
+		}
+
+		Xml text(String name, String value) {
+			buffer.append('<').append(name).append('>');
+			escape(value);
+			buffer.append("</").append(name).append('>');
+			return this;
+		}
+
+		Xml end(String name) {
+			buffer.append("</").append(name).append('>');
+			return this;
+		}
+
+		private void open(String name, String[] attributes) {
+			buffer.append('<').append(name);
+			for( int i=0; i<attributes.length; i+=2 ) {
+				buffer.append(' ').append(attributes[i]).append("=\"");
+				escape(attributes[i+1]);
+				buffer.append('"');
+			}
+		}
+
+		private void escape(String value) {
+			for( int i=0; i<value.length(); i++ ) {
+				char c = value.charAt(i);
+
+				switch( c ) {
+					case '<': buffer.append("&lt;"); break;
+					case '>': buffer.append("&gt;"); break;
+					case '&': buffer.append("&amp;"); break;
+					case '"': buffer.append("&quot;"); break;
+					default: buffer.append(c);
+				}
+			}
+		}
+
+		@Override
+		public String toString() {
+			return "<?xml version=\"1.0\" encoding=\"utf-8\"?>" + buffer;
+		}
+	}
+}